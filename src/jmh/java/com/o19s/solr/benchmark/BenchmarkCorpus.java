@@ -0,0 +1,222 @@
+package com.o19s.solr.benchmark;
+
+import com.o19s.solr.analysis.AdjacencyPairTokenFilterFactory;
+import com.o19s.solr.analysis.CapitalizationMarkerTokenFilterFactory;
+import com.o19s.solr.analysis.CapitalizationPayloadTokenFilterFactory;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.custom.CustomAnalyzer;
+import org.apache.lucene.codecs.Codec;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Generated corpus for the benchmarks: documents made of words drawn from a Zipf-like distribution over a
+ * synthetic vocabulary, some of them capitalized, indexed like the "text_general" field type of the demo schema.
+ */
+public class BenchmarkCorpus {
+
+    public static final String FIELD_NAME = "title";
+    private static final int VOCABULARY_SIZE = 50000;
+    private static final long SEED = 42L;
+    // Syllables keep the words clear of the proximity operators ([w|n]<number>) and of the stop words
+    private static final String[] SYLLABLES = {"ba", "ko", "ri", "su", "te", "la", "mo", "pi", "du", "ge"};
+
+    private final String[] vocabulary = new String[VOCABULARY_SIZE];
+    private final double[] cumulativeFrequencies = new double[VOCABULARY_SIZE];
+    private final Random random = new Random(SEED);
+
+    public BenchmarkCorpus() {
+        double sum = 0;
+        for (int rank = 0; rank < VOCABULARY_SIZE; rank++) {
+            vocabulary[rank] = word(rank);
+            sum += 1.0 / (rank + 1);
+            cumulativeFrequencies[rank] = sum;
+        }
+        for (int rank = 0; rank < VOCABULARY_SIZE; rank++) {
+            cumulativeFrequencies[rank] /= sum;
+        }
+    }
+
+    /**
+     * @param rank Rank of the word in the vocabulary (0 is the most frequent word).
+     * @return The word of the given rank (lower case).
+     */
+    public String word(int rank) {
+        StringBuilder word = new StringBuilder();
+        int value = rank;
+        do {
+            word.append(SYLLABLES[value % SYLLABLES.length]);
+            value /= SYLLABLES.length;
+        } while (value > 0);
+        return word.toString();
+    }
+
+    /**
+     * @return A word drawn from the Zipf-like distribution, possibly capitalized.
+     */
+    public String nextWord() {
+        int rank = Arrays.binarySearch(cumulativeFrequencies, random.nextDouble());
+        String word = vocabulary[rank < 0 ? -rank - 1 : rank];
+        double capitalization = random.nextDouble();
+        if (capitalization < 0.02) {
+            return word.toUpperCase();
+        } else if (capitalization < 0.12) {
+            return Character.toUpperCase(word.charAt(0)) + word.substring(1);
+        }
+        return word;
+    }
+
+    /**
+     * @param length Number of words.
+     * @return A generated text.
+     */
+    public String nextText(int length) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            if (i > 0) {
+                text.append(' ');
+            }
+            text.append(nextWord());
+        }
+        return text.toString();
+    }
+
+    /**
+     * @return The index-time analyzer: standard tokenizer, capitalization payloads, lower case.
+     */
+    public static Analyzer indexAnalyzer() throws IOException {
+        return CustomAnalyzer.builder()
+                .withTokenizer("standard")
+                .addTokenFilter(CapitalizationPayloadTokenFilterFactory.class)
+                .addTokenFilter("lowercase")
+                .build();
+    }
+
+    /**
+     * @param markersOnly Index the capitalization markers only (sibling field), or along with the tokens.
+     * @return An index-time analyzer with capitalization markers instead of payloads.
+     */
+    public static Analyzer markerIndexAnalyzer(boolean markersOnly) throws IOException {
+        return CustomAnalyzer.builder()
+                .withTokenizer("standard")
+                .addTokenFilter(CapitalizationMarkerTokenFilterFactory.class, "markersOnly", String.valueOf(markersOnly))
+                .addTokenFilter("lowercase")
+                .build();
+    }
+
+    /**
+     * @param maxDistance The largest proximity distance of the pairs
+     * @param unordered   Index the unordered pairs too
+     * @return An index-time analyzer of adjacency pairs (companion field).
+     */
+    public static Analyzer pairIndexAnalyzer(int maxDistance, boolean unordered) throws IOException {
+        return CustomAnalyzer.builder()
+                .withTokenizer("standard")
+                .addTokenFilter("lowercase")
+                .addTokenFilter(AdjacencyPairTokenFilterFactory.class, "maxDistance", String.valueOf(maxDistance),
+                        "unordered", String.valueOf(unordered))
+                .build();
+    }
+
+    /**
+     * @return The query-time analyzer: standard tokenizer, lower case.
+     */
+    public static Analyzer queryAnalyzer() throws IOException {
+        return CustomAnalyzer.builder()
+                .withTokenizer("standard")
+                .addTokenFilter("lowercase")
+                .build();
+    }
+
+    /**
+     * Indexes generated documents into a RAM directory.
+     *
+     * @param docCount  Number of documents.
+     * @param docLength Number of words per document.
+     * @param analyzer  Index-time analyzer.
+     * @param copyFields Fields the text is copied to, like Solr's copyField (optional).
+     * @return The directory holding the index.
+     */
+    public Directory createIndex(int docCount, int docLength, Analyzer analyzer, String... copyFields)
+            throws IOException {
+        return createIndex(docCount, docLength, analyzer, Codec.getDefault(), copyFields);
+    }
+
+    /**
+     * Indexes generated documents into a RAM directory, with a given codec.
+     *
+     * @param docCount   Number of documents.
+     * @param docLength  Number of words per document.
+     * @param analyzer   Index-time analyzer.
+     * @param codec      Codec of the index.
+     * @param copyFields Fields the text is copied to, like Solr's copyField (optional).
+     * @return The directory holding the index.
+     */
+    public Directory createIndex(int docCount, int docLength, Analyzer analyzer, Codec codec, String... copyFields)
+            throws IOException {
+        Directory directory = new RAMDirectory();
+        try (IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(analyzer).setCodec(codec))) {
+            for (int i = 0; i < docCount; i++) {
+                Document doc = new Document();
+                String text = nextText(docLength);
+                doc.add(new TextField(FIELD_NAME, text, Field.Store.NO));
+                for (String copyField : copyFields) {
+                    doc.add(new TextField(copyField, text, Field.Store.NO));
+                }
+                writer.addDocument(doc);
+            }
+            writer.forceMerge(1);
+        }
+        return directory;
+    }
+
+    /**
+     * @param directory An index.
+     * @return The size of the index files, in bytes.
+     */
+    public static long sizeInBytes(Directory directory) throws IOException {
+        long size = 0;
+        for (String file : directory.listAll()) {
+            size += directory.fileLength(file);
+        }
+        return size;
+    }
+
+    public static IndexSearcher newSearcher(Directory directory) throws IOException {
+        IndexSearcher searcher = new IndexSearcher(DirectoryReader.open(directory));
+        // Measure the queries, not Lucene's query cache
+        searcher.setQueryCache(null);
+        return searcher;
+    }
+
+    /**
+     * Builds a proximity search string.
+     *
+     * @param termCount Number of terms per operand.
+     * @param phrase    Quote the operands.
+     * @param distance  Proximity distance.
+     * @param ordered   w (ordered) or n (unordered) operator.
+     * @return A search string over frequent words, e.g., bako kori w5 suba teko
+     */
+    public String proximitySearchString(int termCount, boolean phrase, int distance, boolean ordered) {
+        StringBuilder left = new StringBuilder();
+        StringBuilder right = new StringBuilder();
+        for (int i = 0; i < termCount; i++) {
+            left.append(i > 0 ? " " : "").append(word(2 * i + 10));
+            right.append(i > 0 ? " " : "").append(word(2 * i + 11));
+        }
+        String quote = phrase ? "\"" : "";
+        return quote + left + quote + (ordered ? " w" : " n") + distance + " " + quote + right + quote;
+    }
+}
@@ -0,0 +1,106 @@
+package com.o19s.solr.benchmark;
+
+import com.o19s.solr.qparser.IQueryParser;
+import com.o19s.solr.qparser.capitalization.CapitalizationQParserMarker;
+import com.o19s.solr.qparser.capitalization.CapitalizationQParserSimple;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.miscellaneous.PerFieldAnalyzerWrapper;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.Directory;
+import org.apache.solr.search.SyntaxError;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Capitalization search latency with the capitalization indexed as payloads (span queries) or as marker terms
+ * (term queries), either inline or in a sibling field. The index size of each variant is printed at setup,
+ * along with the size of the same index without any capitalization.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CapitalizationMarkerBenchmark {
+
+    private static final String MARKER_FIELD_NAME = BenchmarkCorpus.FIELD_NAME + "_capm";
+
+    @Param({"100000"})
+    public int docCount;
+
+    @Param({"payload", "inline", "sibling"})
+    public String mode;
+
+    @Param({"firstcap(bako)", "allcap|cap(kori)"})
+    public String qstr;
+
+    private Directory directory;
+    private IndexSearcher searcher;
+    private IQueryParser parser;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        Analyzer queryAnalyzer = BenchmarkCorpus.queryAnalyzer();
+        Analyzer indexAnalyzer;
+        String[] copyFields = {};
+        switch (mode) {
+            case "payload":
+                indexAnalyzer = BenchmarkCorpus.indexAnalyzer();
+                parser = new CapitalizationQParserSimple(BenchmarkCorpus.FIELD_NAME, queryAnalyzer);
+                break;
+            case "inline":
+                indexAnalyzer = BenchmarkCorpus.markerIndexAnalyzer(false);
+                parser = new CapitalizationQParserMarker(BenchmarkCorpus.FIELD_NAME, queryAnalyzer, null,
+                        BenchmarkCorpus.FIELD_NAME);
+                break;
+            case "sibling":
+                indexAnalyzer = new PerFieldAnalyzerWrapper(queryAnalyzer,
+                        Collections.singletonMap(MARKER_FIELD_NAME, BenchmarkCorpus.markerIndexAnalyzer(true)));
+                copyFields = new String[]{MARKER_FIELD_NAME};
+                parser = new CapitalizationQParserMarker(BenchmarkCorpus.FIELD_NAME, queryAnalyzer, null,
+                        MARKER_FIELD_NAME);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown mode " + mode);
+        }
+
+        // Same documents in every index (same seed)
+        directory = new BenchmarkCorpus().createIndex(docCount, 20, indexAnalyzer, copyFields);
+        searcher = BenchmarkCorpus.newSearcher(directory);
+
+        try (Directory plainDirectory = new BenchmarkCorpus().createIndex(docCount, 20, queryAnalyzer)) {
+            long plainSize = BenchmarkCorpus.sizeInBytes(plainDirectory);
+            long size = BenchmarkCorpus.sizeInBytes(directory);
+            System.out.println(String.format("%nIndex size (%s): %,d bytes; without capitalization: %,d bytes (+%.1f%%)",
+                    mode, size, plainSize, 100.0 * (size - plainSize) / plainSize));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        searcher.getIndexReader().close();
+        directory.close();
+    }
+
+    @Benchmark
+    public TopDocs search() throws SyntaxError, IOException {
+        return searcher.search(parser.parse(qstr, 100), 10);
+    }
+}
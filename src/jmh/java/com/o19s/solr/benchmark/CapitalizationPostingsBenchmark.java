@@ -0,0 +1,123 @@
+package com.o19s.solr.benchmark;
+
+import com.o19s.solr.codecs.CapitalizationPostingsFormat;
+import com.o19s.solr.qparser.IQueryParser;
+import com.o19s.solr.qparser.capitalization.CapitalizationQParserSimple;
+import org.apache.lucene.codecs.Codec;
+import org.apache.lucene.codecs.PostingsFormat;
+import org.apache.lucene.codecs.lucene70.Lucene70Codec;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.Directory;
+import org.apache.solr.search.SyntaxError;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Capitalization search latency with the capitalization classes indexed as payloads (default postings format)
+ * or as 2 bits per position ({@link CapitalizationPostingsFormat}), the same documents and queries. The index
+ * size of each variant is printed at setup, along with the size of the same index without any capitalization.
+ * <p>
+ * {@link #searchAdvance()} requires a rare term along with the capitalization clause: the clause's postings
+ * advance to the few documents of the rare term, rather than being read through.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CapitalizationPostingsBenchmark {
+
+    // A word in about a hundred documents
+    private static final int RARE_WORD_RANK = 5000;
+
+    @Param({"100000"})
+    public int docCount;
+
+    @Param({"payload", "postingsFormat"})
+    public String mode;
+
+    @Param({"firstcap(bako)", "allcap|cap(kori)", "allcap(bakosu)", "firstcap(ba)"})
+    public String qstr;
+
+    private Directory directory;
+    private IndexSearcher searcher;
+    private IQueryParser parser;
+    private Query rareTermQuery;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        Codec codec;
+        switch (mode) {
+            case "payload":
+                codec = Codec.getDefault();
+                break;
+            case "postingsFormat":
+                PostingsFormat postingsFormat = new CapitalizationPostingsFormat();
+                codec = new Lucene70Codec() {
+                    @Override
+                    public PostingsFormat getPostingsFormatForField(String field) {
+                        return postingsFormat;
+                    }
+                };
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown mode " + mode);
+        }
+
+        // Same documents in every index (same seed)
+        directory = new BenchmarkCorpus().createIndex(docCount, 20, BenchmarkCorpus.indexAnalyzer(), codec);
+        searcher = BenchmarkCorpus.newSearcher(directory);
+        parser = new CapitalizationQParserSimple(BenchmarkCorpus.FIELD_NAME, BenchmarkCorpus.queryAnalyzer());
+        rareTermQuery = new TermQuery(new Term(BenchmarkCorpus.FIELD_NAME,
+                new BenchmarkCorpus().word(RARE_WORD_RANK)));
+
+        try (Directory plainDirectory = new BenchmarkCorpus().createIndex(docCount, 20,
+                BenchmarkCorpus.queryAnalyzer())) {
+            long plainSize = BenchmarkCorpus.sizeInBytes(plainDirectory);
+            long size = BenchmarkCorpus.sizeInBytes(directory);
+            System.out.println(String.format("%nIndex size (%s): %,d bytes; without capitalization: %,d bytes (+%.1f%%)",
+                    mode, size, plainSize, 100.0 * (size - plainSize) / plainSize));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        searcher.getIndexReader().close();
+        directory.close();
+    }
+
+    @Benchmark
+    public TopDocs search() throws SyntaxError, IOException {
+        return searcher.search(parser.parse(qstr, 100), 10);
+    }
+
+    @Benchmark
+    public TopDocs searchAdvance() throws SyntaxError, IOException {
+        Query query = new BooleanQuery.Builder()
+                .add(rareTermQuery, BooleanClause.Occur.MUST)
+                .add(parser.parse(qstr, 100), BooleanClause.Occur.MUST)
+                .build();
+        return searcher.search(query, 10);
+    }
+}
@@ -0,0 +1,67 @@
+package com.o19s.solr.benchmark;
+
+import com.o19s.solr.qparser.IQueryParser;
+import com.o19s.solr.qparser.capitalization.CapitalizationQParserSimple;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.Directory;
+import org.apache.solr.search.SyntaxError;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end cost (parse, analysis, query construction and search) of the capitalization query parser against a
+ * generated index of configurable size.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CapitalizationSearchBenchmark {
+
+    private static final int DOC_LENGTH = 20;
+
+    @Param({"10000", "100000"})
+    public int docCount;
+
+    private Directory directory;
+    private IndexSearcher searcher;
+    private IQueryParser parser;
+    private String searchString;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        BenchmarkCorpus corpus = new BenchmarkCorpus();
+        directory = corpus.createIndex(docCount, DOC_LENGTH, BenchmarkCorpus.indexAnalyzer());
+        searcher = BenchmarkCorpus.newSearcher(directory);
+        parser = new CapitalizationQParserSimple(BenchmarkCorpus.FIELD_NAME, BenchmarkCorpus.queryAnalyzer());
+        searchString = "firstcap(" + corpus.word(1) + ")";
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        searcher.getIndexReader().close();
+        directory.close();
+    }
+
+    @Benchmark
+    public TopDocs capitalizationSearch() throws SyntaxError, IOException {
+        return searcher.search(parser.parse(searchString, 100), 10);
+    }
+}
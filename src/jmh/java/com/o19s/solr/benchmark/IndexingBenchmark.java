@@ -0,0 +1,121 @@
+package com.o19s.solr.benchmark;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.custom.CustomAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Indexing throughput (documents per second) with and without the capitalization payloads.
+ * The difference between the two analyzers is the cost of CapitalizationPayloadTokenFilter;
+ * run with -PjmhArgs="IndexingBenchmark -prof gc" to check that the filter adds no allocation per token.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class IndexingBenchmark {
+
+    private static final int DOC_COUNT = 1000;
+
+    @Param({"lowercase", "capitalization"})
+    public String analyzerName;
+
+    @Param({"20", "200"})
+    public int docLength;
+
+    private Analyzer analyzer;
+    private String[] texts;
+    private Directory directory;
+    private IndexWriter writer;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        analyzer = "capitalization".equals(analyzerName)
+                ? BenchmarkCorpus.indexAnalyzer()
+                : CustomAnalyzer.builder()
+                .withTokenizer("standard")
+                .addTokenFilter("lowercase")
+                .build();
+
+        BenchmarkCorpus corpus = new BenchmarkCorpus();
+        texts = new String[DOC_COUNT];
+        for (int i = 0; i < DOC_COUNT; i++) {
+            texts[i] = corpus.nextText(docLength);
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void openWriter() throws IOException {
+        directory = new RAMDirectory();
+        writer = new IndexWriter(directory, new IndexWriterConfig(analyzer));
+    }
+
+    @TearDown(Level.Iteration)
+    public void closeWriter() throws IOException {
+        writer.close();
+        directory.close();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        analyzer.close();
+    }
+
+    /**
+     * Analysis only: the token streams are consumed without indexing.
+     */
+    @Benchmark
+    @OperationsPerInvocation(DOC_COUNT)
+    public int analyze() throws IOException {
+        int tokenCount = 0;
+        for (String text : texts) {
+            try (TokenStream tokenStream = analyzer.tokenStream(BenchmarkCorpus.FIELD_NAME, text)) {
+                tokenStream.reset();
+                while (tokenStream.incrementToken()) {
+                    tokenCount++;
+                }
+                tokenStream.end();
+            }
+        }
+        return tokenCount;
+    }
+
+    /**
+     * Analysis and indexing (in memory, without commits).
+     */
+    @Benchmark
+    @OperationsPerInvocation(DOC_COUNT)
+    public void index() throws IOException {
+        for (String text : texts) {
+            Document doc = new Document();
+            doc.add(new TextField(BenchmarkCorpus.FIELD_NAME, text, Field.Store.NO));
+            writer.addDocument(doc);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.o19s.solr.benchmark;
+
+import com.o19s.solr.qparser.IQueryParser;
+import com.o19s.solr.qparser.proximity.ProximityPairs;
+import com.o19s.solr.qparser.proximity.ProximityQParserWithPhrase;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.miscellaneous.PerFieldAnalyzerWrapper;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.Directory;
+import org.apache.solr.search.SyntaxError;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Short proximity search latency with span queries or with lookups of adjacency pairs indexed in a companion
+ * field (ordered only, or ordered and unordered). The index size of each variant is printed at setup, along with
+ * the size of the same index without pairs.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ProximityPairsBenchmark {
+
+    private static final String PAIR_FIELD_NAME = BenchmarkCorpus.FIELD_NAME + "_pairs";
+    private static final int MAX_DISTANCE = 2;
+
+    @Param({"100000"})
+    public int docCount;
+
+    @Param({"spans", "pairs", "unorderedPairs"})
+    public String mode;
+
+    @Param({"bako w1 kori", "bako n1 kori", "kori w2 teko"})
+    public String qstr;
+
+    private Directory directory;
+    private IndexSearcher searcher;
+    private IQueryParser parser;
+    private ProximityPairs pairs;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        Analyzer queryAnalyzer = BenchmarkCorpus.queryAnalyzer();
+        parser = new ProximityQParserWithPhrase(BenchmarkCorpus.FIELD_NAME, queryAnalyzer);
+        Analyzer indexAnalyzer = queryAnalyzer;
+        String[] copyFields = {};
+        if (!"spans".equals(mode)) {
+            boolean unordered = "unorderedPairs".equals(mode);
+            indexAnalyzer = new PerFieldAnalyzerWrapper(queryAnalyzer, Collections.singletonMap(PAIR_FIELD_NAME,
+                    BenchmarkCorpus.pairIndexAnalyzer(MAX_DISTANCE, unordered)));
+            copyFields = new String[]{PAIR_FIELD_NAME};
+            pairs = new ProximityPairs(BenchmarkCorpus.FIELD_NAME, PAIR_FIELD_NAME, MAX_DISTANCE, unordered);
+        }
+
+        // Same documents in every index (same seed)
+        directory = new BenchmarkCorpus().createIndex(docCount, 20, indexAnalyzer, copyFields);
+        searcher = BenchmarkCorpus.newSearcher(directory);
+
+        try (Directory plainDirectory = new BenchmarkCorpus().createIndex(docCount, 20, queryAnalyzer)) {
+            long plainSize = BenchmarkCorpus.sizeInBytes(plainDirectory);
+            long size = BenchmarkCorpus.sizeInBytes(directory);
+            System.out.println(String.format("%nIndex size (%s): %,d bytes; without pairs: %,d bytes (+%.1f%%)",
+                    mode, size, plainSize, 100.0 * (size - plainSize) / plainSize));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        searcher.getIndexReader().close();
+        directory.close();
+    }
+
+    @Benchmark
+    public TopDocs search() throws SyntaxError, IOException {
+        Query query = parser.parse(qstr, 100);
+        return searcher.search(pairs != null ? pairs.rewrite(query) : query, 10);
+    }
+}
@@ -0,0 +1,88 @@
+package com.o19s.solr.benchmark;
+
+import com.o19s.solr.qparser.IQueryParser;
+import com.o19s.solr.qparser.proximity.ProximityQParserSimple;
+import com.o19s.solr.qparser.proximity.ProximityQParserWithPhrase;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.Directory;
+import org.apache.solr.search.SyntaxError;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end cost (parse, analysis, query construction and search) of the proximity query parsers against a
+ * generated index of configurable size, for various query shapes. See CapitalizationSearchBenchmark for the
+ * capitalization query parser.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SearchBenchmark {
+
+    @Param({"10000", "100000"})
+    public int docCount;
+
+    @Param({"20"})
+    public int docLength;
+
+    @Param({"simple", "phrase"})
+    public String impl;
+
+    @Param({"1", "4"})
+    public int termCount;
+
+    @Param({"false", "true"})
+    public boolean phraseOperands;
+
+    @Param({"5", "50"})
+    public int distance;
+
+    private Directory directory;
+    private IndexSearcher searcher;
+    private IQueryParser proximityParser;
+    private String proximitySearchString;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        BenchmarkCorpus corpus = new BenchmarkCorpus();
+        directory = corpus.createIndex(docCount, docLength, BenchmarkCorpus.indexAnalyzer());
+        searcher = BenchmarkCorpus.newSearcher(directory);
+
+        Analyzer analyzer = BenchmarkCorpus.queryAnalyzer();
+        proximityParser = "phrase".equals(impl)
+                ? new ProximityQParserWithPhrase(BenchmarkCorpus.FIELD_NAME, analyzer)
+                : new ProximityQParserSimple(BenchmarkCorpus.FIELD_NAME, analyzer);
+
+        proximitySearchString = corpus.proximitySearchString(termCount, phraseOperands, distance, true);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        searcher.getIndexReader().close();
+        directory.close();
+    }
+
+    @Benchmark
+    public TopDocs proximitySearch() throws SyntaxError, IOException {
+        return searcher.search(proximityParser.parse(proximitySearchString, 100), 10);
+    }
+}
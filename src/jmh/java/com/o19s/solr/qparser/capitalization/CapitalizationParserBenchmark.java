@@ -0,0 +1,65 @@
+package com.o19s.solr.qparser.capitalization;
+
+import com.o19s.solr.benchmark.BenchmarkCorpus;
+import org.apache.lucene.search.Query;
+import org.apache.solr.search.SyntaxError;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the capitalization query parser, phase by phase: parse, analysis and query construction.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CapitalizationParserBenchmark {
+
+    @Param({"firstcap(Bako)", "allcap( KORI )", "cap(SuBa)", "allcap|cap(SuBa)"})
+    public String qstr;
+
+    private CapitalizationQParserSimple parser;
+    private CapitalizationParseTree parseTree;
+    private CapitalizationParseTree analyzedParseTree;
+
+    @Setup
+    public void setup() throws IOException, SyntaxError {
+        parser = new CapitalizationQParserSimple(BenchmarkCorpus.FIELD_NAME, BenchmarkCorpus.queryAnalyzer());
+        parseTree = parser.buildParseTree(qstr);
+        analyzedParseTree = parser.analyze(qstr, parseTree);
+    }
+
+    @Benchmark
+    public CapitalizationParseTree parse() throws SyntaxError {
+        return parser.buildParseTree(qstr);
+    }
+
+    @Benchmark
+    public CapitalizationParseTree analyze() throws SyntaxError {
+        return parser.analyze(qstr, parseTree);
+    }
+
+    @Benchmark
+    public Query build() {
+        return parser.buildQuery(analyzedParseTree);
+    }
+
+    @Benchmark
+    public Query parseAnalyzeBuild() throws SyntaxError {
+        return parser.parse(qstr, 100);
+    }
+}
@@ -0,0 +1,88 @@
+package com.o19s.solr.qparser.proximity;
+
+import com.o19s.solr.benchmark.BenchmarkCorpus;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.Directory;
+import org.apache.solr.search.SyntaxError;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Span queries (cartesian and factored) vs. intervals for the same proximity search strings: search latency,
+ * by number of terms per operand. The setup fails if the intervals do not match the same number of documents
+ * as the span queries.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class IntervalsBenchmark {
+
+    @Param({"1", "4", "16"})
+    public int termCount;
+
+    @Param({"false", "true"})
+    public boolean phrase;
+
+    @Param({"cartesian", "factored", "intervals"})
+    public String backend;
+
+    private Directory directory;
+    private IndexSearcher searcher;
+    private Query query;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException, SyntaxError {
+        BenchmarkCorpus corpus = new BenchmarkCorpus();
+        directory = corpus.createIndex(10000, 20, BenchmarkCorpus.indexAnalyzer());
+        searcher = BenchmarkCorpus.newSearcher(directory);
+
+        Analyzer analyzer = BenchmarkCorpus.queryAnalyzer();
+        String qstr = corpus.proximitySearchString(termCount, phrase, 5, false);
+        Query spanQuery = new ProximityQParserWithPhrase(BenchmarkCorpus.FIELD_NAME, analyzer, null,
+                SpanConstruction.CARTESIAN).parse(qstr, 100);
+        Query intervalQuery = new ProximityQParserIntervals(BenchmarkCorpus.FIELD_NAME, analyzer).parse(qstr, 100);
+
+        // Result parity
+        int spanCount = searcher.count(spanQuery);
+        int intervalCount = searcher.count(intervalQuery);
+        if (spanCount != intervalCount) {
+            throw new IllegalStateException(String.format("%s: %d documents with spans, %d with intervals",
+                    qstr, spanCount, intervalCount));
+        }
+
+        query = "intervals".equals(backend) ? intervalQuery
+                : new ProximityQParserWithPhrase(BenchmarkCorpus.FIELD_NAME, analyzer, null,
+                SpanConstruction.fromName(backend)).parse(qstr, 100);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        searcher.getIndexReader().close();
+        directory.close();
+    }
+
+    @Benchmark
+    public TopDocs search() throws IOException {
+        return searcher.search(query, 10);
+    }
+}
@@ -0,0 +1,89 @@
+package com.o19s.solr.qparser.proximity;
+
+import com.o19s.solr.benchmark.BenchmarkCorpus;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.search.Query;
+import org.apache.solr.search.SyntaxError;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the proximity query parsers, phase by phase: parse, analysis and query construction.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ProximityParserBenchmark {
+
+    @Param({"1", "4", "16"})
+    public int termCount;
+
+    @Param({"false", "true"})
+    public boolean phrase;
+
+    @Param({"5", "50"})
+    public int distance;
+
+    private String qstr;
+    private Analyzer analyzer;
+    private ProximityQParserSimple simpleParser;
+    private ProximityQParserWithPhrase phraseParser;
+    private ProximityParseTree analyzedParseTree;
+
+    @Setup
+    public void setup() throws IOException, SyntaxError {
+        qstr = new BenchmarkCorpus().proximitySearchString(termCount, phrase, distance, true);
+        analyzer = BenchmarkCorpus.queryAnalyzer();
+        simpleParser = new ProximityQParserSimple(BenchmarkCorpus.FIELD_NAME, analyzer);
+        phraseParser = new ProximityQParserWithPhrase(BenchmarkCorpus.FIELD_NAME, analyzer);
+        analyzedParseTree = ProximityExpressionParser.parse(qstr);
+        analyzedParseTree.analyze(analyzer, BenchmarkCorpus.FIELD_NAME, null);
+    }
+
+    @Benchmark
+    public ProximityParseTree parse() throws SyntaxError {
+        return ProximityExpressionParser.parse(qstr);
+    }
+
+    @Benchmark
+    public ProximityParseTree parseAndAnalyze() throws SyntaxError {
+        ProximityParseTree parseTree = ProximityExpressionParser.parse(qstr);
+        parseTree.analyze(analyzer, BenchmarkCorpus.FIELD_NAME, null);
+        return parseTree;
+    }
+
+    @Benchmark
+    public Query buildSimple() {
+        return simpleParser.buildQuery(analyzedParseTree, 100);
+    }
+
+    @Benchmark
+    public Query buildWithPhrase() {
+        return phraseParser.buildProximityQuery(analyzedParseTree);
+    }
+
+    @Benchmark
+    public Query parseSimple() throws SyntaxError {
+        return simpleParser.parse(qstr, 100);
+    }
+
+    @Benchmark
+    public Query parseWithPhrase() throws SyntaxError {
+        return phraseParser.parse(qstr, 100);
+    }
+}
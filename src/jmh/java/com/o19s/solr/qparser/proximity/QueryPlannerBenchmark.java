@@ -0,0 +1,85 @@
+package com.o19s.solr.qparser.proximity;
+
+import com.o19s.solr.benchmark.BenchmarkCorpus;
+import com.o19s.solr.qparser.QParserMetrics;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.Directory;
+import org.apache.solr.search.SyntaxError;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Planned vs. unplanned ProximityQParserSimple queries: parsing (planning included) and search latency, with
+ * mm=100%, for common terms only, with a rare term, and with a term that is not in the index.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class QueryPlannerBenchmark {
+
+    @Param({"common", "rare", "absent"})
+    public String terms;
+
+    @Param({"false", "true"})
+    public boolean plan;
+
+    private Directory directory;
+    private IndexSearcher searcher;
+    private Analyzer analyzer;
+    private String qstr;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        BenchmarkCorpus corpus = new BenchmarkCorpus();
+        directory = corpus.createIndex(20000, 20, BenchmarkCorpus.indexAnalyzer());
+        searcher = BenchmarkCorpus.newSearcher(directory);
+        analyzer = BenchmarkCorpus.queryAnalyzer();
+
+        String lastTerm;
+        switch (terms) {
+            case "rare":
+                lastTerm = corpus.word(5000);
+                break;
+            case "absent":
+                // Not made of the corpus' syllables
+                lastTerm = "zyx";
+                break;
+            default:
+                lastTerm = corpus.word(3);
+        }
+        qstr = corpus.word(0) + " " + corpus.word(1) + " n5 " + corpus.word(2) + " " + lastTerm;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        searcher.getIndexReader().close();
+        directory.close();
+    }
+
+    @Benchmark
+    public TopDocs parseAndSearch() throws IOException, SyntaxError {
+        ProximityQueryPlanner planner = plan ? new ProximityQueryPlanner(searcher.getIndexReader()) : null;
+        ProximityQParserSimple parser = new ProximityQParserSimple(BenchmarkCorpus.FIELD_NAME, analyzer, null,
+                QParserMetrics.UNREGISTERED, ProximityBudget.UNLIMITED, planner);
+        return searcher.search(parser.parse(qstr, 100), 10);
+    }
+}
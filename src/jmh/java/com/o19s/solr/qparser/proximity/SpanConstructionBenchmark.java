@@ -0,0 +1,82 @@
+package com.o19s.solr.qparser.proximity;
+
+import com.o19s.solr.benchmark.BenchmarkCorpus;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.Directory;
+import org.apache.solr.search.SyntaxError;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cartesian vs. factored span construction of ProximityQParserWithPhrase, by number of terms per operand:
+ * query construction and search latency. Run with -PjmhArgs="SpanConstruction -prof gc" for the allocations.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SpanConstructionBenchmark {
+
+    @Param({"1", "4", "16", "64"})
+    public int termCount;
+
+    @Param({"cartesian", "factored"})
+    public String spans;
+
+    private Directory directory;
+    private IndexSearcher searcher;
+    private ProximityQParserWithPhrase parser;
+    private ProximityParseTree analyzedParseTree;
+    private Query query;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException, SyntaxError {
+        BenchmarkCorpus corpus = new BenchmarkCorpus();
+        directory = corpus.createIndex(10000, 20, BenchmarkCorpus.indexAnalyzer());
+        searcher = BenchmarkCorpus.newSearcher(directory);
+
+        Analyzer analyzer = BenchmarkCorpus.queryAnalyzer();
+        parser = new ProximityQParserWithPhrase(BenchmarkCorpus.FIELD_NAME, analyzer, null,
+                SpanConstruction.fromName(spans));
+
+        String qstr = corpus.proximitySearchString(termCount, false, 5, true);
+        analyzedParseTree = ProximityExpressionParser.parse(qstr);
+        analyzedParseTree.analyze(analyzer, BenchmarkCorpus.FIELD_NAME, null);
+        query = parser.buildProximityQuery(analyzedParseTree);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        searcher.getIndexReader().close();
+        directory.close();
+    }
+
+    @Benchmark
+    public Query build() {
+        return parser.buildProximityQuery(analyzedParseTree);
+    }
+
+    @Benchmark
+    public TopDocs search() throws IOException {
+        return searcher.search(query, 10);
+    }
+}
@@ -0,0 +1,187 @@
+package com.o19s.solr.analysis;
+
+import org.apache.lucene.analysis.TokenFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Replaces the tokens with the pairs of tokens at most maxDistance positions apart, like shingles but with the
+ * gap between the two tokens (the number of positions in between) in the pair, e.g., with maxDistance 1:
+ * quick brown fox --&gt; w0|quick brown, w1|quick fox, w0|brown fox. A companion field of such pairs answers the
+ * short proximity clauses with term lookups: quick w1 fox (at most 1 position in between) is w0|quick fox OR
+ * w1|quick fox.
+ * <p>
+ * With unordered, each pair is also indexed with its tokens sorted, e.g., n1|fox quick, so that an unordered
+ * clause needs as many lookups as an ordered one. The positions of the stop words removed upstream count in the
+ * gaps; the tokens at the same position (synonyms) do not pair. The filter comes last in the chain: the tokens
+ * are paired as they are.
+ */
+public final class AdjacencyPairTokenFilter extends TokenFilter {
+
+    private static final char GAP_SEPARATOR = '|';
+    private static final char TOKEN_SEPARATOR = ' ';
+
+    private final CharTermAttribute termAtt = addAttribute(CharTermAttribute.class);
+    private final PositionIncrementAttribute posIncAtt = addAttribute(PositionIncrementAttribute.class);
+    private final OffsetAttribute offsetAtt = addAttribute(OffsetAttribute.class);
+    private final int maxDistance;
+    private final boolean unordered;
+    // The previous tokens that may still pair, the current one last; recycled, without allocation per token
+    private final List<WindowToken> window = new ArrayList<>();
+    private final List<WindowToken> freeTokens = new ArrayList<>();
+    private int position;
+    private int pendingPositionIncrement;
+    private int nextPair;
+    private boolean nextPairUnordered;
+
+    AdjacencyPairTokenFilter(TokenStream input, int maxDistance, boolean unordered) {
+        super(input);
+        this.maxDistance = maxDistance;
+        this.unordered = unordered;
+    }
+
+    /**
+     * @param first  The first token
+     * @param second The second token
+     * @param gap    The number of positions between the two tokens
+     * @return The ordered pair term, e.g., w1|quick fox.
+     */
+    public static String orderedPair(String first, String second, int gap) {
+        return "w" + gap + GAP_SEPARATOR + first + TOKEN_SEPARATOR + second;
+    }
+
+    /**
+     * @param first  A token
+     * @param second The other token
+     * @param gap    The number of positions between the two tokens
+     * @return The unordered pair term, its tokens sorted, e.g., n1|fox quick.
+     */
+    public static String unorderedPair(String first, String second, int gap) {
+        return first.compareTo(second) <= 0
+                ? "n" + gap + GAP_SEPARATOR + first + TOKEN_SEPARATOR + second
+                : "n" + gap + GAP_SEPARATOR + second + TOKEN_SEPARATOR + first;
+    }
+
+    @Override
+    public boolean incrementToken() throws IOException {
+        while (true) {
+            WindowToken current = window.isEmpty() ? null : window.get(window.size() - 1);
+            // The pairs of the current token with the previous tokens
+            while (current != null && nextPair < window.size() - 1) {
+                WindowToken previous = window.get(nextPair);
+                if (previous.position == current.position) {
+                    nextPair++;
+                    continue;
+                }
+                setPair(previous, current, nextPairUnordered);
+                if (unordered && !nextPairUnordered) {
+                    nextPairUnordered = true;
+                } else {
+                    nextPairUnordered = false;
+                    nextPair++;
+                }
+                return true;
+            }
+
+            if (!input.incrementToken()) {
+                return false;
+            }
+            pendingPositionIncrement += posIncAtt.getPositionIncrement();
+            position += posIncAtt.getPositionIncrement();
+            slideWindow();
+            nextPair = 0;
+            nextPairUnordered = false;
+        }
+    }
+
+    @Override
+    public void end() throws IOException {
+        super.end();
+        // The positions of the tokens without pairs
+        posIncAtt.setPositionIncrement(posIncAtt.getPositionIncrement() + pendingPositionIncrement);
+        pendingPositionIncrement = 0;
+    }
+
+    @Override
+    public void reset() throws IOException {
+        super.reset();
+        freeTokens.addAll(window);
+        window.clear();
+        position = -1;
+        pendingPositionIncrement = 0;
+        nextPair = 0;
+        nextPairUnordered = false;
+    }
+
+    /**
+     * Drops the tokens too far from the input token and appends it to the window.
+     */
+    private void slideWindow() {
+        int kept = 0;
+        for (WindowToken token : window) {
+            if (position - token.position - 1 <= maxDistance) {
+                window.set(kept++, token);
+            } else {
+                freeTokens.add(token);
+            }
+        }
+        window.subList(kept, window.size()).clear();
+
+        WindowToken token = freeTokens.isEmpty() ? new WindowToken() : freeTokens.remove(freeTokens.size() - 1);
+        token.set(termAtt, position, offsetAtt);
+        window.add(token);
+    }
+
+    private void setPair(WindowToken previous, WindowToken current, boolean sorted) {
+        clearAttributes();
+        int gap = current.position - previous.position - 1;
+        WindowToken first = previous;
+        WindowToken second = current;
+        if (sorted && previous.compareTo(current) > 0) {
+            first = current;
+            second = previous;
+        }
+        termAtt.append(sorted ? 'n' : 'w').append(Integer.toString(gap)).append(GAP_SEPARATOR);
+        termAtt.append(first.term).append(TOKEN_SEPARATOR).append(second.term);
+        posIncAtt.setPositionIncrement(pendingPositionIncrement);
+        pendingPositionIncrement = 0;
+        // The pair is at the position of its second token, with its offsets: the offsets never go backwards
+        offsetAtt.setOffset(current.startOffset, current.endOffset);
+    }
+
+    /**
+     * A token of the window: term, position and offsets.
+     */
+    private static final class WindowToken implements Comparable<WindowToken> {
+        private final StringBuilder term = new StringBuilder();
+        private int position;
+        private int startOffset;
+        private int endOffset;
+
+        void set(CharTermAttribute termAtt, int position, OffsetAttribute offsetAtt) {
+            term.setLength(0);
+            term.append(termAtt.buffer(), 0, termAtt.length());
+            this.position = position;
+            this.startOffset = offsetAtt.startOffset();
+            this.endOffset = offsetAtt.endOffset();
+        }
+
+        @Override
+        public int compareTo(WindowToken other) {
+            int length = Math.min(term.length(), other.term.length());
+            for (int i = 0; i < length; i++) {
+                int diff = term.charAt(i) - other.term.charAt(i);
+                if (diff != 0) {
+                    return diff;
+                }
+            }
+            return term.length() - other.term.length();
+        }
+    }
+}
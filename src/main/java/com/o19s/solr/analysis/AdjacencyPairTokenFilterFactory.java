@@ -0,0 +1,49 @@
+package com.o19s.solr.analysis;
+
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.util.TokenFilterFactory;
+
+import java.util.Map;
+
+/**
+ * Factory of {@link AdjacencyPairTokenFilter}.
+ * <pre>
+ * &lt;filter class="com.o19s.solr.analysis.AdjacencyPairTokenFilterFactory" maxDistance="2" unordered="true"/&gt;
+ * </pre>
+ */
+public class AdjacencyPairTokenFilterFactory extends TokenFilterFactory {
+
+    private final int maxDistance;
+    private final boolean unordered;
+
+    public AdjacencyPairTokenFilterFactory(Map<String, String> args) {
+        super(args);
+        maxDistance = getInt(args, "maxDistance", 1);
+        unordered = getBoolean(args, "unordered", false);
+        if (maxDistance < 0) {
+            throw new IllegalArgumentException("maxDistance must be positive or 0: " + maxDistance);
+        }
+        if (!args.isEmpty()) {
+            throw new IllegalArgumentException("Unknown parameters: " + args);
+        }
+    }
+
+    @Override
+    public AdjacencyPairTokenFilter create(TokenStream input) {
+        return new AdjacencyPairTokenFilter(input, maxDistance, unordered);
+    }
+
+    /**
+     * @return The largest proximity distance of the pairs (positions in between).
+     */
+    public int getMaxDistance() {
+        return maxDistance;
+    }
+
+    /**
+     * @return Whether the pairs are also indexed unordered.
+     */
+    public boolean isUnordered() {
+        return unordered;
+    }
+}
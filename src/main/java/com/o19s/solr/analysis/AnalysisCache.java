@@ -0,0 +1,193 @@
+package com.o19s.solr.analysis;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.util.RamUsageEstimator;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.search.SyntaxError;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An opt-in cache of analysis results: operand text --&gt; analyzed terms (token graph).
+ * <p>
+ * There is one LRU cache per (field, analyzer) pair, bounded both in number of entries and in (estimated) RAM.
+ * A field's cache is dropped as soon as the field is analyzed with a different analyzer instance, which is
+ * what happens when the schema is reloaded. Synonyms are only reloaded with the core, i.e., along with the
+ * query parser plugins and their caches.
+ * <p>
+ * Example (solrconfig.xml):
+ * <pre>
+ * &lt;queryParser name="proximity" class="com.o19s.solr.qparser.ProximityQParserPlugin"&gt;
+ *     &lt;lst name="analysisCache"&gt;
+ *         &lt;int name="size"&gt;10000&lt;/int&gt;
+ *         &lt;int name="maxRamMB"&gt;16&lt;/int&gt;
+ *     &lt;/lst&gt;
+ * &lt;/queryParser&gt;
+ * </pre>
+ */
+public class AnalysisCache {
+
+    private static final int DEFAULT_SIZE = 10000;
+    private static final long DEFAULT_MAX_RAM_MB = 16;
+    private static final long ENTRY_OVERHEAD_BYTES = 2L * RamUsageEstimator.NUM_BYTES_OBJECT_HEADER
+            + 4L * RamUsageEstimator.NUM_BYTES_OBJECT_REF;
+
+    private final int maxSize;
+    private final long maxRamBytes;
+    private final Map<String, FieldCache> fieldCaches = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Constructor.
+     *
+     * @param maxSize     Maximum number of entries per (field, analyzer).
+     * @param maxRamBytes Maximum estimated RAM per (field, analyzer).
+     */
+    public AnalysisCache(int maxSize, long maxRamBytes) {
+        this.maxSize = maxSize;
+        this.maxRamBytes = maxRamBytes;
+    }
+
+    /**
+     * Creates a cache from the "analysisCache" section of a plugin's init args.
+     *
+     * @param args The cache configuration (size, maxRamMB); null if not configured.
+     * @return A new cache, or null when the cache is not configured or disabled (size of 0).
+     */
+    public static AnalysisCache create(NamedList<?> args) {
+        if (args == null) {
+            return null;
+        }
+
+        Object size = args.get("size");
+        Object maxRamMB = args.get("maxRamMB");
+        int maxSize = size == null ? DEFAULT_SIZE : Integer.parseInt(size.toString());
+        long maxRamBytes = (maxRamMB == null ? DEFAULT_MAX_RAM_MB : Long.parseLong(maxRamMB.toString()))
+                * RamUsageEstimator.ONE_MB;
+
+        return maxSize > 0 && maxRamBytes > 0 ? new AnalysisCache(maxSize, maxRamBytes) : null;
+    }
+
+    /**
+     * Cached equivalent of {@link AnalyzerUtils#analyze(Analyzer, String, String)}.
+     *
+     * @param analyzer  The field's query-time analyzer
+     * @param fieldName The field name
+     * @param text      The text to analyze
+     * @return Unmodifiable list of analyzed terms
+     * @throws SyntaxError A syntax error occurred.
+     */
+    public List<String> analyze(Analyzer analyzer, String fieldName, String text) throws SyntaxError {
+        return analyzeGraph(analyzer, fieldName, text).getTerms();
+    }
+
+    /**
+     * Cached equivalent of {@link AnalyzerUtils#analyzeGraph(Analyzer, String, String)}.
+     *
+     * @param analyzer  The field's query-time analyzer
+     * @param fieldName The field name
+     * @param text      The text to analyze
+     * @return The token graph of the analyzed terms
+     * @throws SyntaxError A syntax error occurred.
+     */
+    public TokenGraph analyzeGraph(Analyzer analyzer, String fieldName, String text) throws SyntaxError {
+        FieldCache fieldCache = fieldCaches.get(fieldName);
+        if (fieldCache == null || fieldCache.analyzer != analyzer) {
+            // First use of the field or new analyzer (schema reload): start over
+            fieldCache = new FieldCache(analyzer);
+            fieldCaches.put(fieldName, fieldCache);
+        }
+
+        TokenGraph graph = fieldCache.get(text);
+        if (graph != null) {
+            hits.incrementAndGet();
+            return graph;
+        }
+
+        misses.incrementAndGet();
+        graph = AnalyzerUtils.analyzeGraph(analyzer, fieldName, text);
+        fieldCache.put(text, graph);
+
+        return graph;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    private static long ramBytesUsed(String text) {
+        return RamUsageEstimator.alignObjectSize(RamUsageEstimator.NUM_BYTES_OBJECT_HEADER
+                + RamUsageEstimator.NUM_BYTES_OBJECT_REF + Integer.BYTES)
+                + RamUsageEstimator.alignObjectSize(RamUsageEstimator.NUM_BYTES_ARRAY_HEADER
+                + (long) Character.BYTES * text.length());
+    }
+
+    private static long ramBytesUsed(String text, TokenGraph graph) {
+        List<String> terms = graph.getTerms();
+        long bytes = ENTRY_OVERHEAD_BYTES + ramBytesUsed(text) + ramBytesUsed(terms.size());
+        for (String term : terms) {
+            bytes += ramBytesUsed(term);
+        }
+        // The paths share the terms' strings
+        bytes += ramBytesUsed(graph.size());
+        for (int i = 0; i < graph.size(); i++) {
+            List<List<String>> paths = graph.getPaths(i);
+            bytes += ramBytesUsed(paths.size());
+            for (List<String> path : paths) {
+                bytes += ramBytesUsed(path.size());
+            }
+        }
+        return bytes;
+    }
+
+    private static long ramBytesUsed(int listSize) {
+        return RamUsageEstimator.alignObjectSize(RamUsageEstimator.NUM_BYTES_ARRAY_HEADER
+                + (long) RamUsageEstimator.NUM_BYTES_OBJECT_REF * listSize);
+    }
+
+    /**
+     * LRU cache of a single (field, analyzer).
+     */
+    private final class FieldCache {
+        private final Analyzer analyzer;
+        private final LinkedHashMap<String, TokenGraph> entries = new LinkedHashMap<>(16, 0.75f, true);
+        private long ramBytes;
+
+        FieldCache(Analyzer analyzer) {
+            this.analyzer = analyzer;
+        }
+
+        synchronized TokenGraph get(String text) {
+            return entries.get(text);
+        }
+
+        synchronized void put(String text, TokenGraph graph) {
+            TokenGraph previous = entries.put(text, graph);
+            if (previous != null) {
+                ramBytes -= ramBytesUsed(text, previous);
+            }
+            ramBytes += ramBytesUsed(text, graph);
+
+            while (!entries.isEmpty() && (entries.size() > maxSize || ramBytes > maxRamBytes)) {
+                Map.Entry<String, TokenGraph> eldest = entries.entrySet().iterator().next();
+                ramBytes -= ramBytesUsed(eldest.getKey(), eldest.getValue());
+                entries.remove(eldest.getKey());
+                evictions.incrementAndGet();
+            }
+        }
+    }
+}
@@ -3,6 +3,8 @@ package com.o19s.solr.analysis;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.TokenStream;
 import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionLengthAttribute;
 import org.apache.solr.search.SyntaxError;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -18,7 +20,8 @@ public class AnalyzerUtils {
 
     /**
      * Simple analysis of text assuming a "flat" stream, i.e., no graph (Ignoring graph-like
-     * token streams produced by filters such as WordDelimiterGraphFilter or SynonymsGraphFilter.
+     * token streams produced by filters such as WordDelimiterGraphFilter or SynonymsGraphFilter,
+     * see {@link #analyzeGraph(Analyzer, String, String)}).
      * <p>
      * Example:
      * Green New Deal --> [ "green", "new", "deal" ]
@@ -40,11 +43,99 @@ public class AnalyzerUtils {
                 searchTerms.add(termAttribute.toString());
             }
 
-            LOG.info("Analyzed search terms: {}", searchTerms);
+            LOG.debug("Analyzed search terms: {}", searchTerms);
         } catch (IOException ioe) {
             throw new SyntaxError("An error occurred during the analysis.", ioe);
         }
 
         return searchTerms;
     }
+
+    /**
+     * Same as {@link #analyze(Analyzer, String, String)}, looking the terms up in an analysis cache first.
+     *
+     * @param analysisCache The analysis cache; null to always analyze the text
+     * @param analyzer      The field's query-time analyzer
+     * @param fieldName     The field name
+     * @param text          The text to analyze
+     * @return List of analyzed terms (unmodifiable when coming from the cache)
+     * @throws SyntaxError A syntax error occurred.
+     */
+    public static List<String> analyze(AnalysisCache analysisCache, Analyzer analyzer, String fieldName, String text)
+            throws SyntaxError {
+        if (analysisCache == null) {
+            return analyze(analyzer, fieldName, text);
+        }
+        return analysisCache.analyze(analyzer, fieldName, text);
+    }
+
+    /**
+     * Analysis of text as a token graph: the position increments and lengths of the tokens are kept, so that
+     * multi-word synonyms are alternative paths rather than extra terms.
+     * <p>
+     * Example, with the synonyms usa, united states:
+     * USA president --&gt; [ [usa], [united states] ], [ [president] ]
+     *
+     * @param analyzer  The field's query-time analyzer
+     * @param fieldName The field name
+     * @param text      The text to analyze
+     * @return The token graph of the analyzed terms
+     * @throws SyntaxError A syntax error occurred.
+     */
+    public static TokenGraph analyzeGraph(Analyzer analyzer, String fieldName, String text) throws SyntaxError {
+        TokenGraph.Builder builder = new TokenGraph.Builder();
+        try (TokenStream tokenStream = analyzer.tokenStream(fieldName, text)) {
+            tokenStream.reset();
+
+            CharTermAttribute termAttribute = tokenStream.addAttribute(CharTermAttribute.class);
+            PositionIncrementAttribute positionIncrementAttribute =
+                    tokenStream.addAttribute(PositionIncrementAttribute.class);
+            PositionLengthAttribute positionLengthAttribute = tokenStream.addAttribute(PositionLengthAttribute.class);
+
+            while (tokenStream.incrementToken()) {
+                builder.addToken(termAttribute.toString(), positionIncrementAttribute.getPositionIncrement(),
+                        positionLengthAttribute.getPositionLength());
+            }
+        } catch (IOException ioe) {
+            throw new SyntaxError("An error occurred during the analysis.", ioe);
+        }
+
+        TokenGraph graph = builder.build();
+        LOG.debug("Analyzed token graph: {}", graph);
+        return graph;
+    }
+
+    /**
+     * Same as {@link #analyzeGraph(Analyzer, String, String)}, looking the graph up in an analysis cache first.
+     *
+     * @param analysisCache The analysis cache; null to always analyze the text
+     * @param analyzer      The field's query-time analyzer
+     * @param fieldName     The field name
+     * @param text          The text to analyze
+     * @return The token graph of the analyzed terms
+     * @throws SyntaxError A syntax error occurred.
+     */
+    public static TokenGraph analyzeGraph(AnalysisCache analysisCache, Analyzer analyzer, String fieldName,
+                                          String text) throws SyntaxError {
+        if (analysisCache == null) {
+            return analyzeGraph(analyzer, fieldName, text);
+        }
+        return analysisCache.analyzeGraph(analyzer, fieldName, text);
+    }
+
+    /**
+     * Normalizes a term that is not tokenized, e.g., a wildcard term: only the char filters and the token filters
+     * that apply to partial terms (e.g., lower case, ASCII folding) are applied.
+     * <p>
+     * Example:
+     * Impeach* --&gt; impeach*
+     *
+     * @param analyzer  The field's query-time analyzer
+     * @param fieldName The field name
+     * @param text      The term to normalize
+     * @return The normalized term
+     */
+    public static String normalize(Analyzer analyzer, String fieldName, String text) {
+        return analyzer.normalize(fieldName, text).utf8ToString();
+    }
 }
@@ -0,0 +1,77 @@
+package com.o19s.solr.analysis;
+
+import org.apache.lucene.analysis.TokenFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+
+import java.io.IOException;
+
+/**
+ * Alternative to {@link CapitalizationPayloadTokenFilter}: each token with some upper case is followed by a
+ * marker token at the same position, made of its capitalization class and the token itself, e.g., Trump --&gt;
+ * Trump, f|Trump. With a LowerCaseFilter downstream, firstcap(trump) becomes a TermQuery on f|trump.
+ * <p>
+ * With markersOnly, the tokens themselves are dropped: only the markers are indexed, e.g., in a sibling field
+ * populated by a copyField. The index-size cost is then limited to the capitalized tokens.
+ */
+public final class CapitalizationMarkerTokenFilter extends TokenFilter {
+
+    private final CharTermAttribute termAtt = addAttribute(CharTermAttribute.class);
+    private final PositionIncrementAttribute posIncAtt = addAttribute(PositionIncrementAttribute.class);
+    private final boolean markersOnly;
+    private State pendingToken;
+    private CapitalizationPayloadEnum pendingPayloadEnum;
+
+    CapitalizationMarkerTokenFilter(TokenStream input, boolean markersOnly) {
+        super(input);
+        this.markersOnly = markersOnly;
+    }
+
+    @Override
+    public boolean incrementToken() throws IOException {
+        if (pendingToken != null) {
+            // The marker of the previous token, with the same attributes (offsets, type...) and position
+            restoreState(pendingToken);
+            pendingToken = null;
+            addMarkerPrefix(pendingPayloadEnum);
+            posIncAtt.setPositionIncrement(0);
+            return true;
+        }
+
+        int skippedPositions = 0;
+        while (input.incrementToken()) {
+            CapitalizationPayloadEnum payloadEnum = CapitalizationPayloadEnum.of(termAtt.buffer(), termAtt.length());
+            if (markersOnly) {
+                if (payloadEnum == null) {
+                    skippedPositions += posIncAtt.getPositionIncrement();
+                    continue;
+                }
+                addMarkerPrefix(payloadEnum);
+                posIncAtt.setPositionIncrement(posIncAtt.getPositionIncrement() + skippedPositions);
+            } else if (payloadEnum != null) {
+                pendingToken = captureState();
+                pendingPayloadEnum = payloadEnum;
+            }
+            return true;
+        }
+
+        return false;
+    }
+
+    @Override
+    public void reset() throws IOException {
+        super.reset();
+        pendingToken = null;
+        pendingPayloadEnum = null;
+    }
+
+    private void addMarkerPrefix(CapitalizationPayloadEnum payloadEnum) {
+        String prefix = payloadEnum.getMarkerPrefix();
+        int length = termAtt.length();
+        char[] buffer = termAtt.resizeBuffer(length + prefix.length());
+        System.arraycopy(buffer, 0, buffer, prefix.length(), length);
+        prefix.getChars(0, prefix.length(), buffer, 0);
+        termAtt.setLength(length + prefix.length());
+    }
+}
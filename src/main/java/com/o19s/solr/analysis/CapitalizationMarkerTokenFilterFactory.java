@@ -0,0 +1,30 @@
+package com.o19s.solr.analysis;
+
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.util.TokenFilterFactory;
+
+import java.util.Map;
+
+/**
+ * Factory of {@link CapitalizationMarkerTokenFilter}.
+ * <pre>
+ * &lt;filter class="com.o19s.solr.analysis.CapitalizationMarkerTokenFilterFactory" markersOnly="false"/&gt;
+ * </pre>
+ */
+public class CapitalizationMarkerTokenFilterFactory extends TokenFilterFactory {
+
+    private final boolean markersOnly;
+
+    public CapitalizationMarkerTokenFilterFactory(Map<String, String> args) {
+        super(args);
+        markersOnly = getBoolean(args, "markersOnly", false);
+        if (!args.isEmpty()) {
+            throw new IllegalArgumentException("Unknown parameters: " + args);
+        }
+    }
+
+    @Override
+    public CapitalizationMarkerTokenFilter create(TokenStream input) {
+        return new CapitalizationMarkerTokenFilter(input, markersOnly);
+    }
+}
@@ -1,5 +1,7 @@
 package com.o19s.solr.analysis;
 
+import org.apache.lucene.util.BytesRef;
+
 import java.util.Arrays;
 import java.util.Optional;
 
@@ -9,14 +11,63 @@ public enum CapitalizationPayloadEnum {
     ALLCAP("A", "allcap"),
     CAP("C", "cap");
 
-    private String payload;
-    private String operator;
+    /**
+     * Separates the capitalization class from the term in the marker terms, e.g., f|trump
+     */
+    public static final char MARKER_SEPARATOR = '|';
+
+    private final String payload;
+    private final BytesRef payloadBytes;
+    private final String markerPrefix;
+    private final String operator;
 
     CapitalizationPayloadEnum(String payload, String operator) {
         this.payload = payload.toUpperCase();
+        this.payloadBytes = new BytesRef(this.payload);
+        // Lower case, so that the markers go through a LowerCaseFilter unchanged
+        this.markerPrefix = payload.toLowerCase() + MARKER_SEPARATOR;
         this.operator = operator.toLowerCase();
     }
 
+    /**
+     * Classifies a token by capitalization.
+     * Anything that is not upper case (lower case, digits, punctuation...) counts as lower case.
+     *
+     * @param buffer The token's chars
+     * @param length The token's length
+     * @return The token's capitalization class, or null if the token has no upper case.
+     */
+    public static CapitalizationPayloadEnum of(char[] buffer, int length) {
+        int upperCaseCount = 0;
+        for (int i = 0; i < length; i++) {
+            if (isUpperCase(buffer[i])) {
+                upperCaseCount++;
+            }
+        }
+
+        if (upperCaseCount == 0) {
+            return null;
+        } else if (upperCaseCount == length) {
+            // All upper case
+            return ALLCAP;
+        } else if (1 == upperCaseCount && isUpperCase(buffer[0])) {
+            // First char is upper case only
+            return FIRSTCAP;
+        }
+        // Some lower case
+        return CAP;
+    }
+
+    /**
+     * Same as Character.isUpperCase, with a fast path for ASCII.
+     */
+    private static boolean isUpperCase(char c) {
+        if (c < 128) {
+            return c >= 'A' && c <= 'Z';
+        }
+        return Character.isUpperCase(c);
+    }
+
     public static Optional<CapitalizationPayloadEnum> getPayloadForOperator(String operatorName) {
         return Arrays.stream(CapitalizationPayloadEnum.values())
                 .filter(capEnum -> capEnum.getOperator().equalsIgnoreCase(operatorName))
@@ -27,6 +78,20 @@ public enum CapitalizationPayloadEnum {
         return payload;
     }
 
+    /**
+     * @return The payload, encoded once for all the tokens. Shared instance: must not be modified.
+     */
+    public BytesRef getPayloadBytes() {
+        return payloadBytes;
+    }
+
+    /**
+     * @return The prefix of the marker terms, e.g., "f|" for the marker term "f|trump".
+     */
+    public String getMarkerPrefix() {
+        return markerPrefix;
+    }
+
     public String getOperator() {
         return operator;
     }
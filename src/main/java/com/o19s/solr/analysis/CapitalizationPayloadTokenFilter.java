@@ -2,19 +2,22 @@ package com.o19s.solr.analysis;
 
 import org.apache.lucene.analysis.TokenFilter;
 import org.apache.lucene.analysis.TokenStream;
-import org.apache.lucene.analysis.payloads.IdentityEncoder;
-import org.apache.lucene.analysis.payloads.PayloadEncoder;
 import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
 import org.apache.lucene.analysis.tokenattributes.PayloadAttribute;
 
 import java.io.IOException;
 import java.util.Objects;
 
+/**
+ * Sets the capitalization payload (see {@link CapitalizationPayloadEnum}) of the tokens with some upper case.
+ * <p>
+ * Runs for every token at index time, so it does not allocate: the payloads are shared, precomputed BytesRefs
+ * and ASCII chars are classified without going through the Unicode tables.
+ */
 public final class CapitalizationPayloadTokenFilter extends TokenFilter {
 
     private final CharTermAttribute termAtt = addAttribute(CharTermAttribute.class);
     private final PayloadAttribute payAtt = addAttribute(PayloadAttribute.class);
-    private final PayloadEncoder encoder = new IdentityEncoder();
 
     CapitalizationPayloadTokenFilter(TokenStream input) {
         super(input);
@@ -28,10 +31,6 @@ public final class CapitalizationPayloadTokenFilter extends TokenFilter {
         return payAtt;
     }
 
-    private PayloadEncoder getEncoder() {
-        return encoder;
-    }
-
     @Override
     public boolean incrementToken() throws IOException {
         if (!input.incrementToken()) {
@@ -40,39 +39,15 @@ public final class CapitalizationPayloadTokenFilter extends TokenFilter {
 
         final char[] buffer = termAtt.buffer();
         final int length = termAtt.length();
-        boolean someUpperCase = false;
-        boolean someLowerCase = false;
-        boolean firstCharIsUpperCase = false;
-        int upperCaseCount = 0;
-        for (int i = 0; i < length; i++) {
-            if (Character.isUpperCase(buffer[i])) {
-                someUpperCase = true;
-                if (0 == i)
-                    firstCharIsUpperCase = true;
-                upperCaseCount++;
-            } else {
-                someLowerCase = true;
-            }
-        }
-
-        if (someUpperCase) {
-            CapitalizationPayloadEnum payloadEnum;
-            if (!someLowerCase) {
-                // All upper case
-                payloadEnum = CapitalizationPayloadEnum.ALLCAP;
-            } else if (firstCharIsUpperCase && 1 == upperCaseCount) {
-                // First char is upper case only
-                payloadEnum = CapitalizationPayloadEnum.FIRSTCAP;
-            } else {
-                // Some lower case
-                payloadEnum = CapitalizationPayloadEnum.CAP;
-            }
-
+        CapitalizationPayloadEnum payloadEnum = CapitalizationPayloadEnum.of(buffer, length);
+        if (payloadEnum != null) {
             if (payAtt.getPayload() != null) {
-                throw new IllegalArgumentException(String.format("A payload is already set for token %s", new String(buffer)));
+                throw new IllegalArgumentException(String.format("A payload is already set for token %s",
+                        new String(buffer, 0, length)));
             }
 
-            payAtt.setPayload(encoder.encode(payloadEnum.getPayload().toCharArray()));
+            // Shared payload: the indexing chain copies the payload bytes, it never modifies them
+            payAtt.setPayload(payloadEnum.getPayloadBytes());
         }
 
         return true;
@@ -95,8 +70,7 @@ public final class CapitalizationPayloadTokenFilter extends TokenFilter {
         CapitalizationPayloadTokenFilter filter = (CapitalizationPayloadTokenFilter) obj;
 
         return filter.getTermAtt().equals(termAtt) &&
-                filter.getPayAtt().equals(payAtt) &&
-                filter.getEncoder().equals(encoder);
+                filter.getPayAtt().equals(payAtt);
     }
 
     /**
@@ -109,7 +83,6 @@ public final class CapitalizationPayloadTokenFilter extends TokenFilter {
         int hash = super.hashCode();
         hash = 89 * hash + Objects.hash(termAtt);
         hash = 89 * hash + Objects.hash(payAtt);
-        hash = 89 * hash + Objects.hash(encoder);
         return hash;
     }
 }
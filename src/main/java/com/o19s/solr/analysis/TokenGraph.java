@@ -0,0 +1,178 @@
+package com.o19s.solr.analysis;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The analyzed terms of a text as a token graph, as produced by filters such as SynonymGraphFilter or
+ * WordDelimiterGraphFilter: each token goes from its position to its position plus its position length.
+ * <p>
+ * The graph is cut into segments at its articulation points, i.e., the positions no token spans over; each
+ * segment is a set of alternative paths, e.g., with the synonyms usa, united states:
+ * <pre>
+ * usa president --&gt; [ [usa], [united states] ], [ [president] ]
+ * </pre>
+ * A query built from the segments grows with the number of synonyms, instead of the number of combinations of the
+ * paths across the whole text. A flat stream (no graph) has a segment per position, with a single one-term path.
+ * <p>
+ * Position holes (e.g., removed stop words) are ignored, as in the flat analysis.
+ */
+public final class TokenGraph {
+
+    private final List<String> terms;
+    private final List<List<List<String>>> segments;
+
+    private TokenGraph(List<String> terms, List<List<List<String>>> segments) {
+        this.terms = terms;
+        this.segments = segments;
+    }
+
+    /**
+     * @return The analyzed terms in the order of the token stream, the same as AnalyzerUtils.analyze().
+     */
+    public List<String> getTerms() {
+        return terms;
+    }
+
+    /**
+     * @return The number of segments.
+     */
+    public int size() {
+        return segments.size();
+    }
+
+    /**
+     * @param segment The index of a segment
+     * @return The alternative paths of the segment, each a list of terms, without duplicates.
+     */
+    public List<List<String>> getPaths(int segment) {
+        return segments.get(segment);
+    }
+
+    /**
+     * @param segment The index of a segment
+     * @return The number of terms of the segment's longest path.
+     */
+    public int getMaxPathLength(int segment) {
+        int maxLength = 0;
+        for (List<String> path : segments.get(segment)) {
+            maxLength = Math.max(maxLength, path.size());
+        }
+        return maxLength;
+    }
+
+    /**
+     * @return The number of terms of all the paths: the number of term clauses of a query built from the segments.
+     */
+    public int countPathTerms() {
+        int count = 0;
+        for (List<List<String>> paths : segments) {
+            for (List<String> path : paths) {
+                count += path.size();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return Whether some segment has alternative paths or a path of several terms, i.e., the graph is not flat.
+     */
+    public boolean hasSidePaths() {
+        for (List<List<String>> paths : segments) {
+            if (paths.size() > 1 || paths.get(0).size() > 1) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return segments.toString();
+    }
+
+    /**
+     * Builds a token graph from the tokens of a token stream, in order.
+     */
+    static final class Builder {
+
+        private final List<String> terms = new ArrayList<>();
+        private final List<int[]> edges = new ArrayList<>();
+        private int position = -1;
+
+        /**
+         * @param term              The token's term
+         * @param positionIncrement The token's position increment
+         * @param positionLength    The token's position length
+         */
+        void addToken(String term, int positionIncrement, int positionLength) {
+            // Holes are ignored: the next position
+            position = Math.max(0, position + (positionIncrement > 0 ? 1 : 0));
+            terms.add(term);
+            edges.add(new int[]{position, position + Math.max(1, positionLength)});
+        }
+
+        TokenGraph build() {
+            int end = 0;
+            for (int[] edge : edges) {
+                end = Math.max(end, edge[1]);
+            }
+
+            // The articulation points: the positions within no token
+            boolean[] spanned = new boolean[end + 1];
+            for (int[] edge : edges) {
+                for (int p = edge[0] + 1; p < edge[1]; p++) {
+                    spanned[p] = true;
+                }
+            }
+
+            List<List<List<String>>> segments = new ArrayList<>();
+            int segmentStart = 0;
+            for (int p = 1; p <= end; p++) {
+                if (!spanned[p]) {
+                    List<List<String>> paths = getPaths(segmentStart, p);
+                    if (!paths.isEmpty()) {
+                        segments.add(paths);
+                    }
+                    segmentStart = p;
+                }
+            }
+            return new TokenGraph(Collections.unmodifiableList(terms), Collections.unmodifiableList(segments));
+        }
+
+        /**
+         * @return The paths from a position to another, none of the tokens in between going past the latter.
+         */
+        private List<List<String>> getPaths(int start, int end) {
+            Set<List<String>> paths = new LinkedHashSet<>();
+            collectPaths(start, end, new ArrayList<>(), paths);
+            if (paths.isEmpty()) {
+                // Broken graph (no path to the end of the segment): each token on its own
+                for (int i = 0; i < edges.size(); i++) {
+                    if (edges.get(i)[0] >= start && edges.get(i)[1] <= end) {
+                        paths.add(Collections.singletonList(terms.get(i)));
+                    }
+                }
+            }
+            return Collections.unmodifiableList(new ArrayList<>(paths));
+        }
+
+        private void collectPaths(int position, int end, List<String> path, Set<List<String>> paths) {
+            if (position == end) {
+                paths.add(Collections.unmodifiableList(new ArrayList<>(path)));
+                return;
+            }
+            for (int i = 0; i < edges.size(); i++) {
+                int[] edge = edges.get(i);
+                if (edge[0] == position && edge[1] <= end) {
+                    path.add(terms.get(i));
+                    collectPaths(edge[1], end, path, paths);
+                    path.remove(path.size() - 1);
+                }
+            }
+        }
+    }
+}
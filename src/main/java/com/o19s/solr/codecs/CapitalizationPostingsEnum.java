@@ -0,0 +1,251 @@
+package com.o19s.solr.codecs;
+
+import com.o19s.solr.analysis.CapitalizationPayloadEnum;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.IOException;
+
+/**
+ * The postings of a term of a {@link CapitalizationPostingsFormat} field, with the capitalization classes of its
+ * positions: read directly ({@link #getCapitalization()}, {@link #getDocClasses()}) or as payloads, the same as
+ * those of CapitalizationPayloadTokenFilter.
+ * <p>
+ * The entries of a term are read from the side stream as the documents go, and the classes of a document are
+ * decoded on its first position; the documents without capitalized occurrence have no entry, and cost a
+ * comparison. On an advance, the entries before the target are skipped by blocks of
+ * {@link CapitalizationPostingsFormat#SKIP_INTERVAL} with the term's skip points.
+ */
+public final class CapitalizationPostingsEnum extends PostingsEnum {
+
+    private static final CapitalizationPayloadEnum[] PAYLOAD_ENUMS = CapitalizationPayloadEnum.values();
+    // A skip point: the document before the entry and the offset of the entry, two ints
+    private static final int SKIP_POINT_BYTES = 2 * Integer.BYTES;
+
+    private final IndexInput origin;
+    private final IndexInput entries;
+    private final IndexInput skipPoints;
+    private byte[] classes = new byte[16];
+    private PostingsEnum in;
+    private int entryCount;
+    private long entriesStart;
+    private long skipPointsStart;
+    private int skipPointCount;
+    // The first skip point that may be ahead of the next entry
+    private int nextSkipPoint;
+    // The next entry of the term (header read, classes not read yet), or NO_MORE_DOCS
+    private int remainingEntries;
+    private int entryDoc;
+    private int entryLength;
+    // The current document: its classes are decoded on the first position
+    private boolean docRead;
+    private int docClasses;
+    private int positionIndex;
+    private int code;
+
+    CapitalizationPostingsEnum(IndexInput origin) {
+        this.origin = origin;
+        this.entries = origin.clone();
+        this.skipPoints = origin.clone();
+    }
+
+    /**
+     * @param payloadEnum A capitalization class
+     * @return The bit of the class in {@link #getDocClasses()}.
+     */
+    public static int classBit(CapitalizationPayloadEnum payloadEnum) {
+        return 1 << (payloadEnum.ordinal() + 1);
+    }
+
+    /**
+     * @return The capitalization class of the current position, or null if it has none (lower case).
+     */
+    public CapitalizationPayloadEnum getCapitalization() {
+        return code == 0 ? null : PAYLOAD_ENUMS[code - 1];
+    }
+
+    /**
+     * @return The capitalization classes of the positions of the current document, as a bitmask of
+     * {@link #classBit(CapitalizationPayloadEnum)}; 0 when none of them has one. Whatever position is current.
+     */
+    public int getDocClasses() throws IOException {
+        readDoc();
+        return docClasses;
+    }
+
+    boolean canReuse(IndexInput origin) {
+        return this.origin == origin;
+    }
+
+    PostingsEnum getDelegate() {
+        return in;
+    }
+
+    /**
+     * Positions the enum on a term.
+     *
+     * @param in     The postings of the term, without payloads
+     * @param offset The file pointer of the term's entries, or -1 if it is never capitalized
+     */
+    void reset(PostingsEnum in, long offset) throws IOException {
+        this.in = in;
+        docRead = false;
+        docClasses = 0;
+        code = 0;
+        entryDoc = 0;
+        if (offset < 0) {
+            remainingEntries = 0;
+            entryDoc = DocIdSetIterator.NO_MORE_DOCS;
+        } else {
+            entries.seek(offset);
+            entryCount = entries.readVInt();
+            // The length of the entries
+            entries.readVInt();
+            skipPointCount = entries.readVInt();
+            skipPointsStart = entries.getFilePointer();
+            entriesStart = skipPointsStart + (long) skipPointCount * SKIP_POINT_BYTES;
+            entries.seek(entriesStart);
+            nextSkipPoint = 0;
+            remainingEntries = entryCount;
+            nextEntry();
+        }
+    }
+
+    private void nextEntry() throws IOException {
+        if (remainingEntries == 0) {
+            entryDoc = DocIdSetIterator.NO_MORE_DOCS;
+            return;
+        }
+        remainingEntries--;
+        long header = entries.readVLong();
+        entryDoc += (int) (header >>> 1);
+        entryLength = (header & 1) != 0 ? 1 : entries.readVInt();
+    }
+
+    /**
+     * Moves to the last skip point before a document, if it is past the next entry.
+     */
+    private void skipTo(int doc) throws IOException {
+        // The index of the next entry: the skip points up to it are behind
+        int entryIndex = entryCount - remainingEntries - 1;
+        int skipPoint = Math.max(nextSkipPoint, entryIndex / CapitalizationPostingsFormat.SKIP_INTERVAL);
+        if (skipPoint >= skipPointCount) {
+            return;
+        }
+
+        int targetSkipPoint = -1;
+        int targetDoc = 0;
+        int targetOffset = 0;
+        skipPoints.seek(skipPointsStart + (long) skipPoint * SKIP_POINT_BYTES);
+        for (; skipPoint < skipPointCount; skipPoint++) {
+            int skipDoc = skipPoints.readInt();
+            int skipOffset = skipPoints.readInt();
+            if (skipDoc >= doc) {
+                break;
+            }
+            targetSkipPoint = skipPoint;
+            targetDoc = skipDoc;
+            targetOffset = skipOffset;
+        }
+        nextSkipPoint = skipPoint;
+
+        if (targetSkipPoint >= 0) {
+            entries.seek(entriesStart + targetOffset);
+            entryDoc = targetDoc;
+            remainingEntries = entryCount - (targetSkipPoint + 1) * CapitalizationPostingsFormat.SKIP_INTERVAL;
+            nextEntry();
+        }
+    }
+
+    /**
+     * Reads the classes of the current document, once.
+     */
+    private void readDoc() throws IOException {
+        if (docRead) {
+            return;
+        }
+        docRead = true;
+
+        int doc = in.docID();
+        if (entryDoc < doc) {
+            skipTo(doc);
+        }
+        while (entryDoc < doc) {
+            entries.seek(entries.getFilePointer() + entryLength);
+            nextEntry();
+        }
+        docClasses = 0;
+        if (entryDoc == doc) {
+            classes = ArrayUtil.grow(classes, entryLength);
+            entries.readBytes(classes, 0, entryLength);
+            for (int i = 0; i < entryLength; i++) {
+                for (int shift = 0; shift < Byte.SIZE; shift += 2) {
+                    docClasses |= 1 << ((classes[i] >>> shift) & 3);
+                }
+            }
+            // Bit 0: the positions without class
+            docClasses &= ~1;
+            nextEntry();
+        }
+    }
+
+    @Override
+    public int nextPosition() throws IOException {
+        readDoc();
+        int position = in.nextPosition();
+        code = docClasses == 0 ? 0
+                : (classes[positionIndex >>> 2] >>> ((positionIndex & 3) << 1)) & 3;
+        positionIndex++;
+        return position;
+    }
+
+    @Override
+    public BytesRef getPayload() {
+        return code == 0 ? null : PAYLOAD_ENUMS[code - 1].getPayloadBytes();
+    }
+
+    @Override
+    public int startOffset() throws IOException {
+        return in.startOffset();
+    }
+
+    @Override
+    public int endOffset() throws IOException {
+        return in.endOffset();
+    }
+
+    @Override
+    public int freq() throws IOException {
+        return in.freq();
+    }
+
+    @Override
+    public int docID() {
+        return in.docID();
+    }
+
+    @Override
+    public int nextDoc() throws IOException {
+        return onDoc(in.nextDoc());
+    }
+
+    @Override
+    public int advance(int target) throws IOException {
+        return onDoc(in.advance(target));
+    }
+
+    private int onDoc(int doc) {
+        docRead = false;
+        positionIndex = 0;
+        code = 0;
+        return doc;
+    }
+
+    @Override
+    public long cost() {
+        return in.cost();
+    }
+}
@@ -0,0 +1,90 @@
+package com.o19s.solr.codecs;
+
+import com.o19s.solr.analysis.CapitalizationPayloadTokenFilter;
+import org.apache.lucene.codecs.FieldsConsumer;
+import org.apache.lucene.codecs.FieldsProducer;
+import org.apache.lucene.codecs.PostingsFormat;
+import org.apache.lucene.codecs.lucene50.Lucene50PostingsFormat;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.FieldInfos;
+import org.apache.lucene.index.SegmentReadState;
+import org.apache.lucene.index.SegmentWriteState;
+
+import java.io.IOException;
+import java.util.HashMap;
+
+/**
+ * Postings format of the fields with capitalization payloads (see {@link CapitalizationPayloadTokenFilter}):
+ * the terms, documents and positions are those of the default format (Lucene50), without payloads, and the
+ * capitalization class of each position is packed in a side stream, 2 bits per position (none, firstcap, allcap,
+ * cap). Only the documents with some capitalized occurrence of a term have an entry in the stream (the document
+ * and 2 bits per position), instead of a byte per capitalized position and the payload lengths: smaller when the
+ * capitalized occurrences are frequent, larger when they are scattered (see CapitalizationPostingsBenchmark).
+ * <p>
+ * The postings rebuild the payloads from the side stream: the capitalization queries, the merges and any other
+ * payload reader work unchanged. The capitalization queries read the classes directly from
+ * {@link CapitalizationPostingsEnum}. A field with any other payload cannot be indexed with this format.
+ * <p>
+ * Example (schema.xml, with solr.SchemaCodecFactory):
+ * <pre>
+ * &lt;fieldType name="text_general_capitalization" class="solr.TextField" postingsFormat="Capitalization"&gt;
+ * </pre>
+ */
+public final class CapitalizationPostingsFormat extends PostingsFormat {
+
+    /**
+     * The name of the format, for the schema's postingsFormat attribute.
+     */
+    public static final String NAME = "Capitalization";
+
+    static final String DATA_CODEC = "CapitalizationPostingsData";
+    static final String INDEX_CODEC = "CapitalizationPostingsIndex";
+    static final String DATA_EXTENSION = "capd";
+    static final String INDEX_EXTENSION = "capi";
+    static final int VERSION_START = 0;
+    static final int VERSION_CURRENT = VERSION_START;
+    // The number of entries between two skip points
+    static final int SKIP_INTERVAL = 64;
+
+    private final PostingsFormat delegate = new Lucene50PostingsFormat();
+
+    /**
+     * Constructor, for the SPI.
+     */
+    public CapitalizationPostingsFormat() {
+        super(NAME);
+    }
+
+    @Override
+    public FieldsConsumer fieldsConsumer(SegmentWriteState state) throws IOException {
+        SegmentWriteState delegateState = new SegmentWriteState(state.infoStream, state.directory,
+                state.segmentInfo, withoutPayloads(state.fieldInfos), state.segUpdates, state.context,
+                state.segmentSuffix);
+        delegateState.delCountOnFlush = state.delCountOnFlush;
+        delegateState.softDelCountOnFlush = state.softDelCountOnFlush;
+        delegateState.liveDocs = state.liveDocs;
+        return new CapitalizationPostingsWriter(state, delegate.fieldsConsumer(delegateState));
+    }
+
+    @Override
+    public FieldsProducer fieldsProducer(SegmentReadState state) throws IOException {
+        SegmentReadState delegateState = new SegmentReadState(state.directory, state.segmentInfo,
+                withoutPayloads(state.fieldInfos), state.context, state.segmentSuffix);
+        return new CapitalizationPostingsReader(state, delegate.fieldsProducer(delegateState));
+    }
+
+    /**
+     * @return The field infos of the delegate format: the same fields, without payloads.
+     */
+    private static FieldInfos withoutPayloads(FieldInfos fieldInfos) {
+        FieldInfo[] infos = new FieldInfo[fieldInfos.size()];
+        int i = 0;
+        for (FieldInfo info : fieldInfos) {
+            infos[i++] = !info.hasPayloads() ? info : new FieldInfo(info.name, info.number, info.hasVectors(),
+                    info.omitsNorms(), false, info.getIndexOptions(), info.getDocValuesType(),
+                    info.getDocValuesGen(), new HashMap<>(info.attributes()), info.getPointDataDimensionCount(),
+                    info.getPointIndexDimensionCount(), info.getPointNumBytes(), info.isSoftDeletesField());
+        }
+        return new FieldInfos(infos);
+    }
+}
@@ -0,0 +1,194 @@
+package com.o19s.solr.codecs;
+
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.codecs.FieldsProducer;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.FieldInfos;
+import org.apache.lucene.index.FilterLeafReader;
+import org.apache.lucene.index.IndexFileNames;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.SegmentReadState;
+import org.apache.lucene.index.TermState;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.store.ChecksumIndexInput;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.IOUtils;
+import org.apache.lucene.util.automaton.CompiledAutomaton;
+import org.apache.lucene.util.fst.FST;
+import org.apache.lucene.util.fst.PositiveIntOutputs;
+import org.apache.lucene.util.fst.Util;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Reads the postings of a segment: those of the delegate format, with the payloads of the fields that had some
+ * rebuilt from the capitalization side stream (see {@link CapitalizationPostingsEnum}).
+ */
+final class CapitalizationPostingsReader extends FieldsProducer {
+
+    private final FieldsProducer delegate;
+    private final FieldInfos fieldInfos;
+    private final Map<String, FST<Long>> fieldIndexes = new HashMap<>();
+    private IndexInput data;
+
+    CapitalizationPostingsReader(SegmentReadState state, FieldsProducer delegate) throws IOException {
+        this.delegate = delegate;
+        this.fieldInfos = state.fieldInfos;
+        boolean success = false;
+        try {
+            String indexName = IndexFileNames.segmentFileName(state.segmentInfo.name, state.segmentSuffix,
+                    CapitalizationPostingsFormat.INDEX_EXTENSION);
+            try (ChecksumIndexInput index = state.directory.openChecksumInput(indexName, state.context)) {
+                Throwable priorException = null;
+                try {
+                    CodecUtil.checkIndexHeader(index, CapitalizationPostingsFormat.INDEX_CODEC,
+                            CapitalizationPostingsFormat.VERSION_START, CapitalizationPostingsFormat.VERSION_CURRENT,
+                            state.segmentInfo.getId(), state.segmentSuffix);
+                    int fieldCount = index.readVInt();
+                    for (int i = 0; i < fieldCount; i++) {
+                        FieldInfo fieldInfo = fieldInfos.fieldInfo(index.readVInt());
+                        fieldIndexes.put(fieldInfo.name, new FST<>(index, PositiveIntOutputs.getSingleton()));
+                    }
+                } catch (Throwable exception) {
+                    priorException = exception;
+                } finally {
+                    CodecUtil.checkFooter(index, priorException);
+                }
+            }
+
+            data = state.directory.openInput(IndexFileNames.segmentFileName(state.segmentInfo.name,
+                    state.segmentSuffix, CapitalizationPostingsFormat.DATA_EXTENSION), state.context);
+            CodecUtil.checkIndexHeader(data, CapitalizationPostingsFormat.DATA_CODEC,
+                    CapitalizationPostingsFormat.VERSION_START, CapitalizationPostingsFormat.VERSION_CURRENT,
+                    state.segmentInfo.getId(), state.segmentSuffix);
+            CodecUtil.retrieveChecksum(data);
+            success = true;
+        } finally {
+            if (!success) {
+                IOUtils.closeWhileHandlingException(delegate, data);
+            }
+        }
+    }
+
+    @Override
+    public Iterator<String> iterator() {
+        return delegate.iterator();
+    }
+
+    @Override
+    public Terms terms(String field) throws IOException {
+        Terms terms = delegate.terms(field);
+        FieldInfo fieldInfo = fieldInfos.fieldInfo(field);
+        if (terms == null || fieldInfo == null || !fieldInfo.hasPayloads()) {
+            return terms;
+        }
+        return new CapitalizationTerms(terms, fieldIndexes.get(field));
+    }
+
+    @Override
+    public int size() {
+        return delegate.size();
+    }
+
+    @Override
+    public long ramBytesUsed() {
+        long ramBytesUsed = delegate.ramBytesUsed();
+        for (FST<Long> fst : fieldIndexes.values()) {
+            ramBytesUsed += fst.ramBytesUsed();
+        }
+        return ramBytesUsed;
+    }
+
+    @Override
+    public void checkIntegrity() throws IOException {
+        delegate.checkIntegrity();
+        CodecUtil.checksumEntireFile(data);
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOUtils.close(delegate, data);
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "(" + delegate + ")";
+    }
+
+    /**
+     * The terms of a field with capitalization payloads.
+     */
+    private final class CapitalizationTerms extends FilterLeafReader.FilterTerms {
+
+        // Null when no term of the field is capitalized
+        private final FST<Long> fst;
+
+        CapitalizationTerms(Terms in, FST<Long> fst) {
+            super(in);
+            this.fst = fst;
+        }
+
+        @Override
+        public TermsEnum iterator() throws IOException {
+            return new CapitalizationTermsEnum(in.iterator(), fst);
+        }
+
+        @Override
+        public TermsEnum intersect(CompiledAutomaton compiled, BytesRef startTerm) throws IOException {
+            return new CapitalizationTermsEnum(in.intersect(compiled, startTerm), fst);
+        }
+
+        @Override
+        public boolean hasPayloads() {
+            return true;
+        }
+    }
+
+    private final class CapitalizationTermsEnum extends FilterLeafReader.FilterTermsEnum {
+
+        private final FST<Long> fst;
+
+        CapitalizationTermsEnum(TermsEnum in, FST<Long> fst) {
+            super(in);
+            this.fst = fst;
+        }
+
+        @Override
+        public boolean seekExact(BytesRef text) throws IOException {
+            return in.seekExact(text);
+        }
+
+        @Override
+        public void seekExact(BytesRef term, TermState state) throws IOException {
+            in.seekExact(term, state);
+        }
+
+        @Override
+        public TermState termState() throws IOException {
+            return in.termState();
+        }
+
+        @Override
+        public PostingsEnum postings(PostingsEnum reuse, int flags) throws IOException {
+            CapitalizationPostingsEnum capitalizationReuse = reuse instanceof CapitalizationPostingsEnum
+                    && ((CapitalizationPostingsEnum) reuse).canReuse(data) ? (CapitalizationPostingsEnum) reuse : null;
+            PostingsEnum delegateReuse = capitalizationReuse == null ? reuse : capitalizationReuse.getDelegate();
+            if (!PostingsEnum.featureRequested(flags, PostingsEnum.PAYLOADS)) {
+                return in.postings(delegateReuse, flags);
+            }
+
+            PostingsEnum postings = in.postings(delegateReuse,
+                    (flags & ~PostingsEnum.PAYLOADS) | PostingsEnum.POSITIONS);
+            Long offset = fst == null ? null : Util.get(fst, in.term());
+            CapitalizationPostingsEnum capitalizationPostings = capitalizationReuse == null
+                    ? new CapitalizationPostingsEnum(data) : capitalizationReuse;
+            capitalizationPostings.reset(postings, offset == null ? -1 : offset);
+            return capitalizationPostings;
+        }
+    }
+}
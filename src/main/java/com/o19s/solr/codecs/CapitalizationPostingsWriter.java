@@ -0,0 +1,220 @@
+package com.o19s.solr.codecs;
+
+import com.o19s.solr.analysis.CapitalizationPayloadEnum;
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.codecs.FieldsConsumer;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.Fields;
+import org.apache.lucene.index.IndexFileNames;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.SegmentWriteState;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.store.GrowableByteArrayDataOutput;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.IOUtils;
+import org.apache.lucene.util.IntsRefBuilder;
+import org.apache.lucene.util.fst.Builder;
+import org.apache.lucene.util.fst.FST;
+import org.apache.lucene.util.fst.PositiveIntOutputs;
+import org.apache.lucene.util.fst.Util;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes the postings of a segment: the delegate format writes them without payloads, then the capitalization
+ * classes of the fields with payloads go to the side stream.
+ * <p>
+ * Data file: per term with some capitalized occurrence, the number of entries, their length in bytes and the
+ * number of skip points, then the skip points: every {@link CapitalizationPostingsFormat#SKIP_INTERVAL} entries,
+ * the document before the entry and the entry's offset (fixed-width ints), then per document with some
+ * capitalized occurrence: the document (delta, shifted, with a flag for a single byte of classes, the length in
+ * bytes follows otherwise) and the classes of its positions, 2 bits each (4 per byte).
+ * Index file: per field, an FST of the terms with some capitalized occurrence to the file pointer of their
+ * entries.
+ */
+final class CapitalizationPostingsWriter extends FieldsConsumer {
+
+    private static final CapitalizationPayloadEnum[] PAYLOAD_ENUMS = CapitalizationPayloadEnum.values();
+
+    private final SegmentWriteState state;
+    private final FieldsConsumer delegate;
+    private final List<FieldIndex> fieldIndexes = new ArrayList<>();
+    private final GrowableByteArrayDataOutput termEntries = new GrowableByteArrayDataOutput(1024);
+    private IndexOutput data;
+    private IndexOutput index;
+    private byte[] classes = new byte[16];
+    // The skip points of the current term: document before the entry, offset of the entry
+    private int[] skipPoints = new int[16];
+    private int skipCount;
+    private boolean closed;
+
+    CapitalizationPostingsWriter(SegmentWriteState state, FieldsConsumer delegate) throws IOException {
+        this.state = state;
+        this.delegate = delegate;
+        boolean success = false;
+        try {
+            data = state.directory.createOutput(IndexFileNames.segmentFileName(state.segmentInfo.name,
+                    state.segmentSuffix, CapitalizationPostingsFormat.DATA_EXTENSION), state.context);
+            CodecUtil.writeIndexHeader(data, CapitalizationPostingsFormat.DATA_CODEC,
+                    CapitalizationPostingsFormat.VERSION_CURRENT, state.segmentInfo.getId(), state.segmentSuffix);
+            index = state.directory.createOutput(IndexFileNames.segmentFileName(state.segmentInfo.name,
+                    state.segmentSuffix, CapitalizationPostingsFormat.INDEX_EXTENSION), state.context);
+            CodecUtil.writeIndexHeader(index, CapitalizationPostingsFormat.INDEX_CODEC,
+                    CapitalizationPostingsFormat.VERSION_CURRENT, state.segmentInfo.getId(), state.segmentSuffix);
+            success = true;
+        } finally {
+            if (!success) {
+                IOUtils.closeWhileHandlingException(delegate, data, index);
+            }
+        }
+    }
+
+    @Override
+    public void write(Fields fields) throws IOException {
+        delegate.write(fields);
+
+        for (String field : fields) {
+            FieldInfo fieldInfo = state.fieldInfos.fieldInfo(field);
+            Terms terms = fields.terms(field);
+            if (fieldInfo == null || !fieldInfo.hasPayloads() || terms == null) {
+                continue;
+            }
+
+            Builder<Long> fstBuilder = new Builder<>(FST.INPUT_TYPE.BYTE1, PositiveIntOutputs.getSingleton());
+            IntsRefBuilder scratch = new IntsRefBuilder();
+            TermsEnum termsEnum = terms.iterator();
+            PostingsEnum postings = null;
+            for (BytesRef term = termsEnum.next(); term != null; term = termsEnum.next()) {
+                postings = termsEnum.postings(postings, PostingsEnum.PAYLOADS);
+                int entryCount = writeEntries(field, postings);
+                if (entryCount > 0) {
+                    fstBuilder.add(Util.toIntsRef(term, scratch), data.getFilePointer());
+                    data.writeVInt(entryCount);
+                    data.writeVInt(termEntries.getPosition());
+                    data.writeVInt(skipCount);
+                    for (int i = 0; i < skipCount * 2; i++) {
+                        data.writeInt(skipPoints[i]);
+                    }
+                    data.writeBytes(termEntries.getBytes(), 0, termEntries.getPosition());
+                }
+            }
+
+            FST<Long> fst = fstBuilder.finish();
+            if (fst != null) {
+                fieldIndexes.add(new FieldIndex(fieldInfo.number, fst));
+            }
+        }
+    }
+
+    /**
+     * Writes the entries of the documents with some capitalized occurrence of a term to {@link #termEntries}, and
+     * their skip points to {@link #skipPoints}.
+     *
+     * @return The number of entries.
+     */
+    private int writeEntries(String field, PostingsEnum postings) throws IOException {
+        termEntries.reset();
+        skipCount = 0;
+        int entryCount = 0;
+        int lastDoc = 0;
+        for (int doc = postings.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = postings.nextDoc()) {
+            int freq = postings.freq();
+            int length = (freq + 3) >>> 2;
+            classes = ArrayUtil.grow(classes, length);
+            boolean capitalized = false;
+            for (int i = 0; i < freq; i++) {
+                if ((i & 3) == 0) {
+                    classes[i >>> 2] = 0;
+                }
+                postings.nextPosition();
+                int code = codeOf(field, postings.getPayload());
+                if (code != 0) {
+                    classes[i >>> 2] |= code << ((i & 3) << 1);
+                    capitalized = true;
+                }
+            }
+
+            if (capitalized) {
+                if (entryCount > 0 && entryCount % CapitalizationPostingsFormat.SKIP_INTERVAL == 0) {
+                    skipPoints = ArrayUtil.grow(skipPoints, skipCount * 2 + 2);
+                    skipPoints[skipCount * 2] = lastDoc;
+                    skipPoints[skipCount * 2 + 1] = termEntries.getPosition();
+                    skipCount++;
+                }
+                // Up to 4 positions (most documents): no length
+                if (length == 1) {
+                    termEntries.writeVLong((long) (doc - lastDoc) << 1 | 1);
+                } else {
+                    termEntries.writeVLong((long) (doc - lastDoc) << 1);
+                    termEntries.writeVInt(length);
+                }
+                termEntries.writeBytes(classes, 0, length);
+                lastDoc = doc;
+                entryCount++;
+            }
+        }
+        return entryCount;
+    }
+
+    /**
+     * @return The 2-bit code of a capitalization payload: 0 without payload, the class ordinal + 1 otherwise.
+     * @throws IllegalArgumentException Not a capitalization payload.
+     */
+    private static int codeOf(String field, BytesRef payload) {
+        if (payload == null || payload.length == 0) {
+            return 0;
+        }
+        if (payload.length == 1) {
+            for (CapitalizationPayloadEnum payloadEnum : PAYLOAD_ENUMS) {
+                BytesRef payloadBytes = payloadEnum.getPayloadBytes();
+                if (payloadBytes.bytes[payloadBytes.offset] == payload.bytes[payload.offset]) {
+                    return payloadEnum.ordinal() + 1;
+                }
+            }
+        }
+        throw new IllegalArgumentException(String.format("Field \"%s\" has a payload that is not a capitalization " +
+                "class (%s): %s", field, CapitalizationPostingsFormat.NAME, payload));
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        boolean success = false;
+        try {
+            index.writeVInt(fieldIndexes.size());
+            for (FieldIndex fieldIndex : fieldIndexes) {
+                index.writeVInt(fieldIndex.number);
+                fieldIndex.fst.save(index);
+            }
+            CodecUtil.writeFooter(index);
+            CodecUtil.writeFooter(data);
+            success = true;
+        } finally {
+            if (success) {
+                IOUtils.close(delegate, data, index);
+            } else {
+                IOUtils.closeWhileHandlingException(delegate, data, index);
+            }
+        }
+    }
+
+    private static final class FieldIndex {
+        private final int number;
+        private final FST<Long> fst;
+
+        FieldIndex(int number, FST<Long> fst) {
+            this.number = number;
+            this.fst = fst;
+        }
+    }
+}
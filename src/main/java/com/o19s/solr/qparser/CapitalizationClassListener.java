@@ -0,0 +1,79 @@
+package com.o19s.solr.qparser;
+
+import com.o19s.solr.qparser.capitalization.CapitalizationClasses;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.core.AbstractSolrEventListener;
+import org.apache.solr.core.SolrCore;
+import org.apache.solr.search.QParserPlugin;
+import org.apache.solr.search.SolrIndexSearcher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads the capitalization classes of the new segments of a new searcher, before it is registered, for the
+ * capitalization query parser plugins configured with a "capitalizationClasses" sidecar (see
+ * {@link CapitalizationClasses}). The segments already read by a previous searcher are not read again: after a
+ * commit, only the flushed and merged segments are.
+ * <p>
+ * Example (solrconfig.xml):
+ * <pre>
+ * &lt;listener event="newSearcher" class="com.o19s.solr.qparser.CapitalizationClassListener"&gt;
+ *     &lt;arr name="parsers"&gt;&lt;str&gt;cap&lt;/str&gt;&lt;/arr&gt;
+ * &lt;/listener&gt;
+ * </pre>
+ * Register it for the firstSearcher event as well, for the searcher opened when the core is loaded.
+ */
+public class CapitalizationClassListener extends AbstractSolrEventListener {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CapitalizationClassListener.class);
+
+    private List<String> parserNames = Collections.singletonList("cap");
+
+    public CapitalizationClassListener(SolrCore core) {
+        super(core);
+    }
+
+    @Override
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    public void init(NamedList args) {
+        super.init(args);
+        List<String> names = (List<String>) args.get("parsers");
+        if (names != null) {
+            parserNames = new ArrayList<>(names);
+        }
+    }
+
+    @Override
+    public void newSearcher(SolrIndexSearcher newSearcher, SolrIndexSearcher currentSearcher) {
+        for (String parserName : parserNames) {
+            QParserPlugin plugin = getCore().getQueryPlugin(parserName);
+            CapitalizationClasses capitalizationClasses = plugin instanceof CapitalizationQParserPlugin
+                    ? ((CapitalizationQParserPlugin) plugin).getCapitalizationClasses() : null;
+            if (capitalizationClasses == null) {
+                LOG.warn("Query parser \"{}\" has no capitalization classes", parserName);
+                continue;
+            }
+
+            long start = System.nanoTime();
+            try {
+                int segments = capitalizationClasses.index(newSearcher.getIndexReader());
+                LOG.info("Query parser \"{}\": capitalization classes of {} segment(s) read in {} ms", parserName,
+                        segments, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            } catch (IOException ioe) {
+                // The capitalization clauses of the searcher remain span clauses
+                LOG.warn("Capitalization classes not read: {}", parserName, ioe);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{parsers=" + parserNames + "}";
+    }
+}
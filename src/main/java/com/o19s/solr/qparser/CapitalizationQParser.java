@@ -1,7 +1,7 @@
 package com.o19s.solr.qparser;
 
-import com.o19s.solr.qparser.capitalization.CapitalizationQParserSimple;
-import org.apache.lucene.analysis.Analyzer;
+import com.codahale.metrics.Timer;
+import com.o19s.solr.qparser.capitalization.CapitalizationClasses;
 import org.apache.lucene.search.Query;
 import org.apache.solr.common.params.SolrParams;
 import org.apache.solr.request.SolrQueryRequest;
@@ -10,26 +10,130 @@ import org.apache.solr.search.SyntaxError;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.List;
+
 public class CapitalizationQParser extends QParser {
     private static final Logger LOG = LoggerFactory.getLogger(CapitalizationQParser.class);
+    static final String MODE_PAYLOAD = "payload";
+    static final String MODE_MARKER = "marker";
+    // The parameters that shape the query
+    private static final List<String> QUERY_PARAMS = Arrays.asList("qf", "mode", "markerField", "filter");
+
+    private final ParsedQueryCache queryCache;
+    private final QParserEngineRegistry<CapitalizationQParserEngine> engines;
+    private final QParserMetrics metrics;
+    private final WarmupQueries warmupQueries;
+    private final TermContextCache termContextCache;
+    private final CapitalizationClasses capitalizationClasses;
 
     public CapitalizationQParser(String qstr, SolrParams localParams, SolrParams params, SolrQueryRequest req) {
+        this(qstr, localParams, params, req, null,
+                CapitalizationQParserEngine.registry(null, QParserMetrics.UNREGISTERED, TermExpansion.DEFAULT),
+                QParserMetrics.UNREGISTERED, null, null, null);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param capitalizationClasses The plugin's capitalization classes sidecar (optional): without it, the
+     *                              capitalization clauses are always span clauses.
+     */
+    CapitalizationQParser(String qstr, SolrParams localParams, SolrParams params, SolrQueryRequest req,
+                          ParsedQueryCache queryCache, QParserEngineRegistry<CapitalizationQParserEngine> engines,
+                          QParserMetrics metrics, WarmupQueries warmupQueries,
+                          TermContextCache termContextCache, CapitalizationClasses capitalizationClasses) {
         super(qstr, localParams, params, req);
+        this.queryCache = queryCache;
+        this.engines = engines;
+        this.metrics = metrics;
+        this.warmupQueries = warmupQueries;
+        this.termContextCache = termContextCache;
+        this.capitalizationClasses = capitalizationClasses;
     }
 
     public Query parse() throws SyntaxError {
+        Timer.Context requestTimer = metrics.getRequests().time();
+        try {
+            Query query = parseQuery();
+            if (warmupQueries != null) {
+                warmupQueries.record(qstr, WarmupQueries.captureParams(this, QUERY_PARAMS, null));
+            }
+            if (capitalizationClasses != null) {
+                query = rewriteClasses(query);
+            }
+            if (termContextCache != null) {
+                // The term states of the request's searcher, looked up once per searcher
+                query = termContextCache.bind(query, req.getSearcher());
+            }
+            // Filter mode: constant score, the documents are taken from the filterCache
+            return Boolean.parseBoolean(getParam("filter")) ? new FilterCacheQuery(query) : query;
+        } catch (SyntaxError se) {
+            metrics.getErrors().inc();
+            throw se;
+        } finally {
+            requestTimer.stop();
+        }
+    }
+
+    /**
+     * Answers the capitalization clause with the capitalization classes of the request's index: no match, or the
+     * documents containing the term.
+     */
+    private Query rewriteClasses(Query query) {
+        try {
+            Query rewritten = capitalizationClasses.rewrite(query, req.getSearcher().getIndexReader());
+            if (rewritten != query) {
+                metrics.getClassShortcuts().inc();
+                LOG.debug("Capitalization classes: {} --> {}", query, rewritten);
+            }
+            return rewritten;
+        } catch (IOException ioe) {
+            throw new UncheckedIOException(ioe);
+        }
+    }
+
+    /**
+     * Parses the search string with the field's parser (or takes the query from the parsed-query cache), without
+     * the rewrites of {@link #parse()}.
+     */
+    Query parseQuery() throws SyntaxError {
         // Get the field to query
         String qf = getParam("qf");
-        LOG.info("qf: {}", qf);
+        String mode = getParam("mode"); // Capitalization indexed as: payload (default) or marker terms
+        if (mode == null) {
+            mode = MODE_PAYLOAD;
+        }
+        mode = mode.toLowerCase();
+        String markerField = getParam("markerField"); // Field of the marker terms (marker); qf by default
+        if (markerField == null) {
+            markerField = qf;
+        }
+        LOG.debug("qf: {}; mode: {}; markerField: {}", qf, mode, markerField);
 
-        // Get the query-time analyzer for "qf"
-        Analyzer analyzer = req.getCore().getLatestSchema().getFieldType(qf).getQueryAnalyzer();
+        // The query cache key's "impl" covers the options that change the query
+        String cacheImpl = MODE_MARKER.equals(mode) ? mode + "/" + markerField : mode;
+        if (queryCache != null) {
+            Query cachedQuery = queryCache.get(req.getSchema(), qf, qstr, 100, cacheImpl);
+            if (cachedQuery != null) {
+                LOG.debug("Cached query: {}", cachedQuery);
+                return cachedQuery;
+            }
+        }
 
-        IQueryParser parser = new CapitalizationQParserSimple(qf, analyzer);
+        // The field's parsers, built once (query-time analyzer included)
+        IQueryParser parser = engines.get(req.getSchema(), qf).getParser(mode, markerField);
 
         Query query = parser.parse(qstr, 100);
 
-        LOG.info("Query: {}", query);
+        metrics.getClauses().update(QParserMetrics.countClauses(query));
+        LOG.debug("Query: {}", query);
+
+        if (queryCache != null) {
+            queryCache.put(req.getSchema(), qf, qstr, 100, cacheImpl, query);
+        }
 
         return query;
     }
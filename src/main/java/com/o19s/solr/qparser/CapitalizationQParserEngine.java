@@ -0,0 +1,77 @@
+package com.o19s.solr.qparser;
+
+import com.o19s.solr.analysis.AnalysisCache;
+import com.o19s.solr.qparser.capitalization.CapitalizationQParserMarker;
+import com.o19s.solr.qparser.capitalization.CapitalizationQParserSimple;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.solr.search.SyntaxError;
+
+/**
+ * The capitalization parsers of a field, built once and shared by the requests. A request whose marker terms
+ * are in a sibling field gets a marker parser of its own, still built with the field's analyzer.
+ */
+class CapitalizationQParserEngine {
+
+    private final String fieldName;
+    private final Analyzer analyzer;
+    private final AnalysisCache analysisCache;
+    private final QParserMetrics metrics;
+    private final TermExpansion termExpansion;
+    private final IQueryParser payload;
+    private final IQueryParser marker;
+
+    /**
+     * Constructor.
+     *
+     * @param fieldName     The field to query
+     * @param analyzer      The field's query-time analyzer
+     * @param analysisCache The analysis cache (optional)
+     * @param metrics       The plugin's metrics
+     * @param termExpansion The plugin's expansion of the wildcard terms
+     */
+    CapitalizationQParserEngine(String fieldName, Analyzer analyzer, AnalysisCache analysisCache,
+                                QParserMetrics metrics, TermExpansion termExpansion) {
+        this.fieldName = fieldName;
+        this.analyzer = analyzer;
+        this.analysisCache = analysisCache;
+        this.metrics = metrics;
+        this.termExpansion = termExpansion;
+        payload = new CapitalizationQParserSimple(fieldName, analyzer, analysisCache, metrics, termExpansion);
+        marker = new CapitalizationQParserMarker(fieldName, analyzer, analysisCache, fieldName, metrics,
+                termExpansion);
+    }
+
+    /**
+     * @param analysisCache The analysis cache (optional)
+     * @param metrics       The plugin's metrics
+     * @param termExpansion The plugin's expansion of the wildcard terms
+     * @return The registry of the capitalization parsers, one engine per field.
+     */
+    static QParserEngineRegistry<CapitalizationQParserEngine> registry(AnalysisCache analysisCache,
+                                                                       QParserMetrics metrics,
+                                                                       TermExpansion termExpansion) {
+        return new QParserEngineRegistry<>("capitalization", (schema, fieldName) -> new CapitalizationQParserEngine(
+                fieldName, schema.getFieldType(fieldName).getQueryAnalyzer(), analysisCache, metrics,
+                termExpansion));
+    }
+
+    /**
+     * @param mode        Capitalization indexed as: payload or marker terms (lower case)
+     * @param markerField Field of the marker terms (marker)
+     * @return The parser for the request.
+     * @throws SyntaxError Unknown capitalization mode.
+     */
+    IQueryParser getParser(String mode, String markerField) throws SyntaxError {
+        switch (mode) {
+            case CapitalizationQParser.MODE_PAYLOAD:
+                return payload;
+            case CapitalizationQParser.MODE_MARKER:
+                return fieldName.equals(markerField) ? marker
+                        : new CapitalizationQParserMarker(fieldName, analyzer, analysisCache, markerField, metrics,
+                        termExpansion);
+            default:
+                throw new SyntaxError(String.format("Unknown capitalization mode \"%s\". Usage: mode=%s|%s",
+                        mode, CapitalizationQParser.MODE_PAYLOAD, CapitalizationQParser.MODE_MARKER));
+        }
+    }
+}
@@ -1,19 +1,105 @@
 package com.o19s.solr.qparser;
 
+import com.o19s.solr.analysis.AnalysisCache;
+import com.o19s.solr.qparser.capitalization.CapitalizationClasses;
+import org.apache.lucene.search.Query;
 import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.metrics.SolrMetricManager;
+import org.apache.solr.metrics.SolrMetricProducer;
 import org.apache.solr.request.SolrQueryRequest;
 import org.apache.solr.search.QParser;
 import org.apache.solr.search.QParserPlugin;
+import org.apache.solr.search.SyntaxError;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class CapitalizationQParserPlugin extends QParserPlugin {
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class CapitalizationQParserPlugin extends QParserPlugin implements SolrMetricProducer,
+        WarmableQParserPlugin, ValidatableQParserPlugin {
 
     private static final Logger LOG = LoggerFactory.getLogger(CapitalizationQParserPlugin.class);
+    private ParsedQueryCache queryCache;
+    private QParserEngineRegistry<CapitalizationQParserEngine> engines;
+    private QParserEngineRegistry<CapitalizationQParserEngine> validationEngines;
+    private WarmupQueries warmupQueries;
+    private TermContextCache termContextCache;
+    private CapitalizationClasses capitalizationClasses;
+    private final QParserMetrics metrics = new QParserMetrics();
+    private final Set<String> metricNames = ConcurrentHashMap.newKeySet();
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public void init(NamedList args) {
+        queryCache = ParsedQueryCache.create("capitalizationQueryCache",
+                args == null ? null : (NamedList) args.get("queryCache"));
+        AnalysisCache analysisCache = AnalysisCache.create(args == null ? null
+                : (NamedList) args.get("analysisCache"));
+        termContextCache = TermContextCache.create(args == null ? null
+                : (NamedList) args.get("termContextCache"));
+        warmupQueries = WarmupQueries.create(args == null ? null : (NamedList) args.get("warmup"));
+        // Read by a CapitalizationClassListener for each new searcher
+        capitalizationClasses = CapitalizationClasses.create(args == null ? null
+                : (NamedList) args.get("capitalizationClasses"));
+        // Wildcard terms: the most frequent matching terms, up to a maximum (optionally cached per searcher)
+        TermExpansion termExpansion = TermExpansion.create(args == null ? null
+                : (NamedList) args.get("termExpansion"));
+        // The parsers of a field are built by its first request, then shared until the schema changes
+        engines = CapitalizationQParserEngine.registry(analysisCache, metrics, termExpansion);
+        // The validation of saved queries and the warm-up leave the metrics of the searches alone
+        validationEngines = CapitalizationQParserEngine.registry(analysisCache, QParserMetrics.UNREGISTERED,
+                termExpansion);
+    }
 
     public QParser createParser(String s, SolrParams localParams, SolrParams globalParams, SolrQueryRequest solrQueryRequest) {
-        LOG.info(String.format("createParser(s=%s, localParams=%s, globalParams=%s)", s, localParams, globalParams));
-        return new CapitalizationQParser(s, localParams, globalParams, solrQueryRequest);
+        LOG.debug("createParser(s={}, localParams={}, globalParams={})", s, localParams, globalParams);
+        return new CapitalizationQParser(s, localParams, globalParams, solrQueryRequest, queryCache, engines,
+                metrics, warmupQueries, termContextCache, capitalizationClasses);
+    }
+
+    /**
+     * @return The capitalization classes sidecar, or null when not configured.
+     */
+    CapitalizationClasses getCapitalizationClasses() {
+        return capitalizationClasses;
+    }
+
+    @Override
+    public Query parseForValidation(String qstr, SolrParams params, SolrQueryRequest req) throws SyntaxError {
+        return new CapitalizationQParser(qstr, null, params, req, null, validationEngines,
+                QParserMetrics.UNREGISTERED, null, null, null).parseQuery();
+    }
+
+    @Override
+    public Query parseForWarmup(String qstr, SolrParams params, SolrQueryRequest req) throws SyntaxError {
+        return new CapitalizationQParser(qstr, null, params, req, queryCache, validationEngines,
+                QParserMetrics.UNREGISTERED, null, termContextCache, capitalizationClasses).parse();
+    }
+
+    @Override
+    public List<WarmupQueries.Entry> getWarmupQueries(int count) {
+        return warmupQueries == null ? Collections.emptyList() : warmupQueries.getQueries(count);
+    }
+
+    @Override
+    public QParserMetrics getMetrics() {
+        return metrics;
+    }
+
+    @Override
+    public void initializeMetrics(SolrMetricManager manager, String registryName, String tag, String scope) {
+        metrics.register(manager, registryName, this, scope);
+        if (queryCache != null) {
+            queryCache.initializeMetrics(manager, registryName, tag, scope);
+        }
     }
 
+    @Override
+    public Set<String> getMetricNames() {
+        return metricNames;
+    }
 }
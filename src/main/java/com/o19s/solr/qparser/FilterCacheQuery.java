@@ -0,0 +1,75 @@
+package com.o19s.solr.qparser;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.ConstantScoreQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Weight;
+import org.apache.solr.search.DocSet;
+import org.apache.solr.search.ExtendedQueryBase;
+import org.apache.solr.search.SolrConstantScoreQuery;
+import org.apache.solr.search.SolrIndexSearcher;
+
+import java.io.IOException;
+
+/**
+ * Constant-score query (filter=true) that matches the documents of the wrapped query, taken from Solr's
+ * filterCache: the wrapped query is evaluated once per searcher, without scores, whether the filter is used in
+ * q or in fq.
+ * <p>
+ * Without scores, the span and interval queries stop at the first matching position of each document instead of
+ * enumerating all the matches to compute the frequency.
+ * <p>
+ * The filter itself is not cached (cache=false), only the wrapped query: otherwise, used in fq, the same
+ * documents would be cached twice, under the filter and under the wrapped query.
+ */
+public class FilterCacheQuery extends ExtendedQueryBase {
+
+    private final Query query;
+
+    /**
+     * Constructor.
+     *
+     * @param query The query whose documents are cached
+     */
+    public FilterCacheQuery(Query query) {
+        this.query = query;
+        setCache(false);
+    }
+
+    public Query getQuery() {
+        return query;
+    }
+
+    @Override
+    public Query rewrite(IndexReader reader) throws IOException {
+        Query rewritten = query.rewrite(reader);
+        return rewritten == query ? this : new FilterCacheQuery(rewritten);
+    }
+
+    @Override
+    public Weight createWeight(IndexSearcher searcher, boolean needsScores, float boost) throws IOException {
+        if (!(searcher instanceof SolrIndexSearcher)) {
+            // Outside of Solr (e.g., unit tests), there is no filterCache
+            return new ConstantScoreQuery(query).createWeight(searcher, needsScores, boost);
+        }
+
+        DocSet docSet = ((SolrIndexSearcher) searcher).getDocSet(query);
+        return new SolrConstantScoreQuery(docSet.getTopFilter()).createWeight(searcher, needsScores, boost);
+    }
+
+    @Override
+    public String toString(String field) {
+        return "filter(" + query.toString(field) + ")";
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return sameClassAs(other) && query.equals(((FilterCacheQuery) other).query);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * classHash() + query.hashCode();
+    }
+}
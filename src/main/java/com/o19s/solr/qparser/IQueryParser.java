@@ -3,6 +3,10 @@ package com.o19s.solr.qparser;
 import org.apache.lucene.search.Query;
 import org.apache.solr.search.SyntaxError;
 
+/**
+ * A query parser bound to a field. Implementations are immutable and thread-safe: the plugins build them once
+ * per field and share them among the requests (see {@link QParserEngineRegistry}).
+ */
 public interface IQueryParser {
 
     Query parse(String qstr, int mmAsPercent) throws SyntaxError;
@@ -0,0 +1,206 @@
+package com.o19s.solr.qparser;
+
+import org.apache.lucene.search.Query;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.metrics.SolrMetricManager;
+import org.apache.solr.schema.IndexSchema;
+import org.apache.solr.search.FastLRUCache;
+import org.apache.solr.search.LFUCache;
+import org.apache.solr.search.SolrCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.regex.Pattern;
+
+/**
+ * A bounded, concurrent cache of the Lucene queries built by a query parser plugin.
+ * <p>
+ * The cache is backed by one of Solr's own cache implementations (solr.FastLRUCache by default, or solr.LFUCache)
+ * so that its hit, miss and eviction counts are reported through Solr's metrics like any other cache.
+ * The entries are keyed by (qf, normalized qstr, mm, parser implementation, schema version) and the whole cache
+ * is cleared as soon as a request comes in with a schema different from the one the entries were built with.
+ * <p>
+ * Example (solrconfig.xml):
+ * <pre>
+ * &lt;queryParser name="proximity" class="com.o19s.solr.qparser.ProximityQParserPlugin"&gt;
+ *     &lt;lst name="queryCache"&gt;
+ *         &lt;str name="class"&gt;solr.FastLRUCache&lt;/str&gt;
+ *         &lt;str name="size"&gt;1024&lt;/str&gt;
+ *     &lt;/lst&gt;
+ * &lt;/queryParser&gt;
+ * </pre>
+ */
+public class ParsedQueryCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ParsedQueryCache.class);
+    private static final String DEFAULT_SIZE = "1024";
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private final SolrCache<Key, Query> cache;
+    private volatile SchemaVersion current = new SchemaVersion(null, 0);
+
+    private ParsedQueryCache(SolrCache<Key, Query> cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Creates a cache from the "queryCache" section of a plugin's init args.
+     *
+     * @param name      The cache name, as reported in the metrics.
+     * @param cacheArgs The cache configuration (class, size, initialSize...); null for the defaults.
+     * @return A new cache, or null if the cache is disabled (size of 0).
+     */
+    @SuppressWarnings("unchecked")
+    public static ParsedQueryCache create(String name, NamedList<?> cacheArgs) {
+        Map<String, String> args = new HashMap<>();
+        args.put("size", DEFAULT_SIZE);
+        if (cacheArgs != null) {
+            for (int i = 0; i < cacheArgs.size(); i++) {
+                args.put(cacheArgs.getName(i), String.valueOf(cacheArgs.getVal(i)));
+            }
+        }
+        args.put("name", name);
+        args.remove("autowarmCount");
+
+        if (Integer.parseInt(args.get("size")) <= 0) {
+            LOG.info("Query cache \"{}\" disabled", name);
+            return null;
+        }
+
+        String className = args.remove("class");
+        SolrCache<Key, Query> cache;
+        if (className == null || className.endsWith("FastLRUCache")) {
+            cache = new FastLRUCache<>();
+        } else if (className.endsWith("LFUCache")) {
+            cache = new LFUCache<>();
+        } else {
+            throw new IllegalArgumentException(String.format("Unsupported query cache class \"%s\"", className));
+        }
+        cache.init(args, null, null);
+        cache.setState(SolrCache.State.LIVE);
+
+        return new ParsedQueryCache(cache);
+    }
+
+    /**
+     * Normalizes a search string so that insignificant whitespace differences share the same cache entry.
+     *
+     * @param qstr End-user's search string
+     * @return The trimmed search string with runs of whitespace collapsed into single spaces.
+     */
+    static String normalize(String qstr) {
+        return qstr == null ? "" : WHITESPACE.matcher(qstr.trim()).replaceAll(" ");
+    }
+
+    /**
+     * Looks up a query.
+     *
+     * @param schema The request's schema
+     * @param qf     Query field
+     * @param qstr   End-user's search string
+     * @param mm     Minimum should match (as a percentage)
+     * @param impl   Parser implementation, along with any option changing the query
+     * @return The cached query or null.
+     */
+    public Query get(IndexSchema schema, String qf, String qstr, int mm, String impl) {
+        return cache.get(new Key(qf, normalize(qstr), mm, impl, checkSchema(schema)));
+    }
+
+    /**
+     * Caches a query.
+     *
+     * @param schema The request's schema
+     * @param qf     Query field
+     * @param qstr   End-user's search string
+     * @param mm     Minimum should match (as a percentage)
+     * @param impl   Parser implementation, along with any option changing the query
+     * @param query  The query built from the above.
+     */
+    public void put(IndexSchema schema, String qf, String qstr, int mm, String impl, Query query) {
+        cache.put(new Key(qf, normalize(qstr), mm, impl, checkSchema(schema)), query);
+    }
+
+    /**
+     * Registers the cache's metrics (lookups, hits, evictions...) with Solr's metric manager.
+     */
+    public void initializeMetrics(SolrMetricManager manager, String registryName, String tag, String scope) {
+        cache.initializeMetrics(manager, registryName, tag, scope);
+    }
+
+    public void close() {
+        cache.close();
+    }
+
+    /**
+     * Clears the cache when the schema changes (e.g., schema reload) and returns the current schema version.
+     */
+    private int checkSchema(IndexSchema requestSchema) {
+        SchemaVersion version = current;
+        if (version.schema == requestSchema) {
+            return version.version;
+        }
+
+        synchronized (this) {
+            if (current.schema != requestSchema) {
+                if (current.schema != null) {
+                    LOG.info("Schema changed; clearing the query cache \"{}\"", cache.name());
+                    cache.clear();
+                }
+                current = new SchemaVersion(requestSchema, current.version + 1);
+            }
+            return current.version;
+        }
+    }
+
+    private static final class SchemaVersion {
+        private final IndexSchema schema;
+        private final int version;
+
+        SchemaVersion(IndexSchema schema, int version) {
+            this.schema = schema;
+            this.version = version;
+        }
+    }
+
+    private static final class Key {
+        private final String qf;
+        private final String qstr;
+        private final int mm;
+        private final String impl;
+        private final int schemaVersion;
+        private final int hash;
+
+        Key(String qf, String qstr, int mm, String impl, int schemaVersion) {
+            this.qf = qf;
+            this.qstr = qstr;
+            this.mm = mm;
+            this.impl = impl;
+            this.schemaVersion = schemaVersion;
+            this.hash = Objects.hash(qf, qstr, mm, impl, schemaVersion);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return mm == other.mm &&
+                    schemaVersion == other.schemaVersion &&
+                    Objects.equals(qf, other.qf) &&
+                    Objects.equals(qstr, other.qstr) &&
+                    Objects.equals(impl, other.impl);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.o19s.solr.qparser;
+
+import org.apache.lucene.index.IndexReader;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One LRU cache per index reader, i.e., per searcher (searchers opened on the same reader share it), dropped as
+ * soon as the reader is closed: the values computed from a reader, e.g., term states or term expansions.
+ *
+ * @param <K> The key type
+ * @param <V> The value type
+ */
+final class PerReaderCache<K, V> {
+
+    /**
+     * Computes the value of a key from an index reader.
+     */
+    interface Loader<K, V> {
+        V load(K key, IndexReader reader) throws IOException;
+    }
+
+    private final int maxSize;
+    private final Loader<K, V> loader;
+    private final Map<IndexReader.CacheKey, ReaderCache> readerCaches = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Constructor.
+     *
+     * @param maxSize Maximum number of values per index reader.
+     * @param loader  Computes the missing values
+     */
+    PerReaderCache(int maxSize, Loader<K, V> loader) {
+        this.maxSize = maxSize;
+        this.loader = loader;
+    }
+
+    /**
+     * @param key    The key
+     * @param reader The index reader of the searcher
+     * @return The value of the key for the reader, cached unless the reader is not cacheable.
+     */
+    V get(K key, IndexReader reader) throws IOException {
+        IndexReader.CacheHelper cacheHelper = reader.getReaderCacheHelper();
+        if (cacheHelper == null) {
+            return loader.load(key, reader);
+        }
+
+        ReaderCache readerCache = readerCaches.get(cacheHelper.getKey());
+        if (readerCache == null) {
+            readerCache = readerCaches.computeIfAbsent(cacheHelper.getKey(), cacheKey -> {
+                // Released along with the reader
+                cacheHelper.addClosedListener(readerCaches::remove);
+                return new ReaderCache();
+            });
+        }
+        return readerCache.get(key, reader);
+    }
+
+    long getHits() {
+        return hits.get();
+    }
+
+    long getMisses() {
+        return misses.get();
+    }
+
+    long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * @return The number of index readers with cached values.
+     */
+    int size() {
+        return readerCaches.size();
+    }
+
+    /**
+     * LRU cache of a single index reader.
+     */
+    private final class ReaderCache {
+        private final LinkedHashMap<K, V> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+        V get(K key, IndexReader reader) throws IOException {
+            V value;
+            synchronized (this) {
+                value = entries.get(key);
+            }
+            if (value != null) {
+                hits.incrementAndGet();
+                return value;
+            }
+
+            // Computed outside of the lock: concurrent misses on the same key compute the same value
+            misses.incrementAndGet();
+            value = loader.load(key, reader);
+
+            synchronized (this) {
+                entries.put(key, value);
+                while (entries.size() > maxSize) {
+                    entries.remove(entries.keySet().iterator().next());
+                    evictions.incrementAndGet();
+                }
+            }
+            return value;
+        }
+    }
+}
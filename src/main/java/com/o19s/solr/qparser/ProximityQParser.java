@@ -1,33 +1,162 @@
 package com.o19s.solr.qparser;
 
-import com.o19s.solr.qparser.proximity.ProximityQParserSimple;
-import org.apache.lucene.analysis.Analyzer;
+import com.codahale.metrics.Timer;
+import com.o19s.solr.qparser.proximity.FieldLengthStats;
+import com.o19s.solr.qparser.proximity.ProximityBudget;
+import com.o19s.solr.qparser.proximity.ProximityConjunctions;
+import com.o19s.solr.qparser.proximity.ProximityPairs;
+import com.o19s.solr.qparser.proximity.ProximityQueryPlanner;
+import com.o19s.solr.qparser.proximity.SpanConstruction;
 import org.apache.lucene.search.Query;
 import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.handler.component.ResponseBuilder;
 import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.request.SolrRequestInfo;
 import org.apache.solr.search.QParser;
 import org.apache.solr.search.SyntaxError;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Arrays;
+import java.util.List;
+
 public class ProximityQParser extends QParser {
     private static final Logger LOG = LoggerFactory.getLogger(ProximityQParser.class);
+    static final String IMPL_SIMPLE = "simple";
+    static final String IMPL_PHRASE = "phrase";
+    static final String IMPL_INTERVALS = "intervals";
+    // The parameters that shape the query, besides the budget ones
+    private static final List<String> QUERY_PARAMS = Arrays.asList("qf", "mm", "impl", "spans", "plan", "filter",
+            "pairField");
+
+    private final ParsedQueryCache queryCache;
+    private final QParserEngineRegistry<ProximityQParserEngine> engines;
+    private final QParserMetrics metrics;
+    private final ProximityBudget budget;
+    private final WarmupQueries warmupQueries;
+    private final TermContextCache termContextCache;
+    private final FieldLengthStats fieldLengthStats;
 
-    ProximityQParser(String qstr, SolrParams localParams, SolrParams params, SolrQueryRequest req) {
-        super(qstr, localParams, params, req);
+    /**
+     * Constructor.
+     *
+     * @param engines          The plugin's parser engines, one per field
+     * @param defaults         The plugin's default parameters (optional), e.g., impl: the request's parameters
+     *                         override them.
+     * @param warmupQueries    The plugin's warm-up queries (optional): records the request's query.
+     * @param termContextCache The plugin's term states cache (optional)
+     * @param fieldLengthStats The plugin's field length statistics (optional): without them, the proximity
+     *                         clauses are never executed as conjunctions.
+     */
+    ProximityQParser(String qstr, SolrParams localParams, SolrParams params, SolrQueryRequest req,
+                     ParsedQueryCache queryCache, QParserEngineRegistry<ProximityQParserEngine> engines,
+                     QParserMetrics metrics, ProximityBudget budget, SolrParams defaults,
+                     WarmupQueries warmupQueries, TermContextCache termContextCache,
+                     FieldLengthStats fieldLengthStats) {
+        super(qstr, localParams, SolrParams.wrapDefaults(params, defaults), req);
+        this.queryCache = queryCache;
+        this.engines = engines;
+        this.metrics = metrics;
+        this.budget = budget;
+        this.warmupQueries = warmupQueries;
+        this.termContextCache = termContextCache;
+        this.fieldLengthStats = fieldLengthStats;
     }
 
     public Query parse() throws SyntaxError {
+        Timer.Context requestTimer = metrics.getRequests().time();
+        try {
+            Query query = parseQuery();
+            if (warmupQueries != null) {
+                warmupQueries.record(qstr, WarmupQueries.captureParams(this, QUERY_PARAMS,
+                        ProximityBudget.PARAM_PREFIX));
+            }
+            if (fieldLengthStats != null) {
+                query = rewriteConjunctions(query);
+            }
+            String pairField = getParam("pairField"); // Companion field of adjacency pairs (optional)
+            if (pairField != null) {
+                query = rewritePairs(query, pairField);
+            }
+            if (termContextCache != null) {
+                // The term states of the request's searcher, looked up once per searcher
+                query = termContextCache.bind(query, req.getSearcher());
+            }
+            // Filter mode: constant score, the documents are taken from the filterCache
+            return Boolean.parseBoolean(getParam("filter")) ? new FilterCacheQuery(query) : query;
+        } catch (SyntaxError se) {
+            metrics.getErrors().inc();
+            throw se;
+        } finally {
+            requestTimer.stop();
+        }
+    }
+
+    /**
+     * Executes the unordered proximity clauses whose distance covers the longest field value of the request's
+     * index as conjunctions.
+     */
+    private Query rewriteConjunctions(Query query) {
+        ProximityConjunctions conjunctions = new ProximityConjunctions(fieldLengthStats,
+                req.getSearcher().getIndexReader());
+        Query rewritten = conjunctions.rewrite(query);
+        if (conjunctions.getRewrites() > 0) {
+            metrics.getConjunctionRewrites().inc(conjunctions.getRewrites());
+            LOG.debug("Proximity clauses executed as conjunctions: {} --> {}", query, rewritten);
+            addDebugInfo("proximityConjunctions", conjunctions.getRewrites() + " proximity clause(s) "
+                    + "covering the longest field value executed as conjunctions: " + query + " --> " + rewritten);
+        }
+        return rewritten;
+    }
+
+    /**
+     * Answers the short proximity clauses with term lookups in a companion field of adjacency pairs.
+     */
+    private Query rewritePairs(Query query, String pairField) throws SyntaxError {
+        ProximityPairs pairs = ProximityPairs.create(req.getSchema(), pairField, getParam("qf"));
+        Query rewritten = pairs.rewrite(query);
+        if (pairs.getRewrites() > 0) {
+            metrics.getPairRewrites().inc(pairs.getRewrites());
+            LOG.debug("Proximity clauses executed as pair lookups: {} --> {}", query, rewritten);
+            addDebugInfo("proximityPairs", pairs.getRewrites() + " proximity clause(s) executed as lookups of "
+                    + pairField + " pairs: " + query + " --> " + rewritten);
+        }
+        return rewritten;
+    }
+
+    private static void addDebugInfo(String key, String info) {
+        SolrRequestInfo requestInfo = SolrRequestInfo.getRequestInfo();
+        ResponseBuilder rb = requestInfo == null ? null : requestInfo.getResponseBuilder();
+        if (rb != null && rb.isDebugQuery()) {
+            rb.addDebugInfo(key, info);
+        }
+    }
+
+    /**
+     * Parses the search string with the field's parser (or takes the query from the parsed-query cache), without
+     * the rewrites of {@link #parse()}.
+     */
+    Query parseQuery() throws SyntaxError {
         // Get the field to query
         String qf = getParam("qf"); // Query field (single-field at the moment)
         String mm = getParam("mm"); // Minimum should match (as a percentage)
-        LOG.info("qf: {}; mm: {}", qf, mm);
-
-        // Get the query-time analyzer for "qf"
-        Analyzer analyzer = req.getCore().getLatestSchema().getFieldType(qf).getQueryAnalyzer();
-
-        // Use the "Simple" proximity query parser for illustration purposes
-        IQueryParser parser = new ProximityQParserSimple(qf, analyzer);
+        String impl = getParam("impl"); // Parser implementation: simple (default), phrase or intervals
+        if (impl == null) {
+            impl = IMPL_SIMPLE;
+        }
+        SpanConstruction spanConstruction; // Span construction (phrase): cartesian (default) or factored
+        try {
+            spanConstruction = SpanConstruction.fromName(getParam("spans"));
+        } catch (IllegalArgumentException iae) {
+            throw new SyntaxError(String.format("Invalid spans \"%s\". Usage: spans=cartesian|factored",
+                    getParam("spans")), iae);
+        }
+        // Planning with the index's term statistics (simple): false (default) or true
+        boolean plan = Boolean.parseBoolean(getParam("plan"));
+        // Cost budget: the plugin's, possibly lowered by the request
+        ProximityBudget requestBudget = budget.withOverrides(SolrParams.wrapDefaults(localParams, params));
+        LOG.debug("qf: {}; mm: {}; impl: {}; spans: {}; plan: {}; {}", qf, mm, impl, spanConstruction, plan,
+                requestBudget);
 
         int mmAsPercent = 100;
         try {
@@ -38,9 +167,31 @@ public class ProximityQParser extends QParser {
             throw new SyntaxError(String.format("Invalid mm format \"%s\"", mm), nfe);
         }
 
+        // The query cache key's "impl" covers the options that change the query. A planned query depends on the
+        // index's term statistics, which change with every new searcher: it is not cached.
+        String cacheImpl = impl.toLowerCase() + "/" + spanConstruction + "/" + requestBudget;
+        ParsedQueryCache queryCache = plan ? null : this.queryCache;
+        if (queryCache != null) {
+            Query cachedQuery = queryCache.get(req.getSchema(), qf, qstr, mmAsPercent, cacheImpl);
+            if (cachedQuery != null) {
+                LOG.debug("Cached query: {}", cachedQuery);
+                return cachedQuery;
+            }
+        }
+
+        // The field's parsers, built once (query-time analyzer included)
+        ProximityQParserEngine engine = engines.get(req.getSchema(), qf);
+        ProximityQueryPlanner planner = plan ? new ProximityQueryPlanner(req.getSearcher().getIndexReader()) : null;
+        IQueryParser parser = engine.getParser(impl, spanConstruction, requestBudget, planner);
+
         Query query = parser.parse(qstr, mmAsPercent);
 
-        LOG.info("Query: {}", query);
+        metrics.getClauses().update(QParserMetrics.countClauses(query));
+        LOG.debug("Query: {}", query);
+
+        if (queryCache != null) {
+            queryCache.put(req.getSchema(), qf, qstr, mmAsPercent, cacheImpl, query);
+        }
 
         return query;
     }
@@ -0,0 +1,119 @@
+package com.o19s.solr.qparser;
+
+import com.o19s.solr.analysis.AnalysisCache;
+import com.o19s.solr.qparser.proximity.ProximityBudget;
+import com.o19s.solr.qparser.proximity.ProximityQParserIntervals;
+import com.o19s.solr.qparser.proximity.ProximityQParserSimple;
+import com.o19s.solr.qparser.proximity.ProximityQParserWithPhrase;
+import com.o19s.solr.qparser.proximity.ProximityQueryPlanner;
+import com.o19s.solr.qparser.proximity.SpanConstruction;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.solr.search.SyntaxError;
+
+/**
+ * The proximity parsers of a field, built once with the plugin's configuration and shared by the requests.
+ * A request that lowers the budget or plans its query gets parsers of its own, still built with the field's
+ * analyzer.
+ */
+class ProximityQParserEngine {
+
+    private final String fieldName;
+    private final Analyzer analyzer;
+    private final AnalysisCache analysisCache;
+    private final QParserMetrics metrics;
+    private final ProximityBudget budget;
+    private final TermExpansion termExpansion;
+    private final IQueryParser simple;
+    private final IQueryParser phraseCartesian;
+    private final IQueryParser phraseFactored;
+    private final IQueryParser intervals;
+
+    /**
+     * Constructor.
+     *
+     * @param fieldName     The field to query
+     * @param analyzer      The field's query-time analyzer
+     * @param analysisCache The analysis cache (optional)
+     * @param metrics       The plugin's metrics
+     * @param budget        The plugin's cost budget
+     * @param termExpansion The plugin's expansion of the wildcard terms
+     */
+    ProximityQParserEngine(String fieldName, Analyzer analyzer, AnalysisCache analysisCache, QParserMetrics metrics,
+                           ProximityBudget budget, TermExpansion termExpansion) {
+        this.fieldName = fieldName;
+        this.analyzer = analyzer;
+        this.analysisCache = analysisCache;
+        this.metrics = metrics;
+        this.budget = budget;
+        this.termExpansion = termExpansion;
+        simple = createParser(ProximityQParser.IMPL_SIMPLE, SpanConstruction.CARTESIAN, budget, null);
+        phraseCartesian = createParser(ProximityQParser.IMPL_PHRASE, SpanConstruction.CARTESIAN, budget, null);
+        phraseFactored = createParser(ProximityQParser.IMPL_PHRASE, SpanConstruction.FACTORED, budget, null);
+        intervals = createParser(ProximityQParser.IMPL_INTERVALS, SpanConstruction.CARTESIAN, budget, null);
+    }
+
+    /**
+     * @param analysisCache The analysis cache (optional)
+     * @param metrics       The plugin's metrics
+     * @param budget        The plugin's cost budget
+     * @param termExpansion The plugin's expansion of the wildcard terms
+     * @return The registry of the proximity parsers, one engine per field.
+     */
+    static QParserEngineRegistry<ProximityQParserEngine> registry(AnalysisCache analysisCache, QParserMetrics metrics,
+                                                                  ProximityBudget budget,
+                                                                  TermExpansion termExpansion) {
+        return new QParserEngineRegistry<>("proximity", (schema, fieldName) -> new ProximityQParserEngine(
+                fieldName, schema.getFieldType(fieldName).getQueryAnalyzer(), analysisCache, metrics, budget,
+                termExpansion));
+    }
+
+    /**
+     * @param impl             Parser implementation: simple, phrase or intervals
+     * @param spanConstruction Span construction (phrase)
+     * @param requestBudget    The request's cost budget
+     * @param planner          The request's planner (simple, optional)
+     * @return The parser for the request.
+     * @throws SyntaxError Unknown parser implementation.
+     */
+    IQueryParser getParser(String impl, SpanConstruction spanConstruction, ProximityBudget requestBudget,
+                           ProximityQueryPlanner planner) throws SyntaxError {
+        String implName = impl.toLowerCase();
+        if (planner != null || !budget.equals(requestBudget)) {
+            IQueryParser parser = createParser(implName, spanConstruction, requestBudget, planner);
+            if (parser != null) {
+                return parser;
+            }
+        } else {
+            switch (implName) {
+                case ProximityQParser.IMPL_SIMPLE:
+                    return simple;
+                case ProximityQParser.IMPL_PHRASE:
+                    return spanConstruction == SpanConstruction.FACTORED ? phraseFactored : phraseCartesian;
+                case ProximityQParser.IMPL_INTERVALS:
+                    return intervals;
+                default:
+                    break;
+            }
+        }
+        throw new SyntaxError(String.format("Unknown proximity parser implementation \"%s\". Usage: impl=%s|%s|%s",
+                impl, ProximityQParser.IMPL_SIMPLE, ProximityQParser.IMPL_PHRASE, ProximityQParser.IMPL_INTERVALS));
+    }
+
+    private IQueryParser createParser(String impl, SpanConstruction spanConstruction, ProximityBudget budget,
+                                      ProximityQueryPlanner planner) {
+        switch (impl) {
+            case ProximityQParser.IMPL_SIMPLE:
+                // Use the "Simple" proximity query parser for illustration purposes
+                return new ProximityQParserSimple(fieldName, analyzer, analysisCache, metrics, budget, planner,
+                        termExpansion);
+            case ProximityQParser.IMPL_PHRASE:
+                return new ProximityQParserWithPhrase(fieldName, analyzer, analysisCache, spanConstruction, metrics,
+                        budget, termExpansion);
+            case ProximityQParser.IMPL_INTERVALS:
+                // Same semantics as "phrase", executed with intervals rather than spans
+                return new ProximityQParserIntervals(fieldName, analyzer, analysisCache, metrics, budget);
+            default:
+                return null;
+        }
+    }
+}
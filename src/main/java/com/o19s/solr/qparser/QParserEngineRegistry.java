@@ -0,0 +1,108 @@
+package com.o19s.solr.qparser;
+
+import org.apache.solr.schema.IndexSchema;
+import org.apache.solr.search.SyntaxError;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The parser engines of a query parser plugin, one per queried field: immutable, thread-safe objects holding
+ * everything a request needs besides its search string (the field's query-time analyzer, the parser
+ * implementations built with the plugin's configuration...), so that a request only parses.
+ * <p>
+ * The schema is not known when the plugin is initialized: an engine is built by the first request on its field,
+ * then shared by all the requests with the same schema. All the engines are dropped as soon as a request comes
+ * in with a different schema (e.g., schema reload), as the field's analyzer may have changed.
+ *
+ * @param <E> The engine type
+ */
+public class QParserEngineRegistry<E> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(QParserEngineRegistry.class);
+
+    /**
+     * Builds the engine of a field.
+     */
+    public interface EngineFactory<E> {
+        /**
+         * @param schema    The schema of the request
+         * @param fieldName The queried field
+         * @return The field's engine.
+         * @throws SyntaxError The field cannot be queried.
+         */
+        E create(IndexSchema schema, String fieldName) throws SyntaxError;
+    }
+
+    private final String name;
+    private final EngineFactory<E> factory;
+    private volatile Engines<E> current = new Engines<>(null);
+
+    /**
+     * Constructor.
+     *
+     * @param name    The registry's name (for logging)
+     * @param factory Builds the engine of a field
+     */
+    public QParserEngineRegistry(String name, EngineFactory<E> factory) {
+        this.name = name;
+        this.factory = factory;
+    }
+
+    /**
+     * @param schema    The schema of the request
+     * @param fieldName The queried field
+     * @return The field's engine, built with the request's schema.
+     * @throws SyntaxError The field cannot be queried.
+     */
+    public E get(IndexSchema schema, String fieldName) throws SyntaxError {
+        if (fieldName == null) {
+            throw new SyntaxError("Missing query field (qf)");
+        }
+
+        Engines<E> engines = current;
+        if (engines.schema != schema) {
+            engines = checkSchema(schema);
+        }
+
+        E engine = engines.byField.get(fieldName);
+        if (engine == null) {
+            // Two requests may build the same engine concurrently: the first one registered wins
+            E newEngine = factory.create(schema, fieldName);
+            engine = engines.byField.putIfAbsent(fieldName, newEngine);
+            if (engine == null) {
+                LOG.debug("Engine \"{}\" built for the field \"{}\"", name, fieldName);
+                engine = newEngine;
+            }
+        }
+        return engine;
+    }
+
+    /**
+     * @return The number of engines built for the current schema.
+     */
+    int size() {
+        return current.byField.size();
+    }
+
+    private synchronized Engines<E> checkSchema(IndexSchema requestSchema) {
+        if (current.schema != requestSchema) {
+            if (current.schema != null) {
+                LOG.info("Schema changed; dropping the parser engines \"{}\"", name);
+            }
+            current = new Engines<>(requestSchema);
+        }
+        return current;
+    }
+
+    private static final class Engines<E> {
+        private final IndexSchema schema;
+        private final ConcurrentMap<String, E> byField = new ConcurrentHashMap<>();
+
+        Engines(IndexSchema schema) {
+            this.schema = schema;
+        }
+    }
+}
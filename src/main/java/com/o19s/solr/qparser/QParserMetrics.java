@@ -0,0 +1,179 @@
+package com.o19s.solr.qparser;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.ExponentiallyDecayingReservoir;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.spans.SpanNearQuery;
+import org.apache.lucene.search.spans.SpanOrQuery;
+import org.apache.lucene.search.spans.SpanQuery;
+import org.apache.solr.core.SolrInfoBean;
+import org.apache.solr.metrics.SolrMetricManager;
+
+/**
+ * Hot-path metrics of a query parser plugin, reported by Solr's metrics API (/admin/metrics) under
+ * QUERYPARSER.&lt;plugin name&gt;.*:
+ * <ul>
+ * <li>requestTimes: Time to produce the query, query cache hits included</li>
+ * <li>parseTimes, analyzeTimes, buildTimes: Time of each phase of the query parser flow</li>
+ * <li>errors: Number of syntax errors</li>
+ * <li>clauses: Number of term clauses per query</li>
+ * <li>spanExpansions: Number of span clauses produced by the cartesian span construction</li>
+ * <li>budgetRejections, budgetDegradations: Number of queries over budget rejected or degraded</li>
+ * <li>conjunctionRewrites: Number of proximity clauses executed as conjunctions, their distance covering the
+ * longest field value</li>
+ * <li>pairRewrites: Number of proximity clauses executed as lookups of adjacency pairs</li>
+ * <li>classShortcuts: Number of capitalization clauses answered by the capitalization classes of the index,
+ * without any position check</li>
+ * <li>warmupTimes, warmupQueries: Time to warm up a new searcher and number of queries replayed</li>
+ * </ul>
+ * The metrics are only reported once registered; the parsers used outside of Solr (tests, benchmarks) use
+ * {@link #UNREGISTERED}.
+ */
+public class QParserMetrics {
+
+    /**
+     * Metrics not reported anywhere.
+     */
+    public static final QParserMetrics UNREGISTERED = new QParserMetrics();
+
+    private final Timer requests = new Timer();
+    private final Timer parse = new Timer();
+    private final Timer analyze = new Timer();
+    private final Timer build = new Timer();
+    private final Counter errors = new Counter();
+    private final Histogram clauses = new Histogram(new ExponentiallyDecayingReservoir());
+    private final Counter spanExpansions = new Counter();
+    private final Counter budgetRejections = new Counter();
+    private final Counter budgetDegradations = new Counter();
+    private final Counter conjunctionRewrites = new Counter();
+    private final Counter pairRewrites = new Counter();
+    private final Counter classShortcuts = new Counter();
+    private final Timer warmup = new Timer();
+    private final Counter warmupQueries = new Counter();
+
+    /**
+     * Registers the metrics with Solr's metric manager.
+     *
+     * @param manager      The metric manager
+     * @param registryName The core's registry
+     * @param info         The query parser plugin
+     * @param scope        The plugin's name
+     */
+    public void register(SolrMetricManager manager, String registryName, SolrInfoBean info, String scope) {
+        register(manager, registryName, info, scope, requests, "requestTimes");
+        register(manager, registryName, info, scope, parse, "parseTimes");
+        register(manager, registryName, info, scope, analyze, "analyzeTimes");
+        register(manager, registryName, info, scope, build, "buildTimes");
+        register(manager, registryName, info, scope, errors, "errors");
+        register(manager, registryName, info, scope, clauses, "clauses");
+        register(manager, registryName, info, scope, spanExpansions, "spanExpansions");
+        register(manager, registryName, info, scope, budgetRejections, "budgetRejections");
+        register(manager, registryName, info, scope, budgetDegradations, "budgetDegradations");
+        register(manager, registryName, info, scope, conjunctionRewrites, "conjunctionRewrites");
+        register(manager, registryName, info, scope, pairRewrites, "pairRewrites");
+        register(manager, registryName, info, scope, classShortcuts, "classShortcuts");
+        register(manager, registryName, info, scope, warmup, "warmupTimes");
+        register(manager, registryName, info, scope, warmupQueries, "warmupQueries");
+    }
+
+    /**
+     * Registers a metric and adds its name to the plugin's metric names (see SolrInfoBean.getMetricNames()).
+     */
+    private static void register(SolrMetricManager manager, String registryName, SolrInfoBean info, String scope,
+                                 Metric metric, String metricName) {
+        String category = info.getCategory().toString();
+        manager.registerMetric(info, registryName, metric, true, metricName, category, scope);
+        info.registerMetricName(MetricRegistry.name(category, scope, metricName));
+    }
+
+    public Timer getRequests() {
+        return requests;
+    }
+
+    public Timer getParse() {
+        return parse;
+    }
+
+    public Timer getAnalyze() {
+        return analyze;
+    }
+
+    public Timer getBuild() {
+        return build;
+    }
+
+    public Counter getErrors() {
+        return errors;
+    }
+
+    public Histogram getClauses() {
+        return clauses;
+    }
+
+    public Counter getSpanExpansions() {
+        return spanExpansions;
+    }
+
+    public Counter getBudgetRejections() {
+        return budgetRejections;
+    }
+
+    public Counter getBudgetDegradations() {
+        return budgetDegradations;
+    }
+
+    public Counter getConjunctionRewrites() {
+        return conjunctionRewrites;
+    }
+
+    public Counter getPairRewrites() {
+        return pairRewrites;
+    }
+
+    public Counter getClassShortcuts() {
+        return classShortcuts;
+    }
+
+    public Timer getWarmup() {
+        return warmup;
+    }
+
+    public Counter getWarmupQueries() {
+        return warmupQueries;
+    }
+
+    /**
+     * @param query A query built by the query parsers
+     * @return The number of term clauses (leaves) of the query
+     */
+    public static int countClauses(Query query) {
+        if (query instanceof BooleanQuery) {
+            int count = 0;
+            for (BooleanClause clause : ((BooleanQuery) query).clauses()) {
+                count += countClauses(clause.getQuery());
+            }
+            return count;
+        }
+        if (query instanceof SpanNearQuery) {
+            return countClauses(((SpanNearQuery) query).getClauses());
+        }
+        if (query instanceof SpanOrQuery) {
+            return countClauses(((SpanOrQuery) query).getClauses());
+        }
+        return 1;
+    }
+
+    private static int countClauses(SpanQuery[] spanQueries) {
+        int count = 0;
+        for (SpanQuery spanQuery : spanQueries) {
+            count += countClauses(spanQuery);
+        }
+        return count;
+    }
+}
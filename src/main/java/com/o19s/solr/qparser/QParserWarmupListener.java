@@ -0,0 +1,154 @@
+package com.o19s.solr.qparser;
+
+import com.codahale.metrics.Timer;
+import org.apache.lucene.search.Query;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.core.AbstractSolrEventListener;
+import org.apache.solr.core.SolrCore;
+import org.apache.solr.request.LocalSolrQueryRequest;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.search.QParserPlugin;
+import org.apache.solr.search.SolrIndexSearcher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Warms up a new searcher, before it is registered, with the queries of the query parser plugins: their seed
+ * queries and their most recent queries (see {@link WarmupQueries}). Each query is parsed, which also warms up
+ * the plugin's caches, and searched, which loads the term dictionaries and postings and fills the searcher's
+ * queryResultCache (and filterCache, with filter=true). The replayed queries are neither recorded again nor
+ * counted as searches in the plugin's metrics.
+ * <p>
+ * The warm-up time and the number of queries replayed are reported in each plugin's metrics (warmupTimes,
+ * warmupQueries).
+ * <p>
+ * Example (solrconfig.xml):
+ * <pre>
+ * &lt;listener event="newSearcher" class="com.o19s.solr.qparser.QParserWarmupListener"&gt;
+ *     &lt;arr name="parsers"&gt;&lt;str&gt;proximity&lt;/str&gt;&lt;str&gt;cap&lt;/str&gt;&lt;/arr&gt;
+ *     &lt;int name="count"&gt;16&lt;/int&gt;
+ *     &lt;int name="rows"&gt;10&lt;/int&gt;
+ * &lt;/listener&gt;
+ * </pre>
+ * Register it for the firstSearcher event as well to warm up the searcher opened when the core is loaded: only
+ * the seed queries are replayed then.
+ */
+public class QParserWarmupListener extends AbstractSolrEventListener {
+
+    private static final Logger LOG = LoggerFactory.getLogger(QParserWarmupListener.class);
+    private static final int DEFAULT_COUNT = 16;
+    private static final int DEFAULT_ROWS = 10;
+
+    private List<String> parserNames = Collections.singletonList("proximity");
+    private int count = DEFAULT_COUNT;
+    private int rows = DEFAULT_ROWS;
+
+    public QParserWarmupListener(SolrCore core) {
+        super(core);
+    }
+
+    @Override
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    public void init(NamedList args) {
+        super.init(args);
+        List<String> names = (List<String>) args.get("parsers");
+        if (names != null) {
+            parserNames = new ArrayList<>(names);
+        }
+        Object countArg = args.get("count");
+        if (countArg != null) {
+            count = Integer.parseInt(countArg.toString());
+        }
+        Object rowsArg = args.get("rows");
+        if (rowsArg != null) {
+            rows = Integer.parseInt(rowsArg.toString());
+        }
+    }
+
+    @Override
+    public void newSearcher(SolrIndexSearcher newSearcher, SolrIndexSearcher currentSearcher) {
+        for (String parserName : parserNames) {
+            QParserPlugin plugin = getCore().getQueryPlugin(parserName);
+            if (!(plugin instanceof WarmableQParserPlugin)) {
+                LOG.warn("Query parser \"{}\" cannot be warmed up", parserName);
+                continue;
+            }
+            warm((WarmableQParserPlugin) plugin, parserName, newSearcher);
+        }
+    }
+
+    private void warm(WarmableQParserPlugin plugin, String parserName, SolrIndexSearcher searcher) {
+        List<WarmupQueries.Entry> queries = plugin.getWarmupQueries(count);
+        if (queries.isEmpty()) {
+            return;
+        }
+
+        QParserMetrics metrics = plugin.getMetrics();
+        int replayed;
+        Timer.Context warmupTimer = metrics.getWarmup().time();
+        try {
+            // The requests search the new searcher, not the registered one
+            replayed = replay(plugin, parserName, queries, params -> new LocalSolrQueryRequest(getCore(), params) {
+                @Override
+                public SolrIndexSearcher getSearcher() {
+                    return searcher;
+                }
+
+                @Override
+                public void close() {
+                }
+            }, query -> {
+                try {
+                    searcher.getDocList(query, (Query) null, null, 0, rows);
+                } catch (IOException ioe) {
+                    throw new UncheckedIOException(ioe);
+                }
+            });
+        } finally {
+            warmupTimer.stop();
+        }
+        metrics.getWarmupQueries().inc(replayed);
+        LOG.info("Query parser \"{}\": {} of {} warm-up queries replayed", parserName, replayed, queries.size());
+    }
+
+    /**
+     * Replays warm-up queries with {@link WarmableQParserPlugin#parseForWarmup}: they are neither recorded again
+     * nor counted in the metrics of the searches.
+     *
+     * @param requests Creates the request of a query from its parameters
+     * @param search   Searches a parsed query
+     * @return The number of queries replayed, the others having failed.
+     */
+    static int replay(WarmableQParserPlugin plugin, String parserName, List<WarmupQueries.Entry> queries,
+                      Function<SolrParams, SolrQueryRequest> requests, Consumer<Query> search) {
+        int replayed = 0;
+        for (WarmupQueries.Entry entry : queries) {
+            try {
+                Query query = plugin.parseForWarmup(entry.getQstr(), entry.getParams(),
+                        requests.apply(entry.getParams()));
+                if (query != null) {
+                    search.accept(query);
+                }
+                replayed++;
+            } catch (Exception e) {
+                // A query that no longer parses (e.g., a field removed from the schema) is skipped
+                LOG.warn("Warm-up query failed: {} {}", parserName, entry, e);
+            }
+        }
+        return replayed;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{parsers=" + parserNames + ", count=" + count + ", rows=" + rows + "}";
+    }
+}
@@ -0,0 +1,132 @@
+package com.o19s.solr.qparser;
+
+import com.o19s.solr.qparser.capitalization.CapitalizationSpanQuery;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchNoDocsQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.spans.SpanNearQuery;
+import org.apache.lucene.search.spans.SpanOrQuery;
+import org.apache.lucene.search.spans.SpanQuery;
+import org.apache.lucene.search.spans.SpanTermQuery;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Estimates the cost of a query from the term statistics of an index, without executing it: the number of
+ * postings the query reads at most, i.e., the documents of its term clauses (document frequency) and the positions
+ * of its span and intervals clauses (total term frequency). The wildcard terms count their expanded terms.
+ * <p>
+ * An estimator is bound to one searcher and looks the statistics of a term up once, e.g., once for a whole batch
+ * of queries. It is thread-safe.
+ */
+class QueryCostEstimator {
+
+    private final IndexSearcher searcher;
+    private final Map<Term, Long> docFreqs = new ConcurrentHashMap<>();
+    private final Map<Term, Long> totalTermFreqs = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor.
+     *
+     * @param searcher The searcher whose index the queries would search
+     */
+    QueryCostEstimator(IndexSearcher searcher) {
+        this.searcher = searcher;
+    }
+
+    /**
+     * @param query A parsed query
+     * @return The estimated cost of the query: the number of postings (documents and positions) it reads at most.
+     * @throws IOException The term statistics could not be read.
+     */
+    long estimate(Query query) throws IOException {
+        try {
+            return estimateCost(query);
+        } catch (UncheckedIOException uioe) {
+            throw uioe.getCause();
+        }
+    }
+
+    private long estimateCost(Query query) throws IOException {
+        if (query instanceof TermQuery) {
+            return docFreq(((TermQuery) query).getTerm());
+        }
+        if (query instanceof BooleanQuery) {
+            long cost = 0;
+            for (BooleanClause clause : ((BooleanQuery) query).clauses()) {
+                cost += estimateCost(clause.getQuery());
+            }
+            return cost;
+        }
+        if (query instanceof SpanTermQuery) {
+            return totalTermFreq(((SpanTermQuery) query).getTerm());
+        }
+        if (query instanceof CapitalizationSpanQuery) {
+            // The payloads of the term's positions
+            return estimateCost(((CapitalizationSpanQuery) query).getMatch());
+        }
+        if (query instanceof SpanNearQuery) {
+            return estimateCost(((SpanNearQuery) query).getClauses());
+        }
+        if (query instanceof SpanOrQuery) {
+            return estimateCost(((SpanOrQuery) query).getClauses());
+        }
+        if (query instanceof WildcardSpanQuery) {
+            // The most frequent matching terms (see TermExpansion)
+            return estimateCost(query.rewrite(searcher.getIndexReader()));
+        }
+        if (query instanceof MatchNoDocsQuery) {
+            return 0;
+        }
+
+        // Any other query (e.g., intervals): the positions of its terms
+        Set<Term> terms = new HashSet<>();
+        searcher.createWeight(searcher.rewrite(query), false, 1f).extractTerms(terms);
+        long cost = 0;
+        for (Term term : terms) {
+            cost += totalTermFreq(term);
+        }
+        return cost;
+    }
+
+    private long estimateCost(SpanQuery[] clauses) throws IOException {
+        long cost = 0;
+        for (SpanQuery clause : clauses) {
+            cost += estimateCost(clause);
+        }
+        return cost;
+    }
+
+    private long docFreq(Term term) {
+        return docFreqs.computeIfAbsent(term, t -> {
+            try {
+                return (long) searcher.getIndexReader().docFreq(t);
+            } catch (IOException ioe) {
+                throw new UncheckedIOException(ioe);
+            }
+        });
+    }
+
+    private long totalTermFreq(Term term) {
+        return totalTermFreqs.computeIfAbsent(term, t -> {
+            try {
+                IndexReader reader = searcher.getIndexReader();
+                long totalTermFreq = reader.totalTermFreq(t);
+                // -1 when the field has no frequencies (no positions either)
+                return totalTermFreq < 0 ? reader.docFreq(t) : totalTermFreq;
+            } catch (IOException ioe) {
+                throw new UncheckedIOException(ioe);
+            }
+        });
+    }
+}
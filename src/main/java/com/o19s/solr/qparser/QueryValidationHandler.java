@@ -0,0 +1,274 @@
+package com.o19s.solr.qparser;
+
+import org.apache.lucene.search.Query;
+import org.apache.solr.common.IteratorWriter;
+import org.apache.solr.common.MapWriter;
+import org.apache.solr.common.SolrException;
+import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.common.util.ContentStream;
+import org.apache.solr.common.util.ExecutorUtil;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.SimpleOrderedMap;
+import org.apache.solr.common.util.Utils;
+import org.apache.solr.core.CloseHook;
+import org.apache.solr.core.SolrCore;
+import org.apache.solr.handler.RequestHandlerBase;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.response.SolrQueryResponse;
+import org.apache.solr.search.QParserPlugin;
+import org.apache.solr.search.QueryParsing;
+import org.apache.solr.search.SyntaxError;
+import org.apache.solr.util.DefaultSolrThreadFactory;
+import org.apache.solr.util.plugin.SolrCoreAware;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Validates a batch of saved searches without executing them, e.g., after a change of the synonyms or of the
+ * schema: the queries are posted as JSON lines, parsed in parallel with the query parser plugins' parsers, and the
+ * results are streamed back in the same order, one per query: the parse error, or the canonical query, its number
+ * of clauses and its estimated cost (see {@link QueryCostEstimator}).
+ * <p>
+ * Each line holds the search string (q), an optional id (the line number by default) and the parameters of the
+ * query (defType, qf, impl...), which override the request's, e.g.:
+ * <pre>
+ * {"id": "s1", "q": "cat kitty w3 dog", "qf": "title_t", "impl": "phrase"}
+ * </pre>
+ * The queries are parsed by a pool of worker threads shared by the requests, with a bounded number of queries in
+ * flight per request: a batch of any size is read, parsed and written back as a stream. Only the plugins that
+ * implement {@link ValidatableQParserPlugin} can validate queries.
+ * <p>
+ * Example (solrconfig.xml):
+ * <pre>
+ * &lt;requestHandler name="/proximity/validate" class="com.o19s.solr.qparser.QueryValidationHandler"&gt;
+ *     &lt;int name="threads"&gt;4&lt;/int&gt;
+ *     &lt;lst name="defaults"&gt;
+ *         &lt;str name="defType"&gt;proximity&lt;/str&gt;
+ *         &lt;str name="qf"&gt;title_t&lt;/str&gt;
+ *     &lt;/lst&gt;
+ * &lt;/requestHandler&gt;
+ * </pre>
+ * Usage:
+ * <pre>
+ * curl -H 'Content-type: application/x-ndjson' --data-binary @saved-searches.jsonl \
+ *     http://localhost:8983/solr/demo/proximity/validate
+ * </pre>
+ */
+public class QueryValidationHandler extends RequestHandlerBase implements SolrCoreAware {
+
+    private static final Logger LOG = LoggerFactory.getLogger(QueryValidationHandler.class);
+    private static final String DEFAULT_PARSER = "proximity";
+    private static final String ID = "id";
+    // The queries in flight of a request, per worker thread
+    private static final int PENDING_PER_THREAD = 4;
+
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private ExecutorService executor;
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public void init(NamedList args) {
+        super.init(args);
+        Object threadsArg = args == null ? null : args.get("threads");
+        if (threadsArg != null) {
+            threads = Integer.parseInt(threadsArg.toString());
+        }
+    }
+
+    @Override
+    public void inform(SolrCore core) {
+        executor = ExecutorUtil.newMDCAwareFixedThreadPool(threads, new DefaultSolrThreadFactory("queryValidation"));
+        core.addCloseHook(new CloseHook() {
+            @Override
+            public void preClose(SolrCore core) {
+            }
+
+            @Override
+            public void postClose(SolrCore core) {
+                ExecutorUtil.shutdownAndAwaitTermination(executor);
+            }
+        });
+    }
+
+    @Override
+    public void handleRequestBody(SolrQueryRequest req, SolrQueryResponse rsp) {
+        Iterable<ContentStream> streams = req.getContentStreams();
+        if (streams == null) {
+            throw new SolrException(SolrException.ErrorCode.BAD_REQUEST, "No queries: post the queries as JSON lines");
+        }
+
+        // The statistics of the request's searcher, shared by the queries of the batch
+        QueryCostEstimator estimator = new QueryCostEstimator(req.getSearcher());
+        int[] counts = new int[2];
+
+        // Parsed while the response is written
+        rsp.add("results", (IteratorWriter) results -> {
+            IteratorWriter.ItemWriter countingResults = result -> {
+                counts[0]++;
+                if (((NamedList) result).get("error") != null) {
+                    counts[1]++;
+                }
+                return results.add(result);
+            };
+            for (ContentStream stream : streams) {
+                try (Reader reader = stream.getReader()) {
+                    validate(new BufferedReader(reader), (lineNumber, line) -> validate(lineNumber, line, req,
+                            estimator), executor, threads * PENDING_PER_THREAD, countingResults);
+                }
+            }
+            LOG.info("{} queries validated, {} errors", counts[0], counts[1]);
+        });
+        // Written after the results
+        rsp.add("summary", (MapWriter) summary -> summary.put("queries", counts[0]).put("errors", counts[1]));
+    }
+
+    /**
+     * Validates the queries of a stream of JSON lines in parallel, writing the results in the order of the lines.
+     *
+     * @param lines      The JSON lines (the blank ones are skipped)
+     * @param validator  Validates the query of a line
+     * @param executor   The worker threads
+     * @param maxPending The maximum number of queries in flight: beyond it, the oldest one is written before the
+     *                   next line is read
+     * @param results    Receives the results
+     */
+    static void validate(BufferedReader lines, LineValidator validator, ExecutorService executor, int maxPending,
+                         IteratorWriter.ItemWriter results) throws IOException {
+        Deque<Future<NamedList<Object>>> pending = new ArrayDeque<>();
+        try {
+            int lineNumber = 0;
+            for (String line = lines.readLine(); line != null; line = lines.readLine()) {
+                lineNumber++;
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                int number = lineNumber;
+                String jsonLine = line;
+                pending.add(executor.submit(() -> validator.validate(number, jsonLine)));
+                if (pending.size() >= maxPending) {
+                    results.add(getResult(pending.remove()));
+                }
+            }
+            while (!pending.isEmpty()) {
+                results.add(getResult(pending.remove()));
+            }
+        } finally {
+            // E.g., the client went away
+            for (Future<NamedList<Object>> future : pending) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    private static NamedList<Object> getResult(Future<NamedList<Object>> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted query validation", ie);
+        } catch (ExecutionException ee) {
+            throw new IOException("Query validation failed", ee.getCause());
+        }
+    }
+
+    /**
+     * Validates the query of a JSON line.
+     */
+    @FunctionalInterface
+    interface LineValidator {
+        /**
+         * @param lineNumber The number of the line (from 1)
+         * @param line       The JSON line
+         * @return The result: the query's id, and either an error or the parsed query.
+         */
+        NamedList<Object> validate(int lineNumber, String line);
+    }
+
+    private NamedList<Object> validate(int lineNumber, String line, SolrQueryRequest req,
+                                       QueryCostEstimator estimator) {
+        NamedList<Object> result = new SimpleOrderedMap<>();
+        Map<?, ?> json;
+        try {
+            json = parseLine(line);
+        } catch (SyntaxError se) {
+            result.add(ID, lineNumber);
+            result.add("error", se.getMessage());
+            return result;
+        }
+        Object id = json.get(ID);
+        result.add(ID, id == null ? lineNumber : id);
+
+        // The line's parameters override the request's
+        ModifiableSolrParams lineParams = new ModifiableSolrParams();
+        for (Map.Entry<?, ?> entry : json.entrySet()) {
+            if (!ID.equals(entry.getKey()) && entry.getValue() != null) {
+                lineParams.set(entry.getKey().toString(), entry.getValue().toString());
+            }
+        }
+        SolrParams params = SolrParams.wrapDefaults(lineParams, req.getParams());
+
+        try {
+            String qstr = params.get(CommonParams.Q);
+            if (qstr == null) {
+                throw new SyntaxError("Missing search string (q)");
+            }
+            String parserName = params.get(QueryParsing.DEFTYPE, DEFAULT_PARSER);
+            QParserPlugin plugin = req.getCore().getQueryPlugin(parserName);
+            if (!(plugin instanceof ValidatableQParserPlugin)) {
+                throw new SyntaxError(String.format("Query parser \"%s\" cannot validate queries", parserName));
+            }
+
+            Query query = ((ValidatableQParserPlugin) plugin).parseForValidation(qstr, params, req);
+            result.add("query", query.toString());
+            result.add("clauses", QParserMetrics.countClauses(query));
+            result.add("cost", estimator.estimate(query));
+        } catch (SyntaxError | IOException | RuntimeException | StackOverflowError e) {
+            // E.g., a syntax error, an unknown field or a query nested too deep for its tree walks: the other
+            // queries are validated all the same
+            result.add("error", errorMessage(e));
+        }
+        return result;
+    }
+
+    /**
+     * @return The error message of a failed validation, or the error class when it has no message.
+     */
+    static String errorMessage(Throwable t) {
+        return t.getMessage() != null ? t.getMessage() : t.toString();
+    }
+
+    /**
+     * @param line A JSON line
+     * @return The JSON object of the line.
+     * @throws SyntaxError The line is not a JSON object (e.g., invalid JSON, null, a number or an array).
+     */
+    static Map<?, ?> parseLine(String line) throws SyntaxError {
+        Object json;
+        try {
+            json = Utils.fromJSONString(line);
+        } catch (RuntimeException e) {
+            throw new SyntaxError("Invalid JSON line: " + e.getMessage(), e);
+        }
+        if (!(json instanceof Map)) {
+            throw new SyntaxError("Not a JSON object: " + line);
+        }
+        return (Map<?, ?>) json;
+    }
+
+    @Override
+    public String getDescription() {
+        return "Validates batches of queries (JSON lines) without executing them";
+    }
+}
@@ -0,0 +1,161 @@
+package com.o19s.solr.qparser;
+
+import com.o19s.solr.qparser.capitalization.CapitalizationSpanQuery;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermContext;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.spans.SpanNearQuery;
+import org.apache.lucene.search.spans.SpanOrQuery;
+import org.apache.lucene.search.spans.SpanQuery;
+import org.apache.lucene.search.spans.SpanTermQuery;
+import org.apache.solr.common.util.NamedList;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * An opt-in cache of the term states (TermContext) of the terms queried by a plugin: the per-segment lookups of
+ * a term in the term dictionaries, done once per searcher instead of once per term clause and per request.
+ * <p>
+ * There is one LRU cache per index reader, i.e., per searcher (searchers opened on the same reader share it),
+ * dropped as soon as the reader is closed. The term and span term queries of a query are bound to the cached
+ * term states of the request's searcher right before the query is searched; the queries kept in the query cache
+ * are not bound to any searcher.
+ * <p>
+ * Example (solrconfig.xml):
+ * <pre>
+ * &lt;queryParser name="proximity" class="com.o19s.solr.qparser.ProximityQParserPlugin"&gt;
+ *     &lt;lst name="termContextCache"&gt;
+ *         &lt;int name="size"&gt;10000&lt;/int&gt;
+ *     &lt;/lst&gt;
+ * &lt;/queryParser&gt;
+ * </pre>
+ */
+public class TermContextCache {
+
+    private static final int DEFAULT_SIZE = 10000;
+
+    private final PerReaderCache<Term, TermContext> termContexts;
+
+    /**
+     * Constructor.
+     *
+     * @param maxSize Maximum number of terms per index reader.
+     */
+    public TermContextCache(int maxSize) {
+        termContexts = new PerReaderCache<>(maxSize, (term, reader) -> TermContext.build(reader.getContext(), term));
+    }
+
+    /**
+     * Creates a cache from the "termContextCache" section of a plugin's init args.
+     *
+     * @param args The cache configuration (size); null if not configured.
+     * @return A new cache, or null when the cache is not configured or disabled (size of 0).
+     */
+    public static TermContextCache create(NamedList<?> args) {
+        if (args == null) {
+            return null;
+        }
+
+        Object size = args.get("size");
+        int maxSize = size == null ? DEFAULT_SIZE : Integer.parseInt(size.toString());
+        return maxSize > 0 ? new TermContextCache(maxSize) : null;
+    }
+
+    /**
+     * Binds the term and span term queries of a query to the cached term states of a searcher.
+     *
+     * @param query    A query built by the query parsers
+     * @param searcher The searcher that is going to search the query
+     * @return An equal query, whose term clauses carry their term states.
+     */
+    public Query bind(Query query, IndexSearcher searcher) {
+        IndexReader reader = searcher.getIndexReader();
+        if (reader.getReaderCacheHelper() == null) {
+            // Not cacheable: the term states would be looked up anyway
+            return query;
+        }
+        return bind(query, reader);
+    }
+
+    public long getHits() {
+        return termContexts.getHits();
+    }
+
+    public long getMisses() {
+        return termContexts.getMisses();
+    }
+
+    public long getEvictions() {
+        return termContexts.getEvictions();
+    }
+
+    /**
+     * @return The number of index readers with cached term states.
+     */
+    int size() {
+        return termContexts.size();
+    }
+
+    private TermContext get(Term term, IndexReader reader) {
+        try {
+            return termContexts.get(term, reader);
+        } catch (IOException ioe) {
+            throw new UncheckedIOException(ioe);
+        }
+    }
+
+    private Query bind(Query query, IndexReader reader) {
+        if (query instanceof TermQuery) {
+            Term term = ((TermQuery) query).getTerm();
+            return new TermQuery(term, get(term, reader));
+        }
+        if (query instanceof SpanQuery) {
+            return bind((SpanQuery) query, reader);
+        }
+        if (query instanceof BooleanQuery) {
+            BooleanQuery booleanQuery = (BooleanQuery) query;
+            BooleanQuery.Builder builder = new BooleanQuery.Builder()
+                    .setMinimumNumberShouldMatch(booleanQuery.getMinimumNumberShouldMatch());
+            for (BooleanClause clause : booleanQuery.clauses()) {
+                builder.add(bind(clause.getQuery(), reader), clause.getOccur());
+            }
+            return builder.build();
+        }
+        return query;
+    }
+
+    private SpanQuery bind(SpanQuery spanQuery, IndexReader reader) {
+        if (spanQuery instanceof SpanTermQuery) {
+            Term term = ((SpanTermQuery) spanQuery).getTerm();
+            return new SpanTermQuery(term, get(term, reader));
+        }
+        if (spanQuery instanceof SpanNearQuery) {
+            SpanNearQuery spanNearQuery = (SpanNearQuery) spanQuery;
+            return new SpanNearQuery(bind(spanNearQuery.getClauses(), reader), spanNearQuery.getSlop(),
+                    spanNearQuery.isInOrder());
+        }
+        if (spanQuery instanceof SpanOrQuery) {
+            return new SpanOrQuery(bind(((SpanOrQuery) spanQuery).getClauses(), reader));
+        }
+        if (spanQuery instanceof CapitalizationSpanQuery) {
+            CapitalizationSpanQuery capitalizationQuery = (CapitalizationSpanQuery) spanQuery;
+            return new CapitalizationSpanQuery((SpanTermQuery) bind(capitalizationQuery.getMatch(), reader),
+                    capitalizationQuery.getPayloadEnums());
+        }
+        return spanQuery;
+    }
+
+    private SpanQuery[] bind(SpanQuery[] clauses, IndexReader reader) {
+        SpanQuery[] boundClauses = new SpanQuery[clauses.length];
+        for (int i = 0; i < clauses.length; i++) {
+            boundClauses[i] = bind(clauses[i], reader);
+        }
+        return boundClauses;
+    }
+}
@@ -0,0 +1,160 @@
+package com.o19s.solr.qparser;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermContext;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.WildcardQuery;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.automaton.CompiledAutomaton;
+import org.apache.solr.common.util.NamedList;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Expands the wildcard terms of the queries (e.g., impeach*, firstcap(don*)) into terms of the searched index:
+ * the terms matching the pattern are enumerated from the segments' terms dictionaries, and only the most
+ * frequent ones (document frequency) are kept, up to a maximum, so that a short prefix never expands into
+ * thousands of clauses.
+ * <p>
+ * Opt-in, the expansions are cached per index reader, i.e., per searcher (LRU, dropped as soon as the reader is
+ * closed), along with the term states of the expanded terms: a repeated pattern does not walk the terms
+ * dictionaries again.
+ * <p>
+ * Example (solrconfig.xml):
+ * <pre>
+ * &lt;queryParser name="proximity" class="com.o19s.solr.qparser.ProximityQParserPlugin"&gt;
+ *     &lt;lst name="termExpansion"&gt;
+ *         &lt;int name="maxTerms"&gt;50&lt;/int&gt;
+ *         &lt;int name="cacheSize"&gt;1000&lt;/int&gt;
+ *     &lt;/lst&gt;
+ * &lt;/queryParser&gt;
+ * </pre>
+ */
+public class TermExpansion {
+
+    public static final int DEFAULT_MAX_TERMS = 50;
+    private static final int DEFAULT_CACHE_SIZE = 1000;
+
+    /**
+     * The expansion without configuration: up to {@link #DEFAULT_MAX_TERMS} terms, not cached.
+     */
+    public static final TermExpansion DEFAULT = new TermExpansion(DEFAULT_MAX_TERMS, 0);
+
+    // The least frequent of the kept terms first, the last one in term order among equals
+    private static final Comparator<ExpandedTerm> LEAST_FREQUENT_FIRST = Comparator
+            .comparingInt((ExpandedTerm expandedTerm) -> expandedTerm.docFreq)
+            .thenComparing(expandedTerm -> expandedTerm.bytes, Comparator.reverseOrder());
+
+    private final int maxTerms;
+    private final PerReaderCache<Term, SortedMap<Term, TermContext>> expansions;
+
+    /**
+     * Constructor.
+     *
+     * @param maxTerms  Maximum number of terms per wildcard term.
+     * @param cacheSize Maximum number of cached expansions per index reader; 0 to disable the cache.
+     */
+    public TermExpansion(int maxTerms, int cacheSize) {
+        if (maxTerms <= 0) {
+            throw new IllegalArgumentException("Invalid term expansion maxTerms: " + maxTerms);
+        }
+        this.maxTerms = maxTerms;
+        this.expansions = cacheSize > 0 ? new PerReaderCache<>(cacheSize, this::expandTerms) : null;
+    }
+
+    /**
+     * Creates the expansion from the "termExpansion" section of a plugin's init args.
+     *
+     * @param args The expansion configuration (maxTerms, cacheSize); null if not configured.
+     * @return The configured expansion, or {@link #DEFAULT} when not configured.
+     */
+    public static TermExpansion create(NamedList<?> args) {
+        if (args == null) {
+            return DEFAULT;
+        }
+
+        Object maxTerms = args.get("maxTerms");
+        Object cacheSize = args.get("cacheSize");
+        return new TermExpansion(maxTerms == null ? DEFAULT_MAX_TERMS : Integer.parseInt(maxTerms.toString()),
+                cacheSize == null ? DEFAULT_CACHE_SIZE : Integer.parseInt(cacheSize.toString()));
+    }
+
+    public int getMaxTerms() {
+        return maxTerms;
+    }
+
+    /**
+     * @param pattern A wildcard term (* and ?, see WildcardQuery)
+     * @param reader  The index reader of the searcher
+     * @return The most frequent terms of the index matching the pattern, up to the maximum, in term order, with
+     * their term states.
+     */
+    public SortedMap<Term, TermContext> expand(Term pattern, IndexReader reader) throws IOException {
+        return expansions == null ? expandTerms(pattern, reader) : expansions.get(pattern, reader);
+    }
+
+    public long getHits() {
+        return expansions == null ? 0 : expansions.getHits();
+    }
+
+    public long getMisses() {
+        return expansions == null ? 0 : expansions.getMisses();
+    }
+
+    public long getEvictions() {
+        return expansions == null ? 0 : expansions.getEvictions();
+    }
+
+    /**
+     * @return The number of index readers with cached expansions.
+     */
+    int size() {
+        return expansions == null ? 0 : expansions.size();
+    }
+
+    private SortedMap<Term, TermContext> expandTerms(Term pattern, IndexReader reader) throws IOException {
+        Terms terms = MultiFields.getTerms(reader, pattern.field());
+        if (terms == null) {
+            return Collections.emptySortedMap();
+        }
+
+        // The segments' terms matching the pattern, merged: the document frequencies are those of the index.
+        // The terms come in order: among equally frequent terms, the first ones are kept.
+        TermsEnum termsEnum = new CompiledAutomaton(WildcardQuery.toAutomaton(pattern)).getTermsEnum(terms);
+        PriorityQueue<ExpandedTerm> topTerms = new PriorityQueue<>(maxTerms, LEAST_FREQUENT_FIRST);
+        for (BytesRef term = termsEnum.next(); term != null; term = termsEnum.next()) {
+            int docFreq = termsEnum.docFreq();
+            if (topTerms.size() < maxTerms) {
+                topTerms.add(new ExpandedTerm(BytesRef.deepCopyOf(term), docFreq));
+            } else if (docFreq > topTerms.peek().docFreq) {
+                topTerms.poll();
+                topTerms.add(new ExpandedTerm(BytesRef.deepCopyOf(term), docFreq));
+            }
+        }
+
+        SortedMap<Term, TermContext> expansion = new TreeMap<>();
+        for (ExpandedTerm expandedTerm : topTerms) {
+            Term term = new Term(pattern.field(), expandedTerm.bytes);
+            expansion.put(term, TermContext.build(reader.getContext(), term));
+        }
+        return Collections.unmodifiableSortedMap(expansion);
+    }
+
+    private static final class ExpandedTerm {
+        private final BytesRef bytes;
+        private final int docFreq;
+
+        ExpandedTerm(BytesRef bytes, int docFreq) {
+            this.bytes = bytes;
+            this.docFreq = docFreq;
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package com.o19s.solr.qparser;
+
+import org.apache.lucene.search.Query;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.search.SyntaxError;
+
+/**
+ * A query parser plugin whose queries can be validated in batches, without being executed (see
+ * {@link QueryValidationHandler}).
+ */
+public interface ValidatableQParserPlugin {
+
+    /**
+     * Parses a search string with the plugin's parsers, as createParser(...).getQuery() would, without side
+     * effects: the parsed-query cache and the metrics are left alone, the query is not recorded for the warm-up,
+     * and the rewrites that only serve its execution (term states, conjunctions, pairs, capitalization classes,
+     * filter mode) are not applied.
+     *
+     * @param qstr   The search string
+     * @param params The query's parameters (qf...)
+     * @param req    The request: its schema and, for the options that read the index, its searcher
+     * @return The parsed query.
+     * @throws SyntaxError The search string or the parameters are invalid.
+     */
+    Query parseForValidation(String qstr, SolrParams params, SolrQueryRequest req) throws SyntaxError;
+}
@@ -0,0 +1,39 @@
+package com.o19s.solr.qparser;
+
+import org.apache.lucene.search.Query;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.search.SyntaxError;
+
+import java.util.List;
+
+/**
+ * A query parser plugin whose queries can be replayed to warm up a new searcher (see
+ * {@link QParserWarmupListener}).
+ */
+public interface WarmableQParserPlugin {
+
+    /**
+     * @param count Maximum number of recent queries
+     * @return The plugin's seed queries, then up to count of its recent queries.
+     */
+    List<WarmupQueries.Entry> getWarmupQueries(int count);
+
+    /**
+     * @return The plugin's metrics, warm-up included.
+     */
+    QParserMetrics getMetrics();
+
+    /**
+     * Parses a warm-up query as createParser(...).getQuery() would, rewrites included, so that it warms up the
+     * caches of the request's searcher, without side effects on the searches: the query is not recorded again,
+     * and the request, error and clause metrics are left alone.
+     *
+     * @param qstr   The search string
+     * @param params The query's parameters (see {@link WarmupQueries.Entry#getParams()})
+     * @param req    The request, on the new searcher
+     * @return The parsed query.
+     * @throws SyntaxError The query no longer parses, e.g., its field was removed from the schema.
+     */
+    Query parseForWarmup(String qstr, SolrParams params, SolrQueryRequest req) throws SyntaxError;
+}
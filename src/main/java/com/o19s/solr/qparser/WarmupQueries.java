@@ -0,0 +1,180 @@
+package com.o19s.solr.qparser;
+
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.search.QParser;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The queries a query parser plugin replays to warm up a new searcher (see {@link QParserWarmupListener}): the
+ * seed queries configured for the plugin, then the most recent distinct queries parsed by the plugin.
+ * <p>
+ * Example (solrconfig.xml):
+ * <pre>
+ * &lt;queryParser name="proximity" class="com.o19s.solr.qparser.ProximityQParserPlugin"&gt;
+ *     &lt;lst name="warmup"&gt;
+ *         &lt;int name="size"&gt;32&lt;/int&gt;
+ *         &lt;arr name="queries"&gt;
+ *             &lt;lst&gt;&lt;str name="q"&gt;fox w3 dog&lt;/str&gt;&lt;str name="qf"&gt;title&lt;/str&gt;&lt;/lst&gt;
+ *         &lt;/arr&gt;
+ *     &lt;/lst&gt;
+ * &lt;/queryParser&gt;
+ * </pre>
+ * The recent queries are lost with the core (core reload): the seed queries warm up the first searcher.
+ */
+public class WarmupQueries {
+
+    private static final int DEFAULT_SIZE = 32;
+
+    private final int maxSize;
+    private final List<Entry> seeds;
+    private final Map<String, Entry> recent;
+
+    /**
+     * Constructor.
+     *
+     * @param maxSize Maximum number of recent queries.
+     * @param seeds   The seed queries, always replayed first.
+     */
+    public WarmupQueries(int maxSize, List<Entry> seeds) {
+        this.maxSize = maxSize;
+        this.seeds = Collections.unmodifiableList(new ArrayList<>(seeds));
+        this.recent = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, WarmupQueries.Entry> eldest) {
+                return size() > WarmupQueries.this.maxSize;
+            }
+        };
+    }
+
+    /**
+     * Creates the warm-up queries from the "warmup" section of a plugin's init args.
+     *
+     * @param args The warm-up configuration (size, queries); null if not configured.
+     * @return The warm-up queries, or null when warm-up is not configured or disabled (size of 0 and no seed).
+     */
+    public static WarmupQueries create(NamedList<?> args) {
+        if (args == null) {
+            return null;
+        }
+
+        Object size = args.get("size");
+        int maxSize = size == null ? DEFAULT_SIZE : Integer.parseInt(size.toString());
+        List<Entry> seeds = new ArrayList<>();
+        List<?> queries = (List<?>) args.get("queries");
+        if (queries != null) {
+            for (Object query : queries) {
+                ModifiableSolrParams params = new ModifiableSolrParams(((NamedList) query).toSolrParams());
+                String qstr = params.get("q");
+                if (qstr == null) {
+                    throw new IllegalArgumentException("Warm-up query without q: " + params);
+                }
+                params.remove("q");
+                seeds.add(new Entry(qstr, params));
+            }
+        }
+
+        return maxSize > 0 || !seeds.isEmpty() ? new WarmupQueries(Math.max(0, maxSize), seeds) : null;
+    }
+
+    /**
+     * Records a query parsed by the plugin.
+     *
+     * @param qstr   End-user's search string
+     * @param params The parameters that shape the query (see {@link #captureParams})
+     */
+    public void record(String qstr, SolrParams params) {
+        if (maxSize == 0) {
+            return;
+        }
+        Entry entry = new Entry(ParsedQueryCache.normalize(qstr), params);
+        String key = entry.qstr + "\u0000" + params;
+        synchronized (recent) {
+            recent.put(key, entry);
+        }
+    }
+
+    /**
+     * @param count Maximum number of recent queries
+     * @return The seed queries, then up to count recent queries, the most recent first.
+     */
+    public List<Entry> getQueries(int count) {
+        List<Entry> queries = new ArrayList<>(seeds);
+        List<Entry> recentQueries;
+        synchronized (recent) {
+            recentQueries = new ArrayList<>(recent.values());
+        }
+        Collections.reverse(recentQueries);
+        queries.addAll(recentQueries.subList(0, Math.min(count, recentQueries.size())));
+        return queries;
+    }
+
+    /**
+     * Captures the parameters of a query parser that shape its query, so that it can be replayed.
+     *
+     * @param parser The query parser
+     * @param names  The names of the parameters read by the parser
+     * @param prefix The prefix of other parameters read by the parser (optional), e.g., budget.
+     * @return The values of the parameters, local parameters first.
+     */
+    public static SolrParams captureParams(QParser parser, List<String> names, String prefix) {
+        ModifiableSolrParams captured = new ModifiableSolrParams();
+        for (String name : names) {
+            String value = parser.getParam(name);
+            if (value != null) {
+                captured.set(name, value);
+            }
+        }
+        if (prefix != null) {
+            capturePrefixed(parser, parser.getParams(), prefix, captured);
+            capturePrefixed(parser, parser.getLocalParams(), prefix, captured);
+        }
+        return captured;
+    }
+
+    private static void capturePrefixed(QParser parser, SolrParams params, String prefix,
+                                        ModifiableSolrParams captured) {
+        if (params == null) {
+            return;
+        }
+        for (Iterator<String> it = params.getParameterNamesIterator(); it.hasNext(); ) {
+            String name = it.next();
+            if (name.startsWith(prefix)) {
+                captured.set(name, parser.getParam(name));
+            }
+        }
+    }
+
+    /**
+     * A query to replay: the search string and the parameters of the query parser.
+     */
+    public static final class Entry {
+        private final String qstr;
+        private final SolrParams params;
+
+        public Entry(String qstr, SolrParams params) {
+            this.qstr = qstr;
+            this.params = params;
+        }
+
+        public String getQstr() {
+            return qstr;
+        }
+
+        public SolrParams getParams() {
+            return params;
+        }
+
+        @Override
+        public String toString() {
+            return qstr + " " + params;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.o19s.solr.qparser;
+
+import com.o19s.solr.analysis.CapitalizationPayloadEnum;
+import com.o19s.solr.qparser.capitalization.CapitalizationSpanQuery;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermContext;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.spans.SpanOrQuery;
+import org.apache.lucene.search.spans.SpanQuery;
+import org.apache.lucene.search.spans.SpanTermQuery;
+import org.apache.lucene.search.spans.SpanWeight;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * A wildcard term, e.g., impeach* or don?ld, optionally with capitalization classes, e.g., firstcap(don*): it is
+ * rewritten into the disjunction of the most frequent matching terms of the searched index (see
+ * {@link TermExpansion}), capitalization checks included.
+ * <p>
+ * The query itself does not depend on any index, so it can be kept in the query caches; the expansion is done
+ * when it is searched, by each searcher.
+ */
+public class WildcardSpanQuery extends SpanQuery {
+
+    private final Term pattern;
+    private final Set<CapitalizationPayloadEnum> payloadEnums;
+    private final TermExpansion expansion;
+
+    /**
+     * Constructor.
+     *
+     * @param pattern      The wildcard term (* and ?, see WildcardQuery)
+     * @param payloadEnums The allowed capitalization classes; null for any capitalization
+     * @param expansion    The term expansion (maximum number of terms, cache)
+     */
+    public WildcardSpanQuery(Term pattern, Collection<CapitalizationPayloadEnum> payloadEnums,
+                             TermExpansion expansion) {
+        this.pattern = pattern;
+        this.payloadEnums = payloadEnums == null ? null : EnumSet.copyOf(payloadEnums);
+        this.expansion = expansion;
+    }
+
+    /**
+     * @param text A search term as typed by the end-user
+     * @return Whether the search term has wildcards (* or ?).
+     */
+    public static boolean isWildcard(String text) {
+        return text.indexOf('*') >= 0 || text.indexOf('?') >= 0;
+    }
+
+    public Term getPattern() {
+        return pattern;
+    }
+
+    /**
+     * @return The allowed capitalization classes, or null for any capitalization.
+     */
+    public Set<CapitalizationPayloadEnum> getPayloadEnums() {
+        return payloadEnums;
+    }
+
+    @Override
+    public String getField() {
+        return pattern.field();
+    }
+
+    @Override
+    public Query rewrite(IndexReader reader) throws IOException {
+        List<SpanQuery> clauses = new ArrayList<>();
+        for (Map.Entry<Term, TermContext> expandedTerm : expansion.expand(pattern, reader).entrySet()) {
+            SpanTermQuery termQuery = new SpanTermQuery(expandedTerm.getKey(), expandedTerm.getValue());
+            clauses.add(payloadEnums == null ? termQuery : new CapitalizationSpanQuery(termQuery, payloadEnums));
+        }
+        // No matching terms: an empty disjunction, which matches no documents
+        return clauses.size() == 1 ? clauses.get(0) : new SpanOrQuery(clauses.toArray(new SpanQuery[0]));
+    }
+
+    @Override
+    public SpanWeight createWeight(IndexSearcher searcher, boolean needsScores, float boost) {
+        throw new IllegalArgumentException("Rewrite first: " + this);
+    }
+
+    @Override
+    public String toString(String field) {
+        String text = pattern.field().equals(field) ? pattern.text() : pattern.toString();
+        if (payloadEnums == null) {
+            return text;
+        }
+        return payloadEnums.stream()
+                .map(CapitalizationPayloadEnum::getOperator)
+                .collect(Collectors.joining("|", "", "(" + text + ")"));
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return sameClassAs(other) &&
+                pattern.equals(((WildcardSpanQuery) other).pattern) &&
+                Objects.equals(payloadEnums, ((WildcardSpanQuery) other).payloadEnums) &&
+                expansion.getMaxTerms() == ((WildcardSpanQuery) other).expansion.getMaxTerms();
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = classHash();
+        hash = 31 * hash + pattern.hashCode();
+        hash = 31 * hash + Objects.hashCode(payloadEnums);
+        hash = 31 * hash + expansion.getMaxTerms();
+        return hash;
+    }
+}
@@ -0,0 +1,304 @@
+package com.o19s.solr.qparser.capitalization;
+
+import com.o19s.solr.analysis.CapitalizationPayloadEnum;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.MatchNoDocsQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.util.BytesRef;
+import org.apache.solr.common.util.NamedList;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A sidecar of the index: per segment and per field, the capitalization classes each term is indexed with (see
+ * CapitalizationPayloadTokenFilter), as a bitmask. It answers the capitalization clauses without enumerating any
+ * position when possible:
+ * <ul>
+ * <li>allcap(table), and table is never indexed all upper case: no match (MatchNoDocsQuery);</li>
+ * <li>allcap(nasa), and nasa is always indexed all upper case: every document containing nasa (TermQuery).</li>
+ * </ul>
+ * The classes of a segment are read once from its payloads, when a new searcher opens it (see
+ * com.o19s.solr.qparser.CapitalizationClassListener), and dropped along with the segment. Only the terms with
+ * some upper case are kept, sorted, in direct (off-heap) buffers: the entries [length (2 bytes)][term bytes]
+ * [classes (1 byte)] and their offsets. A searcher with a segment that was not read is not answered: its
+ * clauses remain span clauses.
+ * <p>
+ * Example (solrconfig.xml):
+ * <pre>
+ * &lt;queryParser name="cap" class="com.o19s.solr.qparser.CapitalizationQParserPlugin"&gt;
+ *     &lt;lst name="capitalizationClasses"&gt;
+ *         &lt;arr name="fields"&gt;&lt;str&gt;title_t&lt;/str&gt;&lt;/arr&gt;
+ *     &lt;/lst&gt;
+ * &lt;/queryParser&gt;
+ * </pre>
+ */
+public class CapitalizationClasses {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CapitalizationClasses.class);
+
+    /**
+     * The class of the positions without capitalization payload (lower case).
+     */
+    static final int LOWER_CASE = 1;
+    /**
+     * The classes of a term of a segment that was not read.
+     */
+    static final int UNKNOWN = -1;
+
+    private final List<String> fieldNames;
+    private final Map<IndexReader.CacheKey, Map<String, SegmentClasses>> segments = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor.
+     *
+     * @param fieldNames The fields whose classes are read
+     */
+    public CapitalizationClasses(Collection<String> fieldNames) {
+        this.fieldNames = new ArrayList<>(fieldNames);
+    }
+
+    /**
+     * Creates the sidecar from the "capitalizationClasses" section of a plugin's init args.
+     *
+     * @param args The configuration (fields); null if not configured.
+     * @return The sidecar, or null when not configured or without fields.
+     */
+    @SuppressWarnings("unchecked")
+    public static CapitalizationClasses create(NamedList<?> args) {
+        if (args == null) {
+            return null;
+        }
+
+        Collection<String> fieldNames = (Collection<String>) args.get("fields");
+        return fieldNames == null || fieldNames.isEmpty() ? null : new CapitalizationClasses(fieldNames);
+    }
+
+    /**
+     * Reads the classes of the segments of an index reader that were not read yet.
+     *
+     * @param reader The index reader of a new searcher
+     * @return The number of segments read.
+     */
+    public int index(IndexReader reader) throws IOException {
+        int indexed = 0;
+        for (LeafReaderContext leaf : reader.leaves()) {
+            LeafReader leafReader = leaf.reader();
+            IndexReader.CacheHelper cacheHelper = leafReader.getCoreCacheHelper();
+            if (cacheHelper == null || segments.containsKey(cacheHelper.getKey())) {
+                continue;
+            }
+
+            Map<String, SegmentClasses> fieldClasses = new HashMap<>();
+            for (String fieldName : fieldNames) {
+                fieldClasses.put(fieldName, SegmentClasses.read(leafReader, fieldName));
+            }
+            if (segments.putIfAbsent(cacheHelper.getKey(), fieldClasses) == null) {
+                // Released along with the segment
+                cacheHelper.addClosedListener(segments::remove);
+                indexed++;
+                LOG.debug("Capitalization classes of {}: {}", leafReader, fieldClasses);
+            }
+        }
+        return indexed;
+    }
+
+    /**
+     * @param query  A capitalization query
+     * @param reader The index reader of the request's searcher
+     * @return MatchNoDocsQuery if none of the term's occurrences has one of the classes of the query, a TermQuery
+     * if all of them do, the query itself otherwise (or if the classes are unknown).
+     */
+    public Query rewrite(Query query, IndexReader reader) throws IOException {
+        if (!(query instanceof CapitalizationSpanQuery)) {
+            return query;
+        }
+        CapitalizationSpanQuery capitalizationQuery = (CapitalizationSpanQuery) query;
+        Term term = capitalizationQuery.getMatch().getTerm();
+        int classes = getClasses(reader, term);
+        if (classes == UNKNOWN) {
+            return query;
+        }
+
+        int queryClasses = 0;
+        for (CapitalizationPayloadEnum payloadEnum : capitalizationQuery.getPayloadEnums()) {
+            queryClasses |= bit(payloadEnum);
+        }
+        if ((classes & queryClasses) == 0) {
+            return new MatchNoDocsQuery("No " + capitalizationQuery + " in the index");
+        }
+        if ((classes & ~queryClasses) == 0) {
+            return new TermQuery(term);
+        }
+        return query;
+    }
+
+    /**
+     * @return The classes the term is indexed with in the segments of the reader (bitmask), or {@link #UNKNOWN}.
+     */
+    int getClasses(IndexReader reader, Term term) throws IOException {
+        int classes = 0;
+        for (LeafReaderContext leaf : reader.leaves()) {
+            IndexReader.CacheHelper cacheHelper = leaf.reader().getCoreCacheHelper();
+            Map<String, SegmentClasses> fieldClasses = cacheHelper == null ? null
+                    : segments.get(cacheHelper.getKey());
+            SegmentClasses segmentClasses = fieldClasses == null ? null : fieldClasses.get(term.field());
+            if (segmentClasses == null) {
+                return UNKNOWN;
+            }
+            int segmentTermClasses = segmentClasses.get(term.bytes());
+            if (segmentTermClasses == 0 && leaf.reader().docFreq(term) > 0) {
+                // A term without upper case
+                segmentTermClasses = LOWER_CASE;
+            }
+            classes |= segmentTermClasses;
+        }
+        return classes;
+    }
+
+    /**
+     * @return The number of segments read.
+     */
+    int size() {
+        return segments.size();
+    }
+
+    static int bit(CapitalizationPayloadEnum payloadEnum) {
+        return LOWER_CASE << (payloadEnum.ordinal() + 1);
+    }
+
+    /**
+     * The classes of the terms of a field in a segment: the terms with some upper case, sorted, off-heap.
+     */
+    static final class SegmentClasses {
+
+        private static final CapitalizationPayloadEnum[] PAYLOAD_ENUMS = CapitalizationPayloadEnum.values();
+        private static final int ALL_CLASSES = (LOWER_CASE << (PAYLOAD_ENUMS.length + 1)) - 1;
+
+        private final ByteBuffer entries;
+        private final IntBuffer offsets;
+
+        private SegmentClasses(ByteBuffer entries, IntBuffer offsets) {
+            this.entries = entries;
+            this.offsets = offsets;
+        }
+
+        static SegmentClasses read(LeafReader leafReader, String fieldName) throws IOException {
+            ByteArrayOutputStream entryBytes = new ByteArrayOutputStream();
+            List<Integer> entryOffsets = new ArrayList<>();
+            Terms terms = leafReader.terms(fieldName);
+            if (terms != null && terms.hasPayloads()) {
+                TermsEnum termsEnum = terms.iterator();
+                PostingsEnum postings = null;
+                for (BytesRef term = termsEnum.next(); term != null; term = termsEnum.next()) {
+                    postings = termsEnum.postings(postings, PostingsEnum.PAYLOADS);
+                    int classes = readClasses(postings);
+                    if (classes != LOWER_CASE) {
+                        entryOffsets.add(entryBytes.size());
+                        entryBytes.write(term.length >>> 8);
+                        entryBytes.write(term.length);
+                        entryBytes.write(term.bytes, term.offset, term.length);
+                        entryBytes.write(classes);
+                    }
+                }
+            }
+
+            ByteBuffer entries = ByteBuffer.allocateDirect(entryBytes.size());
+            entries.put(entryBytes.toByteArray()).flip();
+            IntBuffer offsets = ByteBuffer.allocateDirect(entryOffsets.size() * Integer.BYTES).asIntBuffer();
+            for (int offset : entryOffsets) {
+                offsets.put(offset);
+            }
+            offsets.flip();
+            return new SegmentClasses(entries, offsets);
+        }
+
+        /**
+         * @return The classes of the positions of a term; deleted documents included.
+         */
+        private static int readClasses(PostingsEnum postings) throws IOException {
+            int classes = 0;
+            while (classes != ALL_CLASSES && postings.nextDoc() != DocIdSetIterator.NO_MORE_DOCS) {
+                for (int i = 0; i < postings.freq(); i++) {
+                    postings.nextPosition();
+                    classes |= classOf(postings.getPayload());
+                }
+            }
+            return classes;
+        }
+
+        private static int classOf(BytesRef payload) {
+            if (payload != null && payload.length == 1) {
+                for (CapitalizationPayloadEnum payloadEnum : PAYLOAD_ENUMS) {
+                    BytesRef payloadBytes = payloadEnum.getPayloadBytes();
+                    if (payloadBytes.bytes[payloadBytes.offset] == payload.bytes[payload.offset]) {
+                        return bit(payloadEnum);
+                    }
+                }
+            }
+            // No (or an unknown) payload: matched by no capitalization clause
+            return LOWER_CASE;
+        }
+
+        /**
+         * @return The classes of a term; 0 for the terms without upper case, and the absent ones.
+         */
+        int get(BytesRef term) {
+            int low = 0;
+            int high = offsets.limit() - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                int offset = offsets.get(middle);
+                int cmp = compare(offset, term);
+                if (cmp < 0) {
+                    low = middle + 1;
+                } else if (cmp > 0) {
+                    high = middle - 1;
+                } else {
+                    int length = ((entries.get(offset) & 0xFF) << 8) | (entries.get(offset + 1) & 0xFF);
+                    return entries.get(offset + 2 + length) & 0xFF;
+                }
+            }
+            return 0;
+        }
+
+        /**
+         * Compares the term of an entry with a term, as unsigned bytes (the order of the terms dictionary).
+         */
+        private int compare(int offset, BytesRef term) {
+            int length = ((entries.get(offset) & 0xFF) << 8) | (entries.get(offset + 1) & 0xFF);
+            int commonLength = Math.min(length, term.length);
+            for (int i = 0; i < commonLength; i++) {
+                int diff = (entries.get(offset + 2 + i) & 0xFF) - (term.bytes[term.offset + i] & 0xFF);
+                if (diff != 0) {
+                    return diff;
+                }
+            }
+            return length - term.length;
+        }
+
+        @Override
+        public String toString() {
+            return offsets.limit() + " terms with upper case, " + (entries.capacity() + 4L * offsets.capacity())
+                    + " bytes off-heap";
+        }
+    }
+}
@@ -2,21 +2,70 @@ package com.o19s.solr.qparser.capitalization;
 
 import com.o19s.solr.analysis.CapitalizationPayloadEnum;
 
-class CapitalizationParseTree {
+import java.util.EnumSet;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
 
-    private CapitalizationPayloadEnum payloadEnum;
+/**
+ * A capitalization clause: the capitalization classes and the search term, e.g., allcap|cap(trump). Also the
+ * operand of a proximity clause, e.g., firstcap(trump) w5 allcap(nasa).
+ */
+public class CapitalizationParseTree {
+
+    private static final char OPERATOR_SEPARATOR = '|';
+
+    private Set<CapitalizationPayloadEnum> payloadEnums;
     private String searchTerm;
 
-    CapitalizationParseTree(CapitalizationPayloadEnum payloadEnum, String searchTerm) {
-        this.payloadEnum = payloadEnum;
+    /**
+     * Constructor.
+     *
+     * @param payloadEnums The capitalization classes the search term may have (any of them)
+     * @param searchTerm   The search term
+     */
+    public CapitalizationParseTree(Set<CapitalizationPayloadEnum> payloadEnums, String searchTerm) {
+        this.payloadEnums = payloadEnums;
         this.searchTerm = searchTerm;
     }
 
-    CapitalizationPayloadEnum getPayloadEnum() {
-        return payloadEnum;
+    /**
+     * @param operators The operators of a capitalization clause, separated by |, e.g., allcap|cap (any case)
+     * @return The capitalization classes of the operators; null if one of them is not a capitalization operator.
+     */
+    public static Set<CapitalizationPayloadEnum> parseOperators(String operators) {
+        Set<CapitalizationPayloadEnum> payloadEnums = EnumSet.noneOf(CapitalizationPayloadEnum.class);
+        int start = 0;
+        while (true) {
+            int end = operators.indexOf(OPERATOR_SEPARATOR, start);
+            String operatorName = operators.substring(start, end < 0 ? operators.length() : end);
+            Optional<CapitalizationPayloadEnum> capEnumOpt = CapitalizationPayloadEnum.getPayloadForOperator(operatorName);
+            if (!capEnumOpt.isPresent()) {
+                return null;
+            }
+            payloadEnums.add(capEnumOpt.get());
+            if (end < 0) {
+                return payloadEnums;
+            }
+            start = end + 1;
+        }
+    }
+
+    /**
+     * @return The capitalization classes the search term may have (any of them).
+     */
+    public Set<CapitalizationPayloadEnum> getPayloadEnums() {
+        return payloadEnums;
     }
 
-    String getSearchTerm() {
+    public String getSearchTerm() {
         return searchTerm;
     }
+
+    @Override
+    public String toString() {
+        return payloadEnums.stream()
+                .map(CapitalizationPayloadEnum::getOperator)
+                .collect(Collectors.joining(String.valueOf(OPERATOR_SEPARATOR), "", "(" + searchTerm + ")"));
+    }
 }
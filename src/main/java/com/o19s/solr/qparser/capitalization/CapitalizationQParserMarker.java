@@ -0,0 +1,100 @@
+package com.o19s.solr.qparser.capitalization;
+
+import com.o19s.solr.analysis.AnalysisCache;
+import com.o19s.solr.analysis.CapitalizationPayloadEnum;
+import com.o19s.solr.qparser.QParserMetrics;
+import com.o19s.solr.qparser.TermExpansion;
+import com.o19s.solr.qparser.WildcardSpanQuery;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+
+/**
+ * Capitalization query parser for the fields indexed with CapitalizationMarkerTokenFilterFactory:
+ * firstcap(Trump) --&gt; TermQuery(f|trump), allcap|cap(Trump) --&gt; f|trump OR c|trump, firstcap(don*) --&gt;
+ * the most frequent marker terms f|don*.
+ * <p>
+ * Same syntax as {@link CapitalizationQParserSimple}, but the payload check is done at index time: the queries
+ * are plain term queries instead of span queries reading the payload of every position.
+ */
+public class CapitalizationQParserMarker extends CapitalizationQParserSimple {
+
+    private final String markerFieldName;
+
+    /**
+     * Constructor.
+     *
+     * @param fieldName       Field name (its query-time analyzer is used for the search term).
+     * @param analyzer        Query-time analyzer.
+     * @param analysisCache   Analysis cache (optional).
+     * @param markerFieldName Field holding the marker terms: the field itself, or a sibling field.
+     */
+    public CapitalizationQParserMarker(String fieldName, Analyzer analyzer, AnalysisCache analysisCache,
+                                       String markerFieldName) {
+        this(fieldName, analyzer, analysisCache, markerFieldName, QParserMetrics.UNREGISTERED);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param fieldName       Field name (its query-time analyzer is used for the search term).
+     * @param analyzer        Query-time analyzer.
+     * @param analysisCache   Analysis cache (optional).
+     * @param markerFieldName Field holding the marker terms: the field itself, or a sibling field.
+     * @param metrics         The plugin's metrics.
+     */
+    public CapitalizationQParserMarker(String fieldName, Analyzer analyzer, AnalysisCache analysisCache,
+                                       String markerFieldName, QParserMetrics metrics) {
+        this(fieldName, analyzer, analysisCache, markerFieldName, metrics, TermExpansion.DEFAULT);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param fieldName       Field name (its query-time analyzer is used for the search term).
+     * @param analyzer        Query-time analyzer.
+     * @param analysisCache   Analysis cache (optional).
+     * @param markerFieldName Field holding the marker terms: the field itself, or a sibling field.
+     * @param metrics         The plugin's metrics.
+     * @param termExpansion   The expansion of the wildcard terms.
+     */
+    public CapitalizationQParserMarker(String fieldName, Analyzer analyzer, AnalysisCache analysisCache,
+                                       String markerFieldName, QParserMetrics metrics, TermExpansion termExpansion) {
+        super(fieldName, analyzer, analysisCache, metrics, termExpansion);
+        this.markerFieldName = markerFieldName;
+    }
+
+    /**
+     * Composes the Lucene query for an analyzed capitalization clause.
+     *
+     * @param parseTree An analyzed capitalization parse tree.
+     * @return A term query on the marker term, or a disjunction of them for several capitalization classes; a
+     * wildcard marker term for a wildcard search term.
+     */
+    @Override
+    Query buildQuery(CapitalizationParseTree parseTree) {
+        if (parseTree.getPayloadEnums().size() == 1) {
+            return getMarkerQuery(parseTree.getPayloadEnums().iterator().next(), parseTree.getSearchTerm());
+        }
+
+        BooleanQuery.Builder builder = new BooleanQuery.Builder();
+        for (CapitalizationPayloadEnum payloadEnum : parseTree.getPayloadEnums()) {
+            builder.add(getMarkerQuery(payloadEnum, parseTree.getSearchTerm()), BooleanClause.Occur.SHOULD);
+        }
+        return builder.build();
+    }
+
+    private Query getMarkerQuery(CapitalizationPayloadEnum payloadEnum, String searchTerm) {
+        Term markerTerm = getMarkerTerm(payloadEnum, searchTerm);
+        // The marker prefix has no wildcards: the marker terms of the class only
+        return WildcardSpanQuery.isWildcard(searchTerm) ? new WildcardSpanQuery(markerTerm, null, getTermExpansion())
+                : new TermQuery(markerTerm);
+    }
+
+    private Term getMarkerTerm(CapitalizationPayloadEnum payloadEnum, String searchTerm) {
+        return new Term(markerFieldName, payloadEnum.getMarkerPrefix() + searchTerm);
+    }
+}
@@ -1,29 +1,39 @@
 package com.o19s.solr.qparser.capitalization;
 
+import com.codahale.metrics.Timer;
+import com.o19s.solr.analysis.AnalysisCache;
 import com.o19s.solr.analysis.AnalyzerUtils;
 import com.o19s.solr.analysis.CapitalizationPayloadEnum;
 import com.o19s.solr.qparser.IQueryParser;
+import com.o19s.solr.qparser.QParserMetrics;
+import com.o19s.solr.qparser.TermExpansion;
+import com.o19s.solr.qparser.WildcardSpanQuery;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.index.Term;
-import org.apache.lucene.queries.payloads.SpanPayloadCheckQuery;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.spans.SpanTermQuery;
-import org.apache.lucene.util.BytesRef;
 import org.apache.solr.search.SyntaxError;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Collections;
 import java.util.List;
-import java.util.Optional;
+import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public class CapitalizationQParserSimple implements IQueryParser {
 
     private static final Logger LOG = LoggerFactory.getLogger(CapitalizationQParserSimple.class);
-    private String fieldName;
-    private Analyzer analyzer;
+    private static final String USAGE = "Usage: [firstcap|allcap|cap](term), or several operators separated by |. " +
+            "The term may end with wildcards. Examples: firstcap(trump), allcap|cap(trump), firstcap(don*)";
+    private static final String INVALID_SYNTAX_ERR_MSG = "Invalid syntax \"%s\"; %s";
+    private static final Pattern PATTERN = Pattern.compile(
+            "(?i)((?:firstcap|allcap|cap)(?:\\|(?:firstcap|allcap|cap))*)\\((\\s*\\S+\\s*)\\)");
+    private final String fieldName;
+    private final Analyzer analyzer;
+    private final AnalysisCache analysisCache;
+    private final QParserMetrics metrics;
+    private final TermExpansion termExpansion;
 
     /**
      * Constructor.
@@ -32,8 +42,56 @@ public class CapitalizationQParserSimple implements IQueryParser {
      * @param analyzer  Query-time analyzer.
      */
     public CapitalizationQParserSimple(String fieldName, Analyzer analyzer) {
+        this(fieldName, analyzer, null);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param fieldName     Field name.
+     * @param analyzer      Query-time analyzer.
+     * @param analysisCache Analysis cache (optional).
+     */
+    public CapitalizationQParserSimple(String fieldName, Analyzer analyzer, AnalysisCache analysisCache) {
+        this(fieldName, analyzer, analysisCache, QParserMetrics.UNREGISTERED);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param fieldName     Field name.
+     * @param analyzer      Query-time analyzer.
+     * @param analysisCache Analysis cache (optional).
+     * @param metrics       The plugin's metrics.
+     */
+    public CapitalizationQParserSimple(String fieldName, Analyzer analyzer, AnalysisCache analysisCache,
+                                       QParserMetrics metrics) {
+        this(fieldName, analyzer, analysisCache, metrics, TermExpansion.DEFAULT);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param fieldName     Field name.
+     * @param analyzer      Query-time analyzer.
+     * @param analysisCache Analysis cache (optional).
+     * @param metrics       The plugin's metrics.
+     * @param termExpansion The expansion of the wildcard terms.
+     */
+    public CapitalizationQParserSimple(String fieldName, Analyzer analyzer, AnalysisCache analysisCache,
+                                       QParserMetrics metrics, TermExpansion termExpansion) {
         this.fieldName = fieldName;
         this.analyzer = analyzer;
+        this.analysisCache = analysisCache;
+        this.metrics = metrics;
+        this.termExpansion = termExpansion;
+    }
+
+    /**
+     * @return The expansion of the wildcard terms.
+     */
+    TermExpansion getTermExpansion() {
+        return termExpansion;
     }
 
     /**
@@ -47,45 +105,94 @@ public class CapitalizationQParserSimple implements IQueryParser {
     @Override
     public Query parse(String qstr, int mmAsPercent) throws SyntaxError {
 
-        CapitalizationParseTree parseTree = buildParseTree(qstr);
+        CapitalizationParseTree parseTree;
+        Timer.Context parseTimer = metrics.getParse().time();
+        try {
+            parseTree = buildParseTree(qstr);
+        } finally {
+            parseTimer.stop();
+        }
+
+        Timer.Context analyzeTimer = metrics.getAnalyze().time();
+        try {
+            parseTree = analyze(qstr, parseTree);
+        } finally {
+            analyzeTimer.stop();
+        }
+
+        Timer.Context buildTimer = metrics.getBuild().time();
+        try {
+            return buildQuery(parseTree);
+        } finally {
+            buildTimer.stop();
+        }
+    }
 
-        return new SpanPayloadCheckQuery(
+    /**
+     * Composes the Lucene query for an analyzed capitalization clause.
+     *
+     * @param parseTree An analyzed capitalization parse tree.
+     * @return A Lucene query.
+     */
+    Query buildQuery(CapitalizationParseTree parseTree) {
+        if (WildcardSpanQuery.isWildcard(parseTree.getSearchTerm())) {
+            return new WildcardSpanQuery(new Term(fieldName, parseTree.getSearchTerm()), parseTree.getPayloadEnums(),
+                    termExpansion);
+        }
+        return new CapitalizationSpanQuery(
                 new SpanTermQuery(new Term(fieldName, parseTree.getSearchTerm())),
-                Collections.singletonList(new BytesRef(parseTree.getPayloadEnum().getPayload())));
+                parseTree.getPayloadEnums());
     }
 
     /**
-     * Parses a capitalization search clause, e.g., firstcap(dog), and produces a
-     * rudimentary parse tree.
+     * Parses a capitalization search clause, e.g., firstcap(dog) or allcap|cap(dog), and produces a
+     * rudimentary parse tree. The search term is not analyzed yet.
      *
      * @param qstr Search string.
      * @return A capitalization parse tree.
      */
-    private CapitalizationParseTree buildParseTree(String qstr) throws SyntaxError {
-        String usage = "Usage: [firstcap|allcap|cap](term). Example: firstcap(trump)";
-        String invalidSyntaxErrMsg = "Invalid syntax \"%s\"; %s";
-
-        Pattern pattern = Pattern.compile("(?i)(firstcap|allcap|cap)\\((\\s*\\S+\\s*)\\)");
-        Matcher matcher = pattern.matcher(qstr.trim());
-        if (!matcher.find()) {
-            throw new SyntaxError(String.format(invalidSyntaxErrMsg, qstr, usage));
+    CapitalizationParseTree buildParseTree(String qstr) throws SyntaxError {
+        Matcher matcher = PATTERN.matcher(qstr.trim());
+        if (!matcher.matches()) {
+            throw new SyntaxError(String.format(INVALID_SYNTAX_ERR_MSG, qstr, USAGE));
         }
 
-        String operatorName = matcher.group(1).trim().toLowerCase();
-        Optional<CapitalizationPayloadEnum> capEnumOpt = CapitalizationPayloadEnum.getPayloadForOperator(operatorName);
-        if (!capEnumOpt.isPresent()) {
-            throw new SyntaxError(String.format("Can't find the payload associated with the operator \"%s\"", operatorName));
+        Set<CapitalizationPayloadEnum> payloadEnums = CapitalizationParseTree.parseOperators(matcher.group(1));
+        if (payloadEnums == null) {
+            throw new SyntaxError(String.format("Can't find the payload associated with the operators \"%s\"",
+                    matcher.group(1)));
         }
         String searchTerm = matcher.group(2).trim();
+        if (WildcardSpanQuery.isWildcard(searchTerm.substring(0, 1))) {
+            // It would walk the whole terms dictionary
+            throw new SyntaxError(String.format("A wildcard term needs a prefix, e.g., don*: \"%s\"", qstr));
+        }
+
+        LOG.debug("Op=\"{}\", term=\"{}\"", payloadEnums, searchTerm);
+
+        return new CapitalizationParseTree(payloadEnums, searchTerm);
+    }
 
-        LOG.info("Op=\"{}\", term=\"{}\"", operatorName, searchTerm);
+    /**
+     * Analyzes the search term of a capitalization clause.
+     *
+     * @param qstr      Search string (for error messages).
+     * @param parseTree A capitalization parse tree.
+     * @return The parse tree of the analyzed search term.
+     */
+    CapitalizationParseTree analyze(String qstr, CapitalizationParseTree parseTree) throws SyntaxError {
+        if (WildcardSpanQuery.isWildcard(parseTree.getSearchTerm())) {
+            // Not tokenized: the wildcards would be removed
+            return new CapitalizationParseTree(parseTree.getPayloadEnums(),
+                    AnalyzerUtils.normalize(analyzer, fieldName, parseTree.getSearchTerm()));
+        }
 
-        List<String> analyzedTerms = AnalyzerUtils.analyze(analyzer, fieldName, searchTerm);
+        List<String> analyzedTerms = AnalyzerUtils.analyze(analysisCache, analyzer, fieldName, parseTree.getSearchTerm());
 
-        if (analyzedTerms.size() > 1) {
-            throw new SyntaxError(String.format(invalidSyntaxErrMsg, qstr, usage));
+        if (analyzedTerms.size() != 1) {
+            throw new SyntaxError(String.format(INVALID_SYNTAX_ERR_MSG, qstr, USAGE));
         }
 
-        return new CapitalizationParseTree(capEnumOpt.get(), analyzedTerms.get(0));
+        return new CapitalizationParseTree(parseTree.getPayloadEnums(), analyzedTerms.get(0));
     }
 }
@@ -0,0 +1,185 @@
+package com.o19s.solr.qparser.capitalization;
+
+import com.o19s.solr.analysis.CapitalizationPayloadEnum;
+import com.o19s.solr.codecs.CapitalizationPostingsEnum;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermContext;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.spans.FilterSpans;
+import org.apache.lucene.search.spans.SpanCollector;
+import org.apache.lucene.search.spans.SpanQuery;
+import org.apache.lucene.search.spans.SpanTermQuery;
+import org.apache.lucene.search.spans.SpanWeight;
+import org.apache.lucene.search.spans.Spans;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Matches the positions of a term whose capitalization payload is one of a set of capitalization classes,
+ * e.g., the positions of "trump" indexed as allcap or cap.
+ * <p>
+ * Specialized replacement for SpanPayloadCheckQuery: instead of collecting the payloads of every position into
+ * a list of BytesRef and comparing the lists, the single payload byte is checked in place against a lookup table
+ * of the allowed classes. Like any FilterSpans, the two-phase iteration stops at the first accepted position of
+ * a document, so the remaining positions are only visited when scoring needs the frequency.
+ * <p>
+ * On a field of the Capitalization postings format (see CapitalizationPostingsFormat), the classes are read
+ * directly from the postings, without payload, and a document whose positions have none of the allowed classes
+ * is skipped at its first position.
+ */
+public class CapitalizationSpanQuery extends SpanQuery {
+
+    private final SpanTermQuery match;
+    private final Set<CapitalizationPayloadEnum> payloadEnums;
+    private final boolean[] allowedPayloadBytes = new boolean[256];
+    private final int allowedClasses;
+
+    /**
+     * Constructor.
+     *
+     * @param match        The term.
+     * @param payloadEnums The allowed capitalization classes (at least one).
+     */
+    public CapitalizationSpanQuery(SpanTermQuery match, Collection<CapitalizationPayloadEnum> payloadEnums) {
+        if (payloadEnums.isEmpty()) {
+            throw new IllegalArgumentException("At least one capitalization class is required");
+        }
+        this.match = match;
+        this.payloadEnums = EnumSet.copyOf(payloadEnums);
+        int classes = 0;
+        for (CapitalizationPayloadEnum payloadEnum : this.payloadEnums) {
+            BytesRef payload = payloadEnum.getPayloadBytes();
+            allowedPayloadBytes[payload.bytes[payload.offset] & 0xFF] = true;
+            classes |= CapitalizationPostingsEnum.classBit(payloadEnum);
+        }
+        allowedClasses = classes;
+    }
+
+    public SpanTermQuery getMatch() {
+        return match;
+    }
+
+    public Set<CapitalizationPayloadEnum> getPayloadEnums() {
+        return payloadEnums;
+    }
+
+    @Override
+    public String getField() {
+        return match.getField();
+    }
+
+    @Override
+    public SpanWeight createWeight(IndexSearcher searcher, boolean needsScores, float boost) throws IOException {
+        SpanWeight matchWeight = match.createWeight(searcher, false, boost);
+        return new CapitalizationSpanWeight(searcher, needsScores ? getTermContexts(matchWeight) : null,
+                matchWeight, boost);
+    }
+
+    @Override
+    public String toString(String field) {
+        return payloadEnums.stream()
+                .map(CapitalizationPayloadEnum::getOperator)
+                .collect(Collectors.joining("|", "", "(" + match.toString(field) + ")"));
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return sameClassAs(other) &&
+                match.equals(((CapitalizationSpanQuery) other).match) &&
+                payloadEnums.equals(((CapitalizationSpanQuery) other).payloadEnums);
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = classHash();
+        hash = 31 * hash + match.hashCode();
+        hash = 31 * hash + payloadEnums.hashCode();
+        return hash;
+    }
+
+    private class CapitalizationSpanWeight extends SpanWeight {
+
+        private final SpanWeight matchWeight;
+
+        CapitalizationSpanWeight(IndexSearcher searcher, Map<Term, TermContext> termContexts,
+                                 SpanWeight matchWeight, float boost) throws IOException {
+            super(CapitalizationSpanQuery.this, searcher, termContexts, boost);
+            this.matchWeight = matchWeight;
+        }
+
+        @Override
+        public void extractTerms(Set<Term> terms) {
+            matchWeight.extractTerms(terms);
+        }
+
+        @Override
+        public void extractTermContexts(Map<Term, TermContext> contexts) {
+            matchWeight.extractTermContexts(contexts);
+        }
+
+        @Override
+        public Spans getSpans(LeafReaderContext context, Postings requiredPostings) throws IOException {
+            Spans matchSpans = matchWeight.getSpans(context, requiredPostings.atLeast(Postings.PAYLOADS));
+            if (matchSpans == null) {
+                return null;
+            }
+
+            final PayloadMatcher payloadMatcher = new PayloadMatcher();
+            return new FilterSpans(matchSpans) {
+                @Override
+                protected AcceptStatus accept(Spans candidate) throws IOException {
+                    payloadMatcher.reset();
+                    candidate.collect(payloadMatcher);
+                    if (payloadMatcher.matches) {
+                        return AcceptStatus.YES;
+                    }
+                    return payloadMatcher.docMatches ? AcceptStatus.NO : AcceptStatus.NO_MORE_IN_CURRENT_DOC;
+                }
+            };
+        }
+
+        @Override
+        public boolean isCacheable(LeafReaderContext context) {
+            return matchWeight.isCacheable(context);
+        }
+    }
+
+    /**
+     * Checks the payload of the current position, without copying it, or its class with the Capitalization
+     * postings format.
+     */
+    private class PayloadMatcher implements SpanCollector {
+
+        private boolean matches;
+        // False when no position of the current document can match
+        private boolean docMatches;
+
+        @Override
+        public void collectLeaf(PostingsEnum postings, int position, Term term) throws IOException {
+            if (postings instanceof CapitalizationPostingsEnum) {
+                CapitalizationPostingsEnum capitalizationPostings = (CapitalizationPostingsEnum) postings;
+                CapitalizationPayloadEnum capitalization = capitalizationPostings.getCapitalization();
+                matches = capitalization != null && payloadEnums.contains(capitalization);
+                docMatches = matches || (capitalizationPostings.getDocClasses() & allowedClasses) != 0;
+                return;
+            }
+            BytesRef payload = postings.getPayload();
+            matches = payload != null && payload.length == 1
+                    && allowedPayloadBytes[payload.bytes[payload.offset] & 0xFF];
+        }
+
+        @Override
+        public void reset() {
+            matches = false;
+            docMatches = true;
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package com.o19s.solr.qparser.proximity;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.util.SmallFloat;
+import org.apache.solr.common.util.NamedList;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Length statistics of the queried fields, used to tell whether a proximity distance can filter anything:
+ * an unordered proximity clause whose distance is at least the length of the longest field value matches every
+ * document that contains its operands, so it can be executed as a plain conjunction
+ * (see {@link ProximityConjunctions}).
+ * <ul>
+ * <li>maxFieldLength: The maximum length of the field values, in positions (optional). When configured, it is
+ * trusted and the norms are not read.</li>
+ * <li>norms: Whether to derive the maximum length from the norms (default: true). The norms hold the number of
+ * tokens, encoded with 4 significant bits by Lucene's BM25 and classic similarities, so the upper bound of the
+ * encoded length is used.</li>
+ * </ul>
+ * The norms count the tokens, not the positions: for fields with position gaps (removed stop words,
+ * multi-valued fields), configure maxFieldLength or disable the norms. The average field length
+ * (sumTotalTermFreq / docCount) is checked first: a distance under the average always filters something, and
+ * the norms are not read.
+ * <p>
+ * Example (solrconfig.xml):
+ * <pre>
+ * &lt;queryParser name="proximity" class="com.o19s.solr.qparser.ProximityQParserPlugin"&gt;
+ *     &lt;lst name="fieldLength"&gt;
+ *         &lt;int name="maxFieldLength"&gt;256&lt;/int&gt;
+ *     &lt;/lst&gt;
+ * &lt;/queryParser&gt;
+ * </pre>
+ * The maximum length read from the norms is cached per segment and per field, and dropped along with the
+ * segment.
+ */
+public class FieldLengthStats {
+
+    /**
+     * Unknown maximum length: the field has no norms and maxFieldLength is not configured.
+     */
+    static final long UNKNOWN = Long.MAX_VALUE;
+
+    private final long maxFieldLength;
+    private final boolean norms;
+    private final Map<IndexReader.CacheKey, Map<String, Long>> segmentMaxLengths = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor.
+     *
+     * @param maxFieldLength The configured maximum length of the field values, in positions; 0 if unknown.
+     * @param norms          Whether to derive the maximum length from the norms.
+     */
+    public FieldLengthStats(long maxFieldLength, boolean norms) {
+        this.maxFieldLength = maxFieldLength;
+        this.norms = norms;
+    }
+
+    /**
+     * Creates the statistics from the "fieldLength" section of a plugin's init args.
+     *
+     * @param args The configuration (maxFieldLength, norms); null if not configured.
+     * @return The statistics, or null when not configured: proximity clauses are never executed as
+     * conjunctions.
+     */
+    public static FieldLengthStats create(NamedList<?> args) {
+        if (args == null) {
+            return null;
+        }
+
+        Object maxFieldLength = args.get("maxFieldLength");
+        Object norms = args.get("norms");
+        return new FieldLengthStats(maxFieldLength == null ? 0 : Long.parseLong(maxFieldLength.toString()),
+                norms == null || Boolean.parseBoolean(norms.toString()));
+    }
+
+    /**
+     * @param reader    The index reader of the request's searcher
+     * @param fieldName The queried field
+     * @param distance  A proximity distance
+     * @return Whether the distance covers the longest value of the field, i.e., any co-occurrence matches.
+     */
+    public boolean coversField(IndexReader reader, String fieldName, int distance) {
+        if (maxFieldLength > 0) {
+            return distance >= maxFieldLength;
+        }
+        if (!norms) {
+            return false;
+        }
+
+        try {
+            int docCount = reader.getDocCount(fieldName);
+            if (docCount <= 0 || distance < (double) reader.getSumTotalTermFreq(fieldName) / docCount) {
+                // The longest value is at least as long as the average one
+                return false;
+            }
+            return distance >= getMaxLength(reader, fieldName);
+        } catch (IOException ioe) {
+            return false;
+        }
+    }
+
+    /**
+     * @return The maximum length of the field values according to the norms, or {@link #UNKNOWN}.
+     */
+    long getMaxLength(IndexReader reader, String fieldName) throws IOException {
+        long maxLength = 0;
+        for (LeafReaderContext leaf : reader.leaves()) {
+            maxLength = Math.max(maxLength, getMaxLength(leaf.reader(), fieldName));
+            if (maxLength == UNKNOWN) {
+                break;
+            }
+        }
+        return maxLength;
+    }
+
+    private long getMaxLength(LeafReader leafReader, String fieldName) throws IOException {
+        IndexReader.CacheHelper cacheHelper = leafReader.getCoreCacheHelper();
+        if (cacheHelper == null) {
+            return readMaxLength(leafReader, fieldName);
+        }
+
+        Map<String, Long> maxLengths = segmentMaxLengths.get(cacheHelper.getKey());
+        if (maxLengths == null) {
+            maxLengths = segmentMaxLengths.computeIfAbsent(cacheHelper.getKey(), key -> {
+                // Released along with the segment
+                cacheHelper.addClosedListener(segmentMaxLengths::remove);
+                return new ConcurrentHashMap<>();
+            });
+        }
+        Long maxLength = maxLengths.get(fieldName);
+        if (maxLength == null) {
+            maxLength = readMaxLength(leafReader, fieldName);
+            maxLengths.put(fieldName, maxLength);
+        }
+        return maxLength;
+    }
+
+    /**
+     * @return The upper bound of the lengths encoded in the norms of a segment, or {@link #UNKNOWN}.
+     */
+    private static long readMaxLength(LeafReader leafReader, String fieldName) throws IOException {
+        if (leafReader.getFieldInfos().fieldInfo(fieldName) == null) {
+            // The field is not in the segment
+            return 0;
+        }
+        NumericDocValues normValues = leafReader.getNormValues(fieldName);
+        if (normValues == null) {
+            // Norms omitted
+            return UNKNOWN;
+        }
+
+        int maxNorm = 0;
+        while (normValues.nextDoc() != DocIdSetIterator.NO_MORE_DOCS) {
+            maxNorm = Math.max(maxNorm, (int) normValues.longValue() & 0xFF);
+        }
+        // The lengths encoded as maxNorm are below the smallest length encoded as maxNorm + 1
+        return maxNorm == 0xFF ? UNKNOWN : SmallFloat.byte4ToInt((byte) (maxNorm + 1)) - 1;
+    }
+}
@@ -0,0 +1,240 @@
+package com.o19s.solr.qparser.proximity;
+
+import com.o19s.solr.qparser.QParserMetrics;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.search.SyntaxError;
+
+/**
+ * Cost budget of a proximity query, checked on the analyzed parse tree before any Lucene query is built (the
+ * nesting depth while the search string is parsed, before the analysis):
+ * <ul>
+ * <li>maxTerms: Maximum number of analyzed search terms (synonyms included)</li>
+ * <li>maxClauses: Maximum number of term clauses of the Lucene query</li>
+ * <li>maxDepth: Maximum nesting depth of the proximity clauses</li>
+ * <li>maxDistance: Maximum proximity distance</li>
+ * <li>onExceeded: fail (default) or degrade</li>
+ * </ul>
+ * Queries over budget are rejected with a SyntaxError. With onExceeded=degrade, the distances over maxDistance
+ * are reduced to maxDistance, and the cartesian span construction falls back to the factored one when that
+ * brings the query within maxClauses. Too many terms or too deep a nesting cannot be degraded and always fail.
+ * <p>
+ * Example (solrconfig.xml):
+ * <pre>
+ * &lt;queryParser name="proximity" class="com.o19s.solr.qparser.ProximityQParserPlugin"&gt;
+ *     &lt;lst name="budget"&gt;
+ *         &lt;int name="maxTerms"&gt;64&lt;/int&gt;
+ *         &lt;int name="maxClauses"&gt;1024&lt;/int&gt;
+ *         &lt;int name="maxDepth"&gt;8&lt;/int&gt;
+ *         &lt;int name="maxDistance"&gt;100&lt;/int&gt;
+ *         &lt;str name="onExceeded"&gt;degrade&lt;/str&gt;
+ *     &lt;/lst&gt;
+ * &lt;/queryParser&gt;
+ * </pre>
+ * Requests may lower the limits (budget.maxTerms, budget.maxClauses...) and choose budget.onExceeded, but not
+ * raise the limits configured for the plugin.
+ */
+public final class ProximityBudget {
+
+    public static final ProximityBudget UNLIMITED = new ProximityBudget(Integer.MAX_VALUE, Integer.MAX_VALUE,
+            Integer.MAX_VALUE, Integer.MAX_VALUE, false);
+
+    /**
+     * Prefix of the budget parameters of a request.
+     */
+    public static final String PARAM_PREFIX = "budget.";
+    private static final String ON_EXCEEDED_FAIL = "fail";
+    private static final String ON_EXCEEDED_DEGRADE = "degrade";
+
+    private final int maxTerms;
+    private final int maxClauses;
+    private final int maxDepth;
+    private final int maxDistance;
+    private final boolean degrade;
+
+    public ProximityBudget(int maxTerms, int maxClauses, int maxDepth, int maxDistance, boolean degrade) {
+        this.maxTerms = maxTerms;
+        this.maxClauses = maxClauses;
+        this.maxDepth = maxDepth;
+        this.maxDistance = maxDistance;
+        this.degrade = degrade;
+    }
+
+    /**
+     * Creates a budget from the "budget" section of a plugin's init args.
+     *
+     * @param args The budget configuration; null if not configured.
+     * @return The budget; unlimited if not configured.
+     */
+    public static ProximityBudget create(NamedList<?> args) {
+        if (args == null) {
+            return UNLIMITED;
+        }
+
+        try {
+            return new ProximityBudget(
+                    getInt(args.get("maxTerms"), Integer.MAX_VALUE),
+                    getInt(args.get("maxClauses"), Integer.MAX_VALUE),
+                    getInt(args.get("maxDepth"), Integer.MAX_VALUE),
+                    getInt(args.get("maxDistance"), Integer.MAX_VALUE),
+                    isDegrade(args.get("onExceeded"), false));
+        } catch (SyntaxError se) {
+            throw new IllegalArgumentException("Invalid proximity budget: " + se.getMessage(), se);
+        }
+    }
+
+    /**
+     * Applies the budget parameters of a request: budget.maxTerms, budget.maxClauses, budget.maxDepth,
+     * budget.maxDistance and budget.onExceeded.
+     *
+     * @param params The request's parameters
+     * @return The request's budget, the limits of which are never above this budget's.
+     * @throws SyntaxError Invalid budget parameter.
+     */
+    public ProximityBudget withOverrides(SolrParams params) throws SyntaxError {
+        ProximityBudget budget = new ProximityBudget(
+                Math.min(maxTerms, getInt(params.get(PARAM_PREFIX + "maxTerms"), maxTerms)),
+                Math.min(maxClauses, getInt(params.get(PARAM_PREFIX + "maxClauses"), maxClauses)),
+                Math.min(maxDepth, getInt(params.get(PARAM_PREFIX + "maxDepth"), maxDepth)),
+                Math.min(maxDistance, getInt(params.get(PARAM_PREFIX + "maxDistance"), maxDistance)),
+                isDegrade(params.get(PARAM_PREFIX + "onExceeded"), degrade));
+        return budget.equals(this) ? this : budget;
+    }
+
+    /**
+     * Checks the nesting depth of a proximity clause, as soon as it is parsed (see ProximityExpressionParser).
+     *
+     * @param depth   The nesting depth of the clause
+     * @param metrics The plugin's metrics
+     * @throws SyntaxError The query is over budget.
+     */
+    void checkDepth(int depth, QParserMetrics metrics) throws SyntaxError {
+        if (depth > maxDepth) {
+            throw overBudget(metrics, "%d nested proximity clauses, the maximum is %d", depth, maxDepth);
+        }
+    }
+
+    /**
+     * Checks the analyzed parse tree: terms and distances, which are reduced to maxDistance when degrading.
+     *
+     * @param parseTree The analyzed parse tree
+     * @param metrics   The plugin's metrics
+     * @throws SyntaxError The query is over budget.
+     */
+    void checkParseTree(ProximityParseTree parseTree, QParserMetrics metrics) throws SyntaxError {
+        int termCount = parseTree.countTerms();
+        if (termCount > maxTerms) {
+            throw overBudget(metrics, "%d analyzed search terms, the maximum is %d", termCount, maxTerms);
+        }
+
+        int distance = parseTree.getMaxDistance();
+        if (distance > maxDistance) {
+            if (!degrade) {
+                throw overBudget(metrics, "Proximity distance of %d, the maximum is %d", distance, maxDistance);
+            }
+            parseTree.limitDistance(maxDistance);
+            metrics.getBudgetDegradations().inc();
+        }
+    }
+
+    /**
+     * @param clauseCount The estimated number of term clauses of the query
+     * @param metrics     The plugin's metrics
+     * @throws SyntaxError The query is over budget.
+     */
+    void checkClauses(int clauseCount, QParserMetrics metrics) throws SyntaxError {
+        if (clauseCount > maxClauses) {
+            throw overBudget(metrics, "%d query clauses, the maximum is %d", clauseCount, maxClauses);
+        }
+    }
+
+    public int getMaxTerms() {
+        return maxTerms;
+    }
+
+    public int getMaxClauses() {
+        return maxClauses;
+    }
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    public int getMaxDistance() {
+        return maxDistance;
+    }
+
+    public boolean isDegrade() {
+        return degrade;
+    }
+
+    private static SyntaxError overBudget(QParserMetrics metrics, String format, Object... args) {
+        metrics.getBudgetRejections().inc();
+        return new SyntaxError("Query too complex: " + String.format(format, args));
+    }
+
+    private static int getInt(Object value, int defaultValue) throws SyntaxError {
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            int intValue = Integer.parseInt(value.toString().trim());
+            if (intValue < 0) {
+                throw new SyntaxError(String.format("Invalid budget limit \"%s\"", value));
+            }
+            return intValue;
+        } catch (NumberFormatException nfe) {
+            throw new SyntaxError(String.format("Invalid budget limit \"%s\"", value), nfe);
+        }
+    }
+
+    private static boolean isDegrade(Object value, boolean defaultValue) throws SyntaxError {
+        if (value == null) {
+            return defaultValue;
+        }
+        switch (value.toString().trim().toLowerCase()) {
+            case ON_EXCEEDED_FAIL:
+                return false;
+            case ON_EXCEEDED_DEGRADE:
+                return true;
+            default:
+                throw new SyntaxError(String.format("Invalid budget onExceeded \"%s\". Usage: onExceeded=%s|%s",
+                        value, ON_EXCEEDED_FAIL, ON_EXCEEDED_DEGRADE));
+        }
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof ProximityBudget)) {
+            return false;
+        }
+        ProximityBudget other = (ProximityBudget) obj;
+        return maxTerms == other.maxTerms &&
+                maxClauses == other.maxClauses &&
+                maxDepth == other.maxDepth &&
+                maxDistance == other.maxDistance &&
+                degrade == other.degrade;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = maxTerms;
+        hash = 31 * hash + maxClauses;
+        hash = 31 * hash + maxDepth;
+        hash = 31 * hash + maxDistance;
+        hash = 31 * hash + (degrade ? 1 : 0);
+        return hash;
+    }
+
+    /**
+     * @return A compact description of the budget, e.g., for the query cache key.
+     */
+    @Override
+    public String toString() {
+        return "budget(" + maxTerms + "," + maxClauses + "," + maxDepth + "," + maxDistance + ","
+                + (degrade ? ON_EXCEEDED_DEGRADE : ON_EXCEEDED_FAIL) + ")";
+    }
+}
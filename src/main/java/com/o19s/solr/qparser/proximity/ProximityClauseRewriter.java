@@ -0,0 +1,93 @@
+package com.o19s.solr.qparser.proximity;
+
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.spans.SpanNearQuery;
+import org.apache.lucene.search.spans.SpanOrQuery;
+import org.apache.lucene.search.spans.SpanQuery;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Rewrites the proximity clauses of a query that may be any query: the query itself, the clauses of a boolean
+ * query and the alternatives of a span disjunction, which becomes a boolean disjunction as soon as one of them is
+ * rewritten. A clause nested in a span clause must remain a span clause. The subclasses decide what each
+ * proximity clause becomes. One instance per request.
+ */
+public abstract class ProximityClauseRewriter {
+
+    private int rewrites;
+
+    /**
+     * @param query A proximity query
+     * @return An equivalent query, with the proximity clauses rewritten; the query itself if there are none.
+     */
+    public Query rewrite(Query query) {
+        if (query instanceof SpanQuery) {
+            return rewrite((SpanQuery) query);
+        }
+        if (query instanceof BooleanQuery) {
+            BooleanQuery booleanQuery = (BooleanQuery) query;
+            BooleanQuery.Builder builder = new BooleanQuery.Builder()
+                    .setMinimumNumberShouldMatch(booleanQuery.getMinimumNumberShouldMatch());
+            boolean rewritten = false;
+            for (BooleanClause clause : booleanQuery.clauses()) {
+                Query clauseQuery = rewrite(clause.getQuery());
+                rewritten |= clauseQuery != clause.getQuery();
+                builder.add(clauseQuery, clause.getOccur());
+            }
+            return rewritten ? builder.build() : query;
+        }
+        return query;
+    }
+
+    /**
+     * @return The number of proximity clauses rewritten so far.
+     */
+    public int getRewrites() {
+        return rewrites;
+    }
+
+    /**
+     * @param spanQuery A span query
+     * @return The span query, or an equivalent query with its proximity clauses rewritten.
+     */
+    protected Query rewrite(SpanQuery spanQuery) {
+        if (spanQuery instanceof SpanNearQuery) {
+            Query query = rewriteClause((SpanNearQuery) spanQuery);
+            if (query == null) {
+                return spanQuery;
+            }
+            rewrites++;
+            return query;
+        }
+        if (spanQuery instanceof SpanOrQuery) {
+            // E.g., the cartesian span construction: a disjunction of proximity clauses
+            SpanQuery[] clauses = ((SpanOrQuery) spanQuery).getClauses();
+            List<Query> queries = new ArrayList<>(clauses.length);
+            boolean rewritten = false;
+            for (SpanQuery clause : clauses) {
+                Query query = rewrite(clause);
+                rewritten |= query != clause;
+                queries.add(query);
+            }
+            if (!rewritten) {
+                return spanQuery;
+            }
+            BooleanQuery.Builder builder = new BooleanQuery.Builder();
+            for (Query query : queries) {
+                builder.add(query, BooleanClause.Occur.SHOULD);
+            }
+            return builder.build();
+        }
+        return spanQuery;
+    }
+
+    /**
+     * @param spanNearQuery A proximity clause
+     * @return The equivalent query of the clause, or null if it remains a span clause.
+     */
+    protected abstract Query rewriteClause(SpanNearQuery spanNearQuery);
+}
@@ -0,0 +1,97 @@
+package com.o19s.solr.qparser.proximity;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.spans.SpanNearQuery;
+import org.apache.lucene.search.spans.SpanOrQuery;
+import org.apache.lucene.search.spans.SpanQuery;
+import org.apache.lucene.search.spans.SpanTermQuery;
+
+/**
+ * Executes the unordered proximity clauses whose distance cannot filter anything as plain conjunctions:
+ * n500 on a field whose values are at most 300 positions long matches every document that contains both
+ * operands, so there is no need to enumerate their positions.
+ * <p>
+ * Example: fox n500 dog --&gt; +fox +dog, (cat kitty) n500 dog --&gt; +(cat kitty) +dog and
+ * (fox n500 dog) n500 cat --&gt; +fox +dog +cat
+ * <p>
+ * Only the unordered (n) clauses are rewritten: an ordered (w) clause still filters on the order of its
+ * operands, whatever its distance. Only the clauses that may be any query are rewritten (see
+ * {@link ProximityClauseRewriter}), and those of the rewritten clauses. One instance per request: it is bound to
+ * the request's index reader.
+ */
+public class ProximityConjunctions extends ProximityClauseRewriter {
+
+    private final FieldLengthStats stats;
+    private final IndexReader reader;
+
+    /**
+     * Constructor.
+     *
+     * @param stats  The field length statistics
+     * @param reader The index reader of the request's searcher
+     */
+    public ProximityConjunctions(FieldLengthStats stats, IndexReader reader) {
+        this.stats = stats;
+        this.reader = reader;
+    }
+
+    /**
+     * @return The conjunction of the operands of an unordered proximity clause that cannot filter anything, or
+     * null for any other clause.
+     */
+    @Override
+    protected Query rewriteClause(SpanNearQuery spanNearQuery) {
+        if (spanNearQuery.isInOrder()
+                || !stats.coversField(reader, spanNearQuery.getField(), spanNearQuery.getSlop())) {
+            return null;
+        }
+
+        BooleanQuery.Builder builder = new BooleanQuery.Builder();
+        for (SpanQuery clause : spanNearQuery.getClauses()) {
+            Query query = toQuery(clause);
+            if (isConjunction(query)) {
+                // Nested conjunction: flattened
+                for (BooleanClause nestedClause : ((BooleanQuery) query).clauses()) {
+                    builder.add(nestedClause);
+                }
+            } else {
+                builder.add(query, BooleanClause.Occur.MUST);
+            }
+        }
+        return builder.build();
+    }
+
+    private static boolean isConjunction(Query query) {
+        if (!(query instanceof BooleanQuery)) {
+            return false;
+        }
+        for (BooleanClause clause : ((BooleanQuery) query).clauses()) {
+            if (clause.getOccur() != BooleanClause.Occur.MUST) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return The operand of a conjunction: term queries rather than span terms.
+     */
+    private Query toQuery(SpanQuery clause) {
+        if (clause instanceof SpanTermQuery) {
+            return new TermQuery(((SpanTermQuery) clause).getTerm());
+        }
+        if (clause instanceof SpanOrQuery) {
+            BooleanQuery.Builder builder = new BooleanQuery.Builder();
+            for (SpanQuery alternative : ((SpanOrQuery) clause).getClauses()) {
+                builder.add(toQuery(alternative), BooleanClause.Occur.SHOULD);
+            }
+            return builder.build();
+        }
+        // Nested proximity clauses and phrases
+        return rewrite(clause);
+    }
+}
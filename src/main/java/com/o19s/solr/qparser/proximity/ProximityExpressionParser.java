@@ -0,0 +1,297 @@
+package com.o19s.solr.qparser.proximity;
+
+import com.o19s.solr.analysis.CapitalizationPayloadEnum;
+import com.o19s.solr.qparser.QParserMetrics;
+import com.o19s.solr.qparser.capitalization.CapitalizationParseTree;
+import org.apache.solr.search.SyntaxError;
+
+import java.util.Set;
+
+/**
+ * Hand-written, single-pass lexer and recursive-descent parser for proximity search strings.
+ * <p>
+ * Grammar:
+ * <pre>
+ * expression     := operand (operator operand)*          (left-associative)
+ * operand        := "phrase" | '(' expression ')' | capitalization | wildcard | term+
+ * capitalization := capop('|'capop)* '(' (term | wildcard) ')'   (no space before '(')
+ * wildcard       := term with * or ?, not first, e.g., impeach*
+ * capop          := firstcap | allcap | cap
+ * operator       := [w|n]&lt;number&gt;                         (w: ordered, n: unordered)
+ * </pre>
+ * Examples: hello w10 world, "lazy dog" n5 fox, a w3 b n5 c, (a w3 b) n5 c, firstcap(trump) w5 allcap(nasa),
+ * impeach* w5 trump, firstcap(don*) w3 trump
+ * <p>
+ * A capitalization operand matches its search term with one of the capitalization classes only: the whole
+ * expression is a single span query, whose leaves check the capitalization payloads of the positions they
+ * match, rather than the intersection of a capitalization query and a proximity query.
+ * <p>
+ * A wildcard operand is expanded into the most frequent matching terms of the searched index, up to a maximum
+ * (see TermExpansion). Wildcards are not expanded in phrases.
+ * <p>
+ * The search string is scanned once, without regular expressions or token lists, so parsing is O(n) in the
+ * length of the search string. Syntax errors report the position (0-based offset) where they were detected.
+ * The nesting of the parse tree is bounded: at most {@link #MAX_OPERATORS} operators and 32 levels of
+ * parentheses.
+ */
+public final class ProximityExpressionParser {
+
+    static final String USAGE = "Usage: one or more terms [w|n]<number> one or more terms. Examples: hello w10 world, " +
+            "firstcap(trump) w5 allcap(nasa)";
+    private static final int MAX_NESTING_DEPTH = 32;
+    // Chained operators nest the clauses too: the parse tree is walked recursively
+    static final int MAX_OPERATORS = 256;
+
+    private final String qstr;
+    private final int length;
+    private final ProximityBudget budget;
+    private final QParserMetrics metrics;
+    private int pos;
+    private int depth;
+    private int operatorCount;
+
+    private ProximityExpressionParser(String qstr, ProximityBudget budget, QParserMetrics metrics) {
+        this.qstr = qstr;
+        this.length = qstr.length();
+        this.budget = budget;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Parses a proximity search string (Query Parser flow step 1). The operands still need to be analyzed.
+     *
+     * @param qstr End-user's search string
+     * @return The parse tree of the outermost proximity clause
+     * @throws SyntaxError A syntax error was encountered
+     */
+    public static ProximityParseTree parse(String qstr) throws SyntaxError {
+        return parse(qstr, ProximityBudget.UNLIMITED, QParserMetrics.UNREGISTERED);
+    }
+
+    /**
+     * Same as {@link #parse(String)}, rejecting the proximity clauses nested deeper than the budget's maxDepth as
+     * soon as they are parsed, before any walk of the parse tree.
+     *
+     * @param qstr    End-user's search string
+     * @param budget  The cost budget
+     * @param metrics The plugin's metrics
+     * @return The parse tree of the outermost proximity clause
+     * @throws SyntaxError A syntax error was encountered, or the clauses are nested too deep
+     */
+    static ProximityParseTree parse(String qstr, ProximityBudget budget, QParserMetrics metrics)
+            throws SyntaxError {
+        if (qstr == null) {
+            throw new SyntaxError(USAGE);
+        }
+
+        ProximityExpressionParser parser = new ProximityExpressionParser(qstr, budget, metrics);
+        ProximityOperand expression = parser.parseExpression();
+        if (parser.pos < parser.length) {
+            // parseExpression() only stops early on a closing parenthesis
+            throw parser.error("Unbalanced ')'", parser.pos);
+        }
+        if (expression.getTree() == null) {
+            throw new SyntaxError(USAGE);
+        }
+
+        return expression.getTree();
+    }
+
+    private ProximityOperand parseExpression() throws SyntaxError {
+        ProximityOperand left = parseOperand();
+        while (true) {
+            skipWhitespace();
+            if (pos == length || qstr.charAt(pos) == ')') {
+                return left;
+            }
+
+            int operatorStart = pos;
+            int operatorEnd = scanTerm();
+            if (!isOperator(operatorStart, operatorEnd)) {
+                throw error("Expected a proximity operator [w|n]<number>", operatorStart);
+            }
+            if (++operatorCount > MAX_OPERATORS) {
+                throw error("Too many proximity operators", operatorStart);
+            }
+            pos = operatorEnd;
+
+            String operator = qstr.substring(operatorStart, operatorStart + 1);
+            int distance;
+            try {
+                distance = Integer.parseInt(qstr.substring(operatorStart + 1, operatorEnd));
+            } catch (NumberFormatException nfe) {
+                throw error("Invalid proximity distance", operatorStart + 1);
+            }
+
+            ProximityOperand right = parseOperand();
+
+            // "w" specifies an ordered span
+            ProximityParseTree tree = new ProximityParseTree(operator, distance, operator.equals("w"), left, right,
+                    operatorStart);
+            budget.checkDepth(tree.getDepth(), metrics);
+            left = ProximityOperand.clause(tree, left.getPosition());
+        }
+    }
+
+    private ProximityOperand parseOperand() throws SyntaxError {
+        skipWhitespace();
+        if (pos == length) {
+            throw error("Expected one or more terms", pos);
+        }
+
+        int start = pos;
+        char c = qstr.charAt(pos);
+        if (c == '"') {
+            int end = qstr.indexOf('"', start + 1);
+            if (end < 0) {
+                throw error("Unterminated phrase", start);
+            }
+            pos = end + 1;
+            return ProximityOperand.phrase(qstr.substring(start + 1, end), start);
+        }
+
+        if (c == '(') {
+            if (++depth > MAX_NESTING_DEPTH) {
+                throw error("Too many nested parentheses", start);
+            }
+            pos++;
+            ProximityOperand operand = parseExpression();
+            if (pos == length) {
+                throw error("Missing ')' for the '(' opened at " + start, pos);
+            }
+            pos++;
+            depth--;
+            return operand;
+        }
+
+        int termEnd = scanTerm();
+        if (termEnd < length && qstr.charAt(termEnd) == '(' && termEnd > start) {
+            return parseCapitalization(start, termEnd);
+        }
+
+        // One or more terms up to the next operator, phrase, parenthesis or the end of the search string
+        int end = start;
+        int termCount = 0;
+        int wildcardStart = -1;
+        while (true) {
+            skipWhitespace();
+            if (pos == length || isSpecial(qstr.charAt(pos))) {
+                break;
+            }
+            int termStart = pos;
+            termEnd = scanTerm();
+            if (isOperator(termStart, termEnd)) {
+                pos = termStart;
+                break;
+            }
+            if (termEnd < length && qstr.charAt(termEnd) == '(') {
+                throw error("A capitalization clause must be a whole operand", termStart);
+            }
+            if (isWildcard(termStart, termEnd)) {
+                wildcardStart = termStart;
+            }
+            termCount++;
+            end = termEnd;
+            pos = termEnd;
+        }
+
+        if (end == start) {
+            throw error("Expected one or more terms", start);
+        }
+        if (wildcardStart >= 0 && termCount > 1) {
+            throw error("A wildcard term must be a whole operand", wildcardStart);
+        }
+
+        return ProximityOperand.terms(qstr.substring(start, end), start);
+    }
+
+    /**
+     * Parses a capitalization operand, e.g., firstcap(trump) or allcap|cap(nasa).
+     *
+     * @param start        The start of the operand (its operators)
+     * @param operatorsEnd The end of the operators (the opening parenthesis)
+     * @return The capitalization operand (not analyzed yet)
+     */
+    private ProximityOperand parseCapitalization(int start, int operatorsEnd) throws SyntaxError {
+        Set<CapitalizationPayloadEnum> payloadEnums = CapitalizationParseTree.parseOperators(
+                qstr.substring(start, operatorsEnd));
+        if (payloadEnums == null) {
+            throw error("Expected capitalization operators [firstcap|allcap|cap]", start);
+        }
+
+        pos = operatorsEnd + 1;
+        skipWhitespace();
+        int termStart = pos;
+        int termEnd = scanTerm();
+        pos = termEnd;
+        skipWhitespace();
+        if (termEnd == termStart || pos == length || qstr.charAt(pos) != ')') {
+            throw error("Expected a single term and ')' in the capitalization clause", termStart);
+        }
+        // Checks the wildcards of the search term, if any
+        isWildcard(termStart, termEnd);
+        pos++;
+
+        return ProximityOperand.capitalization(
+                new CapitalizationParseTree(payloadEnums, qstr.substring(termStart, termEnd)), start);
+    }
+
+    /**
+     * @return The end of the term starting at the current position (the position is left unchanged).
+     */
+    private int scanTerm() {
+        int end = pos;
+        while (end < length && !isSpecial(qstr.charAt(end)) && !Character.isWhitespace(qstr.charAt(end))) {
+            end++;
+        }
+        return end;
+    }
+
+    /**
+     * @return Whether the term has wildcards.
+     * @throws SyntaxError The term starts with a wildcard: it would walk the whole terms dictionary.
+     */
+    private boolean isWildcard(int start, int end) throws SyntaxError {
+        for (int i = start; i < end; i++) {
+            char c = qstr.charAt(i);
+            if (c == '*' || c == '?') {
+                if (i == start) {
+                    throw error("A wildcard term needs a prefix, e.g., impeach*", start);
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isOperator(int start, int end) {
+        if (end - start < 2) {
+            return false;
+        }
+        char op = qstr.charAt(start);
+        if (op != 'w' && op != 'n') {
+            return false;
+        }
+        for (int i = start + 1; i < end; i++) {
+            char c = qstr.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isSpecial(char c) {
+        return c == '"' || c == '(' || c == ')';
+    }
+
+    private void skipWhitespace() {
+        while (pos < length && Character.isWhitespace(qstr.charAt(pos))) {
+            pos++;
+        }
+    }
+
+    private SyntaxError error(String message, int position) {
+        return new SyntaxError(String.format("%s at position %d in \"%s\". %s", message, position, qstr, USAGE));
+    }
+}
@@ -0,0 +1,166 @@
+package com.o19s.solr.qparser.proximity;
+
+import com.o19s.solr.analysis.AnalysisCache;
+import com.o19s.solr.analysis.AnalyzerUtils;
+import com.o19s.solr.analysis.TokenGraph;
+import com.o19s.solr.qparser.WildcardSpanQuery;
+import com.o19s.solr.qparser.capitalization.CapitalizationParseTree;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.solr.search.SyntaxError;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An operand of a proximity clause: one or more search terms, a "quoted phrase", a capitalization clause
+ * (a single search term with its capitalization classes, e.g., firstcap(trump)), a wildcard term (e.g., impeach*,
+ * firstcap(don*)) or a nested proximity clause.
+ */
+public class ProximityOperand {
+
+    private String text;
+    private boolean phrase;
+    private boolean wildcard;
+    private CapitalizationParseTree capitalization;
+    private ProximityParseTree tree;
+    private int position;
+    private List<String> terms = Collections.emptyList();
+    private TokenGraph graph;
+
+    private ProximityOperand(String text, boolean phrase, CapitalizationParseTree capitalization,
+                             ProximityParseTree tree, int position) {
+        this.text = text;
+        this.phrase = phrase;
+        // The parser only lets a wildcard term be a whole operand
+        this.wildcard = text != null && !phrase && WildcardSpanQuery.isWildcard(text);
+        this.capitalization = capitalization;
+        this.tree = tree;
+        this.position = position;
+    }
+
+    static ProximityOperand terms(String text, int position) {
+        return new ProximityOperand(text, false, null, null, position);
+    }
+
+    static ProximityOperand phrase(String text, int position) {
+        return new ProximityOperand(text, true, null, null, position);
+    }
+
+    static ProximityOperand capitalization(CapitalizationParseTree capitalization, int position) {
+        return new ProximityOperand(capitalization.getSearchTerm(), false, capitalization, null, position);
+    }
+
+    static ProximityOperand clause(ProximityParseTree tree, int position) {
+        return new ProximityOperand(null, false, null, tree, position);
+    }
+
+    void analyze(Analyzer analyzer, String fieldName, AnalysisCache analysisCache) throws SyntaxError {
+        if (tree != null) {
+            tree.analyze(analyzer, fieldName, analysisCache);
+            return;
+        }
+
+        if (wildcard) {
+            // Not tokenized: the wildcards would be removed
+            terms = Collections.singletonList(AnalyzerUtils.normalize(analyzer, fieldName, text));
+            return;
+        }
+
+        TokenGraph tokenGraph = AnalyzerUtils.analyzeGraph(analysisCache, analyzer, fieldName, text);
+        terms = tokenGraph.getTerms();
+        if (terms.isEmpty()) {
+            throw new SyntaxError(String.format("No search terms in \"%s\" at position %d", text, position));
+        }
+        if (capitalization != null && terms.size() > 1) {
+            // The capitalization class is that of a single indexed term
+            throw new SyntaxError(String.format("A capitalization clause needs a single search term: \"%s\" at " +
+                    "position %d", capitalization, position));
+        }
+        if (tokenGraph.hasSidePaths()) {
+            // E.g., multi-word synonyms: the alternatives are the graph's segments, not the terms
+            graph = tokenGraph;
+        }
+    }
+
+    /**
+     * @return The operand's text as typed by the end-user (without the quotes); null for a nested clause.
+     */
+    String getText() {
+        return text;
+    }
+
+    boolean isPhrase() {
+        return phrase;
+    }
+
+    /**
+     * @return Whether the operand is a wildcard term (possibly in a capitalization clause): its single search term
+     * is a pattern, expanded when the query is searched.
+     */
+    boolean isWildcard() {
+        return wildcard;
+    }
+
+    /**
+     * @return The distinct search terms, sorted: the alternatives of an operand made of search terms, in which
+     * duplicates (e.g., synonyms) would only add duplicate clauses.
+     */
+    List<String> getAlternatives() {
+        return QueryCanonicalizer.sortAlternatives(terms);
+    }
+
+    /**
+     * @return The capitalization clause (before the analysis), or null if the operand is not one. Its analyzed
+     * search term is the only one of {@link #getTerms()}.
+     */
+    CapitalizationParseTree getCapitalization() {
+        return capitalization;
+    }
+
+    /**
+     * @return The token graph of the analyzed search terms when it is not flat (e.g., multi-word synonyms), null
+     * otherwise. The query is then built from the graph's segments rather than from {@link #getTerms()}.
+     */
+    TokenGraph getGraph() {
+        return graph;
+    }
+
+    /**
+     * @return The number of term clauses of the operand's query; 0 for a nested clause.
+     */
+    int countClauses() {
+        return graph != null ? graph.countPathTerms() : terms.size();
+    }
+
+    /**
+     * @return The nested proximity clause, or null if the operand is made of search terms.
+     */
+    ProximityParseTree getTree() {
+        return tree;
+    }
+
+    /**
+     * @return The position of the operand in the search string.
+     */
+    int getPosition() {
+        return position;
+    }
+
+    /**
+     * @return The analyzed search terms as typed (empty until analyzed, and for nested clauses).
+     */
+    List<String> getTerms() {
+        return terms;
+    }
+
+    @Override
+    public String toString() {
+        if (tree != null) {
+            return tree.toString();
+        }
+        if (capitalization != null) {
+            return capitalization.toString();
+        }
+        return phrase ? "\"" + text + "\"" : text;
+    }
+}
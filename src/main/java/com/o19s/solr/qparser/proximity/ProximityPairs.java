@@ -0,0 +1,168 @@
+package com.o19s.solr.qparser.proximity;
+
+import com.o19s.solr.analysis.AdjacencyPairTokenFilter;
+import com.o19s.solr.analysis.AdjacencyPairTokenFilterFactory;
+import org.apache.lucene.analysis.util.TokenFilterFactory;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.spans.SpanNearQuery;
+import org.apache.lucene.search.spans.SpanOrQuery;
+import org.apache.lucene.search.spans.SpanQuery;
+import org.apache.lucene.search.spans.SpanTermQuery;
+import org.apache.solr.analysis.TokenizerChain;
+import org.apache.solr.schema.FieldType;
+import org.apache.solr.schema.IndexSchema;
+import org.apache.solr.search.SyntaxError;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Answers the short proximity clauses with term lookups in a companion field of adjacency pairs (see
+ * {@link AdjacencyPairTokenFilter}), instead of enumerating the positions of their operands: quick w1 fox --&gt;
+ * w0|quick fox OR w1|quick fox.
+ * <p>
+ * A clause is rewritten when it is on the field copied to the pair field, its operands are terms (or alternatives
+ * of terms, e.g., synonyms) and its distance is at most the pairs' maxDistance; the other clauses, e.g., with a
+ * phrase operand or a larger distance, remain span clauses. Only the clauses that may be any query are rewritten
+ * (see {@link ProximityClauseRewriter}). The
+ * matches are the same, but the scores are those of the pair terms. Two cases are left to the spans:
+ * <ul>
+ * <li>an unordered clause with the same term on both sides, e.g., dog n1 dog, which matches a single dog;</li>
+ * <li>more pair terms than {@link #MAX_PAIR_TERMS}.</li>
+ * </ul>
+ * One instance per request.
+ */
+public class ProximityPairs extends ProximityClauseRewriter {
+
+    /**
+     * The maximum number of pair terms of a rewritten clause.
+     */
+    static final int MAX_PAIR_TERMS = 64;
+
+    private final String field;
+    private final String pairField;
+    private final int maxDistance;
+    private final boolean unorderedPairs;
+
+    /**
+     * Constructor.
+     *
+     * @param field          The queried field, copied to the pair field
+     * @param pairField      The companion field of adjacency pairs
+     * @param maxDistance    The largest distance of the pairs
+     * @param unorderedPairs Whether the pairs are also indexed unordered
+     */
+    public ProximityPairs(String field, String pairField, int maxDistance, boolean unorderedPairs) {
+        this.field = field;
+        this.pairField = pairField;
+        this.maxDistance = maxDistance;
+        this.unorderedPairs = unorderedPairs;
+    }
+
+    /**
+     * @param schema    The index schema
+     * @param pairField The companion field of adjacency pairs
+     * @param field     The queried field
+     * @return The pairs of the field, configured as the {@link AdjacencyPairTokenFilterFactory} of its index-time
+     * analyzer.
+     * @throws SyntaxError The queried field is not copied to the pair field, or the pair field does not index
+     *                     adjacency pairs.
+     */
+    public static ProximityPairs create(IndexSchema schema, String pairField, String field) throws SyntaxError {
+        // The pairs of another field would answer the clauses with the wrong documents
+        if (!schema.getCopySources(pairField).contains(field)) {
+            throw new SyntaxError(String.format("Field \"%s\" is not copied to the pair field \"%s\"", field,
+                    pairField));
+        }
+        FieldType fieldType = schema.getFieldTypeNoEx(pairField);
+        if (fieldType != null && fieldType.getIndexAnalyzer() instanceof TokenizerChain) {
+            for (TokenFilterFactory factory : ((TokenizerChain) fieldType.getIndexAnalyzer())
+                    .getTokenFilterFactories()) {
+                if (factory instanceof AdjacencyPairTokenFilterFactory) {
+                    AdjacencyPairTokenFilterFactory pairFactory = (AdjacencyPairTokenFilterFactory) factory;
+                    return new ProximityPairs(field, pairField, pairFactory.getMaxDistance(),
+                            pairFactory.isUnordered());
+                }
+            }
+        }
+        throw new SyntaxError(String.format("Field \"%s\" has no adjacency pairs (%s)", pairField,
+                AdjacencyPairTokenFilterFactory.class.getSimpleName()));
+    }
+
+    /**
+     * @return The disjunction of the pair terms of a proximity clause, or null if it cannot be rewritten.
+     */
+    @Override
+    protected Query rewriteClause(SpanNearQuery spanNearQuery) {
+        SpanQuery[] clauses = spanNearQuery.getClauses();
+        int distance = spanNearQuery.getSlop();
+        if (!field.equals(spanNearQuery.getField()) || clauses.length != 2 || distance > maxDistance) {
+            return null;
+        }
+        List<String> left = getTerms(clauses[0]);
+        List<String> right = getTerms(clauses[1]);
+        if (left == null || right == null) {
+            return null;
+        }
+        boolean inOrder = spanNearQuery.isInOrder();
+        if (!inOrder && !Collections.disjoint(left, right)) {
+            return null;
+        }
+
+        // Ordered: left then right. Unordered: the sorted pairs, or both orders without them.
+        Set<String> pairs = new LinkedHashSet<>();
+        for (int gap = 0; gap <= distance; gap++) {
+            for (String leftTerm : left) {
+                for (String rightTerm : right) {
+                    if (inOrder) {
+                        pairs.add(AdjacencyPairTokenFilter.orderedPair(leftTerm, rightTerm, gap));
+                    } else if (unorderedPairs) {
+                        pairs.add(AdjacencyPairTokenFilter.unorderedPair(leftTerm, rightTerm, gap));
+                    } else {
+                        pairs.add(AdjacencyPairTokenFilter.orderedPair(leftTerm, rightTerm, gap));
+                        pairs.add(AdjacencyPairTokenFilter.orderedPair(rightTerm, leftTerm, gap));
+                    }
+                }
+            }
+            if (pairs.size() > MAX_PAIR_TERMS) {
+                return null;
+            }
+        }
+
+        if (pairs.size() == 1) {
+            return new TermQuery(new Term(pairField, pairs.iterator().next()));
+        }
+        BooleanQuery.Builder builder = new BooleanQuery.Builder();
+        for (String pair : pairs) {
+            builder.add(new TermQuery(new Term(pairField, pair)), BooleanClause.Occur.SHOULD);
+        }
+        return builder.build();
+    }
+
+    /**
+     * @return The terms of an operand: a term or alternatives of terms; null for any other operand.
+     */
+    private static List<String> getTerms(SpanQuery operand) {
+        if (operand instanceof SpanTermQuery) {
+            return Collections.singletonList(((SpanTermQuery) operand).getTerm().text());
+        }
+        if (operand instanceof SpanOrQuery) {
+            List<String> terms = new ArrayList<>();
+            for (SpanQuery alternative : ((SpanOrQuery) operand).getClauses()) {
+                if (!(alternative instanceof SpanTermQuery)) {
+                    return null;
+                }
+                terms.add(((SpanTermQuery) alternative).getTerm().text());
+            }
+            return terms;
+        }
+        return null;
+    }
+}
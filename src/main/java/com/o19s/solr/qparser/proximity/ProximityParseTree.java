@@ -1,22 +1,123 @@
 package com.o19s.solr.qparser.proximity;
 
+import com.o19s.solr.analysis.AnalysisCache;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.solr.search.SyntaxError;
+
 import java.util.Collections;
 import java.util.List;
+import java.util.function.Predicate;
 
+/**
+ * A proximity clause: left operand [w|n]distance right operand.
+ * <p>
+ * The operands are either search terms, a phrase, a capitalization clause, a wildcard term, or a nested proximity
+ * clause (parentheses or chained operators).
+ */
 public class ProximityParseTree {
 
     private String operator;
     private int distance;
     private boolean inOrder;
-    private List<String> leftTerms;
-    private List<String> rightTerms;
+    private ProximityOperand left;
+    private ProximityOperand right;
+    private int position;
+    private int depth;
 
-    ProximityParseTree(String operator, int distance, boolean inOrder, List<String> leftTerms, List<String> rightTerms) {
+    ProximityParseTree(String operator, int distance, boolean inOrder, ProximityOperand left, ProximityOperand right,
+                       int position) {
         this.operator = operator;
         this.distance = distance;
         this.inOrder = inOrder;
-        this.leftTerms = (leftTerms == null || leftTerms.isEmpty()) ? Collections.emptyList() : leftTerms;
-        this.rightTerms = (rightTerms == null || rightTerms.isEmpty()) ? Collections.emptyList() : rightTerms;
+        this.left = left;
+        this.right = right;
+        this.position = position;
+        // The nested clauses are built before their parent, so the depth is known here
+        this.depth = 1 + Math.max(getDepth(left), getDepth(right));
+    }
+
+    /**
+     * Analyzes the search terms of all the operands (Query Parser flow step 2).
+     *
+     * @param analyzer      The field's query-time analyzer
+     * @param fieldName     The field name
+     * @param analysisCache The analysis cache (optional)
+     * @throws SyntaxError An operand has no search terms left after the analysis
+     */
+    void analyze(Analyzer analyzer, String fieldName, AnalysisCache analysisCache) throws SyntaxError {
+        left.analyze(analyzer, fieldName, analysisCache);
+        right.analyze(analyzer, fieldName, analysisCache);
+    }
+
+    /**
+     * @return The number of analyzed search terms (the terms of all the paths of a token graph), nested clauses
+     * included.
+     */
+    int countTerms() {
+        return countTerms(left) + countTerms(right);
+    }
+
+    private static int countTerms(ProximityOperand operand) {
+        return operand.getTree() != null ? operand.getTree().countTerms() : operand.countClauses();
+    }
+
+    /**
+     * @return The nesting depth of the proximity clauses: 1 without nested clauses.
+     */
+    int getDepth() {
+        return depth;
+    }
+
+    private static int getDepth(ProximityOperand operand) {
+        return operand.getTree() != null ? operand.getTree().getDepth() : 0;
+    }
+
+    /**
+     * @return The largest proximity distance, nested clauses included.
+     */
+    int getMaxDistance() {
+        return Math.max(distance, Math.max(getMaxDistance(left), getMaxDistance(right)));
+    }
+
+    private static int getMaxDistance(ProximityOperand operand) {
+        return operand.getTree() != null ? operand.getTree().getMaxDistance() : 0;
+    }
+
+    /**
+     * Reduces the proximity distances larger than a maximum to the maximum, nested clauses included.
+     *
+     * @param maxDistance The maximum distance
+     */
+    void limitDistance(int maxDistance) {
+        distance = Math.min(distance, maxDistance);
+        if (left.getTree() != null) {
+            left.getTree().limitDistance(maxDistance);
+        }
+        if (right.getTree() != null) {
+            right.getTree().limitDistance(maxDistance);
+        }
+    }
+
+    /**
+     * @return Whether an operand is a capitalization clause, nested clauses included.
+     */
+    boolean hasCapitalization() {
+        return anyOperand(operand -> operand.getCapitalization() != null);
+    }
+
+    /**
+     * @return Whether an operand is a wildcard term, nested clauses included.
+     */
+    boolean hasWildcard() {
+        return anyOperand(ProximityOperand::isWildcard);
+    }
+
+    private boolean anyOperand(Predicate<ProximityOperand> predicate) {
+        return anyOperand(left, predicate) || anyOperand(right, predicate);
+    }
+
+    private static boolean anyOperand(ProximityOperand operand, Predicate<ProximityOperand> predicate) {
+        return operand.getTree() != null ? operand.getTree().anyOperand(predicate) : predicate.test(operand);
     }
 
     public String getOperator() {
@@ -31,11 +132,37 @@ public class ProximityParseTree {
         return inOrder;
     }
 
+    ProximityOperand getLeft() {
+        return left;
+    }
+
+    ProximityOperand getRight() {
+        return right;
+    }
+
+    /**
+     * @return The position of the proximity operator in the search string.
+     */
+    int getPosition() {
+        return position;
+    }
+
+    /**
+     * @return The left operand's search terms; empty when the left operand is a nested proximity clause.
+     */
     List<String> getLeftTerms() {
-        return leftTerms;
+        return left.getTree() == null ? left.getTerms() : Collections.emptyList();
     }
 
+    /**
+     * @return The right operand's search terms; empty when the right operand is a nested proximity clause.
+     */
     List<String> getRightTerms() {
-        return rightTerms;
+        return right.getTree() == null ? right.getTerms() : Collections.emptyList();
+    }
+
+    @Override
+    public String toString() {
+        return "(" + left + " " + operator + distance + " " + right + ")";
     }
 }
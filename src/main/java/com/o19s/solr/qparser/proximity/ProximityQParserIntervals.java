@@ -0,0 +1,191 @@
+package com.o19s.solr.qparser.proximity;
+
+import com.codahale.metrics.Timer;
+import com.o19s.solr.analysis.AnalysisCache;
+import com.o19s.solr.analysis.TokenGraph;
+import com.o19s.solr.qparser.IQueryParser;
+import com.o19s.solr.qparser.QParserMetrics;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.intervals.IntervalQuery;
+import org.apache.lucene.search.intervals.Intervals;
+import org.apache.lucene.search.intervals.IntervalsSource;
+import org.apache.solr.search.SyntaxError;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Proximity query parser with the semantics of ProximityQParserWithPhrase, executed with Lucene's intervals
+ * (sandbox) rather than span queries. Intervals iterate minimal intervals only, which avoids most of the
+ * bookkeeping of the span queries.
+ * <p>
+ * Example: cat kitty w10 "dog food" builds
+ * maxwidth(13, ordered(or(cat, kitty), phrase(dog, food)))
+ * <p>
+ * The proximity distance is the maximum number of positions between the operands, as for the span queries:
+ * maxwidth() limits the width of the whole interval to the operands' widths plus the distance. This is exact
+ * for search terms and phrases, whose width is fixed. The width of a nested proximity clause, or of synonyms of
+ * different lengths (e.g., usa, united states), varies: its largest possible width is used, so such a clause may
+ * match more documents than its span query counterpart.
+ */
+public class ProximityQParserIntervals implements IQueryParser {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ProximityQParserIntervals.class);
+    private final String fieldName;
+    private final Analyzer analyzer;
+    private final AnalysisCache analysisCache;
+    private final QParserMetrics metrics;
+    private final ProximityBudget budget;
+
+    public ProximityQParserIntervals(String fieldName, Analyzer analyzer) {
+        this(fieldName, analyzer, null, QParserMetrics.UNREGISTERED, ProximityBudget.UNLIMITED);
+    }
+
+    public ProximityQParserIntervals(String fieldName, Analyzer analyzer, AnalysisCache analysisCache,
+                                     QParserMetrics metrics, ProximityBudget budget) {
+        this.fieldName = fieldName;
+        this.analyzer = analyzer;
+        this.analysisCache = analysisCache;
+        this.metrics = metrics;
+        this.budget = budget;
+    }
+
+    @Override
+    public Query parse(String qstr, int mmAsPercent) throws SyntaxError {
+        ProximityParseTree parseTree;
+        Timer.Context parseTimer = metrics.getParse().time();
+        try {
+            parseTree = ProximityExpressionParser.parse(qstr, budget, metrics);
+        } finally {
+            parseTimer.stop();
+        }
+        if (parseTree.hasCapitalization()) {
+            // The intervals do not expose the payloads of their positions
+            throw new SyntaxError(String.format("Capitalization clauses are not supported by the intervals " +
+                    "implementation: \"%s\"", qstr));
+        }
+        if (parseTree.hasWildcard()) {
+            throw new SyntaxError(String.format("Wildcard terms are not supported by the intervals " +
+                    "implementation: \"%s\"", qstr));
+        }
+
+        LOG.debug("Parse tree: {}", parseTree);
+
+        // Analyze the operands
+        Timer.Context analyzeTimer = metrics.getAnalyze().time();
+        try {
+            parseTree.analyze(analyzer, fieldName, analysisCache);
+        } finally {
+            analyzeTimer.stop();
+        }
+
+        // Check the cost of the query before building it: one term source per search term, as the factored spans
+        budget.checkParseTree(parseTree, metrics);
+        budget.checkClauses(ProximityQParserWithPhrase.estimateClauses(parseTree, SpanConstruction.FACTORED),
+                metrics);
+
+        Timer.Context buildTimer = metrics.getBuild().time();
+        try {
+            return buildIntervalQuery(parseTree);
+        } finally {
+            buildTimer.stop();
+        }
+    }
+
+    /**
+     * @param parseTree The analyzed parse tree
+     * @return The interval query
+     */
+    IntervalQuery buildIntervalQuery(ProximityParseTree parseTree) {
+        return new IntervalQuery(fieldName, buildIntervalsSource(parseTree));
+    }
+
+    private static IntervalsSource buildIntervalsSource(ProximityParseTree parseTree) {
+        IntervalsSource left = getOperandIntervalsSource(parseTree.getLeft());
+        IntervalsSource right = getOperandIntervalsSource(parseTree.getRight());
+        IntervalsSource source = parseTree.isInOrder() ? Intervals.ordered(left, right)
+                : Intervals.unordered(QueryCanonicalizer.sortUnordered(new IntervalsSource[]{left, right}, false));
+        return Intervals.maxwidth(getMaxWidth(parseTree), source);
+    }
+
+    private static IntervalsSource getOperandIntervalsSource(ProximityOperand operand) {
+        if (operand.getTree() != null) {
+            return new TerminatedIntervalsSource(buildIntervalsSource(operand.getTree()));
+        }
+
+        if (operand.getGraph() != null) {
+            return getGraphIntervalsSource(operand.getGraph(), operand.isPhrase());
+        }
+
+        List<String> terms = operand.getTerms();
+        if (operand.isPhrase()) {
+            return terms.size() == 1 ? Intervals.term(terms.get(0))
+                    : new TerminatedIntervalsSource(Intervals.phrase(terms.toArray(new String[0])));
+        }
+
+        // The search terms are alternatives: sorted, without duplicates
+        terms = operand.getAlternatives();
+        if (terms.size() == 1) {
+            return Intervals.term(terms.get(0));
+        }
+        IntervalsSource[] alternatives = new IntervalsSource[terms.size()];
+        for (int i = 0; i < alternatives.length; i++) {
+            alternatives[i] = Intervals.term(terms.get(i));
+        }
+        return Intervals.or(alternatives);
+    }
+
+    /**
+     * @return The intervals of a token graph (e.g., multi-word synonyms): its segments in order for a phrase, or as
+     * alternatives, each segment being the alternative paths.
+     */
+    private static IntervalsSource getGraphIntervalsSource(TokenGraph graph, boolean phrase) {
+        IntervalsSource[] segments = new IntervalsSource[graph.size()];
+        for (int i = 0; i < segments.length; i++) {
+            List<IntervalsSource> paths = new ArrayList<>();
+            for (List<String> path : graph.getPaths(i)) {
+                paths.add(path.size() == 1 ? Intervals.term(path.get(0))
+                        : new TerminatedIntervalsSource(Intervals.phrase(path.toArray(new String[0]))));
+            }
+            QueryCanonicalizer.sortClauses(paths);
+            segments[i] = paths.size() == 1 ? paths.get(0) : Intervals.or(paths.toArray(new IntervalsSource[0]));
+        }
+        if (segments.length == 1) {
+            return segments[0];
+        }
+        if (phrase) {
+            return new TerminatedIntervalsSource(Intervals.phrase(segments));
+        }
+        QueryCanonicalizer.sortClauses(segments);
+        return Intervals.or(segments);
+    }
+
+    /**
+     * @return The largest width of the intervals of a proximity clause: the operands' widths plus the distance.
+     */
+    private static int getMaxWidth(ProximityParseTree parseTree) {
+        long maxWidth = (long) getMaxWidth(parseTree.getLeft()) + getMaxWidth(parseTree.getRight())
+                + parseTree.getDistance();
+        return (int) Math.min(Integer.MAX_VALUE, maxWidth);
+    }
+
+    private static int getMaxWidth(ProximityOperand operand) {
+        if (operand.getTree() != null) {
+            return getMaxWidth(operand.getTree());
+        }
+        TokenGraph graph = operand.getGraph();
+        if (graph != null) {
+            // The longest path: through the segments for a phrase, of a single segment otherwise
+            int maxWidth = 0;
+            for (int i = 0; i < graph.size(); i++) {
+                maxWidth = operand.isPhrase() ? maxWidth + graph.getMaxPathLength(i)
+                        : Math.max(maxWidth, graph.getMaxPathLength(i));
+            }
+            return maxWidth;
+        }
+        return operand.isPhrase() ? operand.getTerms().size() : 1;
+    }
+}
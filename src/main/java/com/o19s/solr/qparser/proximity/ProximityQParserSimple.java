@@ -1,11 +1,15 @@
 package com.o19s.solr.qparser.proximity;
 
-import com.o19s.solr.analysis.AnalyzerUtils;
+import com.codahale.metrics.Timer;
+import com.o19s.solr.analysis.AnalysisCache;
+import com.o19s.solr.analysis.TokenGraph;
 import com.o19s.solr.qparser.IQueryParser;
+import com.o19s.solr.qparser.QParserMetrics;
+import com.o19s.solr.qparser.TermExpansion;
 import org.apache.lucene.analysis.Analyzer;
-import org.apache.lucene.index.Term;
 import org.apache.lucene.search.BooleanClause;
 import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.MatchNoDocsQuery;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.TermQuery;
 import org.apache.lucene.search.spans.SpanNearQuery;
@@ -16,22 +20,74 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
- * A very simple proximity query parser that uses regular expressions to parse the end-user's search string.
+ * A very simple proximity query parser: the proximity clause applies to the terms next to the proximity operator,
+ * the operands' other terms are OR'ed with it.
  */
 public class ProximityQParserSimple implements IQueryParser {
 
     private static final Logger LOG = LoggerFactory.getLogger(ProximityQParserSimple.class);
-    private String fieldName;
-    private Analyzer analyzer;
+    private final String fieldName;
+    private final Analyzer analyzer;
+    private final AnalysisCache analysisCache;
+    private final QParserMetrics metrics;
+    private final ProximityBudget budget;
+    private final ProximityQueryPlanner planner;
+    private final TermExpansion termExpansion;
 
     public ProximityQParserSimple(String fieldName, Analyzer analyzer) {
+        this(fieldName, analyzer, null);
+    }
+
+    public ProximityQParserSimple(String fieldName, Analyzer analyzer, AnalysisCache analysisCache) {
+        this(fieldName, analyzer, analysisCache, QParserMetrics.UNREGISTERED, ProximityBudget.UNLIMITED);
+    }
+
+    public ProximityQParserSimple(String fieldName, Analyzer analyzer, AnalysisCache analysisCache,
+                                  QParserMetrics metrics, ProximityBudget budget) {
+        this(fieldName, analyzer, analysisCache, metrics, budget, null);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param fieldName     The field to query
+     * @param analyzer      The field's query-time analyzer
+     * @param analysisCache The analysis cache (optional)
+     * @param metrics       The plugin's metrics
+     * @param budget        The cost budget
+     * @param planner       The planner that reads the term statistics of the searched index (optional): without
+     *                      it, the query has the same shape whatever the index.
+     */
+    public ProximityQParserSimple(String fieldName, Analyzer analyzer, AnalysisCache analysisCache,
+                                  QParserMetrics metrics, ProximityBudget budget, ProximityQueryPlanner planner) {
+        this(fieldName, analyzer, analysisCache, metrics, budget, planner, TermExpansion.DEFAULT);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param fieldName     The field to query
+     * @param analyzer      The field's query-time analyzer
+     * @param analysisCache The analysis cache (optional)
+     * @param metrics       The plugin's metrics
+     * @param budget        The cost budget
+     * @param planner       The planner that reads the term statistics of the searched index (optional)
+     * @param termExpansion The expansion of the wildcard terms
+     */
+    public ProximityQParserSimple(String fieldName, Analyzer analyzer, AnalysisCache analysisCache,
+                                  QParserMetrics metrics, ProximityBudget budget, ProximityQueryPlanner planner,
+                                  TermExpansion termExpansion) {
         this.fieldName = fieldName;
         this.analyzer = analyzer;
+        this.analysisCache = analysisCache;
+        this.metrics = metrics;
+        this.budget = budget;
+        this.planner = planner;
+        this.termExpansion = termExpansion;
     }
 
     /**
@@ -48,38 +104,62 @@ public class ProximityQParserSimple implements IQueryParser {
         // Query Parser flow steps 1 & 2: Parse and analyze the end-user's search string
         ProximityParseTree parseTree = buildParseTree(qstr);
 
+        // Check the cost of the query before building it: one term clause per search term
+        budget.checkParseTree(parseTree, metrics);
+        budget.checkClauses(parseTree.countTerms(), metrics);
+
         // Query Parser flow step 3: Compose the Lucene query
+        Timer.Context buildTimer = metrics.getBuild().time();
+        try {
+            return buildQuery(parseTree, mmAsPercent);
+        } finally {
+            buildTimer.stop();
+        }
+    }
+
+    /**
+     * Composes the Lucene query for an analyzed parse tree.
+     *
+     * @param parseTree   The analyzed parse tree
+     * @param mmAsPercent Minimum Should Match parameter (as a percentage)
+     * @return The generated Lucene query
+     */
+    Query buildQuery(ProximityParseTree parseTree, int mmAsPercent) {
         // term1 .. termN w5 termN+1 .. termM
         // -->
         // (term1 OR ... termN-1) OR (termN w5 termN+1) OR (termN+2 ... OR termM)
-        int leftTermsCount = parseTree.getLeftTerms().size();
-        int rightTermsCount = parseTree.getRightTerms().size();
+        //
+        // Nested clauses contribute their own proximity clause, e.g.:
+        // (term1 term2 w3 term3) n5 term4
+        // -->
+        // term1 OR ((term2 w3 term3) n5 term4)
 
         // Terms before the proximity clause if any
         // term1  ... termN-1
         List<Query> leftSingleTermQueries = new ArrayList<>();
-        for (int i = 0; i < leftTermsCount - 1; i++) {
-            leftSingleTermQueries.add(
-                    new TermQuery(new Term(fieldName, parseTree.getLeftTerms().get(i)))
-            );
-        }
-
-        // Proximity clause
-        // (termN w5 termN+1)
-        Query proximityQuery = new SpanNearQuery(
-                new SpanQuery[]{
-                        new SpanTermQuery(new Term(fieldName, parseTree.getLeftTerms().get(leftTermsCount - 1))),
-                        new SpanTermQuery(new Term(fieldName, parseTree.getRightTerms().get(0)))},
-                parseTree.getDistance(),
-                parseTree.isInOrder());
 
         // Terms after the proximity clause if any
         // termN+2 ... termM
         List<Query> rightSingleTermQueries = new ArrayList<>();
-        for (int i = 1; i < rightTermsCount; i++) {
-            rightSingleTermQueries.add(
-                    new TermQuery(new Term(fieldName, parseTree.getRightTerms().get(i)))
-            );
+
+        // Proximity clause
+        // (termN w5 termN+1)
+        SpanQuery proximityQuery = buildProximityQuery(parseTree, leftSingleTermQueries, rightSingleTermQueries,
+                new QueryCanonicalizer(fieldName, termExpansion));
+
+        // Canonical order of the optional clauses, without duplicates, e.g., the same clauses for cat dog fox w3 lazy
+        // and dog cat fox w3 lazy. The proximity clause keeps the innermost terms as typed.
+        leftSingleTermQueries = canonicalize(leftSingleTermQueries);
+        rightSingleTermQueries = canonicalize(rightSingleTermQueries);
+
+        // Compute the number of clauses to match at a minimum
+        int clausesCount = leftSingleTermQueries.size() + 1 + rightSingleTermQueries.size();
+        Long clausesMinMatch = Math.round(clausesCount * ((double) mmAsPercent / 100.0));
+        LOG.debug("Clauses count={}, mmAsPercent={} --> mm={}", clausesCount, mmAsPercent, clausesMinMatch);
+
+        if (planner != null) {
+            return planQuery(leftSingleTermQueries, proximityQuery, rightSingleTermQueries,
+                    clausesMinMatch.intValue());
         }
 
         // OR the search clauses
@@ -87,12 +167,7 @@ public class ProximityQParserSimple implements IQueryParser {
 
         // Use the BooleanQuery builder
         BooleanQuery.Builder builder = new BooleanQuery.Builder();
-
-        // Compute the number of clauses to match at a minimum
-        int clausesCount = leftSingleTermQueries.size() + 1 + rightSingleTermQueries.size();
-        Long clausesMinMatch = Math.round(clausesCount * ((double) mmAsPercent / 100.0));
         builder.setMinimumNumberShouldMatch(clausesMinMatch.intValue());
-        LOG.info("Clauses count={}, mmAsPercent={} --> mm={}", clausesCount, mmAsPercent, clausesMinMatch);
 
         // OR the left-side clauses (if any)
         // term1 OR ... termN-1
@@ -115,59 +190,157 @@ public class ProximityQParserSimple implements IQueryParser {
     }
 
     /**
-     * Parse the search string using regular expressions.
+     * Composes the Lucene query with the term statistics of the searched index. The query matches the same
+     * documents with the same scores as the unplanned one, but:
+     * <ul>
+     * <li>The clauses that cannot match (a term, or a span term of the proximity clause, that matches no
+     * documents) are left out, while the minimum number of clauses to match is unchanged. If there are not
+     * enough clauses left to reach that minimum, the query is a MatchNoDocsQuery.</li>
+     * <li>When all the remaining clauses must match, they are required rather than optional with a minimum:
+     * the single-term clauses then form a conjunction that skips to the candidate documents before the
+     * positions of the proximity clause are checked.</li>
+     * </ul>
+     */
+    private Query planQuery(List<Query> leftSingleTermQueries, SpanQuery proximityQuery,
+                            List<Query> rightSingleTermQueries, int clausesMinMatch) {
+        List<Query> singleTermQueries = new ArrayList<>(leftSingleTermQueries);
+        singleTermQueries.addAll(rightSingleTermQueries);
+        singleTermQueries = planner.planTermQueries(singleTermQueries);
+        SpanQuery plannedProximityQuery = planner.planSpanQuery(proximityQuery);
+
+        int plannedClausesCount = singleTermQueries.size() + (plannedProximityQuery == null ? 0 : 1);
+        LOG.debug("Planned clauses count={}, mm={}", plannedClausesCount, clausesMinMatch);
+        if (plannedClausesCount == 0 || plannedClausesCount < clausesMinMatch) {
+            return new MatchNoDocsQuery("Not enough search terms in the index");
+        }
+
+        BooleanQuery.Builder builder = new BooleanQuery.Builder();
+        BooleanClause.Occur occur = BooleanClause.Occur.SHOULD;
+        if (plannedClausesCount == clausesMinMatch) {
+            occur = BooleanClause.Occur.MUST;
+        } else {
+            builder.setMinimumNumberShouldMatch(clausesMinMatch);
+        }
+        for (Query query : singleTermQueries) {
+            builder.add(query, occur);
+        }
+        if (plannedProximityQuery != null) {
+            builder.add(plannedProximityQuery, occur);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Builds the proximity clause between the innermost terms of the operands, collecting the operands'
+     * other terms as single-term queries.
+     *
+     * @param parseTree              The proximity clause
+     * @param leftSingleTermQueries  Collects the single-term queries of the left operand
+     * @param rightSingleTermQueries Collects the single-term queries of the right operand
+     * @return The span query
+     */
+    private SpanQuery buildProximityQuery(ProximityParseTree parseTree,
+                                          List<Query> leftSingleTermQueries,
+                                          List<Query> rightSingleTermQueries,
+                                          QueryCanonicalizer canonicalizer) {
+        return new SpanNearQuery(
+                QueryCanonicalizer.sortUnordered(new SpanQuery[]{
+                        buildOperandQuery(parseTree.getLeft(), true, leftSingleTermQueries, canonicalizer),
+                        buildOperandQuery(parseTree.getRight(), false, rightSingleTermQueries, canonicalizer)},
+                        parseTree.isInOrder()),
+                parseTree.getDistance(),
+                parseTree.isInOrder());
+    }
+
+    private SpanQuery buildOperandQuery(ProximityOperand operand, boolean leftOperand, List<Query> singleTermQueries,
+                                        QueryCanonicalizer canonicalizer) {
+        if (operand.getTree() != null) {
+            // Nested proximity clause
+            return buildProximityQuery(operand.getTree(), singleTermQueries, singleTermQueries, canonicalizer);
+        }
+
+        if (operand.getGraph() != null) {
+            return buildGraphOperandQuery(operand, leftOperand, singleTermQueries, canonicalizer);
+        }
+
+        List<String> terms = operand.getTerms();
+        if (operand.isPhrase()) {
+            return canonicalizer.spanPhrase(terms);
+        }
+
+        // The left operand's last term and the right operand's first term are part of the proximity clause
+        int proximityTermIndex = leftOperand ? terms.size() - 1 : 0;
+        for (int i = 0; i < terms.size(); i++) {
+            if (i != proximityTermIndex) {
+                singleTermQueries.add(new TermQuery(canonicalizer.term(terms.get(i))));
+            }
+        }
+
+        // A capitalization clause or a wildcard term is a single search term
+        return canonicalizer.spanTerm(operand, terms.get(proximityTermIndex));
+    }
+
+    /**
+     * Same as {@link #buildOperandQuery} for an operand analyzed as a token graph (e.g., multi-word synonyms): the
+     * segments take the place of the search terms, each with its alternative paths.
+     */
+    private SpanQuery buildGraphOperandQuery(ProximityOperand operand, boolean leftOperand,
+                                             List<Query> singleTermQueries, QueryCanonicalizer canonicalizer) {
+        TokenGraph graph = operand.getGraph();
+        if (operand.isPhrase()) {
+            return canonicalizer.graphPhrase(graph);
+        }
+
+        int proximitySegmentIndex = leftOperand ? graph.size() - 1 : 0;
+        for (int i = 0; i < graph.size(); i++) {
+            if (i != proximitySegmentIndex) {
+                SpanQuery segmentQuery = canonicalizer.graphSegment(graph, i);
+                singleTermQueries.add(segmentQuery instanceof SpanTermQuery
+                        ? new TermQuery(((SpanTermQuery) segmentQuery).getTerm()) : segmentQuery);
+            }
+        }
+        return canonicalizer.graphSegment(graph, proximitySegmentIndex);
+    }
+
+    /**
+     * @param singleTermQueries Single-term queries
+     * @return The single-term queries, sorted and without duplicates (a nested clause may repeat a term).
+     */
+    private static List<Query> canonicalize(List<Query> singleTermQueries) {
+        if (singleTermQueries.size() < 2) {
+            return singleTermQueries;
+        }
+        List<Query> canonicalQueries = new ArrayList<>(new LinkedHashSet<>(singleTermQueries));
+        QueryCanonicalizer.sortClauses(canonicalQueries);
+        return canonicalQueries;
+    }
+
+    /**
+     * Parse the search string with the proximity expression parser and analyze the operands.
      *
      * @param qstr The end-user's search string
      * @return A parse tree
      * @throws SyntaxError A syntax error was encountered
      */
     private ProximityParseTree buildParseTree(String qstr) throws SyntaxError {
-
-        // Parse with a regular expression: (left side)(prox. op)(right side)
-        Pattern pattern = Pattern.compile("(.+)([w|n]\\d+)(.+)");
-        Matcher matcher = pattern.matcher(qstr.trim());
-        if (!matcher.find()) {
-            throw new SyntaxError(
-                    "Usage: one or more terms [w|n]<number> one or more terms. Example: hello w10 world");
+        ProximityParseTree parseTree;
+        Timer.Context parseTimer = metrics.getParse().time();
+        try {
+            parseTree = ProximityExpressionParser.parse(qstr, budget, metrics);
+        } finally {
+            parseTimer.stop();
         }
-        String leftSide = matcher.group(1).trim();
-        String operator = matcher.group(2).trim();
-        String rightSide = matcher.group(3).trim();
 
-        LOG.info("Left: \"{}\"; op=\"{}\"; right: \"{}\"", leftSide, operator, rightSide);
-
-        // Compose the query
-        // term1 .. termN w5 termN+1 .. termM
-        // -->
-        // (term1 OR ... termN-1) OR (termN w5 termN+1) OR (termN+2 ... OR termM)
+        LOG.debug("Parse tree: {}", parseTree);
 
         // Analyze the search terms
-        List<String> leftTerms = AnalyzerUtils.analyze(analyzer, fieldName, leftSide);
-        List<String> rightTerms = AnalyzerUtils.analyze(analyzer, fieldName, rightSide);
-
-        // Parse the proximity's distance & order
-        boolean inOrder = false;
-        pattern = Pattern.compile("(w|n)(\\d+)");
-        matcher = pattern.matcher(operator);
-        if (!matcher.find()) {
-            throw new SyntaxError(
-                    String.format("Invalid operator syntax: \"%s\". Usage: w|n<number>. Example: hello w10 world",
-                            operator));
-        }
-        String proximityOperator = matcher.group(1).trim().toLowerCase();
-        if (proximityOperator.equalsIgnoreCase("w")) {
-            // "w" specifies an ordered span
-            inOrder = true;
-        }
-        int distance = Integer.parseInt(matcher.group(2));
-
-        // Return a "parse tree" (quasi-AST)
-        return new ProximityParseTree(
-                proximityOperator,
-                distance,
-                inOrder,
-                leftTerms,
-                rightTerms
-        );
+        Timer.Context analyzeTimer = metrics.getAnalyze().time();
+        try {
+            parseTree.analyze(analyzer, fieldName, analysisCache);
+        } finally {
+            analyzeTimer.stop();
+        }
+
+        return parseTree;
     }
-}
\ No newline at end of file
+}
@@ -1,187 +1,239 @@
 package com.o19s.solr.qparser.proximity;
 
+import com.codahale.metrics.Timer;
+import com.o19s.solr.analysis.AnalysisCache;
 import com.o19s.solr.qparser.IQueryParser;
+import com.o19s.solr.qparser.QParserMetrics;
+import com.o19s.solr.qparser.TermExpansion;
 import org.apache.lucene.analysis.Analyzer;
-import org.apache.lucene.analysis.TokenStream;
-import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
-import org.apache.lucene.index.Term;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.spans.SpanNearQuery;
 import org.apache.lucene.search.spans.SpanOrQuery;
 import org.apache.lucene.search.spans.SpanQuery;
-import org.apache.lucene.search.spans.SpanTermQuery;
 import org.apache.solr.search.SyntaxError;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 public class ProximityQParserWithPhrase implements IQueryParser {
 
     private static final Logger LOG = LoggerFactory.getLogger(ProximityQParserWithPhrase.class);
-    private String fieldName;
-    private Analyzer analyzer;
+    private final String fieldName;
+    private final Analyzer analyzer;
+    private final AnalysisCache analysisCache;
+    private final SpanConstruction spanConstruction;
+    private final QParserMetrics metrics;
+    private final ProximityBudget budget;
+    private final TermExpansion termExpansion;
 
     public ProximityQParserWithPhrase(String fieldName, Analyzer analyzer) {
+        this(fieldName, analyzer, null, SpanConstruction.CARTESIAN);
+    }
+
+    public ProximityQParserWithPhrase(String fieldName, Analyzer analyzer, AnalysisCache analysisCache) {
+        this(fieldName, analyzer, analysisCache, SpanConstruction.CARTESIAN);
+    }
+
+    public ProximityQParserWithPhrase(String fieldName, Analyzer analyzer, AnalysisCache analysisCache,
+                                      SpanConstruction spanConstruction) {
+        this(fieldName, analyzer, analysisCache, spanConstruction, QParserMetrics.UNREGISTERED,
+                ProximityBudget.UNLIMITED);
+    }
+
+    public ProximityQParserWithPhrase(String fieldName, Analyzer analyzer, AnalysisCache analysisCache,
+                                      SpanConstruction spanConstruction, QParserMetrics metrics,
+                                      ProximityBudget budget) {
+        this(fieldName, analyzer, analysisCache, spanConstruction, metrics, budget, TermExpansion.DEFAULT);
+    }
+
+    public ProximityQParserWithPhrase(String fieldName, Analyzer analyzer, AnalysisCache analysisCache,
+                                      SpanConstruction spanConstruction, QParserMetrics metrics,
+                                      ProximityBudget budget, TermExpansion termExpansion) {
         this.analyzer = analyzer;
         this.fieldName = fieldName;
+        this.analysisCache = analysisCache;
+        this.spanConstruction = spanConstruction;
+        this.metrics = metrics;
+        this.budget = budget;
+        this.termExpansion = termExpansion;
     }
 
     @Override
     public Query parse(String qstr, int mmAsPercent) throws SyntaxError {
-        Query query;
-        Pattern pattern = Pattern.compile("(.+)([w|n]\\d+)(.+)");
-        Matcher matcher = pattern.matcher(qstr.trim());
-        if (!matcher.find()) {
-            throw new SyntaxError("Usage: one or more terms [w|n]<number> one or more terms. Example: hello w10 world");
+        ProximityParseTree parseTree;
+        Timer.Context parseTimer = metrics.getParse().time();
+        try {
+            parseTree = ProximityExpressionParser.parse(qstr, budget, metrics);
+        } finally {
+            parseTimer.stop();
         }
-        String leftOperand = matcher.group(1).trim();
-        String operator = matcher.group(2).trim();
-        String rightOperand = matcher.group(3).trim();
-
-        // Are the operands phrases?
-        pattern = Pattern.compile("\"(.*)\"");
-        matcher = pattern.matcher(leftOperand);
-        boolean leftOperandPhrase = false;
-        if (matcher.find()) {
-            leftOperandPhrase = true;
+
+        LOG.debug("Parse tree: {}", parseTree);
+
+        // Analyze the operands
+        Timer.Context analyzeTimer = metrics.getAnalyze().time();
+        try {
+            parseTree.analyze(analyzer, fieldName, analysisCache);
+        } finally {
+            analyzeTimer.stop();
         }
 
-        matcher = pattern.matcher(rightOperand);
-        boolean rightOperandPhrase = false;
-        if (matcher.find()) {
-            rightOperandPhrase = true;
+        // Check the cost of the query before building it
+        budget.checkParseTree(parseTree, metrics);
+        SpanConstruction construction = spanConstruction;
+        int clauseCount = estimateClauses(parseTree, construction);
+        if (clauseCount > budget.getMaxClauses() && construction == SpanConstruction.CARTESIAN && budget.isDegrade()) {
+            construction = SpanConstruction.FACTORED;
+            clauseCount = estimateClauses(parseTree, construction);
+            metrics.getBudgetDegradations().inc();
         }
+        budget.checkClauses(clauseCount, metrics);
 
-        LOG.info("Left operand='{}' (phrase={}), operator={},right operand='{}' (phrase={})",
-                leftOperand, leftOperandPhrase, operator, rightOperand, rightOperandPhrase);
+        Timer.Context buildTimer = metrics.getBuild().time();
+        try {
+            return buildProximityQuery(parseTree, construction, new QueryCanonicalizer(fieldName, termExpansion));
+        } finally {
+            buildTimer.stop();
+        }
+    }
 
-        // Analyze the operands
-        List<String> leftSearchTerms;
-        List<String> rightSearchTerms;
-
-        leftSearchTerms = getSearchTerms(analyzer, fieldName, leftOperand);
-        rightSearchTerms = getSearchTerms(analyzer, fieldName, rightOperand);
-
-        // span's distance & order
-        boolean inOrder = false;
-        pattern = Pattern.compile("(w|n)(\\d+)");
-        matcher = pattern.matcher(operator);
-        if (!matcher.find()) {
-            throw new SyntaxError(
-                    String.format("Invalid operator syntax: \"%s\". Usage: w|n<number>. Example: hello w10 world",
-                            operator));
+    SpanQuery buildProximityQuery(ProximityParseTree parseTree) {
+        return buildProximityQuery(parseTree, spanConstruction, new QueryCanonicalizer(fieldName, termExpansion));
+    }
+
+    /**
+     * Estimates the number of term clauses of the span query of an analyzed parse tree, without building it.
+     *
+     * @param parseTree    The analyzed parse tree
+     * @param construction The span construction
+     * @return The number of term clauses of the span query
+     */
+    static int estimateClauses(ProximityParseTree parseTree, SpanConstruction construction) {
+        ProximityOperand leftOperand = parseTree.getLeft();
+        ProximityOperand rightOperand = parseTree.getRight();
+        int leftClauses = estimateOperandClauses(leftOperand, construction);
+        int rightClauses = estimateOperandClauses(rightOperand, construction);
+        if (construction == SpanConstruction.FACTORED) {
+            return saturatedAdd(leftClauses, rightClauses);
+        }
+
+        // Each alternative of an operand is repeated for each alternative of the other operand
+        return saturatedAdd(saturatedMultiply(leftClauses, getAlternativeCount(rightOperand)),
+                saturatedMultiply(rightClauses, getAlternativeCount(leftOperand)));
+    }
+
+    private static int estimateOperandClauses(ProximityOperand operand, SpanConstruction construction) {
+        if (operand.getTree() != null) {
+            return estimateClauses(operand.getTree(), construction);
         }
-        String proximityOperator = matcher.group(1).trim().toLowerCase();
-        if (proximityOperator.equals("w")) {
-            // "w" specifies an ordered span
-            inOrder = true;
+        return isSingleSpan(operand) || operand.getGraph() != null ? operand.countClauses()
+                : operand.getAlternatives().size();
+    }
+
+    private static int getAlternativeCount(ProximityOperand operand) {
+        if (isSingleSpan(operand)) {
+            return 1;
         }
-        int distance = Integer.parseInt(matcher.group(2));
+        // A segment of a token graph is a single span, whatever its number of paths
+        return operand.getGraph() != null ? operand.getGraph().size() : operand.getAlternatives().size();
+    }
+
+    private static int saturatedAdd(int a, int b) {
+        return (int) Math.min(Integer.MAX_VALUE, (long) a + b);
+    }
 
-        if (leftOperandPhrase) {
-            SpanQuery leftSpanQuery = getPhraseSpanQuery(fieldName, leftSearchTerms);
+    private static int saturatedMultiply(int a, int b) {
+        return (int) Math.min(Integer.MAX_VALUE, (long) a * b);
+    }
 
-            if (rightOperandPhrase) {
-                // Build the various span queries
-                // Example: For "cat kitty" w10 "dog doggy"
-                // Single span.
-                SpanQuery rightSpanQuery = getPhraseSpanQuery(fieldName, rightSearchTerms);
+    private SpanQuery buildProximityQuery(ProximityParseTree parseTree, SpanConstruction construction,
+                                          QueryCanonicalizer canonicalizer) {
+        ProximityOperand leftOperand = parseTree.getLeft();
+        ProximityOperand rightOperand = parseTree.getRight();
+        int distance = parseTree.getDistance();
+        boolean inOrder = parseTree.isInOrder();
+
+        // A phrase, a capitalization clause or a nested proximity clause is a single span query; search terms are
+        // one span query each.
+        // Examples:
+        // For "cat kitty" w10 "dog doggy": single span.
+        // For "cat kitty" w10 dog doggy, spans:
+        // "cat kitty" w10 dog
+        // "cat kitty" w10 doggy
+        // For cat kitty w10 dog doggy, spans:
+        // cat w10 dog
+        // cat w10 doggy
+        // kitty w10 dog
+        // kitty w10 doggy
+        // With the synonyms usa, united states, for usa w10 president, single span:
+        // spanOr([usa, "united states"]) w10 president
+        List<SpanQuery> leftSpanQueries = getOperandSpanQueries(leftOperand, construction, canonicalizer);
+        List<SpanQuery> rightSpanQueries = getOperandSpanQueries(rightOperand, construction, canonicalizer);
+
+        if (construction == SpanConstruction.FACTORED) {
+            // Example: For cat kitty w10 dog doggy, single span:
+            // spanOr([cat, kitty]) w10 spanOr([dog, doggy])
+            return new SpanNearQuery(
+                    QueryCanonicalizer.sortUnordered(new SpanQuery[]{
+                            getAlternativesSpanQuery(leftSpanQueries),
+                            getAlternativesSpanQuery(rightSpanQueries)}, inOrder),
+                    distance,
+                    inOrder);
+        }
 
-                query = new SpanNearQuery(
-                        new SpanQuery[]{
-                                leftSpanQuery,
-                                rightSpanQuery},
-                        distance,
-                        inOrder);
-            } else {
-                // Build the various span queries
-                // Example: For "cat kitty" w10 dog doggy
-                // spans:
-                // "cat kitty" w10 dog
-                // "cat kitty" w10 doggy
-                List<SpanQuery> spans = new ArrayList<>();
-                for (String rightSearchTerm : rightSearchTerms)
-                    spans.add(new SpanNearQuery(
-                            new SpanQuery[]{
-                                    leftSpanQuery,
-                                    new SpanTermQuery(new Term(fieldName, rightSearchTerm))},
-                            distance,
-                            inOrder));
-
-                query = new SpanOrQuery(spans.toArray(new SpanQuery[0]));
-            }
-        } else if (rightOperandPhrase) {
-            // Build the various span queries
-            // Example: For cat kitty w10 "dog doggy"
-            // spans:
-            // cat w10 "dog doggy"
-            // kitty w10 "dog doggy"
-            SpanQuery rightSpanQuery = getPhraseSpanQuery(fieldName, rightSearchTerms);
-
-            List<SpanQuery> spans = new ArrayList<>();
-            for (String leftSearchTerm : leftSearchTerms)
+        List<SpanQuery> spans = new ArrayList<>();
+        for (SpanQuery leftSpanQuery : leftSpanQueries)
+            for (SpanQuery rightSpanQuery : rightSpanQueries)
                 spans.add(new SpanNearQuery(
-                        new SpanQuery[]{
-                                new SpanTermQuery(new Term(fieldName, leftSearchTerm)),
-                                rightSpanQuery},
+                        QueryCanonicalizer.sortUnordered(new SpanQuery[]{
+                                leftSpanQuery,
+                                rightSpanQuery}, inOrder),
                         distance,
                         inOrder));
 
-            query = new SpanOrQuery(spans.toArray(new SpanQuery[0]));
-        } else {
-            // Build the various span queries
-            // Example: For cat kitty w10 dog doggy
-            // spans:
-            // cat w10 dog
-            // cat w10 doggy
-            // kitty w10 dog
-            // kitty w10 doggy
-            List<SpanQuery> spans = new ArrayList<>();
-            for (String leftTerm : leftSearchTerms)
-                for (String rightTerm : rightSearchTerms)
-                    spans.add(new SpanNearQuery(
-                            new SpanQuery[]{
-                                    new SpanTermQuery(new Term(fieldName, leftTerm)),
-                                    new SpanTermQuery(new Term(fieldName, rightTerm))
-                            },
-                            distance,
-                            inOrder));
-
-            query = new SpanOrQuery(spans.toArray(new SpanQuery[0]));
+        // No single-clause SpanOrQuery: return the clause itself
+        if (spans.size() == 1) {
+            return spans.get(0);
         }
 
-        return query;
+        metrics.getSpanExpansions().inc(spans.size());
+        if (!inOrder) {
+            // The operands of an unordered clause are interchangeable: so are the outer and inner loops above
+            QueryCanonicalizer.sortClauses(spans);
+        }
 
+        return new SpanOrQuery(spans.toArray(new SpanQuery[0]));
     }
 
-    private List<String> getSearchTerms(Analyzer analyzer, String fieldName, String text) throws SyntaxError {
-        List<String> searchTerms = new ArrayList<>();
-        try (TokenStream tokenStream = analyzer.tokenStream(fieldName, text)) {
-            tokenStream.reset();
-
-            CharTermAttribute termAttribute = tokenStream.addAttribute(CharTermAttribute.class);
-
-            while (tokenStream.incrementToken()) {
-                searchTerms.add(termAttribute.toString());
-            }
-
-            LOG.info("Search terms: {}", searchTerms);
-        } catch (IOException ioe) {
-            throw new SyntaxError("An error occurred during the analysis.", ioe);
+    private List<SpanQuery> getOperandSpanQueries(ProximityOperand operand, SpanConstruction construction,
+                                                  QueryCanonicalizer canonicalizer) {
+        if (operand.getTree() != null) {
+            return Collections.singletonList(buildProximityQuery(operand.getTree(), construction, canonicalizer));
         }
+        if (operand.isPhrase()) {
+            return Collections.singletonList(operand.getGraph() != null ? canonicalizer.graphPhrase(operand.getGraph())
+                    : canonicalizer.spanPhrase(operand.getTerms()));
+        }
+        if (operand.getGraph() != null) {
+            // The segments are alternatives, each with its own paths
+            return canonicalizer.graphAlternatives(operand.getGraph());
+        }
+
+        // The search terms are alternatives: sorted, without duplicates
+        List<SpanQuery> spanQueries = new ArrayList<>();
+        for (String searchTerm : operand.getAlternatives())
+            spanQueries.add(canonicalizer.spanTerm(operand, searchTerm));
+        return spanQueries;
+    }
 
-        return searchTerms;
+    private static SpanQuery getAlternativesSpanQuery(List<SpanQuery> spanQueries) {
+        return spanQueries.size() == 1 ? spanQueries.get(0) : new SpanOrQuery(spanQueries.toArray(new SpanQuery[0]));
     }
 
-    private SpanQuery getPhraseSpanQuery(String fieldName, List<String> searchTerms) {
-        List<SpanTermQuery> spanTermQueries = new ArrayList<>();
-        for (String leftTerm : searchTerms)
-            spanTermQueries.add(new SpanTermQuery(new Term(fieldName, leftTerm)));
-        return new SpanNearQuery(spanTermQueries.toArray(new SpanQuery[0]), 0, true);
+    private static boolean isSingleSpan(ProximityOperand operand) {
+        return operand.getTree() != null || operand.isPhrase() || operand.getCapitalization() != null;
     }
 }
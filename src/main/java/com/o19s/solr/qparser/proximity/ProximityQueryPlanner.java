@@ -0,0 +1,174 @@
+package com.o19s.solr.qparser.proximity;
+
+import com.o19s.solr.qparser.capitalization.CapitalizationSpanQuery;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.spans.SpanNearQuery;
+import org.apache.lucene.search.spans.SpanOrQuery;
+import org.apache.lucene.search.spans.SpanQuery;
+import org.apache.lucene.search.spans.SpanTermQuery;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Plans the clauses of a proximity query with the term statistics of the index being searched:
+ * <ul>
+ * <li>Terms that match no documents are dropped: a single-term clause can be left out of the query, and a span
+ * clause that requires such a term cannot match at all.</li>
+ * <li>The clauses of unordered span clauses are sorted by selectivity (the rarest first), so that the positions
+ * of the rarest term drive the position checks.</li>
+ * <li>Single-term clauses are sorted by selectivity too, so that the rarest ones lead the conjunction when
+ * they are all required.</li>
+ * </ul>
+ * A planner is bound to one index reader (one searcher) and caches the document frequencies it looks up, so that
+ * a term that appears several times in a query is looked up once. It is not thread-safe: create one per request.
+ */
+public class ProximityQueryPlanner {
+
+    private final IndexReader reader;
+    private final Map<Term, Integer> docFreqs = new HashMap<>();
+
+    /**
+     * Constructor.
+     *
+     * @param reader The index reader of the request's searcher.
+     */
+    public ProximityQueryPlanner(IndexReader reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * @param term The term
+     * @return The number of documents that contain the term.
+     */
+    int docFreq(Term term) {
+        return docFreqs.computeIfAbsent(term, t -> {
+            try {
+                return reader.docFreq(t);
+            } catch (IOException ioe) {
+                throw new UncheckedIOException(ioe);
+            }
+        });
+    }
+
+    /**
+     * Plans the single-term clauses of a query: the terms that match no documents are dropped and the others
+     * are sorted by selectivity. The alternative paths of a token graph (span clauses) are planned as such.
+     *
+     * @param termQueries The single-term clauses
+     * @return The clauses that may match, the rarest first.
+     */
+    List<Query> planTermQueries(List<Query> termQueries) {
+        List<Query> plannedQueries = new ArrayList<>();
+        for (Query query : termQueries) {
+            if (query instanceof TermQuery) {
+                if (docFreq(((TermQuery) query).getTerm()) > 0) {
+                    plannedQueries.add(query);
+                }
+            } else {
+                SpanQuery plannedQuery = planSpanQuery((SpanQuery) query);
+                if (plannedQuery != null) {
+                    plannedQueries.add(plannedQuery);
+                }
+            }
+        }
+        plannedQueries.sort(Comparator.comparingInt(query -> query instanceof TermQuery
+                ? docFreq(((TermQuery) query).getTerm()) : estimateDocFreq((SpanQuery) query)));
+        return plannedQueries;
+    }
+
+    /**
+     * Plans a span clause made of span terms (capitalization clauses included), span near clauses and span or
+     * clauses: the clauses of the unordered span near clauses are sorted by selectivity.
+     *
+     * @param spanQuery The span clause
+     * @return The planned span clause; null if it cannot match, i.e., one of its terms matches no documents.
+     */
+    SpanQuery planSpanQuery(SpanQuery spanQuery) {
+        if (spanQuery instanceof SpanTermQuery) {
+            return docFreq(((SpanTermQuery) spanQuery).getTerm()) > 0 ? spanQuery : null;
+        }
+        if (spanQuery instanceof CapitalizationSpanQuery) {
+            return docFreq(((CapitalizationSpanQuery) spanQuery).getMatch().getTerm()) > 0 ? spanQuery : null;
+        }
+        if (spanQuery instanceof SpanOrQuery) {
+            return planAlternatives((SpanOrQuery) spanQuery);
+        }
+        if (!(spanQuery instanceof SpanNearQuery)) {
+            return spanQuery;
+        }
+
+        SpanNearQuery spanNearQuery = (SpanNearQuery) spanQuery;
+        SpanQuery[] clauses = spanNearQuery.getClauses();
+        SpanQuery[] plannedClauses = new SpanQuery[clauses.length];
+        for (int i = 0; i < clauses.length; i++) {
+            plannedClauses[i] = planSpanQuery(clauses[i]);
+            if (plannedClauses[i] == null) {
+                // All the clauses of a span near clause are required
+                return null;
+            }
+        }
+
+        if (!spanNearQuery.isInOrder()) {
+            // The order of the clauses only matters for ordered span near clauses
+            Arrays.sort(plannedClauses, Comparator.comparingInt(this::estimateDocFreq));
+        }
+        return new SpanNearQuery(plannedClauses, spanNearQuery.getSlop(), spanNearQuery.isInOrder());
+    }
+
+    private SpanQuery planAlternatives(SpanOrQuery spanOrQuery) {
+        SpanQuery[] clauses = spanOrQuery.getClauses();
+        SpanQuery[] plannedClauses = new SpanQuery[clauses.length];
+        boolean canMatch = false;
+        for (int i = 0; i < clauses.length; i++) {
+            plannedClauses[i] = planSpanQuery(clauses[i]);
+            canMatch |= plannedClauses[i] != null;
+            if (plannedClauses[i] == null) {
+                // Kept, so that the term statistics of the disjunction, hence its scores, are unchanged
+                plannedClauses[i] = clauses[i];
+            }
+        }
+        // A disjunction cannot match when none of its clauses can
+        return canMatch ? new SpanOrQuery(plannedClauses) : null;
+    }
+
+    /**
+     * @param spanQuery A planned span clause
+     * @return An upper bound of the number of documents that match the span clause.
+     */
+    private int estimateDocFreq(SpanQuery spanQuery) {
+        if (spanQuery instanceof SpanTermQuery) {
+            return docFreq(((SpanTermQuery) spanQuery).getTerm());
+        }
+        if (spanQuery instanceof CapitalizationSpanQuery) {
+            // At most the documents of its term
+            return docFreq(((CapitalizationSpanQuery) spanQuery).getMatch().getTerm());
+        }
+        if (spanQuery instanceof SpanNearQuery) {
+            // A conjunction matches at most as many documents as its rarest clause
+            int docFreq = Integer.MAX_VALUE;
+            for (SpanQuery clause : ((SpanNearQuery) spanQuery).getClauses()) {
+                docFreq = Math.min(docFreq, estimateDocFreq(clause));
+            }
+            return docFreq;
+        }
+        if (spanQuery instanceof SpanOrQuery) {
+            // A disjunction matches at most the documents of all its clauses
+            long docFreq = 0;
+            for (SpanQuery clause : ((SpanOrQuery) spanQuery).getClauses()) {
+                docFreq += estimateDocFreq(clause);
+            }
+            return (int) Math.min(Integer.MAX_VALUE, docFreq);
+        }
+        return Integer.MAX_VALUE;
+    }
+}
@@ -0,0 +1,196 @@
+package com.o19s.solr.qparser.proximity;
+
+import com.o19s.solr.analysis.TokenGraph;
+import com.o19s.solr.qparser.TermExpansion;
+import com.o19s.solr.qparser.WildcardSpanQuery;
+import com.o19s.solr.qparser.capitalization.CapitalizationSpanQuery;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.spans.SpanNearQuery;
+import org.apache.lucene.search.spans.SpanOrQuery;
+import org.apache.lucene.search.spans.SpanQuery;
+import org.apache.lucene.search.spans.SpanTermQuery;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.Map;
+
+/**
+ * Helps the proximity parsers build the same Lucene query for equivalent search strings, so that they share
+ * Solr's queryResultCache and filterCache entries (both keyed by Query.equals/hashCode):
+ * <ul>
+ * <li>Alternatives (the search terms of an operand, the paths of a token graph) are sorted;</li>
+ * <li>The clauses of unordered proximity clauses, and the optional clauses, are sorted;</li>
+ * <li>The clauses share their Term instances.</li>
+ * </ul>
+ * The duplicate alternatives are removed as they are sorted (see {@link ProximityOperand#getAlternatives()}). One
+ * canonicalizer per query: the Term instances are kept until the query is built.
+ */
+class QueryCanonicalizer {
+
+    private final String fieldName;
+    private final TermExpansion termExpansion;
+    private final Map<String, Term> terms = new HashMap<>();
+
+    QueryCanonicalizer(String fieldName) {
+        this(fieldName, TermExpansion.DEFAULT);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param fieldName     The field to query
+     * @param termExpansion The expansion of the wildcard terms
+     */
+    QueryCanonicalizer(String fieldName, TermExpansion termExpansion) {
+        this.fieldName = fieldName;
+        this.termExpansion = termExpansion;
+    }
+
+    /**
+     * @param text The term's text
+     * @return The field's term, the same instance for the same text.
+     */
+    Term term(String text) {
+        return terms.computeIfAbsent(text, t -> new Term(fieldName, t));
+    }
+
+    /**
+     * @param operand    An analyzed operand that is not a phrase nor a nested clause
+     * @param searchTerm One of its search terms
+     * @return The span query of the search term: a span term, with the operand's capitalization classes if any,
+     * or a wildcard term.
+     */
+    SpanQuery spanTerm(ProximityOperand operand, String searchTerm) {
+        if (operand.isWildcard()) {
+            return new WildcardSpanQuery(term(searchTerm), operand.getCapitalization() == null ? null
+                    : operand.getCapitalization().getPayloadEnums(), termExpansion);
+        }
+        SpanTermQuery spanTermQuery = new SpanTermQuery(term(searchTerm));
+        return operand.getCapitalization() == null ? spanTermQuery
+                : new CapitalizationSpanQuery(spanTermQuery, operand.getCapitalization().getPayloadEnums());
+    }
+
+    /**
+     * @param graph   The token graph of an operand
+     * @param segment The index of one of its segments
+     * @return The span query of the segment: the alternative paths OR'ed, a path of several terms being a phrase.
+     */
+    SpanQuery graphSegment(TokenGraph graph, int segment) {
+        List<SpanQuery> paths = new ArrayList<>();
+        for (List<String> path : graph.getPaths(segment)) {
+            paths.add(spanPhrase(path));
+        }
+        if (paths.size() == 1) {
+            return paths.get(0);
+        }
+        sortClauses(paths);
+        return new SpanOrQuery(paths.toArray(new SpanQuery[0]));
+    }
+
+    /**
+     * @param graph The token graph of an operand that is not a phrase
+     * @return The span queries of the segments, which are alternatives: sorted, without duplicates.
+     */
+    List<SpanQuery> graphAlternatives(TokenGraph graph) {
+        List<SpanQuery> alternatives = new ArrayList<>();
+        for (int i = 0; i < graph.size(); i++) {
+            alternatives.add(graphSegment(graph, i));
+        }
+        alternatives = new ArrayList<>(new LinkedHashSet<>(alternatives));
+        sortClauses(alternatives);
+        return alternatives;
+    }
+
+    /**
+     * @param graph The token graph of a phrase
+     * @return The span query of the phrase: its segments in order, next to each other.
+     */
+    SpanQuery graphPhrase(TokenGraph graph) {
+        SpanQuery[] segments = new SpanQuery[graph.size()];
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = graphSegment(graph, i);
+        }
+        return segments.length == 1 ? segments[0] : new SpanNearQuery(segments, 0, true);
+    }
+
+    /**
+     * @param searchTerms The search terms of a phrase
+     * @return The span query of the phrase: a span term for a single term.
+     */
+    SpanQuery spanPhrase(List<String> searchTerms) {
+        SpanQuery[] spanTermQueries = new SpanQuery[searchTerms.size()];
+        for (int i = 0; i < spanTermQueries.length; i++) {
+            spanTermQueries[i] = new SpanTermQuery(term(searchTerms.get(i)));
+        }
+        // A span near query needs at least two clauses
+        return spanTermQueries.length == 1 ? spanTermQueries[0] : new SpanNearQuery(spanTermQueries, 0, true);
+    }
+
+    /**
+     * @param alternatives Search terms that are alternatives of each other
+     * @return The search terms, sorted, without duplicates.
+     */
+    static List<String> sortAlternatives(List<String> alternatives) {
+        if (alternatives.size() < 2) {
+            return alternatives;
+        }
+        return new ArrayList<>(new TreeSet<>(alternatives));
+    }
+
+    /**
+     * @param clauses The clauses of a proximity clause
+     * @param inOrder Whether the clauses must appear in order
+     * @return The clauses, sorted if their order does not matter.
+     */
+    static <T> T[] sortUnordered(T[] clauses, boolean inOrder) {
+        if (!inOrder) {
+            sortClauses(clauses);
+        }
+        return clauses;
+    }
+
+    /**
+     * Sorts clauses (queries or intervals sources) in their canonical order: their string representation, which
+     * covers their type, field and terms. Each representation is computed once, not once per comparison.
+     *
+     * @param clauses The clauses
+     */
+    static <T> void sortClauses(List<T> clauses) {
+        if (clauses.size() < 2) {
+            return;
+        }
+        List<Map.Entry<String, T>> keyedClauses = keyClauses(clauses);
+        for (int i = 0; i < keyedClauses.size(); i++) {
+            clauses.set(i, keyedClauses.get(i).getValue());
+        }
+    }
+
+    /**
+     * Sorts clauses in their canonical order, see {@link #sortClauses(List)}.
+     *
+     * @param clauses The clauses
+     */
+    static <T> void sortClauses(T[] clauses) {
+        if (clauses.length < 2) {
+            return;
+        }
+        List<Map.Entry<String, T>> keyedClauses = keyClauses(Arrays.asList(clauses));
+        for (int i = 0; i < keyedClauses.size(); i++) {
+            clauses[i] = keyedClauses.get(i).getValue();
+        }
+    }
+
+    private static <T> List<Map.Entry<String, T>> keyClauses(List<T> clauses) {
+        List<Map.Entry<String, T>> keyedClauses = new ArrayList<>(clauses.size());
+        for (T clause : clauses) {
+            keyedClauses.add(new AbstractMap.SimpleImmutableEntry<>(clause.toString(), clause));
+        }
+        keyedClauses.sort(Map.Entry.comparingByKey());
+        return keyedClauses;
+    }
+}
@@ -0,0 +1,30 @@
+package com.o19s.solr.qparser.proximity;
+
+/**
+ * How ProximityQParserWithPhrase combines operands made of several search terms.
+ * <p>
+ * Example: cat kitty w10 dog doggy
+ */
+public enum SpanConstruction {
+
+    /**
+     * One span per (left, right) pair: spanOr([cat w10 dog, cat w10 doggy, kitty w10 dog, kitty w10 doggy]).
+     * The number of clauses is the product of the operands' sizes.
+     */
+    CARTESIAN,
+
+    /**
+     * A single span over the alternatives of each operand: spanOr([cat, kitty]) w10 spanOr([dog, doggy]).
+     * Matches the same documents; the number of clauses is the sum of the operands' sizes.
+     */
+    FACTORED;
+
+    /**
+     * @param name The construction's name (case-insensitive); null for the default (cartesian).
+     * @return The span construction.
+     * @throws IllegalArgumentException Unknown span construction.
+     */
+    public static SpanConstruction fromName(String name) {
+        return name == null ? CARTESIAN : valueOf(name.trim().toUpperCase());
+    }
+}
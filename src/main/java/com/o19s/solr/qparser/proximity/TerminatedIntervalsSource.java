@@ -0,0 +1,117 @@
+package com.o19s.solr.qparser.proximity;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.MatchesIterator;
+import org.apache.lucene.search.intervals.IntervalIterator;
+import org.apache.lucene.search.intervals.IntervalsSource;
+
+import java.io.IOException;
+import java.util.Set;
+
+/**
+ * Wraps the intervals of a phrase or of a nested proximity clause so that start() and end() return
+ * NO_MORE_INTERVALS once the intervals of the current document are exhausted.
+ * <p>
+ * In Lucene 7.7, the ordered intervals rely on that to stop, but the phrase (block) and filtered (maxwidth)
+ * intervals keep returning their last interval instead: an ordered source that starts with one of them never
+ * stops iterating.
+ */
+final class TerminatedIntervalsSource extends IntervalsSource {
+
+    private final IntervalsSource in;
+
+    TerminatedIntervalsSource(IntervalsSource in) {
+        this.in = in;
+    }
+
+    @Override
+    public IntervalIterator intervals(String field, LeafReaderContext ctx) throws IOException {
+        IntervalIterator intervals = in.intervals(field, ctx);
+        return intervals == null ? null : new TerminatedIntervalIterator(intervals);
+    }
+
+    @Override
+    public MatchesIterator matches(String field, LeafReaderContext ctx, int doc) throws IOException {
+        return in.matches(field, ctx, doc);
+    }
+
+    @Override
+    public void extractTerms(String field, Set<Term> terms) {
+        in.extractTerms(field, terms);
+    }
+
+    @Override
+    public int hashCode() {
+        return in.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof TerminatedIntervalsSource && in.equals(((TerminatedIntervalsSource) other).in);
+    }
+
+    @Override
+    public String toString() {
+        return in.toString();
+    }
+
+    private static class TerminatedIntervalIterator extends IntervalIterator {
+
+        private final IntervalIterator in;
+        private int start = -1;
+        private int end = -1;
+
+        TerminatedIntervalIterator(IntervalIterator in) {
+            this.in = in;
+        }
+
+        @Override
+        public int start() {
+            return start;
+        }
+
+        @Override
+        public int end() {
+            return end;
+        }
+
+        @Override
+        public int nextInterval() throws IOException {
+            if (in.nextInterval() == NO_MORE_INTERVALS) {
+                start = end = NO_MORE_INTERVALS;
+            } else {
+                start = in.start();
+                end = in.end();
+            }
+            return start;
+        }
+
+        @Override
+        public float matchCost() {
+            return in.matchCost();
+        }
+
+        @Override
+        public int docID() {
+            return in.docID();
+        }
+
+        @Override
+        public int nextDoc() throws IOException {
+            start = end = -1;
+            return in.nextDoc();
+        }
+
+        @Override
+        public int advance(int target) throws IOException {
+            start = end = -1;
+            return in.advance(target);
+        }
+
+        @Override
+        public long cost() {
+            return in.cost();
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.o19s.solr.analysis;
+
+import org.apache.lucene.analysis.CharArraySet;
+import org.apache.lucene.analysis.StopFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.core.WhitespaceTokenizer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class AdjacencyPairTokenFilterTest {
+
+    @Test
+    public void testOrderedPairs() throws IOException {
+        // At the position of their second token
+        assertEquals(Arrays.asList("w0|quick brown:2", "w1|quick fox:1", "w0|brown fox:0", "w1|brown jumps:1",
+                "w0|fox jumps:0"),
+                getTokens("quick brown fox jumps", 1, false, false));
+        assertEquals(Collections.emptyList(), getTokens("fox", 1, false, false));
+    }
+
+    @Test
+    public void testUnorderedPairs() throws IOException {
+        assertEquals(Arrays.asList("w0|quick brown:2", "n0|brown quick:0", "w0|brown fox:1", "n0|brown fox:0"),
+                getTokens("quick brown fox", 0, true, false));
+        assertEquals("n3|fox quick", AdjacencyPairTokenFilter.unorderedPair("quick", "fox", 3));
+        assertEquals("w3|quick fox", AdjacencyPairTokenFilter.orderedPair("quick", "fox", 3));
+    }
+
+    @Test
+    public void testPositionGaps() throws IOException {
+        // The removed stop words count in the gaps
+        assertEquals(Arrays.asList("w1|quick fox:3", "w0|fox jumps:1"),
+                getTokens("quick the fox jumps", 1, false, true));
+        assertEquals(Collections.singletonList("w1|quick fox:3"), getTokens("quick the fox the the jumps", 1, false,
+                true));
+    }
+
+    private static List<String> getTokens(String text, int maxDistance, boolean unordered, boolean stopWords)
+            throws IOException {
+        WhitespaceTokenizer tokenizer = new WhitespaceTokenizer();
+        tokenizer.setReader(new StringReader(text));
+        TokenStream input = stopWords
+                ? new StopFilter(tokenizer, new CharArraySet(Collections.singletonList("the"), false))
+                : tokenizer;
+
+        List<String> tokens = new ArrayList<>();
+        try (TokenStream tokenStream = new AdjacencyPairTokenFilter(input, maxDistance, unordered)) {
+            CharTermAttribute termAtt = tokenStream.addAttribute(CharTermAttribute.class);
+            PositionIncrementAttribute posIncAtt = tokenStream.addAttribute(PositionIncrementAttribute.class);
+            tokenStream.reset();
+            while (tokenStream.incrementToken()) {
+                tokens.add(termAtt.toString() + ":" + posIncAtt.getPositionIncrement());
+            }
+            tokenStream.end();
+        }
+        return tokens;
+    }
+}
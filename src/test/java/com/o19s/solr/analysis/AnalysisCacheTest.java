@@ -0,0 +1,75 @@
+package com.o19s.solr.analysis;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.custom.CustomAnalyzer;
+import org.apache.solr.search.SyntaxError;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+public class AnalysisCacheTest {
+
+    private static Analyzer newAnalyzer() throws IOException {
+        return CustomAnalyzer.builder()
+                .withTokenizer("standard")
+                .addTokenFilter("lowercase")
+                .build();
+    }
+
+    @Test
+    public void testRepeatedOperandsAreServedFromTheCache() throws IOException, SyntaxError {
+        Analyzer analyzer = newAnalyzer();
+        AnalysisCache cache = new AnalysisCache(10, Long.MAX_VALUE);
+
+        assertEquals(Arrays.asList("quick", "fox"), cache.analyze(analyzer, "title", "Quick Fox"));
+        assertEquals(Arrays.asList("quick", "fox"), cache.analyze(analyzer, "title", "Quick Fox"));
+        assertEquals(Arrays.asList("quick", "fox"), cache.analyze(analyzer, "body", "Quick Fox"));
+
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    public void testEntriesAreEvictedBeyondTheMaximumSize() throws IOException, SyntaxError {
+        Analyzer analyzer = newAnalyzer();
+        AnalysisCache cache = new AnalysisCache(2, Long.MAX_VALUE);
+
+        cache.analyze(analyzer, "title", "fox");
+        cache.analyze(analyzer, "title", "dog");
+        cache.analyze(analyzer, "title", "fox");
+        cache.analyze(analyzer, "title", "cat");
+
+        assertEquals(1, cache.getEvictions());
+
+        // "dog" was the least recently used entry
+        cache.analyze(analyzer, "title", "fox");
+        cache.analyze(analyzer, "title", "dog");
+        assertEquals(2, cache.getHits());
+    }
+
+    @Test
+    public void testEntriesAreEvictedBeyondTheMaximumRam() throws IOException, SyntaxError {
+        Analyzer analyzer = newAnalyzer();
+        AnalysisCache cache = new AnalysisCache(100, 1);
+
+        cache.analyze(analyzer, "title", "fox");
+        cache.analyze(analyzer, "title", "fox");
+
+        assertEquals(0, cache.getHits());
+        assertEquals(2, cache.getEvictions());
+    }
+
+    @Test
+    public void testNewAnalyzerInvalidatesTheFieldCache() throws IOException, SyntaxError {
+        AnalysisCache cache = new AnalysisCache(10, Long.MAX_VALUE);
+
+        cache.analyze(newAnalyzer(), "title", "fox");
+        cache.analyze(newAnalyzer(), "title", "fox");
+
+        assertEquals(0, cache.getHits());
+        assertEquals(2, cache.getMisses());
+    }
+}
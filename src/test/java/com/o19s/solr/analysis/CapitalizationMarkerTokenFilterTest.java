@@ -0,0 +1,55 @@
+package com.o19s.solr.analysis;
+
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.core.WhitespaceTokenizer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class CapitalizationMarkerTokenFilterTest {
+
+    @Test
+    public void testMarkers() throws IOException {
+        assertEquals(Arrays.asList("Trump:1", "f|Trump:0", "tower:1", "NASA:1", "a|NASA:0", "iPhone:1", "c|iPhone:0"),
+                getTokens("Trump tower NASA iPhone", false));
+    }
+
+    @Test
+    public void testMarkersOnly() throws IOException {
+        // The position increments of the dropped tokens carry over to the next marker
+        assertEquals(Arrays.asList("f|Trump:1", "a|NASA:3", "c|iPhone:1"),
+                getTokens("Trump tower and NASA iPhone plain", true));
+    }
+
+    @Test
+    public void testMarkerPrefixes() {
+        assertEquals("f|", CapitalizationPayloadEnum.FIRSTCAP.getMarkerPrefix());
+        assertEquals("a|", CapitalizationPayloadEnum.ALLCAP.getMarkerPrefix());
+        assertEquals("c|", CapitalizationPayloadEnum.CAP.getMarkerPrefix());
+    }
+
+    private static List<String> getTokens(String text, boolean markersOnly) throws IOException {
+        WhitespaceTokenizer tokenizer = new WhitespaceTokenizer();
+        tokenizer.setReader(new StringReader(text));
+
+        List<String> tokens = new ArrayList<>();
+        try (TokenStream tokenStream = new CapitalizationMarkerTokenFilter(tokenizer, markersOnly)) {
+            CharTermAttribute termAtt = tokenStream.addAttribute(CharTermAttribute.class);
+            PositionIncrementAttribute posIncAtt = tokenStream.addAttribute(PositionIncrementAttribute.class);
+            tokenStream.reset();
+            while (tokenStream.incrementToken()) {
+                tokens.add(termAtt.toString() + ":" + posIncAtt.getPositionIncrement());
+            }
+            tokenStream.end();
+        }
+        return tokens;
+    }
+}
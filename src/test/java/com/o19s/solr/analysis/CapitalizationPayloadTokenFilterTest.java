@@ -1,7 +1,15 @@
 package com.o19s.solr.analysis;
 
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.core.WhitespaceTokenizer;
+import org.apache.lucene.analysis.tokenattributes.PayloadAttribute;
+import org.apache.lucene.util.BytesRef;
 import org.junit.Test;
 
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
 
 import static org.junit.Assert.*;
@@ -29,4 +37,37 @@ public class CapitalizationPayloadTokenFilterTest {
         Optional<CapitalizationPayloadEnum> capEnumOptional = CapitalizationPayloadEnum.getPayloadForOperator("bogus");
         assertFalse(capEnumOptional.isPresent());
     }
+
+    @Test
+    public void testPayloads() throws IOException {
+        List<BytesRef> payloads = getPayloads("Hello WORLD iPhone plain A 3D \u00DCn\u00EFcode \u00C9T\u00C9 McDonald");
+
+        assertNull(payloads.get(3));
+        assertSame(CapitalizationPayloadEnum.FIRSTCAP.getPayloadBytes(), payloads.get(0));
+        assertSame(CapitalizationPayloadEnum.ALLCAP.getPayloadBytes(), payloads.get(1));
+        assertSame(CapitalizationPayloadEnum.CAP.getPayloadBytes(), payloads.get(2));
+        assertSame(CapitalizationPayloadEnum.ALLCAP.getPayloadBytes(), payloads.get(4));
+        // Digits count as lower case
+        assertSame(CapitalizationPayloadEnum.CAP.getPayloadBytes(), payloads.get(5));
+        assertSame(CapitalizationPayloadEnum.FIRSTCAP.getPayloadBytes(), payloads.get(6));
+        assertSame(CapitalizationPayloadEnum.ALLCAP.getPayloadBytes(), payloads.get(7));
+        assertSame(CapitalizationPayloadEnum.CAP.getPayloadBytes(), payloads.get(8));
+        assertEquals(new BytesRef("F"), payloads.get(0));
+    }
+
+    private static List<BytesRef> getPayloads(String text) throws IOException {
+        WhitespaceTokenizer tokenizer = new WhitespaceTokenizer();
+        tokenizer.setReader(new StringReader(text));
+
+        List<BytesRef> payloads = new ArrayList<>();
+        try (TokenStream tokenStream = new CapitalizationPayloadTokenFilter(tokenizer)) {
+            PayloadAttribute payAtt = tokenStream.addAttribute(PayloadAttribute.class);
+            tokenStream.reset();
+            while (tokenStream.incrementToken()) {
+                payloads.add(payAtt.getPayload());
+            }
+            tokenStream.end();
+        }
+        return payloads;
+    }
 }
@@ -0,0 +1,75 @@
+package com.o19s.solr.analysis;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.custom.CustomAnalyzer;
+import org.apache.solr.search.SyntaxError;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TokenGraphTest {
+
+    private static Analyzer analyzer;
+
+    @BeforeClass
+    public static void setUp() throws IOException {
+        analyzer = CustomAnalyzer.builder()
+                .withTokenizer("standard")
+                .addTokenFilter("lowercase")
+                .addTokenFilter("synonymGraph", "synonyms", "synonyms.txt", "expand", "true")
+                .build();
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        analyzer.close();
+    }
+
+    @Test
+    public void testFlatStream() throws SyntaxError {
+        TokenGraph graph = AnalyzerUtils.analyzeGraph(analyzer, "title", "Green New Deal");
+
+        assertFalse(graph.hasSidePaths());
+        assertEquals("[[[green]], [[new]], [[deal]]]", graph.toString());
+        assertEquals(AnalyzerUtils.analyze(analyzer, "title", "Green New Deal"), graph.getTerms());
+        assertEquals(3, graph.countPathTerms());
+    }
+
+    @Test
+    public void testMultiWordSynonyms() throws SyntaxError {
+        TokenGraph graph = AnalyzerUtils.analyzeGraph(analyzer, "title", "USA president");
+
+        assertTrue(graph.hasSidePaths());
+        assertEquals("[[[united, states], [usa]], [[president]]]", graph.toString());
+        assertEquals(AnalyzerUtils.analyze(analyzer, "title", "USA president"), graph.getTerms());
+        assertEquals(2, graph.getMaxPathLength(0));
+        assertEquals(4, graph.countPathTerms());
+    }
+
+    @Test
+    public void testSegmentsGrowWithTheSynonyms() throws SyntaxError {
+        // One segment per synonym, rather than the 2 x 2 combinations of the paths
+        TokenGraph graph = AnalyzerUtils.analyzeGraph(analyzer, "title", "nyc mayor visits the united states");
+
+        assertEquals("[[[new, york, city], [nyc]], [[mayor]], [[visits]], [[the]], [[usa], [united, states]]]",
+                graph.toString());
+        assertEquals(10, graph.countPathTerms());
+    }
+
+    @Test
+    public void testCachedGraph() throws SyntaxError {
+        AnalysisCache cache = new AnalysisCache(10, Long.MAX_VALUE);
+
+        TokenGraph graph = AnalyzerUtils.analyzeGraph(cache, analyzer, "title", "USA president");
+        assertSame(graph, AnalyzerUtils.analyzeGraph(cache, analyzer, "title", "USA president"));
+        assertEquals(graph.getTerms(), cache.analyze(analyzer, "title", "USA president"));
+        assertEquals(2, cache.getHits());
+    }
+}
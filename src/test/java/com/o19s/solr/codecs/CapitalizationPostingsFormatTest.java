@@ -0,0 +1,266 @@
+package com.o19s.solr.codecs;
+
+import com.o19s.solr.analysis.CapitalizationPayloadEnum;
+import com.o19s.solr.analysis.CapitalizationPayloadTokenFilterFactory;
+import com.o19s.solr.qparser.capitalization.CapitalizationSpanQuery;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.custom.CustomAnalyzer;
+import org.apache.lucene.codecs.Codec;
+import org.apache.lucene.codecs.PostingsFormat;
+import org.apache.lucene.codecs.lucene70.Lucene70Codec;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.spans.SpanTermQuery;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CapitalizationPostingsFormatTest {
+
+    private static final String FIELD_NAME = "title";
+    private static final String[] TITLES = {
+            "Trump tower",          // 0: firstcap
+            "TRUMP TOWER",          // 1: allcap
+            "TrUmP card",           // 2: cap
+            "trump card",           // 3: no payload
+            "trump card and Trump", // 4: none, then firstcap
+            "the card"              // 5: no trump
+    };
+
+    @Test
+    public void testSpi() {
+        assertTrue(PostingsFormat.forName(CapitalizationPostingsFormat.NAME) instanceof CapitalizationPostingsFormat);
+    }
+
+    @Test
+    public void testSamePayloads() throws IOException {
+        try (Directory expected = index(Codec.getDefault(), 1);
+             Directory actual = index(capitalizationCodec(), 1)) {
+            assertEquals(payloads(expected), payloads(actual));
+        }
+    }
+
+    @Test
+    public void testSameMatches() throws IOException {
+        // Several segments, merged or not
+        for (boolean merge : new boolean[]{false, true}) {
+            try (Directory expected = index(Codec.getDefault(), 2);
+                 Directory actual = index(capitalizationCodec(), 2)) {
+                if (merge) {
+                    forceMerge(actual);
+                }
+                assertEquals(payloads(expected), payloads(actual));
+                for (CapitalizationPayloadEnum payloadEnum : CapitalizationPayloadEnum.values()) {
+                    for (String term : new String[]{"trump", "tower", "card"}) {
+                        Query query = new CapitalizationSpanQuery(new SpanTermQuery(new Term(FIELD_NAME, term)),
+                                EnumSet.of(payloadEnum));
+                        assertEquals(query.toString(), search(expected, query), search(actual, query));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testDirectRead() throws IOException {
+        try (Directory directory = index(capitalizationCodec(), 1);
+             IndexReader reader = DirectoryReader.open(directory)) {
+            TermsEnum termsEnum = reader.leaves().get(0).reader().terms(FIELD_NAME).iterator();
+            assertTrue(termsEnum.seekExact(new BytesRef("trump")));
+            CapitalizationPostingsEnum postings = (CapitalizationPostingsEnum) termsEnum.postings(null,
+                    PostingsEnum.PAYLOADS);
+
+            assertEquals(0, postings.nextDoc());
+            assertEquals(CapitalizationPostingsEnum.classBit(CapitalizationPayloadEnum.FIRSTCAP),
+                    postings.getDocClasses());
+            postings.nextPosition();
+            assertEquals(CapitalizationPayloadEnum.FIRSTCAP, postings.getCapitalization());
+
+            assertEquals(3, postings.advance(3));
+            assertEquals(0, postings.getDocClasses());
+
+            assertEquals(4, postings.nextDoc());
+            postings.nextPosition();
+            assertEquals(null, postings.getCapitalization());
+            postings.nextPosition();
+            assertEquals(CapitalizationPayloadEnum.FIRSTCAP, postings.getCapitalization());
+            assertEquals(CapitalizationPayloadEnum.FIRSTCAP.getPayloadBytes(), postings.getPayload());
+        }
+    }
+
+    @Test
+    public void testAdvance() throws IOException {
+        // Enough capitalized documents for several skip points, some with more than 4 positions
+        String[] titles = new String[CapitalizationPostingsFormat.SKIP_INTERVAL * 10];
+        for (int i = 0; i < titles.length; i++) {
+            titles[i] = i % 3 == 0 ? "Trump card" : i % 3 == 1 ? "trump card" : "TRUMP trump Trump trump TrUmP";
+        }
+        try (Directory expected = index(Codec.getDefault(), titles);
+             Directory actual = index(capitalizationCodec(), titles)) {
+            for (int step : new int[]{1, 2, 63, 64, 65, 200, 1000}) {
+                assertEquals("step " + step, advancePayloads(expected, step), advancePayloads(actual, step));
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testOtherPayload() throws IOException {
+        Analyzer analyzer = CustomAnalyzer.builder()
+                .withTokenizer("whitespace")
+                .addTokenFilter("delimitedPayload", "encoder", "identity")
+                .build();
+        try (Directory directory = new RAMDirectory();
+             IndexWriter writer = new IndexWriter(directory,
+                     new IndexWriterConfig(analyzer).setCodec(capitalizationCodec()))) {
+            Document doc = new Document();
+            doc.add(new TextField(FIELD_NAME, "trump|XY", Field.Store.NO));
+            writer.addDocument(doc);
+            writer.commit();
+        }
+    }
+
+    private static Codec capitalizationCodec() {
+        PostingsFormat postingsFormat = new CapitalizationPostingsFormat();
+        return new Lucene70Codec() {
+            @Override
+            public PostingsFormat getPostingsFormatForField(String field) {
+                return postingsFormat;
+            }
+        };
+    }
+
+    /**
+     * @return An index of the titles, in the given number of segments.
+     */
+    private static Directory index(Codec codec, int segmentCount) throws IOException {
+        Directory directory = new RAMDirectory();
+        try (IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(indexAnalyzer()).setCodec(codec))) {
+            for (int i = 0; i < TITLES.length; i++) {
+                Document doc = new Document();
+                doc.add(new TextField(FIELD_NAME, TITLES[i], Field.Store.NO));
+                writer.addDocument(doc);
+                if (i == TITLES.length / segmentCount - 1) {
+                    writer.commit();
+                }
+            }
+        }
+        return directory;
+    }
+
+    /**
+     * @return An index of titles, in a single segment.
+     */
+    private static Directory index(Codec codec, String[] titles) throws IOException {
+        Directory directory = new RAMDirectory();
+        try (IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(indexAnalyzer()).setCodec(codec))) {
+            for (String title : titles) {
+                Document doc = new Document();
+                doc.add(new TextField(FIELD_NAME, title, Field.Store.NO));
+                writer.addDocument(doc);
+            }
+            writer.forceMerge(1);
+        }
+        return directory;
+    }
+
+    private static Analyzer indexAnalyzer() throws IOException {
+        // Same as the "text_general" index-time analyzer of the demo schema
+        return CustomAnalyzer.builder()
+                .withTokenizer("standard")
+                .addTokenFilter(CapitalizationPayloadTokenFilterFactory.class)
+                .addTokenFilter("lowercase")
+                .build();
+    }
+
+    private static void forceMerge(Directory directory) throws IOException {
+        try (IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig().setCodec(capitalizationCodec()))) {
+            writer.forceMerge(1);
+        }
+    }
+
+    /**
+     * @return Each term, document, position and payload of the index, in order.
+     */
+    private static List<String> payloads(Directory directory) throws IOException {
+        List<String> payloads = new ArrayList<>();
+        try (IndexReader reader = DirectoryReader.open(directory)) {
+            for (int leaf = 0; leaf < reader.leaves().size(); leaf++) {
+                LeafReader leafReader = reader.leaves().get(leaf).reader();
+                int docBase = reader.leaves().get(leaf).docBase;
+                Terms terms = leafReader.terms(FIELD_NAME);
+                TermsEnum termsEnum = terms.iterator();
+                PostingsEnum postings = null;
+                for (BytesRef term = termsEnum.next(); term != null; term = termsEnum.next()) {
+                    postings = termsEnum.postings(postings, PostingsEnum.PAYLOADS);
+                    for (int doc = postings.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS;
+                         doc = postings.nextDoc()) {
+                        for (int i = 0; i < postings.freq(); i++) {
+                            int position = postings.nextPosition();
+                            BytesRef payload = postings.getPayload();
+                            payloads.add(term.utf8ToString() + " " + (docBase + doc) + " " + position + " "
+                                    + (payload == null ? "-" : payload.utf8ToString()));
+                        }
+                    }
+                }
+            }
+        }
+        payloads.sort(null);
+        return payloads;
+    }
+
+    /**
+     * @return The documents, positions and payloads of the term "trump", advancing by a number of documents.
+     */
+    private static List<String> advancePayloads(Directory directory, int step) throws IOException {
+        List<String> payloads = new ArrayList<>();
+        try (IndexReader reader = DirectoryReader.open(directory)) {
+            TermsEnum termsEnum = reader.leaves().get(0).reader().terms(FIELD_NAME).iterator();
+            assertTrue(termsEnum.seekExact(new BytesRef("trump")));
+            PostingsEnum postings = termsEnum.postings(null, PostingsEnum.PAYLOADS);
+            for (int doc = postings.advance(step - 1); doc != DocIdSetIterator.NO_MORE_DOCS;
+                 doc = postings.advance(doc + step)) {
+                for (int i = 0; i < postings.freq(); i++) {
+                    int position = postings.nextPosition();
+                    BytesRef payload = postings.getPayload();
+                    payloads.add(doc + " " + position + " " + (payload == null ? "-" : payload.utf8ToString()));
+                }
+            }
+        }
+        return payloads;
+    }
+
+    private static Set<Integer> search(Directory directory, Query query) throws IOException {
+        Set<Integer> docs = new TreeSet<>();
+        try (IndexReader reader = DirectoryReader.open(directory)) {
+            for (ScoreDoc scoreDoc : new IndexSearcher(reader).search(query, reader.maxDoc()).scoreDocs) {
+                docs.add(scoreDoc.doc);
+            }
+        }
+        return docs;
+    }
+}
@@ -0,0 +1,84 @@
+package com.o19s.solr.qparser;
+
+import com.o19s.solr.qparser.proximity.ProximityQParserWithPhrase;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+import org.apache.solr.search.SyntaxError;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+
+public class FilterCacheQueryTest {
+
+    private static final String FIELD_NAME = "title";
+    private static final String[] TITLES = {
+            "the quick brown fox jumps over the lazy dog",
+            "the lazy dog sleeps while the quick brown fox jumps over the lazy dog",
+            "a brown dog",
+            "the fox"
+    };
+
+    private static LuceneIndex index;
+    private static Analyzer analyzer;
+    private static IndexReader reader;
+    private static IndexSearcher searcher;
+
+    @BeforeClass
+    public static void setup() throws IOException {
+        index = LuceneIndex.create(TITLES);
+        analyzer = index.getAnalyzer();
+        reader = index.getReader();
+        searcher = index.getSearcher();
+    }
+
+    @AfterClass
+    public static void tearDown() throws IOException {
+        index.close();
+    }
+
+    @Test
+    public void testConstantScore() throws SyntaxError, IOException {
+        Query query = new ProximityQParserWithPhrase(FIELD_NAME, analyzer).parse("fox n6 dog", 100);
+        Query filter = new FilterCacheQuery(query);
+
+        assertEquals(search(query), search(filter));
+        assertFalse(search(filter).isEmpty());
+        TopDocs topDocs = searcher.search(filter, reader.maxDoc());
+        for (ScoreDoc scoreDoc : topDocs.scoreDocs) {
+            assertEquals(1f, scoreDoc.score, 0f);
+        }
+    }
+
+    @Test
+    public void testCacheKey() throws SyntaxError {
+        ProximityQParserWithPhrase parser = new ProximityQParserWithPhrase(FIELD_NAME, analyzer);
+        FilterCacheQuery filter = new FilterCacheQuery(parser.parse("fox n6 dog", 100));
+
+        // Equal filters share the filterCache entry of their query; the filter itself is not cached
+        assertEquals(filter, new FilterCacheQuery(parser.parse("fox n6 dog", 100)));
+        assertEquals(filter.hashCode(), new FilterCacheQuery(parser.parse("fox n6 dog", 100)).hashCode());
+        assertNotEquals(filter, new FilterCacheQuery(parser.parse("fox n5 dog", 100)));
+        assertFalse(filter.getCache());
+        assertEquals("filter(spanNear([title:dog, title:fox], 6, false))", filter.toString());
+    }
+
+    private static Set<Integer> search(Query query) throws IOException {
+        Set<Integer> docs = new TreeSet<>();
+        for (ScoreDoc scoreDoc : searcher.search(query, reader.maxDoc()).scoreDocs) {
+            docs.add(scoreDoc.doc);
+        }
+        return docs;
+    }
+}
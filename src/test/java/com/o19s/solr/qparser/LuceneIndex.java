@@ -2,6 +2,7 @@ package com.o19s.solr.qparser;
 
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.custom.CustomAnalyzer;
+import org.apache.lucene.analysis.miscellaneous.PerFieldAnalyzerWrapper;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
 import org.apache.lucene.document.FieldType;
@@ -13,9 +14,14 @@ import org.apache.lucene.store.RAMDirectory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.Closeable;
 import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
 
-public class LuceneIndex {
+public class LuceneIndex implements Closeable {
 
     private static Logger logger = LoggerFactory.getLogger(LuceneIndex.class);
     private static LuceneIndex luceneIndex;
@@ -23,15 +29,13 @@ public class LuceneIndex {
     private Analyzer analyzer;
     private IndexSearcher searcher;
     private IndexReader reader;
+    private Map<String, Analyzer> fieldAnalyzers;
 
     private LuceneIndex() throws IOException {
         directory = new RAMDirectory();
 
-        // Same as "general_text" in Solr schema.xml
-        analyzer = CustomAnalyzer.builder()
-                .withTokenizer("standard")
-                .addTokenFilter("lowercase")
-                .build();
+        analyzer = createAnalyzer();
+        fieldAnalyzers = Collections.singletonMap("title", analyzer);
 
         IndexWriterConfig config = new IndexWriterConfig(analyzer);
 
@@ -62,6 +66,91 @@ public class LuceneIndex {
         logger.info("RAM-based Lucene index created.");
     }
 
+    private LuceneIndex(String[] titles, Map<String, Analyzer> fieldAnalyzers, boolean segmentPerDocument)
+            throws IOException {
+        directory = new RAMDirectory();
+        this.fieldAnalyzers = fieldAnalyzers;
+        analyzer = fieldAnalyzers.values().iterator().next();
+
+        Analyzer indexAnalyzer = new PerFieldAnalyzerWrapper(analyzer, fieldAnalyzers);
+        try (IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(indexAnalyzer))) {
+            for (String title : titles) {
+                // The same title in every field, each with its own analyzer
+                Document doc = new Document();
+                for (String fieldName : fieldAnalyzers.keySet()) {
+                    doc.add(new Field(fieldName, title, TextField.TYPE_STORED));
+                }
+                writer.addDocument(doc);
+                if (segmentPerDocument) {
+                    writer.commit();
+                }
+            }
+        }
+
+        reader = DirectoryReader.open(directory);
+        searcher = new IndexSearcher(reader);
+    }
+
+    /**
+     * @param titles The titles, one document each
+     * @return A new index of the titles in the "title" field, analyzed with {@link #createAnalyzer()}.
+     */
+    public static LuceneIndex create(String... titles) throws IOException {
+        return create(titles, Collections.singletonMap("title", createAnalyzer()), false);
+    }
+
+    /**
+     * @param titles             The titles, one document each
+     * @param fieldAnalyzers     The fields of the documents and their index-time analyzers, closed along with
+     *                           the index. The first one is {@link #getAnalyzer()}.
+     * @param segmentPerDocument Whether each document gets its own segment
+     * @return A new index of the titles, each in every field.
+     */
+    public static LuceneIndex create(String[] titles, Map<String, Analyzer> fieldAnalyzers,
+                                     boolean segmentPerDocument) throws IOException {
+        return new LuceneIndex(titles, fieldAnalyzers, segmentPerDocument);
+    }
+
+    /**
+     * @return A new analyzer, same as "general_text" in Solr schema.xml.
+     */
+    public static Analyzer createAnalyzer() throws IOException {
+        return CustomAnalyzer.builder()
+                .withTokenizer("standard")
+                .addTokenFilter("lowercase")
+                .build();
+    }
+
+    /**
+     * @param vocabulary The words of the titles
+     * @param count      The number of titles
+     * @param seed       The seed of the random words
+     * @return Short titles of random words from a small vocabulary: most proximity queries match some of them,
+     * but not all.
+     */
+    public static String[] randomTitles(String[] vocabulary, int count, long seed) {
+        Random random = new Random(seed);
+        String[] titles = new String[count];
+        for (int i = 0; i < count; i++) {
+            StringBuilder title = new StringBuilder();
+            int length = 3 + random.nextInt(12);
+            for (int j = 0; j < length; j++) {
+                title.append(vocabulary[random.nextInt(vocabulary.length)]).append(' ');
+            }
+            titles[i] = title.toString();
+        }
+        return titles;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+        for (Analyzer fieldAnalyzer : new HashSet<>(fieldAnalyzers.values())) {
+            fieldAnalyzer.close();
+        }
+        directory.close();
+    }
+
     static LuceneIndex getInstance() throws IOException {
         if (null == luceneIndex) {
             luceneIndex = new LuceneIndex();
@@ -87,15 +176,19 @@ public class LuceneIndex {
         }
     }
 
-    IndexSearcher getSearcher() {
+    public IndexSearcher getSearcher() {
         return searcher;
     }
 
-    IndexReader getReader() {
+    public IndexReader getReader() {
         return reader;
     }
 
-    Analyzer getAnalyzer() {
+    public Analyzer getAnalyzer() {
         return analyzer;
     }
+
+    public Directory getDirectory() {
+        return directory;
+    }
 }
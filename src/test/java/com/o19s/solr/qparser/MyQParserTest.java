@@ -100,13 +100,13 @@ public class MyQParserTest {
         String qstr = "Fox w4 Dog";
         Query actualQuery = myQParser.parse(qstr, 100);
 
-        Query expectedQuery = new SpanOrQuery(new SpanNearQuery(
+        Query expectedQuery = new SpanNearQuery(
                 new SpanQuery[]{
                         new SpanTermQuery(new Term("title", "fox")),
                         new SpanTermQuery(new Term("title", "dog")),
                 },
                 4,
-                true));
+                true);
 
         assertEquals(expectedQuery, actualQuery);
 
@@ -120,15 +120,11 @@ public class MyQParserTest {
         String qstr = "Quick fox w4 Lazy dog";
         Query actualQuery = myQParser.parse(qstr, 100);
 
+        // The alternatives are sorted
         List<SpanQuery> spans = new ArrayList<>();
         spans.add(new SpanNearQuery(
                 new SpanQuery[]{
-                        new SpanTermQuery(new Term("title", "quick")),
-                        new SpanTermQuery(new Term("title", "lazy"))},
-                4, true));
-        spans.add(new SpanNearQuery(
-                new SpanQuery[]{
-                        new SpanTermQuery(new Term("title", "quick")),
+                        new SpanTermQuery(new Term("title", "fox")),
                         new SpanTermQuery(new Term("title", "dog"))},
                 4, true));
         spans.add(new SpanNearQuery(
@@ -138,9 +134,14 @@ public class MyQParserTest {
                 4, true));
         spans.add(new SpanNearQuery(
                 new SpanQuery[]{
-                        new SpanTermQuery(new Term("title", "fox")),
+                        new SpanTermQuery(new Term("title", "quick")),
                         new SpanTermQuery(new Term("title", "dog"))},
                 4, true));
+        spans.add(new SpanNearQuery(
+                new SpanQuery[]{
+                        new SpanTermQuery(new Term("title", "quick")),
+                        new SpanTermQuery(new Term("title", "lazy"))},
+                4, true));
 
         Query expectedQuery = new SpanOrQuery(spans.toArray(spans.toArray(new SpanQuery[0])));
 
@@ -156,17 +157,14 @@ public class MyQParserTest {
         String qstr = "Fox w4 \"Lazy dog\"";
         Query actualQuery = myQParser.parse(qstr, 100);
 
-        List<SpanQuery> spans = new ArrayList<>();
-        spans.add(new SpanNearQuery(
+        Query expectedQuery = new SpanNearQuery(
                 new SpanQuery[]{
                         new SpanTermQuery(new Term("title", "fox")),
                         new SpanNearQuery(new SpanQuery[]{
                                 new SpanTermQuery(new Term("title", "lazy")),
                                 new SpanTermQuery(new Term("title", "dog"))},
                                 0, true)},
-                4, true));
-
-        Query expectedQuery = new SpanOrQuery(spans.toArray(spans.toArray(new SpanQuery[0])));
+                4, true);
 
         assertEquals(expectedQuery, actualQuery);
 
@@ -0,0 +1,33 @@
+package com.o19s.solr.qparser;
+
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.solr.common.util.NamedList;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ParsedQueryCacheTest {
+
+    @Test
+    public void testNormalizedSearchStringsShareAnEntry() {
+        ParsedQueryCache cache = ParsedQueryCache.create("test", null);
+        Query query = new TermQuery(new Term("title", "fox"));
+
+        cache.put(null, "title", "Fox  w4 Dog", 100, "simple", query);
+
+        assertEquals(query, cache.get(null, "title", " Fox w4\tDog ", 100, "simple"));
+        assertNull(cache.get(null, "title", "Fox w4 Dog", 50, "simple"));
+        assertNull(cache.get(null, "title", "Fox w4 Dog", 100, "phrase"));
+        assertNull(cache.get(null, "body", "Fox w4 Dog", 100, "simple"));
+    }
+
+    @Test
+    public void testZeroSizeDisablesTheCache() {
+        NamedList<Object> args = new NamedList<>();
+        args.add("size", "0");
+        assertNull(ParsedQueryCache.create("test", args));
+    }
+}
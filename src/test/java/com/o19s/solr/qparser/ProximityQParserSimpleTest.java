@@ -109,4 +109,44 @@ public class ProximityQParserSimpleTest {
         assertEquals(1, hits.totalHits);
         assertEquals("0001", getReader().document(hits.scoreDocs[0].doc).get("id"));
     }
+
+    @Test
+    public void testWithChainedOperators() throws SyntaxError, IOException {
+        String qstr = "Brown Fox w4 Lazy n1 Dog";
+        Query actualQuery = proximityQParserSimple.parse(qstr, 100);
+
+        String fieldName = "title";
+
+        // Verify that the generated Lucene query is as expected:
+        // ((Brown Fox w4 Lazy) n1 Dog) --> brown OR ((fox w4 lazy) n1 dog)
+        Query spanQuery = new SpanNearQuery(
+                new SpanQuery[]{
+                        new SpanNearQuery(
+                                new SpanQuery[]{
+                                        new SpanTermQuery(new Term(fieldName, "fox")),
+                                        new SpanTermQuery(new Term(fieldName, "lazy")),
+                                },
+                                4,
+                                true),
+                        new SpanTermQuery(new Term(fieldName, "dog")),
+                },
+                1,
+                false);
+
+        BooleanQuery.Builder builder = new BooleanQuery.Builder()
+                .add(new TermQuery(new Term(fieldName, "brown")), BooleanClause.Occur.SHOULD)
+                .add(spanQuery, BooleanClause.Occur.SHOULD)
+                .setMinimumNumberShouldMatch(2);
+
+        Query expectedQuery = builder.build();
+        logger.debug("Actual   query: {}", actualQuery);
+        logger.debug("Expected query: {}", expectedQuery);
+
+        assertEquals(expectedQuery, actualQuery);
+
+        // Test the generated Lucene query against the test RAM-based Lucene index:
+        TopDocs hits = getSearcher().search(actualQuery, 10);
+        assertEquals(1, hits.totalHits);
+        assertEquals("0001", getReader().document(hits.scoreDocs[0].doc).get("id"));
+    }
 }
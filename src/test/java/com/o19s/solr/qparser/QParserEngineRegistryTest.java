@@ -0,0 +1,78 @@
+package com.o19s.solr.qparser;
+
+import com.o19s.solr.qparser.proximity.ProximityBudget;
+import com.o19s.solr.qparser.proximity.ProximityQueryPlanner;
+import com.o19s.solr.qparser.proximity.SpanConstruction;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.index.MultiReader;
+import org.apache.solr.search.SyntaxError;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class QParserEngineRegistryTest {
+
+    @Test
+    public void testOneEnginePerField() throws SyntaxError {
+        AtomicInteger created = new AtomicInteger();
+        QParserEngineRegistry<String> registry = new QParserEngineRegistry<>("test", (schema, fieldName) -> {
+            created.incrementAndGet();
+            return "engine:" + fieldName;
+        });
+
+        String title = registry.get(null, "title");
+        assertEquals("engine:title", title);
+        assertSame(title, registry.get(null, "title"));
+        assertEquals("engine:body", registry.get(null, "body"));
+        assertEquals(2, created.get());
+        assertEquals(2, registry.size());
+    }
+
+    @Test(expected = SyntaxError.class)
+    public void testMissingField() throws SyntaxError {
+        new QParserEngineRegistry<>("test", (schema, fieldName) -> fieldName).get(null, null);
+    }
+
+    @Test
+    public void testSharedProximityParsers() throws SyntaxError, IOException {
+        ProximityBudget budget = new ProximityBudget(100, 100, 8, 100, false);
+        ProximityQParserEngine engine = new ProximityQParserEngine("title", new StandardAnalyzer(), null,
+                QParserMetrics.UNREGISTERED, budget, TermExpansion.DEFAULT);
+
+        IQueryParser simple = engine.getParser("simple", SpanConstruction.CARTESIAN, budget, null);
+        assertSame(simple, engine.getParser("Simple", SpanConstruction.CARTESIAN, budget, null));
+        IQueryParser factored = engine.getParser("phrase", SpanConstruction.FACTORED, budget, null);
+        assertSame(factored, engine.getParser("phrase", SpanConstruction.FACTORED, budget, null));
+        assertNotSame(factored, engine.getParser("phrase", SpanConstruction.CARTESIAN, budget, null));
+
+        // The request's own budget or planner: a parser of its own, which builds the same query
+        ProximityBudget requestBudget = new ProximityBudget(10, 100, 8, 100, false);
+        IQueryParser lowered = engine.getParser("simple", SpanConstruction.CARTESIAN, requestBudget, null);
+        assertNotSame(simple, lowered);
+        assertEquals(simple.parse("fox w3 dog", 100), lowered.parse("fox w3 dog", 100));
+        assertNotSame(simple, engine.getParser("simple", SpanConstruction.CARTESIAN, budget,
+                new ProximityQueryPlanner(new MultiReader())));
+    }
+
+    @Test(expected = SyntaxError.class)
+    public void testUnknownImpl() throws SyntaxError {
+        new ProximityQParserEngine("title", new StandardAnalyzer(), null, QParserMetrics.UNREGISTERED,
+                ProximityBudget.UNLIMITED, TermExpansion.DEFAULT).getParser("regex", SpanConstruction.CARTESIAN, ProximityBudget.UNLIMITED,
+                null);
+    }
+
+    @Test
+    public void testSharedCapitalizationParsers() throws SyntaxError {
+        CapitalizationQParserEngine engine = new CapitalizationQParserEngine("title", new StandardAnalyzer(), null,
+                QParserMetrics.UNREGISTERED, TermExpansion.DEFAULT);
+
+        assertSame(engine.getParser("payload", "title"), engine.getParser("payload", "title"));
+        assertSame(engine.getParser("marker", "title"), engine.getParser("marker", "title"));
+        assertNotSame(engine.getParser("marker", "title"), engine.getParser("marker", "title_markers"));
+    }
+}
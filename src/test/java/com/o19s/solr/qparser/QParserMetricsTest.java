@@ -0,0 +1,66 @@
+package com.o19s.solr.qparser;
+
+import com.codahale.metrics.MetricRegistry;
+import com.o19s.solr.qparser.proximity.ProximityBudget;
+import com.o19s.solr.qparser.proximity.ProximityQParserWithPhrase;
+import com.o19s.solr.qparser.proximity.SpanConstruction;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.custom.CustomAnalyzer;
+import org.apache.lucene.search.Query;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.metrics.SolrMetricManager;
+import org.apache.solr.search.SyntaxError;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class QParserMetricsTest {
+
+    private static final String[] METRIC_NAMES = {"requestTimes", "parseTimes", "analyzeTimes", "buildTimes",
+            "errors", "clauses", "spanExpansions", "budgetRejections", "budgetDegradations", "conjunctionRewrites",
+            "pairRewrites", "classShortcuts", "warmupTimes", "warmupQueries"};
+
+    @Test
+    public void testPhaseMetrics() throws IOException, SyntaxError {
+        Analyzer analyzer = CustomAnalyzer.builder()
+                .withTokenizer("standard")
+                .addTokenFilter("lowercase")
+                .build();
+        QParserMetrics metrics = new QParserMetrics();
+        ProximityQParserWithPhrase parser = new ProximityQParserWithPhrase("title", analyzer, null,
+                SpanConstruction.CARTESIAN, metrics, ProximityBudget.UNLIMITED);
+
+        Query query = parser.parse("cat kitty w3 dog doggy", 100);
+
+        assertEquals(1, metrics.getParse().getCount());
+        assertEquals(1, metrics.getAnalyze().getCount());
+        assertEquals(1, metrics.getBuild().getCount());
+        assertEquals(4, metrics.getSpanExpansions().getCount());
+        // 4 span near queries of 2 terms each
+        assertEquals(8, QParserMetrics.countClauses(query));
+    }
+
+    @Test
+    public void testRegister() {
+        SolrMetricManager manager = new SolrMetricManager();
+        ProximityQParserPlugin proximityPlugin = new ProximityQParserPlugin();
+        proximityPlugin.init(new NamedList<>());
+        proximityPlugin.initializeMetrics(manager, "solr.core.test", "tag", "proximity");
+        CapitalizationQParserPlugin capitalizationPlugin = new CapitalizationQParserPlugin();
+        capitalizationPlugin.init(new NamedList<>());
+        capitalizationPlugin.initializeMetrics(manager, "solr.core.test", "tag", "cap");
+
+        MetricRegistry registry = manager.registry("solr.core.test");
+        for (String name : METRIC_NAMES) {
+            assertTrue(name, registry.getMetrics().containsKey("QUERYPARSER.proximity." + name));
+            assertTrue(name, proximityPlugin.getMetricNames().contains("QUERYPARSER.proximity." + name));
+            assertTrue(name, registry.getMetrics().containsKey("QUERYPARSER.cap." + name));
+            assertTrue(name, capitalizationPlugin.getMetricNames().contains("QUERYPARSER.cap." + name));
+        }
+        assertEquals(METRIC_NAMES.length, proximityPlugin.getMetricNames().size());
+        assertEquals(METRIC_NAMES.length, capitalizationPlugin.getMetricNames().size());
+    }
+}
@@ -0,0 +1,124 @@
+package com.o19s.solr.qparser;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.custom.CustomAnalyzer;
+import org.apache.lucene.search.Query;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.request.LocalSolrQueryRequest;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.schema.FieldType;
+import org.apache.solr.schema.IndexSchema;
+import org.apache.solr.schema.TextField;
+import org.apache.solr.search.SyntaxError;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+
+public class QParserWarmupListenerTest {
+
+    private static Analyzer analyzer;
+    private static IndexSchema titleSchema;
+
+    @BeforeClass
+    public static void setup() throws IOException {
+        analyzer = CustomAnalyzer.builder()
+                .withTokenizer("standard")
+                .addTokenFilter("lowercase")
+                .build();
+        TextField title = new TextField();
+        title.setIndexAnalyzer(analyzer);
+        title.setQueryAnalyzer(analyzer);
+        // Only the field types are read by the parsers
+        titleSchema = new IndexSchema(null, null) {
+            @Override
+            public FieldType getFieldType(String fieldName) {
+                return title;
+            }
+        };
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        analyzer.close();
+    }
+
+    @Test
+    public void testReplayWithoutSideEffects() throws SyntaxError {
+        NamedList<Object> seed = new NamedList<>();
+        seed.add("q", "lazy n5 dog");
+        seed.add("qf", "title");
+        NamedList<Object> warmup = new NamedList<>();
+        warmup.add("size", 8);
+        warmup.add("queries", Collections.singletonList(seed));
+        NamedList<Object> args = new NamedList<>();
+        args.add("warmup", warmup);
+        ProximityQParserPlugin plugin = new ProximityQParserPlugin();
+        plugin.init(args);
+
+        for (String qstr : new String[]{"fox w3 dog", "cat n2 mouse"}) {
+            SolrParams params = params("qf", "title");
+            plugin.createParser(qstr, null, params, request(params)).getQuery();
+        }
+        List<String> queries = toStrings(plugin.getWarmupQueries(8));
+        QParserMetrics metrics = plugin.getMetrics();
+        long clauses = metrics.getClauses().getCount();
+
+        List<Query> searched = new ArrayList<>();
+        int replayed = QParserWarmupListener.replay(plugin, "proximity", plugin.getWarmupQueries(8),
+                QParserWarmupListenerTest::request, searched::add);
+
+        assertEquals(3, replayed);
+        assertEquals(3, searched.size());
+        // Neither recorded again (same order, no duplicated seed query) nor counted as searches
+        assertEquals(queries, toStrings(plugin.getWarmupQueries(8)));
+        assertEquals(2, metrics.getRequests().getCount());
+        assertEquals(clauses, metrics.getClauses().getCount());
+    }
+
+    @Test
+    public void testFailedQueriesSkipped() {
+        ProximityQParserPlugin plugin = new ProximityQParserPlugin();
+        plugin.init(new NamedList<>());
+        List<WarmupQueries.Entry> queries = new ArrayList<>();
+        queries.add(new WarmupQueries.Entry("fox w3 dog", params("qf", "title")));
+        queries.add(new WarmupQueries.Entry("fox w3 dog", params()));
+        queries.add(new WarmupQueries.Entry("fox w3", params("qf", "title")));
+
+        List<Query> searched = new ArrayList<>();
+        assertEquals(1, QParserWarmupListener.replay(plugin, "proximity", queries,
+                QParserWarmupListenerTest::request, searched::add));
+        assertEquals(1, searched.size());
+        assertEquals(0, plugin.getMetrics().getErrors().getCount());
+    }
+
+    private static SolrQueryRequest request(SolrParams params) {
+        return new LocalSolrQueryRequest(null, params) {
+            @Override
+            public IndexSchema getSchema() {
+                return titleSchema;
+            }
+        };
+    }
+
+    private static ModifiableSolrParams params(String... nameValues) {
+        ModifiableSolrParams params = new ModifiableSolrParams();
+        for (int i = 0; i < nameValues.length; i += 2) {
+            params.add(nameValues[i], nameValues[i + 1]);
+        }
+        return params;
+    }
+
+    private static List<String> toStrings(List<WarmupQueries.Entry> queries) {
+        return queries.stream().map(WarmupQueries.Entry::toString).collect(Collectors.toList());
+    }
+}
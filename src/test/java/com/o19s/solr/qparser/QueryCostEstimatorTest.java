@@ -0,0 +1,70 @@
+package com.o19s.solr.qparser;
+
+import com.o19s.solr.qparser.proximity.ProximityQParserIntervals;
+import com.o19s.solr.qparser.proximity.ProximityQParserSimple;
+import com.o19s.solr.qparser.proximity.ProximityQParserWithPhrase;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchNoDocsQuery;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.spans.SpanTermQuery;
+import org.apache.solr.search.SyntaxError;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+
+public class QueryCostEstimatorTest {
+
+    private static final String FIELD_NAME = "title";
+    // cat: 3 documents, 4 positions; dog: 3 documents, 3 positions; car: 1 document, 1 position
+    private static final String[] TITLES = {"cat dog", "cat cat dog", "dog", "car cat"};
+
+    private static LuceneIndex index;
+    private static Analyzer analyzer;
+    private static IndexSearcher searcher;
+
+    @BeforeClass
+    public static void setUp() throws IOException {
+        index = LuceneIndex.create(TITLES);
+        analyzer = index.getAnalyzer();
+        searcher = index.getSearcher();
+    }
+
+    @AfterClass
+    public static void tearDown() throws IOException {
+        index.close();
+    }
+
+    @Test
+    public void testTermStatistics() throws IOException {
+        QueryCostEstimator estimator = new QueryCostEstimator(searcher);
+
+        // Documents of the term clauses, positions of the span clauses
+        assertEquals(3, estimator.estimate(new TermQuery(new Term(FIELD_NAME, "cat"))));
+        assertEquals(4, estimator.estimate(new SpanTermQuery(new Term(FIELD_NAME, "cat"))));
+        assertEquals(0, estimator.estimate(new TermQuery(new Term(FIELD_NAME, "fox"))));
+        assertEquals(0, estimator.estimate(new MatchNoDocsQuery()));
+    }
+
+    @Test
+    public void testParsedQueries() throws IOException, SyntaxError {
+        QueryCostEstimator estimator = new QueryCostEstimator(searcher);
+
+        // cat and dog positions
+        assertEquals(7, estimator.estimate(new ProximityQParserWithPhrase(FIELD_NAME, analyzer)
+                .parse("cat w3 dog", 100)));
+        assertEquals(7, estimator.estimate(new ProximityQParserIntervals(FIELD_NAME, analyzer)
+                .parse("cat w3 dog", 100)));
+        // car documents, cat and dog positions
+        assertEquals(8, estimator.estimate(new ProximityQParserSimple(FIELD_NAME, analyzer)
+                .parse("car cat w3 dog", 100)));
+        // The expanded terms: car and cat positions
+        assertEquals(8, estimator.estimate(new ProximityQParserWithPhrase(FIELD_NAME, analyzer)
+                .parse("ca* w3 dog", 100)));
+    }
+}
@@ -0,0 +1,140 @@
+package com.o19s.solr.qparser;
+
+import org.apache.solr.common.IteratorWriter;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.SimpleOrderedMap;
+import org.apache.solr.search.SyntaxError;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class QueryValidationHandlerTest {
+
+    private static ExecutorService executor;
+
+    @BeforeClass
+    public static void setUp() {
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        executor.shutdown();
+    }
+
+    @Test
+    public void testResultsInTheOrderOfTheLines() throws IOException {
+        String lines = IntStream.rangeClosed(1, 100)
+                .mapToObj(i -> "{\"q\": \"query " + i + "\"}")
+                .collect(Collectors.joining("\n"));
+        List<Object> results = new ArrayList<>();
+
+        // The first queries are the slowest
+        QueryValidationHandler.validate(new BufferedReader(new StringReader(lines)), (lineNumber, line) -> {
+            sleep(lineNumber < 10 ? 20 : 0);
+            return result(lineNumber, line);
+        }, executor, 8, collect(results));
+
+        assertEquals(100, results.size());
+        for (int i = 0; i < results.size(); i++) {
+            assertEquals(i + 1, ((NamedList) results.get(i)).get("id"));
+        }
+    }
+
+    @Test
+    public void testBoundedQueriesInFlight() throws IOException {
+        String lines = IntStream.rangeClosed(1, 50)
+                .mapToObj(i -> "{\"q\": \"query " + i + "\"}")
+                .collect(Collectors.joining("\n"));
+        AtomicInteger started = new AtomicInteger();
+        List<Integer> startedBeforeWritten = new ArrayList<>();
+
+        QueryValidationHandler.validate(new BufferedReader(new StringReader(lines)), (lineNumber, line) -> {
+            started.incrementAndGet();
+            return result(lineNumber, line);
+        }, executor, 4, result -> {
+            startedBeforeWritten.add(started.get() - ((Integer) ((NamedList) result).get("id")));
+            return null;
+        });
+
+        assertEquals(50, startedBeforeWritten.size());
+        for (int inFlight : startedBeforeWritten) {
+            assertTrue(String.valueOf(inFlight), inFlight < 4);
+        }
+    }
+
+    @Test
+    public void testBlankLinesSkipped() throws IOException {
+        List<Object> results = new ArrayList<>();
+
+        QueryValidationHandler.validate(new BufferedReader(new StringReader("{\"q\": \"a\"}\n\n  \n{\"q\": \"b\"}\n")),
+                QueryValidationHandlerTest::result, executor, 8, collect(results));
+
+        assertEquals(2, results.size());
+        assertEquals(4, ((NamedList) results.get(1)).get("id"));
+    }
+
+    @Test
+    public void testParseLine() throws SyntaxError {
+        assertEquals("cat w3 dog", QueryValidationHandler.parseLine("{\"q\": \"cat w3 dog\"}").get("q"));
+
+        // Valid JSON, but not an object: an error result, not a failed batch
+        for (String line : new String[]{"null", "42", "\"cat w3 dog\"", "[\"cat\"]", "{\"q\": "}) {
+            try {
+                QueryValidationHandler.parseLine(line);
+                fail(line);
+            } catch (SyntaxError expected) {
+                // Expected
+            }
+        }
+    }
+
+    @Test
+    public void testErrorMessage() {
+        assertEquals("Missing query field (qf)",
+                QueryValidationHandler.errorMessage(new SyntaxError("Missing query field (qf)")));
+        assertEquals("java.lang.StackOverflowError", QueryValidationHandler.errorMessage(new StackOverflowError()));
+        assertEquals("java.lang.NullPointerException",
+                QueryValidationHandler.errorMessage(new NullPointerException()));
+    }
+
+    private static IteratorWriter.ItemWriter collect(List<Object> results) {
+        return new IteratorWriter.ItemWriter() {
+            @Override
+            public IteratorWriter.ItemWriter add(Object o) {
+                results.add(o);
+                return this;
+            }
+        };
+    }
+
+    private static NamedList<Object> result(int lineNumber, String line) {
+        NamedList<Object> result = new SimpleOrderedMap<>();
+        result.add("id", lineNumber);
+        result.add("query", line);
+        return result;
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.o19s.solr.qparser;
+
+import com.o19s.solr.qparser.proximity.ProximityQParserSimple;
+import com.o19s.solr.qparser.proximity.ProximityQParserWithPhrase;
+import com.o19s.solr.qparser.proximity.SpanConstruction;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.store.Directory;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.search.SyntaxError;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class TermContextCacheTest {
+
+    private static final String FIELD_NAME = "title";
+    private static final String[] TITLES = {
+            "the quick brown fox jumps over the lazy dog",
+            "the lazy dog sleeps while the quick brown fox jumps over the lazy dog",
+            "a brown dog",
+            "the fox"
+    };
+
+    private static LuceneIndex index;
+    private static Analyzer analyzer;
+    private static Directory directory;
+
+    @BeforeClass
+    public static void setUp() throws IOException {
+        // One segment per document
+        index = LuceneIndex.create(TITLES, Collections.singletonMap(FIELD_NAME, LuceneIndex.createAnalyzer()),
+                true);
+        analyzer = index.getAnalyzer();
+        directory = index.getDirectory();
+    }
+
+    @AfterClass
+    public static void tearDown() throws IOException {
+        index.close();
+    }
+
+    @Test
+    public void testSameResults() throws SyntaxError, IOException {
+        TermContextCache cache = new TermContextCache(100);
+        try (DirectoryReader reader = DirectoryReader.open(directory)) {
+            IndexSearcher searcher = new IndexSearcher(reader);
+            IQueryParser[] parsers = {
+                    new ProximityQParserSimple(FIELD_NAME, analyzer),
+                    new ProximityQParserWithPhrase(FIELD_NAME, analyzer, null, SpanConstruction.CARTESIAN),
+                    new ProximityQParserWithPhrase(FIELD_NAME, analyzer, null, SpanConstruction.FACTORED)
+            };
+            String[] qstrs = {"quick brown w3 lazy dog", "\"brown fox\" n5 dog", "lazy w1 dog the"};
+            for (IQueryParser parser : parsers) {
+                for (String qstr : qstrs) {
+                    Query query = parser.parse(qstr, 100);
+                    Query bound = cache.bind(query, searcher);
+
+                    assertEquals(query, bound);
+                    assertEquals(query.toString(), bound.toString());
+                    assertEquals(qstr, searcher.count(query), searcher.count(bound));
+                    assertEquals(qstr, searcher.search(query, 10).scoreDocs.length,
+                            searcher.search(bound, 10).scoreDocs.length);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testTermsLookedUpOncePerReader() throws SyntaxError, IOException {
+        TermContextCache cache = new TermContextCache(100);
+        IQueryParser parser = new ProximityQParserWithPhrase(FIELD_NAME, analyzer, null,
+                SpanConstruction.CARTESIAN);
+        // fox, dog, lazy, quick
+        Query query = parser.parse("quick fox w3 lazy dog", 100);
+
+        try (DirectoryReader reader = DirectoryReader.open(directory)) {
+            IndexSearcher searcher = new IndexSearcher(reader);
+            cache.bind(query, searcher);
+            assertEquals(4, cache.getMisses());
+            assertEquals(4, cache.getHits());
+
+            // Another searcher on the same reader shares the term states
+            cache.bind(query, new IndexSearcher(reader));
+            assertEquals(4, cache.getMisses());
+            assertEquals(12, cache.getHits());
+            assertEquals(1, cache.size());
+        }
+
+        // Released along with the reader
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testEvictions() throws SyntaxError, IOException {
+        TermContextCache cache = new TermContextCache(2);
+        Query query = new ProximityQParserSimple(FIELD_NAME, analyzer).parse("quick brown w3 lazy dog", 100);
+
+        try (DirectoryReader reader = DirectoryReader.open(directory)) {
+            cache.bind(query, new IndexSearcher(reader));
+            assertEquals(4, cache.getMisses());
+            assertEquals(2, cache.getEvictions());
+        }
+    }
+
+    @Test
+    public void testDisabled() {
+        assertNull(TermContextCache.create(null));
+        NamedList<Object> args = new NamedList<>();
+        args.add("size", 0);
+        assertNull(TermContextCache.create(args));
+    }
+}
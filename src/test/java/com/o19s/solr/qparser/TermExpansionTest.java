@@ -0,0 +1,158 @@
+package com.o19s.solr.qparser;
+
+import com.o19s.solr.qparser.proximity.ProximityBudget;
+import com.o19s.solr.qparser.proximity.ProximityQParserWithPhrase;
+import com.o19s.solr.qparser.proximity.SpanConstruction;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermContext;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.store.Directory;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.search.SyntaxError;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TermExpansionTest {
+
+    private static final String FIELD_NAME = "title";
+    private static final String[] TITLES = {
+            "the president impeached",
+            "impeachment of the president",
+            "impeach the president",
+            "impeachment hearings",
+            "impeachable offense",
+            "impeachment trial"
+    };
+
+    private static LuceneIndex index;
+    private static Analyzer analyzer;
+    private static Directory directory;
+
+    @BeforeClass
+    public static void setUp() throws IOException {
+        // Several segments: the document frequencies are summed
+        index = LuceneIndex.create(TITLES, Collections.singletonMap(FIELD_NAME, LuceneIndex.createAnalyzer()),
+                true);
+        analyzer = index.getAnalyzer();
+        directory = index.getDirectory();
+    }
+
+    @AfterClass
+    public static void tearDown() throws IOException {
+        index.close();
+    }
+
+    @Test
+    public void testMostFrequentTerms() throws IOException {
+        try (DirectoryReader reader = DirectoryReader.open(directory)) {
+            assertTrue(reader.leaves().size() > 1);
+            Term pattern = new Term(FIELD_NAME, "impeach*");
+
+            // impeachment (3 documents), then the first of the terms of a single document
+            SortedMap<Term, TermContext> expansion = new TermExpansion(2, 0).expand(pattern, reader);
+            assertEquals("[title:impeach, title:impeachment]", expansion.keySet().toString());
+            assertEquals(3, expansion.get(new Term(FIELD_NAME, "impeachment")).docFreq());
+
+            assertEquals(4, new TermExpansion(10, 0).expand(pattern, reader).size());
+            assertEquals(0, new TermExpansion(10, 0).expand(new Term(FIELD_NAME, "x*"), reader).size());
+            assertEquals(0, new TermExpansion(10, 0).expand(new Term("body", "impeach*"), reader).size());
+        }
+    }
+
+    @Test
+    public void testProximityQuery() throws SyntaxError, IOException {
+        try (DirectoryReader reader = DirectoryReader.open(directory)) {
+            IndexSearcher searcher = new IndexSearcher(reader);
+            String qstr = "Impeach* w2 president";
+
+            assertEquals(docs(1, 2), search(searcher, parser(new TermExpansion(10, 0)).parse(qstr, 100)));
+            // impeachment only
+            assertEquals(docs(1), search(searcher, parser(new TermExpansion(1, 0)).parse(qstr, 100)));
+        }
+    }
+
+    @Test
+    public void testQueryIndependentOfTheIndex() throws SyntaxError {
+        Query query = parser(new TermExpansion(10, 0)).parse("impeach* w2 president", 100);
+        assertEquals(query, parser(new TermExpansion(10, 100)).parse("impeach* w2 president", 100));
+        assertNotEquals(query, parser(new TermExpansion(5, 0)).parse("impeach* w2 president", 100));
+    }
+
+    @Test
+    public void testExpandedOncePerReader() throws SyntaxError, IOException {
+        TermExpansion expansion = new TermExpansion(10, 100);
+        Query query = parser(expansion).parse("impeach* w2 president", 100);
+
+        try (DirectoryReader reader = DirectoryReader.open(directory)) {
+            Set<Integer> expected = search(new IndexSearcher(reader), query);
+            assertEquals(1, expansion.getMisses());
+            assertEquals(0, expansion.getHits());
+
+            // Another searcher on the same reader shares the expansions
+            assertEquals(expected, search(new IndexSearcher(reader), query));
+            assertEquals(1, expansion.getMisses());
+            assertEquals(1, expansion.getHits());
+            assertEquals(1, expansion.size());
+            assertSame(expansion.expand(new Term(FIELD_NAME, "impeach*"), reader),
+                    expansion.expand(new Term(FIELD_NAME, "impeach*"), reader));
+        }
+
+        // Released along with the reader
+        assertEquals(0, expansion.size());
+    }
+
+    @Test
+    public void testEvictions() throws IOException {
+        TermExpansion expansion = new TermExpansion(10, 1);
+        try (DirectoryReader reader = DirectoryReader.open(directory)) {
+            expansion.expand(new Term(FIELD_NAME, "impeach*"), reader);
+            expansion.expand(new Term(FIELD_NAME, "pres*"), reader);
+            expansion.expand(new Term(FIELD_NAME, "impeach*"), reader);
+            assertEquals(3, expansion.getMisses());
+            assertEquals(2, expansion.getEvictions());
+        }
+    }
+
+    @Test
+    public void testCreate() {
+        assertSame(TermExpansion.DEFAULT, TermExpansion.create(null));
+
+        NamedList<Object> args = new NamedList<>();
+        args.add("maxTerms", "20");
+        assertEquals(20, TermExpansion.create(args).getMaxTerms());
+    }
+
+    private static IQueryParser parser(TermExpansion expansion) {
+        return new ProximityQParserWithPhrase(FIELD_NAME, analyzer, null, SpanConstruction.CARTESIAN,
+                QParserMetrics.UNREGISTERED, ProximityBudget.UNLIMITED, expansion);
+    }
+
+    private static Set<Integer> docs(Integer... docs) {
+        return new TreeSet<>(Arrays.asList(docs));
+    }
+
+    private static Set<Integer> search(IndexSearcher searcher, Query query) throws IOException {
+        Set<Integer> docs = new TreeSet<>();
+        for (ScoreDoc scoreDoc : searcher.search(query, 10).scoreDocs) {
+            docs.add(scoreDoc.doc);
+        }
+        return docs;
+    }
+}
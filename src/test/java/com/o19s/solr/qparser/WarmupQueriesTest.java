@@ -0,0 +1,87 @@
+package com.o19s.solr.qparser;
+
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.common.util.NamedList;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class WarmupQueriesTest {
+
+    @Test
+    public void testMostRecentDistinctQueries() {
+        WarmupQueries warmupQueries = new WarmupQueries(3, Collections.emptyList());
+        SolrParams title = params("qf", "title");
+
+        warmupQueries.record("fox w3 dog", title);
+        warmupQueries.record("cat n2 mouse", title);
+        warmupQueries.record(" fox  w3 dog ", title);
+        warmupQueries.record("fox w3 dog", params("qf", "body"));
+        warmupQueries.record("quick w1 brown", title);
+
+        assertEquals(Arrays.asList("quick w1 brown qf=title", "fox w3 dog qf=body", "fox w3 dog qf=title"),
+                toStrings(warmupQueries.getQueries(10)));
+        assertEquals(Arrays.asList("quick w1 brown qf=title", "fox w3 dog qf=body"),
+                toStrings(warmupQueries.getQueries(2)));
+    }
+
+    @Test
+    public void testSeedQueriesFirst() {
+        NamedList<Object> seed = new NamedList<>();
+        seed.add("q", "lazy n5 dog");
+        seed.add("qf", "title");
+        NamedList<Object> args = new NamedList<>();
+        args.add("size", 2);
+        args.add("queries", Collections.singletonList(seed));
+
+        WarmupQueries warmupQueries = WarmupQueries.create(args);
+        warmupQueries.record("fox w3 dog", params("qf", "title", "impl", "phrase"));
+
+        assertEquals(Arrays.asList("lazy n5 dog qf=title", "fox w3 dog qf=title&impl=phrase"),
+                toStrings(warmupQueries.getQueries(10)));
+        assertEquals(Collections.singletonList("lazy n5 dog qf=title"), toStrings(warmupQueries.getQueries(0)));
+    }
+
+    @Test
+    public void testDisabled() {
+        assertNull(WarmupQueries.create(null));
+        NamedList<Object> args = new NamedList<>();
+        args.add("size", 0);
+        assertNull(WarmupQueries.create(args));
+    }
+
+    @Test
+    public void testCaptureParams() {
+        ModifiableSolrParams params = params("qf", "title", "rows", "10", "budget.maxTerms", "8");
+        CapitalizationQParser parser = new CapitalizationQParser("firstcap(trump)",
+                params("mode", "marker", "budget.maxTerms", "4"), params, null);
+
+        SolrParams captured = WarmupQueries.captureParams(parser, Arrays.asList("qf", "mode", "markerField"),
+                "budget.");
+
+        assertEquals("title", captured.get("qf"));
+        assertEquals("marker", captured.get("mode"));
+        assertEquals("4", captured.get("budget.maxTerms"));
+        assertNull(captured.get("markerField"));
+        assertNull(captured.get("rows"));
+    }
+
+    private static ModifiableSolrParams params(String... nameValues) {
+        ModifiableSolrParams params = new ModifiableSolrParams();
+        for (int i = 0; i < nameValues.length; i += 2) {
+            params.add(nameValues[i], nameValues[i + 1]);
+        }
+        return params;
+    }
+
+    private static List<String> toStrings(List<WarmupQueries.Entry> entries) {
+        return entries.stream().map(WarmupQueries.Entry::toString).collect(Collectors.toList());
+    }
+}
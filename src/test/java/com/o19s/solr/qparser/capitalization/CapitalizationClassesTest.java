@@ -0,0 +1,118 @@
+package com.o19s.solr.qparser.capitalization;
+
+import com.o19s.solr.analysis.CapitalizationPayloadEnum;
+import com.o19s.solr.analysis.CapitalizationPayloadTokenFilterFactory;
+import com.o19s.solr.qparser.LuceneIndex;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.custom.CustomAnalyzer;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchNoDocsQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.store.Directory;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.search.SyntaxError;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CapitalizationClassesTest {
+
+    private static final String FIELD_NAME = "title";
+    private static final String[] TITLES = {
+            "Trump tower",      // firstcap
+            "TRUMP TOWER NASA", // allcap
+            "TrUmP card",       // cap
+            "trump card",       // no payload
+            "NASA rocket",      // allcap only
+            "the table"         // lower case only
+    };
+
+    private static LuceneIndex index;
+    private static Analyzer queryAnalyzer;
+    private static Directory directory;
+
+    @BeforeClass
+    public static void setUp() throws IOException {
+        Analyzer analyzer = CustomAnalyzer.builder()
+                .withTokenizer("standard")
+                .addTokenFilter(CapitalizationPayloadTokenFilterFactory.class)
+                .addTokenFilter("lowercase")
+                .build();
+        // One segment per document
+        index = LuceneIndex.create(TITLES, Collections.singletonMap(FIELD_NAME, analyzer), true);
+        queryAnalyzer = LuceneIndex.createAnalyzer();
+        directory = index.getDirectory();
+    }
+
+    @AfterClass
+    public static void tearDown() throws IOException {
+        queryAnalyzer.close();
+        index.close();
+    }
+
+    @Test
+    public void testClasses() throws IOException {
+        CapitalizationClasses classes = new CapitalizationClasses(Collections.singletonList(FIELD_NAME));
+        try (DirectoryReader reader = DirectoryReader.open(directory)) {
+            assertEquals(CapitalizationClasses.UNKNOWN, classes.getClasses(reader, new Term(FIELD_NAME, "trump")));
+            assertEquals(TITLES.length, classes.index(reader));
+            // Read once
+            assertEquals(0, classes.index(reader));
+
+            assertEquals(15, classes.getClasses(reader, new Term(FIELD_NAME, "trump")));
+            assertEquals(CapitalizationClasses.bit(CapitalizationPayloadEnum.ALLCAP),
+                    classes.getClasses(reader, new Term(FIELD_NAME, "nasa")));
+            assertEquals(CapitalizationClasses.LOWER_CASE, classes.getClasses(reader, new Term(FIELD_NAME, "table")));
+            assertEquals(0, classes.getClasses(reader, new Term(FIELD_NAME, "chair")));
+            assertEquals(CapitalizationClasses.UNKNOWN, classes.getClasses(reader, new Term("other", "trump")));
+        }
+
+        // Released along with the segments
+        assertEquals(0, classes.size());
+    }
+
+    @Test
+    public void testRewrite() throws SyntaxError, IOException {
+        CapitalizationClasses classes = new CapitalizationClasses(Collections.singletonList(FIELD_NAME));
+        CapitalizationQParserSimple parser = new CapitalizationQParserSimple(FIELD_NAME, queryAnalyzer);
+        try (DirectoryReader reader = DirectoryReader.open(directory)) {
+            IndexSearcher searcher = new IndexSearcher(reader);
+            classes.index(reader);
+
+            for (String qstr : new String[]{"allcap(table)", "firstcap(tower)", "cap(chair)"}) {
+                Query query = parser.parse(qstr, 100);
+                assertTrue(qstr, classes.rewrite(query, reader) instanceof MatchNoDocsQuery);
+                assertEquals(qstr, 0, searcher.count(query));
+            }
+
+            Query query = parser.parse("allcap(nasa)", 100);
+            Query rewritten = classes.rewrite(query, reader);
+            assertEquals(new TermQuery(new Term(FIELD_NAME, "nasa")), rewritten);
+            assertEquals(2, searcher.count(query));
+            assertEquals(2, searcher.count(rewritten));
+
+            // Some occurrences of each class: still a span query
+            for (String qstr : new String[]{"allcap(trump)", "firstcap|allcap|cap(trump)", "allcap(tower)"}) {
+                query = parser.parse(qstr, 100);
+                assertSame(qstr, query, classes.rewrite(query, reader));
+            }
+        }
+    }
+
+    @Test
+    public void testDisabled() {
+        assertNull(CapitalizationClasses.create(null));
+        assertNull(CapitalizationClasses.create(new NamedList<>()));
+    }
+}
@@ -0,0 +1,110 @@
+package com.o19s.solr.qparser.capitalization;
+
+import com.o19s.solr.analysis.CapitalizationMarkerTokenFilterFactory;
+import com.o19s.solr.analysis.CapitalizationPayloadTokenFilterFactory;
+import com.o19s.solr.qparser.LuceneIndex;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.custom.CustomAnalyzer;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TermQuery;
+import org.apache.solr.search.SyntaxError;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Verifies that the marker terms match the same documents as the payloads.
+ */
+public class CapitalizationQParserMarkerTest {
+
+    private static final String FIELD_NAME = "title";
+    private static final String MARKER_FIELD_NAME = "title_capm";
+    private static final String INLINE_MARKER_FIELD_NAME = "title_inline";
+    private static final String[] TITLES = {
+            "Trump tower",
+            "TRUMP TOWER",
+            "TrUmP card",
+            "trump card",
+            "trump card and Trump",
+            "the card"
+    };
+
+    private static LuceneIndex index;
+    private static Analyzer queryAnalyzer;
+    private static IndexReader reader;
+    private static IndexSearcher searcher;
+
+    @BeforeClass
+    public static void setup() throws IOException {
+        Map<String, Analyzer> indexAnalyzers = new LinkedHashMap<>();
+        indexAnalyzers.put(FIELD_NAME, CustomAnalyzer.builder()
+                .withTokenizer("standard")
+                .addTokenFilter(CapitalizationPayloadTokenFilterFactory.class)
+                .addTokenFilter("lowercase")
+                .build());
+        indexAnalyzers.put(MARKER_FIELD_NAME, CustomAnalyzer.builder()
+                .withTokenizer("standard")
+                .addTokenFilter(CapitalizationMarkerTokenFilterFactory.class, "markersOnly", "true")
+                .addTokenFilter("lowercase")
+                .build());
+        indexAnalyzers.put(INLINE_MARKER_FIELD_NAME, CustomAnalyzer.builder()
+                .withTokenizer("standard")
+                .addTokenFilter(CapitalizationMarkerTokenFilterFactory.class)
+                .addTokenFilter("lowercase")
+                .build());
+        index = LuceneIndex.create(TITLES, indexAnalyzers, false);
+        queryAnalyzer = LuceneIndex.createAnalyzer();
+        reader = index.getReader();
+        searcher = index.getSearcher();
+    }
+
+    @AfterClass
+    public static void tearDown() throws IOException {
+        queryAnalyzer.close();
+        index.close();
+    }
+
+    @Test
+    public void testTermQuery() throws SyntaxError {
+        Query query = new CapitalizationQParserMarker(FIELD_NAME, queryAnalyzer, null, MARKER_FIELD_NAME)
+                .parse("firstcap(Trump)", 100);
+        assertEquals(new TermQuery(new Term(MARKER_FIELD_NAME, "f|trump")), query);
+    }
+
+    @Test
+    public void testSameDocumentsAsPayloads() throws SyntaxError, IOException {
+        CapitalizationQParserSimple payloadParser = new CapitalizationQParserSimple(FIELD_NAME, queryAnalyzer);
+        CapitalizationQParserMarker siblingParser = new CapitalizationQParserMarker(FIELD_NAME, queryAnalyzer,
+                null, MARKER_FIELD_NAME);
+        CapitalizationQParserMarker inlineParser = new CapitalizationQParserMarker(INLINE_MARKER_FIELD_NAME,
+                queryAnalyzer, null, INLINE_MARKER_FIELD_NAME);
+
+        for (String qstr : new String[]{"firstcap(trump)", "allcap(trump)", "cap(trump)", "allcap|cap(trump)",
+                "firstcap(card)", "firstcap|allcap|cap(Tower)", "firstcap(tr*)", "allcap|cap(T?wer)",
+                "firstcap|allcap(t*)"}) {
+            Set<Integer> expected = search(payloadParser.parse(qstr, 100));
+            assertEquals(qstr, expected, search(siblingParser.parse(qstr, 100)));
+            assertEquals(qstr, expected, search(inlineParser.parse(qstr, 100)));
+        }
+    }
+
+    private static Set<Integer> search(Query query) throws IOException {
+        Set<Integer> docs = new TreeSet<>();
+        for (ScoreDoc scoreDoc : searcher.search(query, reader.maxDoc()).scoreDocs) {
+            docs.add(scoreDoc.doc);
+        }
+        return docs;
+    }
+}
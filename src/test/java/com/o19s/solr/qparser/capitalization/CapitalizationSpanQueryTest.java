@@ -0,0 +1,161 @@
+package com.o19s.solr.qparser.capitalization;
+
+import com.o19s.solr.analysis.CapitalizationPayloadEnum;
+import com.o19s.solr.analysis.CapitalizationPayloadTokenFilterFactory;
+import com.o19s.solr.qparser.IQueryParser;
+import com.o19s.solr.qparser.LuceneIndex;
+import com.o19s.solr.qparser.proximity.ProximityQParserIntervals;
+import com.o19s.solr.qparser.proximity.ProximityQParserSimple;
+import com.o19s.solr.qparser.proximity.ProximityQParserWithPhrase;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.custom.CustomAnalyzer;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.queries.payloads.SpanPayloadCheckQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.spans.SpanTermQuery;
+import org.apache.solr.search.SyntaxError;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+
+public class CapitalizationSpanQueryTest {
+
+    private static final String FIELD_NAME = "title";
+    private static final String[] TITLES = {
+            "Trump tower",          // 0: firstcap
+            "TRUMP TOWER",          // 1: allcap
+            "TrUmP card",           // 2: cap
+            "trump card",           // 3: no payload
+            "trump card and Trump", // 4: none, then firstcap
+            "the card"              // 5: no trump
+    };
+
+    private static LuceneIndex index;
+    private static Analyzer analyzer;
+    private static IndexReader reader;
+    private static IndexSearcher searcher;
+
+    @BeforeClass
+    public static void setup() throws IOException {
+        // Same as the "text_general" index-time analyzer of the demo schema
+        Analyzer indexAnalyzer = CustomAnalyzer.builder()
+                .withTokenizer("standard")
+                .addTokenFilter(CapitalizationPayloadTokenFilterFactory.class)
+                .addTokenFilter("lowercase")
+                .build();
+        index = LuceneIndex.create(TITLES, Collections.singletonMap(FIELD_NAME, indexAnalyzer), false);
+        analyzer = index.getAnalyzer();
+        reader = index.getReader();
+        searcher = index.getSearcher();
+    }
+
+    @AfterClass
+    public static void tearDown() throws IOException {
+        index.close();
+    }
+
+    @Test
+    public void testSingleClassMatchesPayloadCheck() throws IOException {
+        SpanTermQuery term = new SpanTermQuery(new Term(FIELD_NAME, "trump"));
+        for (CapitalizationPayloadEnum payloadEnum : CapitalizationPayloadEnum.values()) {
+            Query expected = new SpanPayloadCheckQuery(term,
+                    Collections.singletonList(payloadEnum.getPayloadBytes()));
+            Query actual = new CapitalizationSpanQuery(term, EnumSet.of(payloadEnum));
+
+            assertEquals(payloadEnum.getOperator(), search(expected), search(actual));
+        }
+    }
+
+    @Test
+    public void testSeveralClasses() throws IOException {
+        SpanTermQuery term = new SpanTermQuery(new Term(FIELD_NAME, "trump"));
+
+        assertEquals(docs(0, 1, 4), search(new CapitalizationSpanQuery(term,
+                EnumSet.of(CapitalizationPayloadEnum.FIRSTCAP, CapitalizationPayloadEnum.ALLCAP))));
+        assertEquals(docs(0, 1, 2, 4), search(new CapitalizationSpanQuery(term,
+                EnumSet.allOf(CapitalizationPayloadEnum.class))));
+    }
+
+    @Test
+    public void testParse() throws SyntaxError, IOException {
+        CapitalizationQParserSimple parser = new CapitalizationQParserSimple(FIELD_NAME, analyzer);
+
+        Query query = parser.parse("allcap|Cap(Trump)", 100);
+        assertEquals(new CapitalizationSpanQuery(new SpanTermQuery(new Term(FIELD_NAME, "trump")),
+                EnumSet.of(CapitalizationPayloadEnum.ALLCAP, CapitalizationPayloadEnum.CAP)), query);
+        assertEquals("allcap|cap(title:trump)", query.toString());
+        assertEquals(docs(1, 2), search(query));
+
+        assertEquals(docs(0, 4), search(parser.parse("firstcap(trump)", 100)));
+    }
+
+    @Test
+    public void testParseWildcard() throws SyntaxError, IOException {
+        CapitalizationQParserSimple parser = new CapitalizationQParserSimple(FIELD_NAME, analyzer);
+
+        Query query = parser.parse("firstcap|allcap(TR*)", 100);
+        assertEquals("firstcap|allcap(title:tr*)", query.toString());
+        assertEquals(docs(0, 1, 4), search(query));
+        // trump, tower and the: firstcap in documents 0 and 4
+        assertEquals(docs(0, 4), search(parser.parse("firstcap(t*)", 100)));
+        assertEquals(docs(), search(parser.parse("firstcap(x*)", 100)));
+    }
+
+    @Test(expected = SyntaxError.class)
+    public void testParseLeadingWildcard() throws SyntaxError {
+        new CapitalizationQParserSimple(FIELD_NAME, analyzer).parse("firstcap(*ump)", 100);
+    }
+
+    @Test(expected = SyntaxError.class)
+    public void testParseInvalidOperator() throws SyntaxError {
+        new CapitalizationQParserSimple(FIELD_NAME, analyzer).parse("allcap|nocap(trump)", 100);
+    }
+
+    @Test
+    public void testProximityOperands() throws SyntaxError, IOException {
+        for (IQueryParser parser : new IQueryParser[]{new ProximityQParserWithPhrase(FIELD_NAME, analyzer),
+                new ProximityQParserSimple(FIELD_NAME, analyzer)}) {
+            Query query = parser.parse("firstcap(Trump) w1 tower", 100);
+            assertEquals(query.toString(), docs(0), search(query));
+            assertEquals(docs(1), search(parser.parse("allcap(trump) n1 allcap|cap(tower)", 100)));
+            assertEquals(docs(2, 4), search(parser.parse("cap|firstcap(trump) n3 card", 100)));
+
+            // The capitalized occurrence must be the one near the other term: doc 4 matches both firstcap(trump)
+            // and trump w1 card, but its capitalized occurrence follows "card"
+            assertEquals(docs(), search(parser.parse("firstcap(trump) w1 card", 100)));
+
+            // Wildcard operands
+            assertEquals(docs(0), search(parser.parse("firstcap(tr*) w1 tow*", 100)));
+            assertEquals(docs(2, 3, 4), search(parser.parse("trum? w1 c*", 100)));
+        }
+    }
+
+    @Test(expected = SyntaxError.class)
+    public void testProximityOperandsNotSupportedByIntervals() throws SyntaxError {
+        new ProximityQParserIntervals(FIELD_NAME, analyzer).parse("firstcap(trump) w1 tower", 100);
+    }
+
+    private static Set<Integer> docs(Integer... docs) {
+        return new TreeSet<>(Arrays.asList(docs));
+    }
+
+    private static Set<Integer> search(Query query) throws IOException {
+        Set<Integer> docs = new TreeSet<>();
+        for (ScoreDoc scoreDoc : searcher.search(query, reader.maxDoc()).scoreDocs) {
+            docs.add(scoreDoc.doc);
+        }
+        return docs;
+    }
+}
@@ -0,0 +1,169 @@
+package com.o19s.solr.qparser.proximity;
+
+import com.o19s.solr.qparser.QParserMetrics;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.custom.CustomAnalyzer;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.spans.SpanNearQuery;
+import org.apache.lucene.search.spans.SpanOrQuery;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.search.SyntaxError;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ProximityBudgetTest {
+
+    private static final String FIELD_NAME = "title";
+    private static Analyzer analyzer;
+
+    @BeforeClass
+    public static void setup() throws IOException {
+        analyzer = CustomAnalyzer.builder()
+                .withTokenizer("standard")
+                .addTokenFilter("lowercase")
+                .build();
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        analyzer.close();
+    }
+
+    @Test
+    public void testEstimateClauses() throws SyntaxError {
+        String[] qstrs = {
+                "a w1 b",
+                "a b c w3 d e",
+                "\"a b\" w3 c d e",
+                "a b w2 c d n5 e f g",
+                "(a b n2 c) w3 d e f",
+                "\"a b\" w2 \"c d\""
+        };
+        for (SpanConstruction construction : SpanConstruction.values()) {
+            ProximityQParserWithPhrase parser = new ProximityQParserWithPhrase(FIELD_NAME, analyzer, null,
+                    construction);
+            for (String qstr : qstrs) {
+                ProximityParseTree parseTree = analyze(qstr);
+                assertEquals(qstr + " " + construction,
+                        QParserMetrics.countClauses(parser.buildProximityQuery(parseTree)),
+                        ProximityQParserWithPhrase.estimateClauses(parseTree, construction));
+            }
+        }
+    }
+
+    @Test
+    public void testFail() {
+        ProximityBudget budget = new ProximityBudget(4, 100, 1, 10, false);
+        assertOverBudget(budget, "a b c w3 d e", "5 analyzed search terms");
+        assertOverBudget(budget, "(a n2 b) w3 c", "2 nested proximity clauses");
+        assertOverBudget(budget, "a w20 b", "Proximity distance of 20");
+        assertOverBudget(new ProximityBudget(100, 8, 10, 10, false), "a b c w3 d e", "12 query clauses");
+    }
+
+    @Test
+    public void testDepthWhileParsing() throws SyntaxError {
+        QParserMetrics metrics = new QParserMetrics();
+        ProximityBudget budget = new ProximityBudget(4, 100, 1, 10, false);
+        assertEquals(1, ProximityExpressionParser.parse("a b w3 c", budget, metrics).getDepth());
+
+        // Rejected by the parser, before the analysis counts the terms
+        try {
+            ProximityExpressionParser.parse("(a b c n2 d e) w3 f", budget, metrics);
+            fail("Over budget");
+        } catch (SyntaxError se) {
+            assertTrue(se.getMessage(), se.getMessage().contains("2 nested proximity clauses"));
+            assertEquals(1, metrics.getBudgetRejections().getCount());
+        }
+    }
+
+    @Test
+    public void testDegrade() throws SyntaxError {
+        QParserMetrics metrics = new QParserMetrics();
+        ProximityBudget budget = new ProximityBudget(100, 8, 10, 10, true);
+        ProximityQParserWithPhrase parser = new ProximityQParserWithPhrase(FIELD_NAME, analyzer, null,
+                SpanConstruction.CARTESIAN, metrics, budget);
+
+        // 12 clauses with the cartesian construction, 5 with the factored one; the distance is reduced to 10
+        Query query = parser.parse("a b c w30 d e", 100);
+        assertTrue(query instanceof SpanNearQuery);
+        assertEquals(10, ((SpanNearQuery) query).getSlop());
+        assertTrue(((SpanNearQuery) query).getClauses()[0] instanceof SpanOrQuery);
+        assertEquals(2, metrics.getBudgetDegradations().getCount());
+
+        // Still too many clauses with the factored construction
+        try {
+            parser.parse("a b c d e w3 f g h i", 100);
+            fail("Over budget");
+        } catch (SyntaxError se) {
+            assertEquals(1, metrics.getBudgetRejections().getCount());
+        }
+    }
+
+    @Test
+    public void testSimpleParser() throws SyntaxError {
+        ProximityQParserSimple parser = new ProximityQParserSimple(FIELD_NAME, analyzer, null,
+                QParserMetrics.UNREGISTERED, new ProximityBudget(3, 3, 10, 10, true));
+        parser.parse("a b w30 c", 100);
+        try {
+            parser.parse("a b w3 c d", 100);
+            fail("Over budget");
+        } catch (SyntaxError se) {
+            assertTrue(se.getMessage(), se.getMessage().contains("4 analyzed search terms"));
+        }
+    }
+
+    @Test
+    public void testOverrides() throws SyntaxError {
+        NamedList<Object> args = new NamedList<>();
+        args.add("maxTerms", 64);
+        args.add("maxClauses", "1024");
+        ProximityBudget budget = ProximityBudget.create(args);
+        assertSame(budget, budget.withOverrides(new ModifiableSolrParams()));
+
+        ModifiableSolrParams params = new ModifiableSolrParams();
+        params.set("budget.maxTerms", "16");
+        params.set("budget.maxClauses", "100000");
+        params.set("budget.onExceeded", "degrade");
+        ProximityBudget requestBudget = budget.withOverrides(params);
+
+        // Requests can lower the limits, not raise them
+        assertEquals(16, requestBudget.getMaxTerms());
+        assertEquals(1024, requestBudget.getMaxClauses());
+        assertEquals(Integer.MAX_VALUE, requestBudget.getMaxDistance());
+        assertTrue(requestBudget.isDegrade());
+
+        params.set("budget.maxTerms", "many");
+        try {
+            budget.withOverrides(params);
+            fail("Invalid budget parameter");
+        } catch (SyntaxError expected) {
+            // Expected
+        }
+    }
+
+    private static ProximityParseTree analyze(String qstr) throws SyntaxError {
+        ProximityParseTree parseTree = ProximityExpressionParser.parse(qstr);
+        parseTree.analyze(analyzer, FIELD_NAME, null);
+        return parseTree;
+    }
+
+    private static void assertOverBudget(ProximityBudget budget, String qstr, String expectedMessage) {
+        ProximityQParserWithPhrase parser = new ProximityQParserWithPhrase(FIELD_NAME, analyzer, null,
+                SpanConstruction.CARTESIAN, QParserMetrics.UNREGISTERED, budget);
+        try {
+            parser.parse(qstr, 100);
+            fail("Over budget: " + qstr);
+        } catch (SyntaxError se) {
+            assertTrue(se.getMessage(), se.getMessage().contains(expectedMessage));
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.o19s.solr.qparser.proximity;
+
+import com.o19s.solr.qparser.LuceneIndex;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.solr.search.SyntaxError;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ProximityConjunctionsTest {
+
+    private static final String FIELD_NAME = "title";
+    private static final String[] TITLES = {
+            "the quick brown fox jumps over the lazy dog",
+            "the lazy dog sleeps while the quick brown fox jumps over the lazy dog",
+            "a brown dog",
+            "the fox",
+            "dog days are over but the fox and the cat are still in the quick and lazy mood"
+    };
+    // The longest title has 18 tokens
+    private static final int MAX_LENGTH = 18;
+
+    private static LuceneIndex index;
+    private static Analyzer analyzer;
+    private static IndexReader reader;
+    private static IndexSearcher searcher;
+
+    @BeforeClass
+    public static void setUp() throws IOException {
+        index = LuceneIndex.create(TITLES, Collections.singletonMap(FIELD_NAME, LuceneIndex.createAnalyzer()),
+                true);
+        analyzer = index.getAnalyzer();
+        reader = index.getReader();
+        searcher = index.getSearcher();
+    }
+
+    @AfterClass
+    public static void tearDown() throws IOException {
+        index.close();
+    }
+
+    @Test
+    public void testMaxLengthFromNorms() throws IOException {
+        FieldLengthStats stats = new FieldLengthStats(0, true);
+        long maxLength = stats.getMaxLength(reader, FIELD_NAME);
+
+        // An upper bound of the longest title
+        assertTrue(String.valueOf(maxLength), maxLength >= MAX_LENGTH && maxLength < 2 * MAX_LENGTH);
+        assertFalse(stats.coversField(reader, FIELD_NAME, 5));
+        assertTrue(stats.coversField(reader, FIELD_NAME, (int) maxLength));
+        assertFalse(new FieldLengthStats(0, false).coversField(reader, FIELD_NAME, 1000));
+        assertTrue(new FieldLengthStats(10, false).coversField(reader, FIELD_NAME, 10));
+    }
+
+    @Test
+    public void testUnorderedClausesAsConjunctions() throws SyntaxError, IOException {
+        FieldLengthStats stats = new FieldLengthStats(0, true);
+        ProximityQParserSimple simple = new ProximityQParserSimple(FIELD_NAME, analyzer);
+        ProximityQParserWithPhrase phrase = new ProximityQParserWithPhrase(FIELD_NAME, analyzer);
+
+        assertConjunction(stats, simple.parse("fox n500 dog", 100), "((+title:dog +title:fox))~1");
+        assertConjunction(stats, simple.parse("quick fox n500 dog", 100),
+                "(title:quick (+title:dog +title:fox))~2");
+        assertConjunction(stats, phrase.parse("quick fox n500 dog", 100),
+                "(+title:dog +title:fox) (+title:dog +title:quick)");
+        assertConjunction(stats, phrase.parse("\"brown fox\" n500 lazy", 100),
+                "+spanNear([title:brown, title:fox], 0, true) +title:lazy");
+        assertConjunction(stats, phrase.parse("(fox n500 dog) n500 lazy", 100),
+                "+title:dog +title:fox +title:lazy");
+    }
+
+    @Test
+    public void testSpanClausesKept() throws SyntaxError {
+        FieldLengthStats stats = new FieldLengthStats(0, true);
+        ProximityQParserWithPhrase phrase = new ProximityQParserWithPhrase(FIELD_NAME, analyzer);
+
+        // Within the field length, ordered, or nested in an ordered clause: still spans
+        for (String qstr : new String[]{"fox n5 dog", "fox w500 dog", "(fox n500 dog) w500 lazy"}) {
+            Query query = phrase.parse(qstr, 100);
+            ProximityConjunctions conjunctions = new ProximityConjunctions(stats, reader);
+            assertSame(qstr, query, conjunctions.rewrite(query));
+            assertEquals(0, conjunctions.getRewrites());
+        }
+    }
+
+    private static void assertConjunction(FieldLengthStats stats, Query query, String expected) throws IOException {
+        ProximityConjunctions conjunctions = new ProximityConjunctions(stats, reader);
+        Query rewritten = conjunctions.rewrite(query);
+
+        assertEquals(expected, rewritten.toString());
+        assertTrue(conjunctions.getRewrites() > 0);
+        assertEquals(query.toString(), searcher.count(query), searcher.count(rewritten));
+    }
+}
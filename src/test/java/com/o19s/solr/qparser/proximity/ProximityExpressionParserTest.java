@@ -0,0 +1,190 @@
+package com.o19s.solr.qparser.proximity;
+
+import com.o19s.solr.analysis.CapitalizationPayloadEnum;
+import org.apache.solr.search.SyntaxError;
+import org.junit.Test;
+
+import java.util.EnumSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ProximityExpressionParserTest {
+
+    @Test
+    public void testSingleProximityClause() throws SyntaxError {
+        ProximityParseTree tree = ProximityExpressionParser.parse("  Quick fox  w4 Lazy dog ");
+
+        assertEquals("w", tree.getOperator());
+        assertEquals(4, tree.getDistance());
+        assertTrue(tree.isInOrder());
+        assertEquals(13, tree.getPosition());
+        assertEquals("Quick fox", tree.getLeft().getText());
+        assertEquals("Lazy dog", tree.getRight().getText());
+        assertFalse(tree.getLeft().isPhrase());
+    }
+
+    @Test
+    public void testPhraseOperands() throws SyntaxError {
+        ProximityParseTree tree = ProximityExpressionParser.parse("\"Quick Brown Fox\" n4 \"Lazy Dog\"");
+
+        assertEquals("n", tree.getOperator());
+        assertFalse(tree.isInOrder());
+        assertTrue(tree.getLeft().isPhrase());
+        assertEquals("Quick Brown Fox", tree.getLeft().getText());
+        assertTrue(tree.getRight().isPhrase());
+        assertEquals("Lazy Dog", tree.getRight().getText());
+    }
+
+    @Test
+    public void testChainedOperatorsAreLeftAssociative() throws SyntaxError {
+        ProximityParseTree tree = ProximityExpressionParser.parse("a w3 b n5 c");
+
+        assertEquals("n", tree.getOperator());
+        assertEquals(5, tree.getDistance());
+        assertEquals("c", tree.getRight().getText());
+
+        ProximityParseTree nested = tree.getLeft().getTree();
+        assertEquals("w", nested.getOperator());
+        assertEquals(3, nested.getDistance());
+        assertEquals("a", nested.getLeft().getText());
+        assertEquals("b", nested.getRight().getText());
+    }
+
+    @Test
+    public void testParentheses() throws SyntaxError {
+        ProximityParseTree tree = ProximityExpressionParser.parse("a w3 (b n5 \"c d\")");
+
+        assertEquals("a", tree.getLeft().getText());
+        ProximityParseTree nested = tree.getRight().getTree();
+        assertEquals("b", nested.getLeft().getText());
+        assertTrue(nested.getRight().isPhrase());
+
+        // Parentheses around plain terms
+        tree = ProximityExpressionParser.parse("(a b) w3 c");
+        assertNull(tree.getLeft().getTree());
+        assertEquals("a b", tree.getLeft().getText());
+    }
+
+    @Test
+    public void testOperatorLookalikesAreTerms() throws SyntaxError {
+        ProximityParseTree tree = ProximityExpressionParser.parse("w3c new5 w10 W5 nasa");
+
+        assertEquals("w3c new5", tree.getLeft().getText());
+        assertEquals("W5 nasa", tree.getRight().getText());
+    }
+
+    @Test
+    public void testCapitalizationOperands() throws SyntaxError {
+        ProximityParseTree tree = ProximityExpressionParser.parse("firstcap(Trump) w5 AllCap|cap( nasa ) n3 deal");
+
+        assertEquals("((firstcap(Trump) w5 allcap|cap(nasa)) n3 deal)", tree.toString());
+        ProximityParseTree nested = tree.getLeft().getTree();
+        assertEquals(EnumSet.of(CapitalizationPayloadEnum.FIRSTCAP),
+                nested.getLeft().getCapitalization().getPayloadEnums());
+        assertEquals("Trump", nested.getLeft().getText());
+        assertEquals(EnumSet.of(CapitalizationPayloadEnum.ALLCAP, CapitalizationPayloadEnum.CAP),
+                nested.getRight().getCapitalization().getPayloadEnums());
+        assertEquals(19, nested.getRight().getPosition());
+        assertNull(tree.getRight().getCapitalization());
+        assertTrue(tree.hasCapitalization());
+
+        // Inside parentheses
+        tree = ProximityExpressionParser.parse("(cap(green)) n3 deal");
+        assertEquals("cap(green)", tree.getLeft().toString());
+
+        assertSyntaxError("nocap(trump) w5 nasa",
+                "Expected capitalization operators [firstcap|allcap|cap] at position 0");
+        assertSyntaxError("cap(big green) w5 deal",
+                "Expected a single term and ')' in the capitalization clause at position 4");
+        assertSyntaxError("cap(green w5 deal",
+                "Expected a single term and ')' in the capitalization clause at position 4");
+        assertSyntaxError("new cap(green) w5 deal", "A capitalization clause must be a whole operand at position 4");
+    }
+
+    @Test
+    public void testWildcardOperands() throws SyntaxError {
+        ProximityParseTree tree = ProximityExpressionParser.parse("Impeach* w5 firstcap(don?ld) n3 \"trump* tower\"");
+
+        ProximityParseTree nested = tree.getLeft().getTree();
+        assertTrue(nested.getLeft().isWildcard());
+        assertEquals("Impeach*", nested.getLeft().getText());
+        assertTrue(nested.getRight().isWildcard());
+        assertEquals("don?ld", nested.getRight().getCapitalization().getSearchTerm());
+        // Not expanded in phrases
+        assertFalse(tree.getRight().isWildcard());
+        assertTrue(tree.hasWildcard());
+
+        assertSyntaxError("*peach w5 trump", "A wildcard term needs a prefix, e.g., impeach* at position 0");
+        assertSyntaxError("cap(?on) w5 trump", "A wildcard term needs a prefix, e.g., impeach* at position 4");
+        assertSyntaxError("big impeach* w5 trump", "A wildcard term must be a whole operand at position 4");
+    }
+
+    @Test
+    public void testErrorPositions() {
+        assertSyntaxError("hello world", "Usage:");
+        assertSyntaxError("w10 world", "Expected one or more terms at position 0");
+        assertSyntaxError("hello w10", "Expected one or more terms at position 9");
+        assertSyntaxError("hello w10 \"big world", "Unterminated phrase at position 10");
+        assertSyntaxError("hello w10 (big n2 world", "Missing ')' for the '(' opened at 10 at position 23");
+        assertSyntaxError("hello w10 world)", "Unbalanced ')' at position 15");
+        assertSyntaxError("\"hello\" big w10 world", "Expected a proximity operator [w|n]<number> at position 8");
+        assertSyntaxError("hello w99999999999 world", "Invalid proximity distance at position 7");
+    }
+
+    @Test
+    public void testLongSearchStringsParseInLinearTime() throws SyntaxError {
+        StringBuilder qstr = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            qstr.append("term").append(i).append(' ');
+        }
+        qstr.append("w5");
+        for (int i = 0; i < 2000; i++) {
+            qstr.append(' ').append("term").append(i);
+        }
+
+        long start = System.nanoTime();
+        ProximityParseTree tree = ProximityExpressionParser.parse(qstr.toString());
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+        assertEquals(5, tree.getDistance());
+        assertTrue("Parsing took " + elapsedMillis + " ms", elapsedMillis < 1000);
+
+        // A missing operator is reported without backtracking either
+        try {
+            ProximityExpressionParser.parse(qstr.toString().replace("w5", "x5"));
+            fail();
+        } catch (SyntaxError e) {
+            assertTrue(e.getMessage().startsWith("Usage:"));
+        }
+    }
+
+    @Test
+    public void testLongOperatorChains() throws SyntaxError {
+        StringBuilder qstr = new StringBuilder("x");
+        for (int i = 0; i < ProximityExpressionParser.MAX_OPERATORS; i++) {
+            qstr.append(" w1 x");
+        }
+        assertEquals(ProximityExpressionParser.MAX_OPERATORS, ProximityExpressionParser.parse(qstr.toString())
+                .getDepth());
+
+        // A syntax error rather than a stack overflow in the walks of the parse tree
+        for (int i = ProximityExpressionParser.MAX_OPERATORS; i < 2000; i++) {
+            qstr.append(" w1 x");
+        }
+        assertSyntaxError(qstr.toString(), "Too many proximity operators at position "
+                + (5 * ProximityExpressionParser.MAX_OPERATORS + 2));
+    }
+
+    private static void assertSyntaxError(String qstr, String expectedMessage) {
+        try {
+            ProximityExpressionParser.parse(qstr);
+            fail("Expected a syntax error for " + qstr);
+        } catch (SyntaxError e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith(expectedMessage));
+        }
+    }
+}
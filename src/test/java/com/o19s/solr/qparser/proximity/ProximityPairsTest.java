@@ -0,0 +1,134 @@
+package com.o19s.solr.qparser.proximity;
+
+import com.o19s.solr.analysis.AdjacencyPairTokenFilterFactory;
+import com.o19s.solr.qparser.IQueryParser;
+import com.o19s.solr.qparser.LuceneIndex;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.custom.CustomAnalyzer;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.solr.schema.IndexSchema;
+import org.apache.solr.search.SyntaxError;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class ProximityPairsTest {
+
+    private static final String FIELD_NAME = "title";
+    private static final String PAIR_FIELD_NAME = "title_pairs";
+    private static final String UNORDERED_PAIR_FIELD_NAME = "title_npairs";
+    private static final String[] TITLES = {
+            "the quick brown fox jumps over the lazy dog",
+            "the lazy dog sleeps while the quick brown fox jumps over the lazy dog",
+            "a brown dog",
+            "the fox",
+            "dog fox",
+            "fox and dog",
+            "a fast fox and a dog"
+    };
+
+    private static LuceneIndex index;
+    private static Analyzer analyzer;
+    private static IndexSearcher searcher;
+
+    @BeforeClass
+    public static void setUp() throws IOException {
+        Map<String, Analyzer> fieldAnalyzers = new LinkedHashMap<>();
+        fieldAnalyzers.put(FIELD_NAME, LuceneIndex.createAnalyzer());
+        fieldAnalyzers.put(PAIR_FIELD_NAME, pairAnalyzer(false));
+        fieldAnalyzers.put(UNORDERED_PAIR_FIELD_NAME, pairAnalyzer(true));
+        index = LuceneIndex.create(TITLES, fieldAnalyzers, false);
+        analyzer = index.getAnalyzer();
+        searcher = index.getSearcher();
+    }
+
+    @AfterClass
+    public static void tearDown() throws IOException {
+        index.close();
+    }
+
+    @Test
+    public void testPairLookups() throws SyntaxError, IOException {
+        ProximityPairs pairs = new ProximityPairs(FIELD_NAME, PAIR_FIELD_NAME, 2, false);
+        IQueryParser phrase = new ProximityQParserWithPhrase(FIELD_NAME, analyzer);
+
+        assertPairs(pairs, phrase.parse("fox w0 jumps", 100), "title_pairs:w0|fox jumps");
+        assertPairs(pairs, phrase.parse("fox w1 dog", 100), "title_pairs:w0|fox dog title_pairs:w1|fox dog");
+        // Without unordered pairs: both orders
+        assertPairs(pairs, phrase.parse("fox n0 dog", 100), "title_pairs:w0|dog fox title_pairs:w0|fox dog");
+        assertPairs(new ProximityPairs(FIELD_NAME, UNORDERED_PAIR_FIELD_NAME, 2, true), phrase.parse("fox n2 dog", 100),
+                "title_npairs:n0|dog fox title_npairs:n1|dog fox title_npairs:n2|dog fox");
+        // The short clauses of a larger clause are kept as spans
+        assertPairs(pairs, new ProximityQParserSimple(FIELD_NAME, analyzer).parse("quick fox w1 dog", 100),
+                "(title:quick (title_pairs:w0|fox dog title_pairs:w1|fox dog))~2");
+    }
+
+    @Test
+    public void testSpanClausesKept() throws SyntaxError {
+        ProximityPairs pairs = new ProximityPairs(FIELD_NAME, PAIR_FIELD_NAME, 2, false);
+        IQueryParser phrase = new ProximityQParserWithPhrase(FIELD_NAME, analyzer);
+
+        // Beyond the pairs' distance, phrase operand, nested, same term on both sides of an unordered clause
+        for (String qstr : new String[]{"fox w3 dog", "\"brown fox\" w1 jumps", "(fox w1 dog) w1 lazy",
+                "dog n1 dog"}) {
+            Query query = phrase.parse(qstr, 100);
+            assertSame(qstr, query, pairs.rewrite(query));
+            assertEquals(0, pairs.getRewrites());
+        }
+    }
+
+    @Test
+    public void testOtherFieldKept() throws SyntaxError {
+        ProximityPairs pairs = new ProximityPairs("body", PAIR_FIELD_NAME, 2, false);
+        Query query = new ProximityQParserWithPhrase(FIELD_NAME, analyzer).parse("fox w1 dog", 100);
+
+        assertSame(query, pairs.rewrite(query));
+        assertEquals(0, pairs.getRewrites());
+    }
+
+    @Test
+    public void testFieldNotCopied() {
+        IndexSchema schema = new IndexSchema(null, null) {
+            @Override
+            public List<String> getCopySources(String destField) {
+                return PAIR_FIELD_NAME.equals(destField) ? Collections.singletonList(FIELD_NAME)
+                        : Collections.emptyList();
+            }
+        };
+        try {
+            ProximityPairs.create(schema, PAIR_FIELD_NAME, "body");
+            fail("Field not copied");
+        } catch (SyntaxError se) {
+            assertEquals("Field \"body\" is not copied to the pair field \"title_pairs\"", se.getMessage());
+        }
+    }
+
+    private static void assertPairs(ProximityPairs pairs, Query query, String expected) throws IOException {
+        int rewrites = pairs.getRewrites();
+        Query rewritten = pairs.rewrite(query);
+
+        assertEquals(expected, rewritten.toString());
+        assertEquals(rewrites + 1, pairs.getRewrites());
+        assertEquals(query.toString(), searcher.count(query), searcher.count(rewritten));
+    }
+
+    private static Analyzer pairAnalyzer(boolean unordered) throws IOException {
+        return CustomAnalyzer.builder()
+                .withTokenizer("standard")
+                .addTokenFilter("lowercase")
+                .addTokenFilter(AdjacencyPairTokenFilterFactory.class, "maxDistance", "2",
+                        "unordered", String.valueOf(unordered))
+                .build();
+    }
+}
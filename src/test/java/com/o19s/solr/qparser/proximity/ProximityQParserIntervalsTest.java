@@ -0,0 +1,110 @@
+package com.o19s.solr.qparser.proximity;
+
+import com.o19s.solr.qparser.LuceneIndex;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.solr.search.SyntaxError;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verifies that the intervals match the same documents as the span queries of ProximityQParserWithPhrase.
+ */
+public class ProximityQParserIntervalsTest {
+
+    private static final String FIELD_NAME = "title";
+    private static final String[] VOCABULARY = {"cat", "kitty", "dog", "doggy", "fox", "lazy", "quick", "brown",
+            "jumps", "over", "the", "a"};
+
+    private static LuceneIndex index;
+    private static Analyzer analyzer;
+    private static IndexReader reader;
+    private static IndexSearcher searcher;
+
+    @BeforeClass
+    public static void setup() throws IOException {
+        index = LuceneIndex.create(LuceneIndex.randomTitles(VOCABULARY, 500, 42));
+        analyzer = index.getAnalyzer();
+        reader = index.getReader();
+        searcher = index.getSearcher();
+    }
+
+    @AfterClass
+    public static void tearDown() throws IOException {
+        index.close();
+    }
+
+    @Test
+    public void testSameDocuments() throws SyntaxError, IOException {
+        String[] qstrs = {
+                "cat w1 dog",
+                "cat w0 dog",
+                "cat kitty w3 dog doggy",
+                "cat kitty n3 dog doggy",
+                "cat n0 dog",
+                "cat kitty fox w2 dog",
+                "\"lazy dog\" w3 cat kitty",
+                "cat kitty n2 \"quick brown\"",
+                "\"quick brown\" n4 \"lazy dog\"",
+                "the a w1 the a",
+                "\"cat\" w2 \"dog\""
+        };
+
+        ProximityQParserWithPhrase spans = new ProximityQParserWithPhrase(FIELD_NAME, analyzer);
+        ProximityQParserIntervals intervals = new ProximityQParserIntervals(FIELD_NAME, analyzer);
+
+        for (String qstr : qstrs) {
+            Set<Integer> expected = search(spans.parse(qstr, 100));
+            Set<Integer> actual = search(intervals.parse(qstr, 100));
+
+            assertFalse(qstr, expected.isEmpty());
+            assertEquals(qstr, expected, actual);
+        }
+    }
+
+    @Test
+    public void testNestedClauses() throws SyntaxError, IOException {
+        // The width of a nested clause varies: the intervals match at least the documents of the span queries
+        String[] qstrs = {
+                "cat kitty w2 dog doggy n5 fox lazy",
+                "(cat kitty n2 dog) w3 fox quick brown"
+        };
+
+        ProximityQParserWithPhrase spans = new ProximityQParserWithPhrase(FIELD_NAME, analyzer);
+        ProximityQParserIntervals intervals = new ProximityQParserIntervals(FIELD_NAME, analyzer);
+
+        for (String qstr : qstrs) {
+            Set<Integer> expected = search(spans.parse(qstr, 100));
+            Set<Integer> actual = search(intervals.parse(qstr, 100));
+
+            assertFalse(qstr, expected.isEmpty());
+            assertTrue(qstr, actual.containsAll(expected));
+        }
+    }
+
+    @Test
+    public void testBuild() throws SyntaxError {
+        Query query = new ProximityQParserIntervals(FIELD_NAME, analyzer).parse("cat kitty w10 \"dog food\"", 100);
+        assertEquals("MAXWIDTH/13(ORDERED(or(cat,kitty),BLOCK(dog,food)))", query.toString());
+    }
+
+    private static Set<Integer> search(Query query) throws IOException {
+        Set<Integer> docs = new TreeSet<>();
+        for (ScoreDoc scoreDoc : searcher.search(query, reader.maxDoc()).scoreDocs) {
+            docs.add(scoreDoc.doc);
+        }
+        return docs;
+    }
+}
@@ -0,0 +1,133 @@
+package com.o19s.solr.qparser.proximity;
+
+import com.o19s.solr.qparser.LuceneIndex;
+import com.o19s.solr.qparser.QParserMetrics;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchNoDocsQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.spans.SpanNearQuery;
+import org.apache.lucene.search.spans.SpanQuery;
+import org.apache.lucene.search.spans.SpanTermQuery;
+import org.apache.solr.search.SyntaxError;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verifies that the planned queries match the same documents with the same scores as the unplanned ones.
+ */
+public class ProximityQueryPlannerTest {
+
+    private static final String FIELD_NAME = "title";
+    // "rare" is in a few documents only, "zebra" is in none
+    private static final String[] VOCABULARY = {"cat", "kitty", "dog", "doggy", "fox", "lazy", "quick", "brown",
+            "jumps", "over", "the", "a"};
+
+    private static LuceneIndex index;
+    private static Analyzer analyzer;
+    private static IndexReader reader;
+    private static IndexSearcher searcher;
+
+    @BeforeClass
+    public static void setup() throws IOException {
+        String[] titles = LuceneIndex.randomTitles(VOCABULARY, 500, 42);
+        for (int i = 0; i < titles.length; i += 50) {
+            titles[i] += "rare";
+        }
+        index = LuceneIndex.create(titles);
+        analyzer = index.getAnalyzer();
+        reader = index.getReader();
+        searcher = index.getSearcher();
+    }
+
+    @AfterClass
+    public static void tearDown() throws IOException {
+        index.close();
+    }
+
+    @Test
+    public void testSameResults() throws SyntaxError, IOException {
+        String[] qstrs = {
+                "cat w2 dog",
+                "quick cat n3 dog lazy",
+                "zebra cat w2 dog fox",
+                "cat zebra w2 dog",
+                "rare the n5 fox a",
+                "(cat dog n2 fox) w3 lazy zebra",
+                "(rare n5 the) n10 zebra"
+        };
+        for (int mm : new int[]{0, 50, 100}) {
+            for (String qstr : qstrs) {
+                Query query = parser(null).parse(qstr, mm);
+                Query plannedQuery = parser(new ProximityQueryPlanner(reader)).parse(qstr, mm);
+                assertSameResults(qstr + " mm=" + mm, query, plannedQuery);
+            }
+        }
+    }
+
+    @Test
+    public void testAbsentTerms() throws SyntaxError {
+        ProximityQParserSimple parser = parser(new ProximityQueryPlanner(reader));
+
+        // A required span term is absent
+        assertTrue(parser.parse("cat zebra w2 dog", 100) instanceof MatchNoDocsQuery);
+        assertTrue(parser.parse("cat w2 zebra", 0) instanceof MatchNoDocsQuery);
+
+        // An optional term is absent: the clause is dropped, the minimum of clauses to match is unchanged
+        BooleanQuery query = (BooleanQuery) parser.parse("zebra quick cat w2 dog fox", 50);
+        assertEquals(3, query.clauses().size());
+        assertEquals(2, query.getMinimumNumberShouldMatch());
+    }
+
+    @Test
+    public void testRequiredClauses() throws SyntaxError {
+        BooleanQuery query = (BooleanQuery) parser(new ProximityQueryPlanner(reader)).parse("quick rare n3 dog", 100);
+
+        // All the clauses must match: the single-term clauses filter the documents before the position checks
+        assertEquals(0, query.getMinimumNumberShouldMatch());
+        for (BooleanClause clause : query.clauses()) {
+            assertEquals(BooleanClause.Occur.MUST, clause.getOccur());
+        }
+
+        // The rarest term leads the unordered span clause
+        SpanNearQuery spanNearQuery = (SpanNearQuery) query.clauses().get(1).getQuery();
+        assertEquals(new SpanTermQuery(new Term(FIELD_NAME, "rare")), spanNearQuery.getClauses()[0]);
+    }
+
+    @Test
+    public void testOrderedSpanClause() {
+        SpanQuery spanQuery = new SpanNearQuery(new SpanQuery[]{
+                new SpanTermQuery(new Term(FIELD_NAME, "the")),
+                new SpanTermQuery(new Term(FIELD_NAME, "rare"))}, 2, true);
+        assertEquals(spanQuery, new ProximityQueryPlanner(reader).planSpanQuery(spanQuery));
+    }
+
+    private static ProximityQParserSimple parser(ProximityQueryPlanner planner) {
+        return new ProximityQParserSimple(FIELD_NAME, analyzer, null, QParserMetrics.UNREGISTERED,
+                ProximityBudget.UNLIMITED, planner);
+    }
+
+    private static void assertSameResults(String message, Query expected, Query actual) throws IOException {
+        TopDocs expectedDocs = searcher.search(expected, reader.maxDoc());
+        TopDocs actualDocs = searcher.search(actual, reader.maxDoc());
+        assertEquals(message, expectedDocs.totalHits, actualDocs.totalHits);
+        for (int i = 0; i < expectedDocs.scoreDocs.length; i++) {
+            ScoreDoc expectedDoc = expectedDocs.scoreDocs[i];
+            ScoreDoc actualDoc = actualDocs.scoreDocs[i];
+            assertEquals(message, expectedDoc.doc, actualDoc.doc);
+            assertEquals(message, expectedDoc.score, actualDoc.score, 1e-5f);
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.o19s.solr.qparser.proximity;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.custom.CustomAnalyzer;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.spans.SpanNearQuery;
+import org.apache.lucene.search.spans.SpanOrQuery;
+import org.apache.lucene.search.spans.SpanQuery;
+import org.apache.lucene.search.spans.SpanTermQuery;
+import org.apache.solr.search.SyntaxError;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.HashSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Verifies that equivalent search strings give equal queries.
+ */
+public class QueryCanonicalizerTest {
+
+    private static final String FIELD_NAME = "title";
+    private static Analyzer analyzer;
+
+    @BeforeClass
+    public static void setup() throws IOException {
+        analyzer = CustomAnalyzer.builder()
+                .withTokenizer("standard")
+                .addTokenFilter("lowercase")
+                .build();
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        analyzer.close();
+    }
+
+    @Test
+    public void testSimple() throws SyntaxError {
+        ProximityQParserSimple parser = new ProximityQParserSimple(FIELD_NAME, analyzer);
+
+        assertEquals(parser.parse("hello w5 world", 100), parser.parse("hello  w5\tworld", 100));
+        assertEquals(parser.parse("quick brown fox w3 dog", 100), parser.parse("brown quick fox w3 dog", 100));
+        assertEquals(parser.parse("quick fox w3 dog", 100), parser.parse("quick quick fox w3 dog", 100));
+        assertEquals(parser.parse("fox n3 dog lazy", 100), parser.parse("dog n3 fox lazy", 100));
+
+        // The innermost terms of the operands are the proximity clause: not interchangeable
+        assertNotEquals(parser.parse("quick fox w3 dog", 100), parser.parse("fox quick w3 dog", 100));
+        assertNotEquals(parser.parse("cat dog w3 fox", 100), parser.parse("dog cat w3 fox", 100));
+    }
+
+    @Test
+    public void testSimpleRepeatedTerms() throws SyntaxError {
+        ProximityQParserSimple parser = new ProximityQParserSimple(FIELD_NAME, analyzer);
+
+        // The repeated terms are optional clauses once, the proximity clause is between the innermost terms as typed
+        Query expectedQuery = new BooleanQuery.Builder()
+                .add(termQuery("dog"), BooleanClause.Occur.SHOULD)
+                .add(termQuery("fox"), BooleanClause.Occur.SHOULD)
+                .add(new SpanNearQuery(new SpanQuery[]{spanTermQuery("fox"), spanTermQuery("lazy")}, 3, true),
+                        BooleanClause.Occur.SHOULD)
+                .add(termQuery("cat"), BooleanClause.Occur.SHOULD)
+                .add(termQuery("lazy"), BooleanClause.Occur.SHOULD)
+                .setMinimumNumberShouldMatch(5)
+                .build();
+        Query actualQuery = parser.parse("fox dog fox w3 lazy cat lazy", 100);
+        assertEquals(new HashSet<>(((BooleanQuery) expectedQuery).clauses()),
+                new HashSet<>(((BooleanQuery) actualQuery).clauses()));
+        assertEquals(5, ((BooleanQuery) actualQuery).getMinimumNumberShouldMatch());
+    }
+
+    private static TermQuery termQuery(String text) {
+        return new TermQuery(new Term(FIELD_NAME, text));
+    }
+
+    private static SpanTermQuery spanTermQuery(String text) {
+        return new SpanTermQuery(new Term(FIELD_NAME, text));
+    }
+
+    @Test
+    public void testWithPhrase() throws SyntaxError {
+        for (SpanConstruction construction : SpanConstruction.values()) {
+            ProximityQParserWithPhrase parser = new ProximityQParserWithPhrase(FIELD_NAME, analyzer, null,
+                    construction);
+
+            assertEquals(parser.parse("cat kitty w3 dog", 100), parser.parse("kitty cat w3 dog", 100));
+            assertEquals(parser.parse("cat kitty w3 dog", 100), parser.parse("cat kitty cat w3 dog dog", 100));
+            assertEquals(parser.parse("cat kitty n3 dog doggy", 100), parser.parse("doggy dog n3 kitty cat", 100));
+            assertEquals(parser.parse("\"lazy dog\" n3 fox", 100), parser.parse("fox n3 \"lazy dog\"", 100));
+
+            assertNotEquals(parser.parse("cat w3 dog", 100), parser.parse("dog w3 cat", 100));
+            assertNotEquals(parser.parse("\"lazy dog\" w3 fox", 100), parser.parse("\"dog lazy\" w3 fox", 100));
+        }
+
+        // No single-clause SpanOrQuery: the clause itself
+        assertEquals(SpanNearQuery.class, new ProximityQParserWithPhrase(FIELD_NAME, analyzer)
+                .parse("cat w3 dog", 100).getClass());
+    }
+
+    @Test
+    public void testIntervals() throws SyntaxError {
+        ProximityQParserIntervals parser = new ProximityQParserIntervals(FIELD_NAME, analyzer);
+
+        assertEquals(parser.parse("cat kitty n3 dog doggy", 100), parser.parse("doggy dog n3 kitty cat kitty", 100));
+        assertNotEquals(parser.parse("cat w3 dog", 100), parser.parse("dog w3 cat", 100));
+    }
+
+    @Test
+    public void testSharedTerms() throws SyntaxError {
+        SpanOrQuery query = (SpanOrQuery) new ProximityQParserWithPhrase(FIELD_NAME, analyzer)
+                .parse("the a w1 the a", 100);
+
+        // a w1 a, a w1 the, the w1 a, the w1 the
+        SpanTermQuery left = (SpanTermQuery) ((SpanNearQuery) query.getClauses()[3]).getClauses()[0];
+        SpanTermQuery right = (SpanTermQuery) ((SpanNearQuery) query.getClauses()[1]).getClauses()[1];
+        assertEquals("the", left.getTerm().text());
+        assertSame(left.getTerm(), right.getTerm());
+    }
+}
@@ -0,0 +1,97 @@
+package com.o19s.solr.qparser.proximity;
+
+import com.o19s.solr.qparser.LuceneIndex;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.solr.search.SyntaxError;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Verifies that the factored span construction matches exactly the same documents as the cartesian one.
+ */
+public class SpanConstructionTest {
+
+    private static final String FIELD_NAME = "title";
+    private static final String[] VOCABULARY = {"cat", "kitty", "dog", "doggy", "fox", "lazy", "quick", "brown",
+            "jumps", "over", "the", "a"};
+
+    private static LuceneIndex index;
+    private static Analyzer analyzer;
+    private static IndexReader reader;
+    private static IndexSearcher searcher;
+
+    @BeforeClass
+    public static void setup() throws IOException {
+        // Small vocabulary and short documents, so that most queries match some documents but not all
+        index = LuceneIndex.create(LuceneIndex.randomTitles(VOCABULARY, 500, 42));
+        analyzer = index.getAnalyzer();
+        reader = index.getReader();
+        searcher = index.getSearcher();
+    }
+
+    @AfterClass
+    public static void tearDown() throws IOException {
+        index.close();
+    }
+
+    @Test
+    public void testSameDocuments() throws SyntaxError, IOException {
+        String[] qstrs = {
+                "cat w1 dog",
+                "cat kitty w3 dog doggy",
+                "cat kitty n3 dog doggy",
+                "cat kitty fox w2 dog",
+                "cat n4 dog doggy lazy quick",
+                "\"lazy dog\" w3 cat kitty",
+                "cat kitty n2 \"quick brown\"",
+                "cat kitty w2 dog doggy n5 fox lazy",
+                "(cat kitty n2 dog) w3 fox quick brown",
+                "the a w1 the a"
+        };
+
+        ProximityQParserWithPhrase cartesian = new ProximityQParserWithPhrase(FIELD_NAME, analyzer, null,
+                SpanConstruction.CARTESIAN);
+        ProximityQParserWithPhrase factored = new ProximityQParserWithPhrase(FIELD_NAME, analyzer, null,
+                SpanConstruction.FACTORED);
+
+        for (String qstr : qstrs) {
+            Set<Integer> expected = search(cartesian.parse(qstr, 100));
+            Set<Integer> actual = search(factored.parse(qstr, 100));
+
+            assertFalse(qstr, expected.isEmpty());
+            assertEquals(qstr, expected, actual);
+        }
+    }
+
+    @Test
+    public void testFromName() {
+        assertEquals(SpanConstruction.CARTESIAN, SpanConstruction.fromName(null));
+        assertEquals(SpanConstruction.CARTESIAN, SpanConstruction.fromName("cartesian"));
+        assertEquals(SpanConstruction.FACTORED, SpanConstruction.fromName("Factored"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testFromNameUnknown() {
+        SpanConstruction.fromName("nested");
+    }
+
+    private static Set<Integer> search(Query query) throws IOException {
+        Set<Integer> docs = new TreeSet<>();
+        for (ScoreDoc scoreDoc : searcher.search(query, reader.maxDoc()).scoreDocs) {
+            docs.add(scoreDoc.doc);
+        }
+        return docs;
+    }
+}
@@ -0,0 +1,118 @@
+package com.o19s.solr.qparser.proximity;
+
+import com.o19s.solr.qparser.IQueryParser;
+import com.o19s.solr.qparser.LuceneIndex;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.custom.CustomAnalyzer;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.solr.search.SyntaxError;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Verifies that the multi-word synonyms of the query analysis are alternative paths of the operands (token
+ * graph), rather than extra terms.
+ */
+public class SynonymGraphTest {
+
+    private static final String FIELD_NAME = "title";
+    private static final String[] TITLES = {
+            "the usa president",
+            "united states president",
+            "united nations states president",
+            "states united president",
+            "new york city mayor",
+            "nyc mayor",
+            "york mayor",
+            "the united states president visits nyc"
+    };
+
+    private static LuceneIndex index;
+    private static Analyzer queryAnalyzer;
+    private static IndexReader reader;
+    private static IndexSearcher searcher;
+
+    @BeforeClass
+    public static void setup() throws IOException {
+        index = LuceneIndex.create(TITLES);
+        queryAnalyzer = CustomAnalyzer.builder()
+                .withTokenizer("standard")
+                .addTokenFilter("lowercase")
+                .addTokenFilter("synonymGraph", "synonyms", "synonyms.txt", "expand", "true")
+                .build();
+        reader = index.getReader();
+        searcher = index.getSearcher();
+    }
+
+    @AfterClass
+    public static void tearDown() throws IOException {
+        queryAnalyzer.close();
+        index.close();
+    }
+
+    @Test
+    public void testSameDocumentsWithAllTheParsers() throws SyntaxError, IOException {
+        IQueryParser[] parsers = {
+                new ProximityQParserWithPhrase(FIELD_NAME, queryAnalyzer, null, SpanConstruction.CARTESIAN),
+                new ProximityQParserWithPhrase(FIELD_NAME, queryAnalyzer, null, SpanConstruction.FACTORED),
+                new ProximityQParserSimple(FIELD_NAME, queryAnalyzer),
+                new ProximityQParserIntervals(FIELD_NAME, queryAnalyzer)
+        };
+
+        for (IQueryParser parser : parsers) {
+            // Not "united nations states" nor "states united": the synonym is a phrase
+            assertEquals(docs(0, 1, 7), search(parser.parse("usa w1 president", 100)));
+            assertEquals(docs(0, 1, 7), search(parser.parse("president n1 usa", 100)));
+            assertEquals(docs(4, 5), search(parser.parse("nyc w1 mayor", 100)));
+            assertEquals(docs(7), search(parser.parse("\"usa president\" w3 nyc", 100)));
+        }
+    }
+
+    @Test
+    public void testSpanQuery() throws SyntaxError {
+        ProximityQParserWithPhrase parser = new ProximityQParserWithPhrase(FIELD_NAME, queryAnalyzer, null,
+                SpanConstruction.CARTESIAN);
+
+        assertEquals("spanNear([spanOr([spanNear([title:united, title:states], 0, true), title:usa]), " +
+                "title:president], 1, true)", parser.parse("usa w1 president", 100).toString());
+        assertEquals("spanNear([spanNear([spanOr([spanNear([title:united, title:states], 0, true), title:usa]), " +
+                        "title:president], 0, true), spanOr([spanNear([title:new, title:york, title:city], 0, true), " +
+                        "title:nyc])], 3, true)",
+                parser.parse("\"usa president\" w3 nyc", 100).toString());
+    }
+
+    @Test
+    public void testClausesGrowWithTheSynonyms() throws SyntaxError {
+        ProximityParseTree parseTree = ProximityExpressionParser.parse("usa nyc w5 president mayor");
+        parseTree.analyze(queryAnalyzer, FIELD_NAME, null);
+
+        // Left: 2 segments, 7 path terms; right: 2 terms
+        assertEquals(9, parseTree.countTerms());
+        assertEquals(7 * 2 + 2 * 2, ProximityQParserWithPhrase.estimateClauses(parseTree,
+                SpanConstruction.CARTESIAN));
+        assertEquals(9, ProximityQParserWithPhrase.estimateClauses(parseTree, SpanConstruction.FACTORED));
+    }
+
+    private static Set<Integer> docs(Integer... docs) {
+        return new TreeSet<>(Arrays.asList(docs));
+    }
+
+    private static Set<Integer> search(Query query) throws IOException {
+        Set<Integer> docs = new TreeSet<>();
+        for (ScoreDoc scoreDoc : searcher.search(query, reader.maxDoc()).scoreDocs) {
+            docs.add(scoreDoc.doc);
+        }
+        return docs;
+    }
+}